@@ -2,7 +2,6 @@ package collectors;
 
 import housing.Config;
 import housing.Model;
-import utilities.MeanAboveMedian;
 
 /**************************************************************************************************
  * Class to collect the information contained in the Bank of England "Core Indicators" set for LTV
@@ -33,7 +32,7 @@ public class CoreIndicators {
     // Owner-occupier mortgage LTI ratio (mean above the median)
 	double getOwnerOccupierLTIMeanAboveMedian() {
         if (Model.creditSupply.getOO_lti().getN() > 0) {
-            return Model.creditSupply.getOO_lti().apply(new MeanAboveMedian());
+            return Model.creditSupply.getOO_lti().getMeanAboveMedian();
         } else {
             return 0.0;
         }
@@ -42,7 +41,7 @@ public class CoreIndicators {
     // Owner-occupier mortage LTV ratio (mean above the median)
 	double getOwnerOccupierLTVMeanAboveMedian() {
         if (Model.creditSupply.getOO_ltv().getN() > 0) {
-            return Model.creditSupply.getOO_ltv().apply(new MeanAboveMedian());
+            return Model.creditSupply.getOO_ltv().getMeanAboveMedian();
         } else {
             return 0.0;
         }
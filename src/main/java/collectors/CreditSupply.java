@@ -6,6 +6,8 @@ import housing.Household;
 import housing.MortgageAgreement;
 import housing.House;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import utilities.RunningMedian;
+import utilities.StateBuffer;
 
 /**************************************************************************************************
  * Class to record mortgage data
@@ -20,8 +22,8 @@ public class CreditSupply {
     //------------------//
 
     private Config config = Model.config;       // Passes the Model's configuration parameters object to a private field
-    private DescriptiveStatistics oo_lti;
-    private DescriptiveStatistics oo_ltv;
+    private RunningMedian oo_lti;               // Online median and mean above the median, for the core indicators
+    private RunningMedian oo_ltv;               // Online median and mean above the median, for the core indicators
     private DescriptiveStatistics btl_ltv;
     private DescriptiveStatistics btl_icr;
     private DescriptiveStatistics downpayments; // TODO: This quantity only includes downpayments when the principal of the loan is > 0
@@ -110,18 +112,69 @@ public class CreditSupply {
 	}
 
 	private void setArchiveLength(int archiveLength) {
-		oo_lti = new DescriptiveStatistics(archiveLength);
-		oo_ltv = new DescriptiveStatistics(archiveLength);
+		oo_lti = new RunningMedian(archiveLength);
+		oo_ltv = new RunningMedian(archiveLength);
 		btl_ltv = new DescriptiveStatistics(archiveLength);
 		btl_icr = new DescriptiveStatistics(archiveLength);
 		downpayments = new DescriptiveStatistics(archiveLength);
 	}
 
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the state of the collector into a state buffer
+     */
+    public void writeState(StateBuffer state) {
+        oo_lti.writeState(state);
+        oo_ltv.writeState(state);
+        state.putDoubles(btl_ltv.getValues());
+        state.putDoubles(btl_icr.getValues());
+        state.putDoubles(downpayments.getValues());
+        state.putDouble(interestRate);
+        state.putDouble(totalBTLCredit);
+        state.putDouble(totalOOCredit);
+        state.putDouble(netCreditGrowth);
+        state.putDouble(affordability);
+        state.putInt(mortgageCounter);
+        state.putInt(nApprovedMortgages);
+        state.putInt(ftbCounter);
+        state.putInt(nFTBMortgages);
+        state.putInt(btlCounter);
+        state.putInt(nBTLMortgages);
+    }
+
+    /**
+     * Read the state of the collector from a state buffer, as written by writeState
+     */
+    public void readState(StateBuffer state) {
+        oo_lti.readState(state);
+        oo_ltv.readState(state);
+        readValues(state, btl_ltv);
+        readValues(state, btl_icr);
+        readValues(state, downpayments);
+        interestRate = state.getDouble();
+        totalBTLCredit = state.getDouble();
+        totalOOCredit = state.getDouble();
+        netCreditGrowth = state.getDouble();
+        affordability = state.getDouble();
+        mortgageCounter = state.getInt();
+        nApprovedMortgages = state.getInt();
+        ftbCounter = state.getInt();
+        nFTBMortgages = state.getInt();
+        btlCounter = state.getInt();
+        nBTLMortgages = state.getInt();
+    }
+
+    private static void readValues(StateBuffer state, DescriptiveStatistics statistics) {
+        statistics.clear();
+        for (double value : state.getDoubles()) statistics.addValue(value);
+    }
+
     //----- Getter/setter methods -----//
 
-    DescriptiveStatistics getOO_lti() { return oo_lti; }
+    RunningMedian getOO_lti() { return oo_lti; }
 
-    DescriptiveStatistics getOO_ltv() { return oo_ltv; }
+    RunningMedian getOO_ltv() { return oo_ltv; }
 
     DescriptiveStatistics getBTL_ltv() { return btl_ltv; }
 
@@ -0,0 +1,197 @@
+package collectors;
+
+import housing.Model;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**************************************************************************************************
+ * Class to emit Java Flight Recorder (JFR) custom events for model step phases, market clearing
+ * rounds, deaths and output writing, such that GC pauses and memory allocation can be correlated
+ * with model activity, and to control a JFR recording of the whole program. All events carry the
+ * simulation number and the model time, plus event-specific fields (region id and counts). Since
+ * the project targets Java 8, where the jdk.jfr API is not guaranteed to exist (it was only added
+ * to OpenJDK 8 in update 272), the API is accessed through reflection, by means of dynamically
+ * defined event types (jdk.jfr.EventFactory). If the running JVM does not support JFR, a message
+ * is printed and all methods return immediately, as they do if recording has not been started.
+ * Usage: call begin before the activity to record, keeping the returned event, and then the
+ * corresponding commit method after it
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class FlightRecorderEvents {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    // Event types
+    public static final int     MODEL_PHASE = 0;
+    public static final int     MARKET_CLEARING_ROUND = 1;
+    public static final int     DEATHS = 2;
+    public static final int     RECORDER_WRITE = 3;
+
+    private static boolean      enabled = false;
+    private static Object []    eventFactories; // jdk.jfr.EventFactory for each event type
+    private static Object       recording; // jdk.jfr.Recording of the whole program
+    private static Method       newEvent;
+    private static Method       beginEvent;
+    private static Method       endEvent;
+    private static Method       commitEvent;
+    private static Method       setEventField;
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Define all event types and start a JFR recording, with the default JFR settings plus all these events, to be
+     * written to file when stopped
+     *
+     * @param fileName Address of the file to write the recording to
+     */
+    public static void start(String fileName) {
+        try {
+            Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+            Class<?> configurationClass = Class.forName("jdk.jfr.Configuration");
+            newEvent = eventFactoryClass.getMethod("newEvent");
+            beginEvent = eventClass.getMethod("begin");
+            endEvent = eventClass.getMethod("end");
+            commitEvent = eventClass.getMethod("commit");
+            setEventField = eventClass.getMethod("set", int.class, Object.class);
+            // Define event types, all of them starting with simulation and month fields
+            eventFactories = new Object[4];
+            eventFactories[MODEL_PHASE] = createEventFactory(eventFactoryClass, "housing.ModelPhase",
+                    "Model Phase", new Class<?>[] {String.class, int.class}, new String[] {"phase", "region"});
+            eventFactories[MARKET_CLEARING_ROUND] = createEventFactory(eventFactoryClass,
+                    "housing.MarketClearingRound", "Market Clearing Round",
+                    new Class<?>[] {int.class, String.class, int.class, int.class, int.class, int.class},
+                    new String[] {"region", "market", "round", "bids", "offers", "matches"});
+            eventFactories[DEATHS] = createEventFactory(eventFactoryClass, "housing.Deaths", "Deaths",
+                    new Class<?>[] {int.class, int.class}, new String[] {"deaths", "population"});
+            eventFactories[RECORDER_WRITE] = createEventFactory(eventFactoryClass, "housing.RecorderWrite",
+                    "Recorder Write", new Class<?>[] {}, new String[] {});
+            // Start recording with default settings, custom events being enabled by default
+            Object configuration = configurationClass.getMethod("getConfiguration", String.class)
+                    .invoke(null, "default");
+            recording = recordingClass.getConstructor(configurationClass).newInstance(configuration);
+            recordingClass.getMethod("setDestination", java.nio.file.Path.class).invoke(recording,
+                    Paths.get(fileName));
+            recordingClass.getMethod("start").invoke(recording);
+            enabled = true;
+        } catch (ClassNotFoundException e) {
+            System.out.println("Java Flight Recorder not available in this JVM (Java 11+ or 8u272+ needed), no " +
+                    "JFR events will be recorded");
+        } catch (Exception e) {
+            System.out.println("Java Flight Recorder could not be started, no JFR events will be recorded");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stop the recording, which writes it to file
+     */
+    public static void stop() {
+        if (!enabled) return;
+        enabled = false;
+        try {
+            recording.getClass().getMethod("stop").invoke(recording);
+            recording.getClass().getMethod("close").invoke(recording);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Create an EventFactory for an event type with the given name and label, in the "Housing Model" category, and with
+     * simulation and month fields followed by the given fields
+     */
+    @SuppressWarnings("unchecked")
+    private static Object createEventFactory(Class<?> eventFactoryClass, String name, String label,
+                                             Class<?> [] fieldTypes, String [] fieldNames) throws Exception {
+        Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+        Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+        Constructor<?> newAnnotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+        Constructor<?> newValueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class);
+        List<Object> annotations = new ArrayList<>();
+        annotations.add(newAnnotationElement.newInstance(
+                (Class<? extends Annotation>)Class.forName("jdk.jfr.Name"), name));
+        annotations.add(newAnnotationElement.newInstance(
+                (Class<? extends Annotation>)Class.forName("jdk.jfr.Label"), label));
+        annotations.add(newAnnotationElement.newInstance(
+                (Class<? extends Annotation>)Class.forName("jdk.jfr.Category"), new String[] {"Housing Model"}));
+        // Stack traces would only show the reflective call to commit
+        annotations.add(newAnnotationElement.newInstance(
+                (Class<? extends Annotation>)Class.forName("jdk.jfr.StackTrace"), false));
+        List<Object> fields = new ArrayList<>();
+        fields.add(newValueDescriptor.newInstance(int.class, "simulation"));
+        fields.add(newValueDescriptor.newInstance(int.class, "month"));
+        for (int i = 0; i < fieldTypes.length; i++) {
+            fields.add(newValueDescriptor.newInstance(fieldTypes[i], fieldNames[i]));
+        }
+        return eventFactoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+    }
+
+    /**
+     * Create and begin timing a new event of a given type
+     *
+     * @param type Event type, one of MODEL_PHASE, MARKET_CLEARING_ROUND, DEATHS and RECORDER_WRITE
+     * @return The new event, or null if recording is not enabled
+     */
+    public static Object begin(int type) {
+        if (!enabled) return null;
+        try {
+            Object event = newEvent.invoke(eventFactories[type]);
+            beginEvent.invoke(event);
+            return event;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static void commitModelPhase(Object event, String phase, int region) {
+        if (event != null) commit(event, phase, region);
+    }
+
+    public static void commitMarketClearingRound(Object event, int region, String market, int round, int nBids,
+                                                 int nOffers, int nMatches) {
+        if (event != null) commit(event, region, market, round, nBids, nOffers, nMatches);
+    }
+
+    public static void commitDeaths(Object event, int nDeaths, int population) {
+        if (event != null) commit(event, nDeaths, population);
+    }
+
+    public static void commitRecorderWrite(Object event) {
+        if (event != null) commit(event);
+    }
+
+    /**
+     * End timing an event, set its fields (simulation and month, plus the given values) and commit it
+     */
+    private static void commit(Object event, Object... values) {
+        try {
+            endEvent.invoke(event);
+            setEventField.invoke(event, 0, Model.nSimulation);
+            setEventField.invoke(event, 1, Model.getTime());
+            for (int i = 0; i < values.length; i++) setEventField.invoke(event, i + 2, values[i]);
+            commitEvent.invoke(event);
+        } catch (Exception e) {
+            System.out.println("Strange: could not commit JFR event with values " + Arrays.toString(values));
+            e.printStackTrace();
+        }
+    }
+
+    //----- Getter/setter methods -----//
+
+    public static boolean isEnabled() { return enabled; }
+}
@@ -1,8 +1,9 @@
 package collectors;
 
 import housing.*;
-
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import utilities.QuantileSketch;
+import utilities.RingBuffer;
+import utilities.StateBuffer;
 
 /**************************************************************************************************
  * Class to aggregate all regional sale market statistics
@@ -34,6 +35,8 @@ public class HousingMarketStats {
     double                  sumOfferPrices;
     double []               offerPrices;
     double []               bidPrices;
+    QuantileSketch          bidPriceSketch; // Merge of regional bid price sketches, if recordPriceQuantiles
+    QuantileSketch          offerPriceSketch; // Merge of regional offer price sketches, if recordPriceQuantiles
 
     // Variables computed after market clearing to keep the previous values during the clearing
     int                             nSales; // Number of sales
@@ -50,7 +53,7 @@ public class HousingMarketStats {
     private double                  expAvMonthsOnMarket; // Exponential moving average of the number of days on the market
     private double []               expAvSalePricePerQuality; // Exponential moving average of the price for each quality band
     private double                  housePriceIndex;
-    private DescriptiveStatistics   HPIRecord;
+    private RingBuffer              HPIRecord; // Record of HPI values, also keeping their quarter sums
     private double                  annualHousePriceAppreciation;
     private double                  longTermHousePriceAppreciation;
 
@@ -69,7 +72,12 @@ public class HousingMarketStats {
         referencePricePerQuality = new double[config.N_QUALITY];
         System.arraycopy(data.HouseSaleMarket.getReferencePricePerQuality(), 0, referencePricePerQuality, 0,
                 config.N_QUALITY); // Copies reference prices from data/HouseSaleMarket into referencePricePerQuality
-        HPIRecord = new DescriptiveStatistics(config.derivedParams.HPI_RECORD_LENGTH);
+        HPIRecord = new RingBuffer(config.derivedParams.HPI_RECORD_LENGTH,
+                config.constants.MONTHS_IN_QUARTER);
+        if (config.recordPriceQuantiles) {
+            bidPriceSketch = new QuantileSketch();
+            offerPriceSketch = new QuantileSketch();
+        }
     }
 
     //-------------------//
@@ -108,7 +116,7 @@ public class HousingMarketStats {
         System.arraycopy(referencePricePerQuality, 0, expAvSalePricePerQuality, 0,
                 config.N_QUALITY); // Exponential averaging of prices is initialised from reference prices
         housePriceIndex = 1.0;
-        for (int i = 0; i < config.derivedParams.HPI_RECORD_LENGTH; ++i) HPIRecord.addValue(1.0);
+        HPIRecord.fill(1.0);
         annualHousePriceAppreciation = housePriceAppreciation(1);
         longTermHousePriceAppreciation = housePriceAppreciation(config.HPA_YEARS_TO_CHECK);
     }
@@ -139,9 +147,9 @@ public class HousingMarketStats {
         // Run through regions summing
         runThroughRegionsSumming();
 
-        // Once we have total nSellers and nBuyers, we can allocate and collect offerPrices and bidPrices arrays
-        offerPrices = new double[nSellers];
-        bidPrices = new double[nBuyers];
+        // Once we have total nBuyers, we can allocate and collect the bidPrices array, while the offerPrices array is
+        // only collected on demand, as offers can accumulate on the market
+        offerPrices = null;
         // TODO: Check efficiency of methods 1 and 2 and decide for one or the other.
         // METHOD 1
         // Run through regions collecting regional offer and bid prices arrays into corresponding national arrays
@@ -156,8 +164,14 @@ public class HousingMarketStats {
 //            j += region.regionalHousingMarketStats.nBuyers;
 //        }
         // METHOD 2
-        collectOfferPrices();
-        collectBidPrices();
+        // If price quantiles are to be recorded, regional price distributions are summarised by sketches instead
+        if (config.recordPriceQuantiles) {
+            bidPrices = new double[0];
+            mergePriceSketches();
+        } else {
+            bidPrices = new double[nBuyers];
+            collectBidPrices();
+        }
 
         // Compute all derived variables...
         // ... exponential averages of days in the market and prices per quality band (only if there have been sales)
@@ -176,7 +190,7 @@ public class HousingMarketStats {
             housePriceIndex = sumSoldPrice/sumSoldReferencePrice;
         }
         // ... HPIRecord with the new house price index value
-        HPIRecord.addValue(housePriceIndex);
+        HPIRecord.add(housePriceIndex);
         // ... current house price appreciation values (both annual and long term value)
         annualHousePriceAppreciation = housePriceAppreciation(1);
         longTermHousePriceAppreciation = housePriceAppreciation(config.HPA_YEARS_TO_CHECK);
@@ -217,10 +231,15 @@ public class HousingMarketStats {
     }
 
     /**
-     * Collects all offer prices from the regional housing market statistics objects
+     * Collects all offer prices currently on the market from the regional housing market statistics objects
      * Note: To be overridden at RentalMarketStats
      */
 	void collectOfferPrices() {
+        int nOffers = 0;
+        for (Region region: geography.getRegions()) {
+            nOffers += region.regionalHousingMarketStats.getnOffersOnMarket();
+        }
+        offerPrices = new double[nOffers];
 		int i = 0;
 		for (Region region: geography.getRegions()) {
 		    for (double price: region.regionalHousingMarketStats.getOfferPrices()) {
@@ -244,6 +263,19 @@ public class HousingMarketStats {
         }
 	}
 
+    /**
+     * Merges the regional bid and offer price sketches into the national ones
+     * Note: To be overridden at RentalMarketStats
+     */
+    void mergePriceSketches() {
+        bidPriceSketch.clear();
+        offerPriceSketch.clear();
+        for (Region region: geography.getRegions()) {
+            bidPriceSketch.merge(region.regionalHousingMarketStats.getBidPriceSketch());
+            offerPriceSketch.merge(region.regionalHousingMarketStats.getOfferPriceSketch());
+        }
+    }
+
     /**
      * This method computes the annualised appreciation in house price index by comparing the most recent quarter
      * (previous 3 months, to smooth changes) to the quarter nYears years before (full years to avoid seasonal effects)
@@ -253,15 +285,8 @@ public class HousingMarketStats {
      * @return Annualised house price appreciation over nYears years
      */
     private double housePriceAppreciation(int nYears) {
-        double HPI = (HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH - 1)
-                + HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH - 2)
-                + HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH - 3));
-        double oldHPI = (HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH
-                - nYears*config.constants.MONTHS_IN_YEAR - 1)
-                + HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH
-                - nYears*config.constants.MONTHS_IN_YEAR - 2)
-                + HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH
-                - nYears*config.constants.MONTHS_IN_YEAR - 3));
+        double HPI = HPIRecord.getBlockSum(0);
+        double oldHPI = HPIRecord.getBlockSum(nYears*config.constants.MONTHS_IN_YEAR);
         return(Math.pow(HPI/oldHPI, 1.0/nYears) - 1.0);
     }
 
@@ -272,15 +297,96 @@ public class HousingMarketStats {
      * @return Quarter on quarter house price growth
      */
     double getQoQHousePriceGrowth() {
-        double HPI = HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 1)
-                + HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 2)
-                + HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 3);
-        double oldHPI = HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 4)
-                + HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 5)
-                + HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 6);
+        double HPI = HPIRecord.getBlockSum(0);
+        double oldHPI = HPIRecord.getBlockSum(config.constants.MONTHS_IN_QUARTER);
         return(100.0*(HPI - oldHPI)/oldHPI);
     }
 
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the state of the collector into a state buffer
+     */
+    public void writeState(StateBuffer state) {
+        state.putInt(nBuyers);
+        state.putInt(nBTLBuyers);
+        state.putInt(nSellers);
+        state.putInt(nNewSellers);
+        state.putInt(nBTLSellers);
+        state.putDouble(sumBidPrices);
+        state.putDouble(sumOfferPrices);
+        state.putDoubles(offerPrices);
+        state.putDoubles(bidPrices);
+        state.putInt(nSales);
+        state.putInt(nFTBSales);
+        state.putInt(nBTLSales);
+        state.putInt(nUnsoldNewBuild);
+        state.putDouble(sumSoldReferencePrice);
+        state.putDouble(sumSoldPrice);
+        state.putDouble(sumMonthsOnMarket);
+        state.putDoubles(sumSalePricePerQuality);
+        state.putInts(nSalesPerQuality);
+        state.putDouble(expAvMonthsOnMarket);
+        state.putDoubles(expAvSalePricePerQuality);
+        state.putDouble(housePriceIndex);
+        state.putDouble(annualHousePriceAppreciation);
+        state.putDouble(longTermHousePriceAppreciation);
+        writeSketch(state, bidPriceSketch);
+        writeSketch(state, offerPriceSketch);
+        HPIRecord.writeState(state);
+    }
+
+    /**
+     * Read the state of the collector from a state buffer, as written by writeState
+     */
+    public void readState(StateBuffer state) {
+        nBuyers = state.getInt();
+        nBTLBuyers = state.getInt();
+        nSellers = state.getInt();
+        nNewSellers = state.getInt();
+        nBTLSellers = state.getInt();
+        sumBidPrices = state.getDouble();
+        sumOfferPrices = state.getDouble();
+        offerPrices = state.getDoubles();
+        bidPrices = state.getDoubles();
+        nSales = state.getInt();
+        nFTBSales = state.getInt();
+        nBTLSales = state.getInt();
+        nUnsoldNewBuild = state.getInt();
+        sumSoldReferencePrice = state.getDouble();
+        sumSoldPrice = state.getDouble();
+        sumMonthsOnMarket = state.getDouble();
+        sumSalePricePerQuality = state.getDoubles();
+        nSalesPerQuality = state.getInts();
+        expAvMonthsOnMarket = state.getDouble();
+        expAvSalePricePerQuality = state.getDoubles();
+        housePriceIndex = state.getDouble();
+        annualHousePriceAppreciation = state.getDouble();
+        longTermHousePriceAppreciation = state.getDouble();
+        readSketch(state, bidPriceSketch);
+        readSketch(state, offerPriceSketch);
+        HPIRecord.readState(state);
+    }
+
+    /**
+     * Copy a price sketch into a state buffer, preceded by whether it exists, as it only does if recordPriceQuantiles
+     */
+    static void writeSketch(StateBuffer state, QuantileSketch sketch) {
+        state.putBoolean(sketch != null);
+        if (sketch != null) sketch.writeState(state);
+    }
+
+    /**
+     * Read a price sketch written with writeSketch. Sketches follow the current configuration, so a sketch written
+     * without a current one to receive it is read and discarded, and a current sketch without a written one is kept
+     */
+    static void readSketch(StateBuffer state, QuantileSketch sketch) {
+        if (state.getBoolean()) {
+            if (sketch == null) sketch = new QuantileSketch();
+            sketch.readState(state);
+        }
+    }
+
     //----- Getter/setter methods -----//
 
     // Getters for variables computed at initialisation
@@ -295,8 +401,18 @@ public class HousingMarketStats {
     int getnUnsoldNewBuild() { return nUnsoldNewBuild; }
     public double getSumBidPrices() { return sumBidPrices; }
     public double getSumOfferPrices() { return sumOfferPrices; }
-    public double [] getOfferPrices() { return offerPrices; }
+
+    /**
+     * Prices of all offers currently on the market, collected on demand from the regional order books
+     */
+    public double [] getOfferPrices() {
+        if (offerPrices == null) collectOfferPrices();
+        return offerPrices;
+    }
+
     public double [] getBidPrices() { return bidPrices; }
+    public QuantileSketch getBidPriceSketch() { return bidPriceSketch; }
+    public QuantileSketch getOfferPriceSketch() { return offerPriceSketch; }
 
     // Getters for variables computed after market clearing to keep the previous values during the clearing
     int getnSales() { return nSales; }
@@ -324,7 +440,7 @@ public class HousingMarketStats {
         return sum/n;
     }
     public double getHPI() { return housePriceIndex; }
-    public DescriptiveStatistics getHPIRecord() { return HPIRecord; }
+    public RingBuffer getHPIRecord() { return HPIRecord; }
     double getAnnualHPA() { return annualHousePriceAppreciation; }
     public double getLongTermHPA() {return longTermHousePriceAppreciation; }
 
@@ -1,212 +1,258 @@
 package collectors;
 
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import housing.Geography;
+import housing.Household;
+import housing.Region;
+import utilities.ColumnarTimeSeriesWriter;
+import utilities.CsvTimeSeriesWriter;
+import utilities.TimeSeriesWriter;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**************************************************************************************************
+ * Class to write periodic snapshots of individual household data to a single file per run, with
+ * one row per household and snapshot and one column per variable selected (plus model time,
+ * household id and region), either as CSV or in binary columnar format. In order not to stall the
+ * simulation, the values of all households are first copied into a snapshot buffer, and then
+ * written to file in a background thread, while the simulation proceeds. Two buffers are used
+ * alternately, such that a snapshot only has to wait for the writing of the one before last
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
 public class MicroDataRecorder {
 
     //------------------//
     //----- Fields -----//
     //------------------//
 
-    private String outputFolder;
+    // Variables which can be recorded, in column order
+    private static final int EMPLOYMENT_INCOME = 0;
+    private static final int RENTAL_INCOME = 1;
+    private static final int BANK_BALANCE = 2;
+    private static final int HOUSING_WEALTH = 3;
+    private static final int N_HOUSES_OWNED = 4;
+    private static final int AGE = 5;
+    private static final int SAVING_RATE = 6;
+    private static final String [] VARIABLE_NAMES = {"MonthlyGrossEmploymentIncome", "MonthlyGrossRentalIncome",
+            "BankBalance", "HousingWealth", "NHousesOwned", "Age", "SavingRate"};
+    private static final int BINARY_OUTPUT_CHUNK_LENGTH = 4096; // Number of rows per chunk of binary output files
+
+    private String              outputFolder;
+    private Geography           geography;
+    private boolean             compressOutput; // True to gzip-compress CSV output files
 
-    private PrintWriter outfileEmploymentIncome;
-    private PrintWriter outfileRentalIncome;
-    private PrintWriter outfileBankBalance;
-    private PrintWriter outfileHousingWealth;
-    private PrintWriter outfileNHousesOwned;
-    private PrintWriter outfileAge;
-    private PrintWriter outfileSavingRate;
+    private TimeSeriesWriter    outfile; // Null if no variable is to be recorded
+    private String              fileName; // Name, without folder, of the file written by outfile
+    private boolean []          recordVariable; // Whether each variable is to be recorded
+    private Snapshot []         snapshots; // Buffers to copy household values into, used alternately
+    private Future<?> []        pendingWrites; // Background writing of each buffer, if any
+    private int                 nextSnapshot; // Buffer to use for the next snapshot
+    private ExecutorService     writerThread;
 
     //------------------------//
     //----- Constructors -----//
     //------------------------//
 
-    public MicroDataRecorder(String outputFolder) { this.outputFolder = outputFolder; }
+    public MicroDataRecorder(String outputFolder, Geography geography, boolean compressOutput) {
+        this.outputFolder = outputFolder;
+        this.geography = geography;
+        this.compressOutput = compressOutput;
+        snapshots = new Snapshot[] {new Snapshot(), new Snapshot()};
+        pendingWrites = new Future<?>[snapshots.length];
+    }
 
     //-------------------//
     //----- Methods -----//
     //-------------------//
 
-    public void openSingleRunSingleVariableFiles(int nRun, boolean recordEmploymentIncome, boolean recordRentalIncome,
-                                                 boolean recordBankBalance, boolean recordHousingWealth,
-                                                 boolean recordNHousesOwned, boolean recordAge,
-                                                 boolean recordSavingRate) {
-        if (recordEmploymentIncome) {
-            try {
-                outfileEmploymentIncome = new PrintWriter(outputFolder + "MonthlyGrossEmploymentIncome-run" + nRun
-                        + ".csv", "UTF-8");
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Open the micro-data file of a run, if any variable is to be recorded
+     *
+     * @param append True to append to an existing file, without writing again its header, for instance when resuming
+     *               from a checkpoint
+     */
+    public void openSingleRunFiles(int nRun, boolean recordOutputInBinary, boolean recordEmploymentIncome,
+                                   boolean recordRentalIncome, boolean recordBankBalance, boolean recordHousingWealth,
+                                   boolean recordNHousesOwned, boolean recordAge, boolean recordSavingRate,
+                                   boolean append) {
+        recordVariable = new boolean[] {recordEmploymentIncome, recordRentalIncome, recordBankBalance,
+                recordHousingWealth, recordNHousesOwned, recordAge, recordSavingRate};
+        // Only open an output file if at least one variable is to be recorded, with a column for each of them
+        List<String> columnNames = new ArrayList<>();
+        columnNames.add("Model time");
+        columnNames.add("householdId");
+        columnNames.add("region");
+        for (int j = 0; j < VARIABLE_NAMES.length; j++) {
+            if (recordVariable[j]) columnNames.add(VARIABLE_NAMES[j]);
         }
-        if (recordRentalIncome) {
-            try {
-                outfileRentalIncome = new PrintWriter(outputFolder + "MonthlyGrossRentalIncome-run" + nRun
-                        + ".csv", "UTF-8");
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
-                e.printStackTrace();
-            }
+        if (columnNames.size() == 3) {
+            outfile = null;
+            fileName = null;
+            return;
         }
-        if (recordBankBalance) {
-            try {
-                outfileBankBalance = new PrintWriter(outputFolder + "BankBalance-run" + nRun
-                        + ".csv", "UTF-8");
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
-                e.printStackTrace();
-            }
+        if (recordOutputInBinary) {
+            fileName = "MicroData-run" + nRun + ".bin";
+            outfile = new ColumnarTimeSeriesWriter(outputFolder + fileName, columnNames.toArray(new String[0]),
+                    BINARY_OUTPUT_CHUNK_LENGTH, append);
+        } else {
+            fileName = "MicroData-run" + nRun + ".csv";
+            outfile = new CsvTimeSeriesWriter(outputFolder + fileName, columnNames.toArray(new String[0]),
+                    compressOutput, append);
+            if (compressOutput) fileName += ".gz";
         }
-        if (recordHousingWealth) {
-            try {
-                outfileHousingWealth = new PrintWriter(outputFolder + "HousingWealth-run" + nRun
-                        + ".csv", "UTF-8");
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
-                e.printStackTrace();
+        writerThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "MicroDataRecorder");
+                thread.setDaemon(true);
+                return thread;
             }
-        }
-        if (recordNHousesOwned) {
-            try {
-                outfileNHousesOwned = new PrintWriter(outputFolder + "NHousesOwned-run" + nRun
-                        + ".csv", "UTF-8");
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
-                e.printStackTrace();
-            }
-        }
-        if (recordAge) {
-            try {
-                outfileAge = new PrintWriter(outputFolder + "Age-run" + nRun
-                        + ".csv", "UTF-8");
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
-                e.printStackTrace();
-            }
-        }
-        if (recordSavingRate) {
-            try {
-                outfileSavingRate = new PrintWriter(outputFolder + "SavingRate-run" + nRun
-                        + ".csv", "UTF-8");
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
-                e.printStackTrace();
-            }
-        }
+        });
+        nextSnapshot = 0;
     }
 
-    void timeStampSingleRunSingleVariableFiles(int time, boolean recordEmploymentIncome, boolean recordRentalIncome,
-                                               boolean recordBankBalance, boolean recordHousingWealth,
-                                               boolean recordNHousesOwned, boolean recordAge,
-                                               boolean recordSavingRate) {
-        if (time % 100 == 0) {
-            if (recordEmploymentIncome) {
-                if (time != 0) {
-                    outfileEmploymentIncome.println("");
-                }
-                outfileEmploymentIncome.print(time);
-            }
-            if (recordRentalIncome) {
-                if (time != 0) {
-                    outfileRentalIncome.println("");
-                }
-                outfileRentalIncome.print(time);
-            }
-            if (recordBankBalance) {
-                if (time != 0) {
-                    outfileBankBalance.println("");
-                }
-                outfileBankBalance.print(time);
-            }
-            if (recordHousingWealth) {
-                if (time != 0) {
-                    outfileHousingWealth.println("");
-                }
-                outfileHousingWealth.print(time);
-            }
-            if (recordNHousesOwned) {
-                if (time != 0) {
-                    outfileNHousesOwned.println("");
-                }
-                outfileNHousesOwned.print(time);
-            }
-            if (recordAge) {
-                if (time != 0) {
-                    outfileAge.println("");
-                }
-                outfileAge.print(time);
-            }
-            if (recordSavingRate) {
-                if (time != 0) {
-                    outfileSavingRate.println("");
-                }
-                outfileSavingRate.print(time);
-            }
-        }
+    /**
+     * If at a snapshot time, copy the selected variables of all households into a snapshot buffer, and then hand it
+     * over to the background thread for writing to file
+     *
+     * @param time Current model time
+     * @param snapshotPeriod Number of months between consecutive snapshots
+     */
+    public void recordSnapshot(int time, int snapshotPeriod) {
+        if (outfile == null || time % snapshotPeriod != 0) return;
+        // Wait until the buffer to be used has been written to file, if still pending
+        waitFor(pendingWrites[nextSnapshot]);
+        final Snapshot snapshot = snapshots[nextSnapshot];
+        snapshot.copy(time);
+        pendingWrites[nextSnapshot] = writerThread.submit(new Runnable() {
+            @Override
+            public void run() { snapshot.write(); }
+        });
+        nextSnapshot = (nextSnapshot + 1) % snapshots.length;
     }
 
-    void recordEmploymentIncome(int time, double monthlyGrossEmploymentIncome) {
-        if (time % 100 == 0) {
-            outfileEmploymentIncome.print(", " + monthlyGrossEmploymentIncome);
+    private void waitFor(Future<?> pendingWrite) {
+        if (pendingWrite == null) return;
+        try {
+            pendingWrite.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
         }
     }
 
-    void recordRentalIncome(int time, double monthlyGrossRentalIncome) {
-        if (time % 100 == 0) {
-            outfileRentalIncome.print(", " + monthlyGrossRentalIncome);
-        }
+    /**
+     * Write to disk all snapshots recorded so far, after any pending one, such that the file can be truncated at its
+     * length at that point and appended to after resuming from a checkpoint. In order not to stall the simulation, this
+     * is done in the background thread, and the length of the file is returned as a future
+     *
+     * @return Length of the file once all snapshots recorded so far have been written, or null if no file is written
+     */
+    public Future<Long> sync() {
+        if (outfile == null) return null;
+        final File file = new File(outputFolder + fileName);
+        return writerThread.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                outfile.sync();
+                return file.length();
+            }
+        });
     }
 
-	void recordBankBalance(int time, double bankBalance) {
-        if (time % 100 == 0) {
-            outfileBankBalance.print(", " + bankBalance);
-        }
-	}
-
-    void recordHousingWealth(int time, double housingWealth) {
-        if (time % 100 == 0) {
-            outfileHousingWealth.print(", " + housingWealth);
+    public void finishRun() {
+        if (outfile == null) return;
+        // Write any pending snapshot and close the file, from the background thread, and then wait for it to finish
+        writerThread.submit(new Runnable() {
+            @Override
+            public void run() { outfile.close(); }
+        });
+        writerThread.shutdown();
+        try {
+            if (!writerThread.awaitTermination(1, TimeUnit.HOURS)) {
+                System.out.println("Strange: micro-data snapshots could not be written to file within an hour");
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
+        for (int i = 0; i < pendingWrites.length; i++) pendingWrites[i] = null;
     }
 
-    void recordNHousesOwned(int time, int nHousesOwned) {
-        if (time % 100 == 0) {
-            outfileNHousesOwned.print(", " + nHousesOwned);
-        }
-    }
+    //----- Getter/setter methods -----//
 
-    void recordAge(int time, double age) {
-        if (time % 100 == 0) {
-            outfileAge.print(", " + age);
-        }
-    }
+    /**
+     * Name, without folder, of the file of the current run, or null if no file is written
+     */
+    public String getFileName() { return fileName; }
 
-    void recordSavingRate(int time, double savingRate) {
-        if (time % 100 == 0) {
-            outfileSavingRate.print(", " + savingRate);
-        }
-    }
+    /**
+     * Copy of the selected variables of all households at a given time, as primitive arrays which are re-used, and
+     * grown if needed, from snapshot to snapshot
+     */
+    private class Snapshot {
+        private int         time;
+        private int         nHouseholds;
+        private int []      householdIds = new int[0];
+        private int []      regions = new int[0];
+        private double [][] values = new double[VARIABLE_NAMES.length][0]; // Values of each variable selected
 
-	public void finishRun(boolean recordEmploymentIncome, boolean recordRentalIncome, boolean recordBankBalance,
-                          boolean recordHousingWealth, boolean recordNHousesOwned, boolean recordAge,
-                          boolean recordSavingRate) {
-        if (recordEmploymentIncome) {
-            outfileEmploymentIncome.close();
-        }
-        if (recordRentalIncome) {
-            outfileRentalIncome.close();
-        }
-        if (recordBankBalance) {
-            outfileBankBalance.close();
-        }
-        if (recordHousingWealth) {
-            outfileHousingWealth.close();
-        }
-        if (recordNHousesOwned) {
-            outfileNHousesOwned.close();
-        }
-        if (recordAge) {
-            outfileAge.close();
+        private void copy(int time) {
+            this.time = time;
+            nHouseholds = 0;
+            for (Region region : geography.getRegions()) nHouseholds += region.households.size();
+            if (householdIds.length < nHouseholds) {
+                int capacity = Math.max(nHouseholds, 2*householdIds.length);
+                householdIds = new int[capacity];
+                regions = new int[capacity];
+                for (int j = 0; j < values.length; j++) {
+                    if (recordVariable[j]) values[j] = new double[capacity];
+                }
+            }
+            int i = 0;
+            int regionIndex = 0;
+            for (Region region : geography.getRegions()) {
+                for (Household h : region.households) {
+                    householdIds[i] = h.id;
+                    regions[i] = regionIndex;
+                    if (recordVariable[EMPLOYMENT_INCOME]) {
+                        values[EMPLOYMENT_INCOME][i] = h.getMonthlyGrossEmploymentIncome();
+                    }
+                    if (recordVariable[RENTAL_INCOME]) values[RENTAL_INCOME][i] = h.getMonthlyGrossRentalIncome();
+                    if (recordVariable[BANK_BALANCE]) values[BANK_BALANCE][i] = h.getBankBalance();
+                    if (recordVariable[HOUSING_WEALTH]) values[HOUSING_WEALTH][i] = h.getHousingWealth();
+                    if (recordVariable[N_HOUSES_OWNED]) values[N_HOUSES_OWNED][i] = h.getNProperties();
+                    if (recordVariable[AGE]) values[AGE][i] = h.getAge();
+                    if (recordVariable[SAVING_RATE]) values[SAVING_RATE][i] = h.getSavingRate();
+                    i++;
+                }
+                regionIndex++;
+            }
         }
-        if (recordSavingRate) {
-            outfileSavingRate.close();
+
+        private void write() {
+            for (int i = 0; i < nHouseholds; i++) {
+                outfile.add(time);
+                outfile.add(householdIds[i]);
+                outfile.add(regions[i]);
+                for (int j = 0; j < values.length; j++) {
+                    if (!recordVariable[j]) continue;
+                    if (j == N_HOUSES_OWNED) {
+                        outfile.add((int)values[j][i]);
+                    } else {
+                        outfile.add(values[j][i]);
+                    }
+                }
+                outfile.endRow();
+            }
         }
-	}
+    }
 }
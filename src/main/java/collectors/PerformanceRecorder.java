@@ -0,0 +1,298 @@
+package collectors;
+
+import housing.Model;
+
+import utilities.TextOutputFile;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+
+/**************************************************************************************************
+ * Class to time each phase of each model step, as well as the regional parts of these phases for
+ * each region, and to write these times, together with throughput figures (households stepped,
+ * bids and offers and transactions per second) and the memory allocated per step, to a per-step
+ * file and to a summary file at the end of each run. Timing works by marking the end of each
+ * phase, attributing to it the time elapsed since the end of the previous one, so that a single
+ * call to System.nanoTime is needed per phase. If not enabled, all methods return immediately, apart
+ * from emitting a JFR event per phase (and region) if FlightRecorderEvents has been started, and
+ * from timing phases if timing has been enabled separately (e.g., for the TelemetryServer)
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class PerformanceRecorder {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    // Phases of a model step, in order of execution
+    public static final int DEMOGRAPHICS = 0;
+    public static final int CONSTRUCTION = 1;
+    public static final int INVESTMENT_INDICATORS = 2;
+    public static final int HOUSEHOLDS = 3;                 // Regional phase
+    public static final int MARKETS = 4;                    // Regional phase
+    public static final int REGIONAL_HOUSEHOLD_STATS = 5;   // Regional phase
+    public static final int SALE_MARKET_STATS = 6;
+    public static final int RENTAL_MARKET_STATS = 7;
+    public static final int HOUSEHOLD_STATS = 8;
+    public static final int CREDIT_SUPPLY = 9;
+    public static final int BANK = 10;
+    public static final int CENTRAL_BANK = 11;
+    private static final String [] PHASE_NAMES = {"demographics", "construction", "investmentIndicators",
+            "households", "markets", "regionalHouseholdStats", "saleMarketStats", "rentalMarketStats",
+            "householdStats", "creditSupply", "bank", "centralBank"};
+    private static final int [] REGIONAL_PHASES = {HOUSEHOLDS, MARKETS, REGIONAL_HOUSEHOLD_STATS};
+
+    private String                          outputFolder;
+    private boolean                         enabled;
+    private boolean                         timing; // True to time phases, even if not enabled
+    private int                             nRegions;
+    private TextOutputFile                  stepFile;
+    private com.sun.management.ThreadMXBean threadMXBean; // To measure memory allocation, if supported by the JVM
+
+    // Variables measured during each step
+    private long                            lastTick; // Time at the end of the last phase
+    private long                            stepStartAllocatedBytes;
+    private long []                         phaseNanos; // Time spent in each phase during this step
+    private long [][]                       regionNanos; // Time spent by each region in each regional phase this step
+    private Object                          phaseEvent; // JFR event for the current phase, if JFR events are enabled
+
+    // Variables accumulated over each run
+    private int                             nSteps;
+    private long []                         totalPhaseNanos;
+    private long []                         maxPhaseNanos;
+    private long [][]                       totalRegionNanos;
+    private long                            totalHouseholds;
+    private long                            totalBidsAndOffers;
+    private long                            totalTransactions;
+    private long                            totalAllocatedBytes;
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    public PerformanceRecorder(String outputFolder, boolean enabled, int nRegions) {
+        this.outputFolder = outputFolder;
+        this.enabled = enabled;
+        this.timing = enabled;
+        this.nRegions = nRegions;
+        phaseNanos = new long[PHASE_NAMES.length];
+        regionNanos = new long[PHASE_NAMES.length][nRegions];
+        totalPhaseNanos = new long[PHASE_NAMES.length];
+        maxPhaseNanos = new long[PHASE_NAMES.length];
+        totalRegionNanos = new long[PHASE_NAMES.length][nRegions];
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            threadMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+            if (!threadMXBean.isThreadAllocatedMemorySupported()) {
+                threadMXBean = null;
+            } else {
+                threadMXBean.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Open the per-step file of a run, resetting all run totals
+     *
+     * @param append True to append to an existing file, without writing again its header, for instance when resuming
+     *               from a checkpoint (in which case the summary of the run covers only the steps run after resuming)
+     */
+    public void openSingleRunFiles(int nRun, boolean append) {
+        if (!enabled) return;
+        nSteps = 0;
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            totalPhaseNanos[phase] = 0;
+            maxPhaseNanos[phase] = 0;
+            for (int region = 0; region < nRegions; region++) totalRegionNanos[phase][region] = 0;
+        }
+        totalHouseholds = 0;
+        totalBidsAndOffers = 0;
+        totalTransactions = 0;
+        totalAllocatedBytes = 0;
+        // Try opening output file and write first row header with column names
+        try {
+            stepFile = TextOutputFile.open(outputFolder + "PerformanceMetrics-run" + nRun + ".csv", false, append);
+            StringBuilder str = new StringBuilder("Model time, stepMs");
+            for (String phaseName : PHASE_NAMES) str.append(", ").append(phaseName).append("Ms");
+            for (int region = 0; region < nRegions; region++) {
+                for (int phase : REGIONAL_PHASES) {
+                    str.append(", region").append(region).append(" ").append(PHASE_NAMES[phase]).append("Ms");
+                }
+            }
+            str.append(", households, householdsPerSecond, bidsAndOffers, bidsAndOffersPerSecond, transactions, "
+                    + "transactionsPerSecond, allocatedBytes");
+            if (!append) stepFile.println(str);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Mark the start of a model step
+     */
+    public void startStep() {
+        phaseEvent = FlightRecorderEvents.begin(FlightRecorderEvents.MODEL_PHASE);
+        if (!timing) return;
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            phaseNanos[phase] = 0;
+            for (int region = 0; region < nRegions; region++) regionNanos[phase][region] = 0;
+        }
+        if (threadMXBean != null) {
+            stepStartAllocatedBytes = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        lastTick = System.nanoTime();
+    }
+
+    /**
+     * Mark the end of a phase, attributing to it the time elapsed since the end of the previous phase
+     */
+    public void endPhase(int phase) {
+        if (timing) {
+            long now = System.nanoTime();
+            phaseNanos[phase] += now - lastTick;
+            lastTick = now;
+        }
+        if (phaseEvent != null) {
+            FlightRecorderEvents.commitModelPhase(phaseEvent, PHASE_NAMES[phase], -1);
+            phaseEvent = FlightRecorderEvents.begin(FlightRecorderEvents.MODEL_PHASE);
+        }
+    }
+
+    /**
+     * Mark the end of the part of a regional phase corresponding to a given region, attributing the time elapsed since
+     * the end of the previous (part of a) phase both to the phase and to the region
+     */
+    public void endRegionalPhase(int phase, int region) {
+        if (timing) {
+            long now = System.nanoTime();
+            phaseNanos[phase] += now - lastTick;
+            regionNanos[phase][region] += now - lastTick;
+            lastTick = now;
+        }
+        if (phaseEvent != null) {
+            FlightRecorderEvents.commitModelPhase(phaseEvent, PHASE_NAMES[phase], region);
+            phaseEvent = FlightRecorderEvents.begin(FlightRecorderEvents.MODEL_PHASE);
+        }
+    }
+
+    /**
+     * Mark the end of a model step, writing its metrics to file. Note that this must be called after the statistics
+     * collectors have aggregated regional results
+     */
+    public void endStep(int time) {
+        if (!enabled) return;
+        long allocatedBytes = 0;
+        if (threadMXBean != null) {
+            allocatedBytes = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId())
+                    - stepStartAllocatedBytes;
+        }
+        int households = Model.demographics.getTotalPopulation();
+        int bidsAndOffers = Model.housingMarketStats.getnBuyers() + Model.housingMarketStats.getnSellers()
+                + Model.rentalMarketStats.getnBuyers() + Model.rentalMarketStats.getnSellers();
+        int transactions = Model.housingMarketStats.getnSales() + Model.rentalMarketStats.getnSales();
+        // Accumulate run totals
+        nSteps++;
+        long stepNanos = 0;
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            stepNanos += phaseNanos[phase];
+            totalPhaseNanos[phase] += phaseNanos[phase];
+            maxPhaseNanos[phase] = Math.max(maxPhaseNanos[phase], phaseNanos[phase]);
+            for (int region = 0; region < nRegions; region++) {
+                totalRegionNanos[phase][region] += regionNanos[phase][region];
+            }
+        }
+        totalHouseholds += households;
+        totalBidsAndOffers += bidsAndOffers;
+        totalTransactions += transactions;
+        totalAllocatedBytes += allocatedBytes;
+        // Write step results
+        StringBuilder str = new StringBuilder();
+        str.append(time).append(", ").append(toMillis(stepNanos));
+        for (long nanos : phaseNanos) str.append(", ").append(toMillis(nanos));
+        for (int region = 0; region < nRegions; region++) {
+            for (int phase : REGIONAL_PHASES) str.append(", ").append(toMillis(regionNanos[phase][region]));
+        }
+        str.append(", ").append(households).append(", ").append(perSecond(households, phaseNanos[HOUSEHOLDS]))
+                .append(", ").append(bidsAndOffers).append(", ").append(perSecond(bidsAndOffers, phaseNanos[MARKETS]))
+                .append(", ").append(transactions).append(", ").append(perSecond(transactions, phaseNanos[MARKETS]))
+                .append(", ").append(allocatedBytes);
+        stepFile.println(str);
+    }
+
+    /**
+     * Write to disk all step metrics recorded so far, such that the file can be truncated at its current length and
+     * appended to after resuming from a checkpoint
+     */
+    public void sync() throws IOException {
+        if (enabled) stepFile.sync();
+    }
+
+    /**
+     * Close the per-step file and write a summary of the run, with the total, mean and maximum time per step for each
+     * phase, the total time for each region and regional phase, and average throughput figures
+     */
+    public void finishRun(int nRun) {
+        if (!enabled) return;
+        stepFile.close();
+        long runNanos = 0;
+        for (long nanos : totalPhaseNanos) runNanos += nanos;
+        try {
+            PrintWriter summaryFile = new PrintWriter(outputFolder + "PerformanceSummary-run" + nRun + ".csv",
+                    "UTF-8");
+            summaryFile.println("metric, region, totalMs, meanMsPerStep, maxMsPerStep, shareOfStepTime");
+            for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+                summaryFile.println(PHASE_NAMES[phase] + ", all, " + toMillis(totalPhaseNanos[phase]) + ", "
+                        + toMillis(totalPhaseNanos[phase])/nSteps + ", " + toMillis(maxPhaseNanos[phase]) + ", "
+                        + (double)totalPhaseNanos[phase]/runNanos);
+            }
+            for (int phase : REGIONAL_PHASES) {
+                for (int region = 0; region < nRegions; region++) {
+                    summaryFile.println(PHASE_NAMES[phase] + ", " + region + ", "
+                            + toMillis(totalRegionNanos[phase][region]) + ", "
+                            + toMillis(totalRegionNanos[phase][region])/nSteps + ", , "
+                            + (double)totalRegionNanos[phase][region]/runNanos);
+                }
+            }
+            summaryFile.println("step, all, " + toMillis(runNanos) + ", " + toMillis(runNanos)/nSteps + ", , 1.0");
+            summaryFile.println();
+            summaryFile.println("metric, total, perStep, perSecond");
+            summaryFile.println("households, " + totalHouseholds + ", " + (double)totalHouseholds/nSteps + ", "
+                    + perSecond(totalHouseholds, totalPhaseNanos[HOUSEHOLDS]));
+            summaryFile.println("bidsAndOffers, " + totalBidsAndOffers + ", " + (double)totalBidsAndOffers/nSteps
+                    + ", " + perSecond(totalBidsAndOffers, totalPhaseNanos[MARKETS]));
+            summaryFile.println("transactions, " + totalTransactions + ", " + (double)totalTransactions/nSteps
+                    + ", " + perSecond(totalTransactions, totalPhaseNanos[MARKETS]));
+            summaryFile.println("allocatedBytes, " + totalAllocatedBytes + ", " + (double)totalAllocatedBytes/nSteps
+                    + ", " + perSecond(totalAllocatedBytes, runNanos));
+            summaryFile.close();
+        } catch (FileNotFoundException | UnsupportedEncodingException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private double toMillis(long nanos) { return nanos/1.0e6; }
+
+    private double perSecond(long count, long nanos) { return (nanos > 0) ? count*1.0e9/nanos : 0.0; }
+
+    //----- Getter/setter methods -----//
+
+    /**
+     * Time each phase, even if writing performance metrics to file is not enabled
+     */
+    public void enableTiming() { timing = true; }
+
+    public static String [] getPhaseNames() { return PHASE_NAMES.clone(); }
+
+    /**
+     * Time spent in a given phase during the current step, or the last one if called after its end
+     */
+    public double getPhaseMillis(int phase) { return toMillis(phaseNanos[phase]); }
+}
@@ -1,13 +1,18 @@
 package collectors;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 
 import housing.Geography;
 import housing.Model;
 import housing.Region;
+import utilities.ColumnarTimeSeriesWriter;
+import utilities.CsvTimeSeriesWriter;
+import utilities.EnsembleStatistics;
+import utilities.QuantileSketch;
+import utilities.TextOutputFile;
+import utilities.TimeSeriesWriter;
 
 /**************************************************************************************************
  * Class to write output to files
@@ -23,308 +28,319 @@ public class Recorder {
 
     private String outputFolder;
     private Geography geography;
+    private boolean compressOutput; // True to gzip-compress all output files
 
-    private PrintWriter outfile;
-    private PrintWriter qualityBandPriceFile;
-    private PrintWriter [] regionalOutfiles;
+    private TimeSeriesWriter outfile;
+    private TextOutputFile qualityBandPriceFile;
+    private TextOutputFile priceQuantilesFile;
+    private TimeSeriesWriter [] regionalOutfiles;
 
-    private PrintWriter ooLTI;
-    private PrintWriter btlLTV;
-    private PrintWriter creditGrowth;
-    private PrintWriter debtToIncome;
-    private PrintWriter ooDebtToIncome;
-    private PrintWriter mortgageApprovals;
-    private PrintWriter housingTransactions;
-    private PrintWriter advancesToFTBs;
-    private PrintWriter advancesToBTL;
-    private PrintWriter advancesToHomeMovers;
-    private PrintWriter priceToIncome;
-    private PrintWriter rentalYield;
-    private PrintWriter housePriceGrowth;
-    private PrintWriter interestRateSpread;
+    private TextOutputFile [] coreIndicatorFiles; // One file per core indicator, null if not recorded
+    private EnsembleStatistics [] coreIndicatorsEnsemble; // Statistics across runs of each core indicator
+
+    private static final double [] PRICE_QUANTILES = {0.05, 0.25, 0.5, 0.75, 0.95}; // Percentiles of prices to write
+    private static final double [] ENSEMBLE_QUANTILES = {0.05, 0.25, 0.5, 0.75, 0.95}; // Percentiles across runs
+    // Names of core indicators, in the order returned by getCoreIndicators, each written to file coreIndicator-<name>
+    private static final String [] CORE_INDICATOR_NAMES = {"ooLTI", "btlLTV", "creditGrowth", "debtToIncome",
+            "ooDebtToIncome", "mortgageApprovals", "housingTransactions", "advancesToFTB", "advancesToBTL",
+            "advancesToMovers", "priceToIncome", "rentalYield", "housePriceGrowth", "interestRateSpread"};
+    // Whether each core indicator is a count, written as an integer
+    private static final boolean [] CORE_INDICATOR_IS_COUNT = {false, false, false, false, false, true, true, true,
+            true, true, false, false, false, false};
+    private static final int BINARY_OUTPUT_CHUNK_LENGTH = 120; // Number of time steps per chunk of binary output files
+
+    // Columns of the national output file
+    private static final String [] OUTPUT_COLUMNS = ("Model time, "
+            // Number of households of each type
+            + "nNonBTLHomeless, nBTLHomeless, nHomeless, nRenting, nNonOwner, "
+            + "nNonBTLOwnerOccupier, nBTLOwnerOccupier, nOwnerOccupier, nActiveBTL, nBTL, nNonBTLBankrupt, "
+            + "nBTLBankrupt, TotalPopulation, "
+            // Numbers of houses of each type
+            + "HousingStock, nNewBuild, nUnsoldNewBuild, nEmptyHouses, BTLStockFraction, "
+            // House sale market data
+            + "Sale HPI, Sale AnnualHPA, Sale AvBidPrice, Sale AvOfferPrice, Sale AvSalePrice, "
+            + "Sale ExAvSalePrice, Sale AvMonthsOnMarket, Sale ExpAvMonthsOnMarket, Sale nBuyers, "
+            + "Sale nBTLBuyers, Sale nSellers, Sale nNewSellers, Sale nBTLSellers, Sale nSales, "
+            + "Sale nNonBTLBidsAboveExpAvSalePrice, Sale nBTLBidsAboveExpAvSalePrice, Sale nSalesToBTL, "
+            + "Sale nSalesToFTB, "
+            // Rental market data
+            + "Rental HPI, Rental AnnualHPA, Rental AvBidPrice, Rental AvOfferPrice, Rental AvSalePrice, "
+            + "Rental AvMonthsOnMarket, Rental ExpAvMonthsOnMarket, Rental nBuyers, Rental nSellers, "
+            + "Rental nSales, Rental ExpAvFlowYield, "
+            // Credit data
+            + "nRegisteredMortgages, interestRate, "
+            // Commuting data
+            + "nCommuters, sumCommutingFees, sumCommutingCost").split(", ");
+    // Columns of the regional output files
+    private static final String [] REGIONAL_OUTPUT_COLUMNS = ("Model time, "
+            // Number of households of each type
+            + "nNonBTLHomeless, nBTLHomeless, nHomeless, nRenting, nNonOwner, "
+            + "nNonBTLOwnerOccupier, nBTLOwnerOccupier, nOwnerOccupier, nActiveBTL, nBTL, nNonBTLBankrupt, "
+            + "nBTLBankrupt, TotalPopulation, "
+            // Numbers of houses of each type
+            + "HousingStock, nNewBuild, nUnsoldNewBuild, nEmptyHouses, BTLStockFraction, "
+            // House sale market data
+            + "Sale HPI, Sale AnnualHPA, Sale AvBidPrice, Sale AvOfferPrice, Sale AvSalePrice, "
+            + "Sale ExAvSalePrice, Sale AvMonthsOnMarket, Sale ExpAvMonthsOnMarket, Sale nBuyers, "
+            + "Sale nBTLBuyers, Sale nSellers, Sale nNewSellers, Sale nBTLSellers, Sale nSales, "
+            + "Sale nNonBTLBidsAboveExpAvSalePrice, Sale nBTLBidsAboveExpAvSalePrice, Sale nSalesToBTL, "
+            + "Sale nSalesToFTB, "
+            // Rental market data
+            + "Rental HPI, Rental AnnualHPA, Rental AvBidPrice, Rental AvOfferPrice, Rental AvSalePrice, "
+            + "Rental AvMonthsOnMarket, Rental ExpAvMonthsOnMarket, Rental nBuyers, Rental nSellers, "
+            + "Rental nSales, Rental ExpAvFlowYield, "
+            // Commuting data
+            + "nCommuters, sumCommutingFees, sumCommutingCost").split(", ");
 
     //------------------------//
     //----- Constructors -----//
     //------------------------//
 
-    public Recorder(String outputFolder, Geography geography) {
+    public Recorder(String outputFolder, Geography geography, boolean compressOutput) {
         this.outputFolder = outputFolder;
         this.geography = geography;
-        regionalOutfiles = new PrintWriter[geography.getRegions().size()];
+        this.compressOutput = compressOutput;
+        regionalOutfiles = new TimeSeriesWriter[geography.getRegions().size()];
     }
 
     //-------------------//
     //----- Methods -----//
     //-------------------//
 
-    public void openMultiRunFiles(boolean recordCoreIndicators) {
+    /**
+     * Open files collecting results from all runs
+     *
+     * @param append True to append to existing files, for instance when resuming from a checkpoint
+     */
+    public void openMultiRunFiles(boolean recordCoreIndicators, boolean recordCoreIndicatorsSummary, int nSteps,
+                                  boolean append) {
+        // If recording of core indicators ensemble statistics is active, prepare statistics for every time step
+        if (recordCoreIndicatorsSummary) {
+            coreIndicatorsEnsemble = new EnsembleStatistics[CORE_INDICATOR_NAMES.length];
+            for (int i = 0; i < CORE_INDICATOR_NAMES.length; i++) {
+                coreIndicatorsEnsemble[i] = new EnsembleStatistics(nSteps + 1, ENSEMBLE_QUANTILES);
+            }
+        }
         // If recording of core indicators is active...
         if(recordCoreIndicators) {
             // ...try opening necessary files
             try {
-                ooLTI = new PrintWriter(outputFolder + "coreIndicator-ooLTI.csv",
-                        "UTF-8");
-                btlLTV = new PrintWriter(outputFolder + "coreIndicator-btlLTV.csv",
-                        "UTF-8");
-                creditGrowth = new PrintWriter(outputFolder + "coreIndicator-creditGrowth.csv",
-                        "UTF-8");
-                debtToIncome = new PrintWriter(outputFolder + "coreIndicator-debtToIncome.csv",
-                        "UTF-8");
-                ooDebtToIncome = new PrintWriter(outputFolder + "coreIndicator-ooDebtToIncome.csv",
-                        "UTF-8");
-                mortgageApprovals = new PrintWriter(outputFolder + "coreIndicator-mortgageApprovals.csv",
-                        "UTF-8");
-                housingTransactions = new PrintWriter(outputFolder + "coreIndicator-housingTransactions.csv",
-                        "UTF-8");
-                advancesToFTBs = new PrintWriter(outputFolder + "coreIndicator-advancesToFTB.csv",
-                        "UTF-8");
-                advancesToBTL = new PrintWriter(outputFolder + "coreIndicator-advancesToBTL.csv",
-                        "UTF-8");
-                advancesToHomeMovers = new PrintWriter(outputFolder + "coreIndicator-advancesToMovers.csv",
-                        "UTF-8");
-                priceToIncome = new PrintWriter(outputFolder + "coreIndicator-priceToIncome.csv",
-                        "UTF-8");
-                rentalYield = new PrintWriter(outputFolder + "coreIndicator-rentalYield.csv",
-                        "UTF-8");
-                housePriceGrowth = new PrintWriter(outputFolder + "coreIndicator-housePriceGrowth.csv",
-                        "UTF-8");
-                interestRateSpread = new PrintWriter(outputFolder + "coreIndicator-interestRateSpread.csv",
-                        "UTF-8");
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
+                coreIndicatorFiles = new TextOutputFile[CORE_INDICATOR_NAMES.length];
+                for (int i = 0; i < CORE_INDICATOR_NAMES.length; i++) {
+                    coreIndicatorFiles[i] = TextOutputFile.open(outputFolder + "coreIndicator-"
+                            + CORE_INDICATOR_NAMES[i] + ".csv", compressOutput, append);
+                }
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
-    public void openSingleRunFiles(int nRun, boolean recordQualityBandPrice, int nQualityBands) {
-        // Try opening output files (national and for each region) and write first row header with column names
-        try {
-            outfile = new PrintWriter(outputFolder + "Output-run" + nRun + ".csv", "UTF-8");
-            outfile.println("Model time, "
-                    // Number of households of each type
-                    + "nNonBTLHomeless, nBTLHomeless, nHomeless, nRenting, nNonOwner, "
-                    + "nNonBTLOwnerOccupier, nBTLOwnerOccupier, nOwnerOccupier, nActiveBTL, nBTL, nNonBTLBankrupt, "
-                    + "nBTLBankrupt, TotalPopulation, "
-                    // Numbers of houses of each type
-                    + "HousingStock, nNewBuild, nUnsoldNewBuild, nEmptyHouses, BTLStockFraction, "
-                    // House sale market data
-                    + "Sale HPI, Sale AnnualHPA, Sale AvBidPrice, Sale AvOfferPrice, Sale AvSalePrice, "
-                    + "Sale ExAvSalePrice, Sale AvMonthsOnMarket, Sale ExpAvMonthsOnMarket, Sale nBuyers, "
-                    + "Sale nBTLBuyers, Sale nSellers, Sale nNewSellers, Sale nBTLSellers, Sale nSales, "
-                    + "Sale nNonBTLBidsAboveExpAvSalePrice, Sale nBTLBidsAboveExpAvSalePrice, Sale nSalesToBTL, "
-                    + "Sale nSalesToFTB, "
-                    // Rental market data
-                    + "Rental HPI, Rental AnnualHPA, Rental AvBidPrice, Rental AvOfferPrice, Rental AvSalePrice, "
-                    + "Rental AvMonthsOnMarket, Rental ExpAvMonthsOnMarket, Rental nBuyers, Rental nSellers, "
-                    + "Rental nSales, Rental ExpAvFlowYield, "
-                    // Credit data
-                    + "nRegisteredMortgages, interestRate, "
-                    // Commuting data
-                    + "nCommuters, sumCommutingFees, sumCommutingCost");
-        } catch (FileNotFoundException | UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Open files collecting results from a single run
+     *
+     * @param append True to append to existing files, without writing again their headers, for instance when resuming
+     *               from a checkpoint
+     */
+    public void openSingleRunFiles(int nRun, boolean recordQualityBandPrice, int nQualityBands,
+                                   boolean recordPriceQuantiles, boolean recordOutputInBinary, boolean append) {
+        // Open output files (national and for each region), writing first their header with column names
+        outfile = openTimeSeriesFile(outputFolder + "Output-run" + nRun, recordOutputInBinary, OUTPUT_COLUMNS,
+                append);
         for (int i = 0; i < geography.getRegions().size(); i++) {
-            try {
-                regionalOutfiles[i] = new PrintWriter(outputFolder + "Output-region" + i + "-run" + nRun + ".csv",
-                        "UTF-8");
-                regionalOutfiles[i].println("Model time, "
-                        // Number of households of each type
-                        + "nNonBTLHomeless, nBTLHomeless, nHomeless, nRenting, nNonOwner, "
-                        + "nNonBTLOwnerOccupier, nBTLOwnerOccupier, nOwnerOccupier, nActiveBTL, nBTL, nNonBTLBankrupt, "
-                        + "nBTLBankrupt, TotalPopulation, "
-                        // Numbers of houses of each type
-                        + "HousingStock, nNewBuild, nUnsoldNewBuild, nEmptyHouses, BTLStockFraction, "
-                        // House sale market data
-                        + "Sale HPI, Sale AnnualHPA, Sale AvBidPrice, Sale AvOfferPrice, Sale AvSalePrice, "
-                        + "Sale ExAvSalePrice, Sale AvMonthsOnMarket, Sale ExpAvMonthsOnMarket, Sale nBuyers, "
-                        + "Sale nBTLBuyers, Sale nSellers, Sale nNewSellers, Sale nBTLSellers, Sale nSales, "
-                        + "Sale nNonBTLBidsAboveExpAvSalePrice, Sale nBTLBidsAboveExpAvSalePrice, Sale nSalesToBTL, "
-                        + "Sale nSalesToFTB, "
-                        // Rental market data
-                        + "Rental HPI, Rental AnnualHPA, Rental AvBidPrice, Rental AvOfferPrice, Rental AvSalePrice, "
-                        + "Rental AvMonthsOnMarket, Rental ExpAvMonthsOnMarket, Rental nBuyers, Rental nSellers, "
-                        + "Rental nSales, Rental ExpAvFlowYield, "
-                        // Commuting data
-                        + "nCommuters, sumCommutingFees, sumCommutingCost");
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
-                e.printStackTrace();
-            }
+            regionalOutfiles[i] = openTimeSeriesFile(outputFolder + "Output-region" + i + "-run" + nRun,
+                    recordOutputInBinary, REGIONAL_OUTPUT_COLUMNS, append);
         }
         // If recording of quality band prices is active...
         if(recordQualityBandPrice) {
             // ...try opening output file and write first row header with column names
             try {
-                qualityBandPriceFile = new PrintWriter(outputFolder + "QualityBandPrice-run" + nRun + ".csv", "UTF-8");
+                qualityBandPriceFile = TextOutputFile.open(outputFolder + "QualityBandPrice-run" + nRun + ".csv",
+                        compressOutput, append);
                 StringBuilder str = new StringBuilder();
                 str.append(String.format("Time, Q%d", 0));
                 for (int i = 1; i < nQualityBands; i++) {
                     str.append(String.format(", Q%d", i));
                 }
-                qualityBandPriceFile.println(str);
-            } catch (FileNotFoundException | UnsupportedEncodingException e) {
+                if (!append) qualityBandPriceFile.println(str);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        // If recording of price quantiles is active...
+        if(recordPriceQuantiles) {
+            // ...try opening output file and write first row header with column names
+            try {
+                priceQuantilesFile = TextOutputFile.open(outputFolder + "PriceQuantiles-run" + nRun + ".csv",
+                        compressOutput, append);
+                StringBuilder str = new StringBuilder("Time");
+                for (String prices : new String[] {"Sale BidPrice", "Sale OfferPrice", "Rental BidPrice",
+                        "Rental OfferPrice"}) {
+                    for (double quantile : PRICE_QUANTILES) {
+                        str.append(String.format(", %s P%d", prices, Math.round(100*quantile)));
+                    }
+                }
+                if (!append) priceQuantilesFile.println(str);
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
-    public void writeTimeStampResults(boolean recordCoreIndicators, int time, boolean recordQualityBandPrice) {
-        if (recordCoreIndicators) {
-            // If not at the first point in time...
-            if (time > 0) {
-                // ...write value separation for core indicators (except for time 0)
-                ooLTI.print(", ");
-                btlLTV.print(", ");
-                creditGrowth.print(", ");
-                debtToIncome.print(", ");
-                ooDebtToIncome.print(", ");
-                mortgageApprovals.print(", ");
-                housingTransactions.print(", ");
-                advancesToFTBs.print(", ");
-                advancesToBTL.print(", ");
-                advancesToHomeMovers.print(", ");
-                priceToIncome.print(", ");
-                rentalYield.print(", ");
-                housePriceGrowth.print(", ");
-                interestRateSpread.print(", ");
+    /**
+     * Open a time series file, either in CSV format (with extension .csv) or in binary columnar format (with extension
+     * .bin, see ColumnarTimeSeriesWriter)
+     */
+    private TimeSeriesWriter openTimeSeriesFile(String fileName, boolean binary, String [] columnNames,
+                                                boolean append) {
+        if (binary) {
+            return new ColumnarTimeSeriesWriter(fileName + ".bin", columnNames, BINARY_OUTPUT_CHUNK_LENGTH, append);
+        } else {
+            return new CsvTimeSeriesWriter(fileName + ".csv", columnNames, compressOutput, append);
+        }
+    }
+
+    public void writeTimeStampResults(boolean recordCoreIndicators, boolean recordCoreIndicatorsSummary, int time,
+                                      boolean recordQualityBandPrice, boolean recordPriceQuantiles) {
+        Object event = FlightRecorderEvents.begin(FlightRecorderEvents.RECORDER_WRITE);
+        if (recordCoreIndicatorsSummary || recordCoreIndicators) {
+            double [] values = getCoreIndicators();
+            for (int i = 0; i < values.length; i++) {
+                if (recordCoreIndicatorsSummary) coreIndicatorsEnsemble[i].add(time, values[i]);
+                if (recordCoreIndicators) {
+                    // Write value separation for core indicators (except for time 0) and then the value itself
+                    if (time > 0) coreIndicatorFiles[i].print(", ");
+                    if (CORE_INDICATOR_IS_COUNT[i]) {
+                        coreIndicatorFiles[i].print((long)values[i]);
+                    } else {
+                        coreIndicatorFiles[i].print(values[i]);
+                    }
+                }
             }
-            // Write core indicators results
-            ooLTI.print(Model.coreIndicators.getOwnerOccupierLTIMeanAboveMedian());
-            btlLTV.print(Model.coreIndicators.getBuyToLetLTVMean());
-            creditGrowth.print(Model.coreIndicators.getHouseholdCreditGrowth());
-            debtToIncome.print(Model.coreIndicators.getDebtToIncome());
-            ooDebtToIncome.print(Model.coreIndicators.getOODebtToIncome());
-            mortgageApprovals.print(Model.coreIndicators.getMortgageApprovals());
-            housingTransactions.print(Model.coreIndicators.getHousingTransactions());
-            advancesToFTBs.print(Model.coreIndicators.getAdvancesToFTBs());
-            advancesToBTL.print(Model.coreIndicators.getAdvancesToBTL());
-            advancesToHomeMovers.print(Model.coreIndicators.getAdvancesToHomeMovers());
-            priceToIncome.print(Model.coreIndicators.getPriceToIncome());
-            rentalYield.print(Model.coreIndicators.getAvStockYield());
-            housePriceGrowth.print(Model.coreIndicators.getQoQHousePriceGrowth());
-            interestRateSpread.print(Model.coreIndicators.getInterestRateSpread());
         }
 
         // Write general output results to output file
-        outfile.println(time + ", " +
-                // Number of households of each type
-                Model.householdStats.getnNonBTLHomeless() + ", " +
-                Model.householdStats.getnBTLHomeless() + ", " +
-                Model.householdStats.getnHomeless() + ", " +
-                Model.householdStats.getnRenting() + ", " +
-                Model.householdStats.getnNonOwner() + ", " +
-                Model.householdStats.getnNonBTLOwnerOccupier() + ", " +
-                Model.householdStats.getnBTLOwnerOccupier() + ", " +
-                Model.householdStats.getnOwnerOccupier() + ", " +
-                Model.householdStats.getnActiveBTL() + ", " +
-                Model.householdStats.getnBTL() + ", " +
-                Model.householdStats.getnNonBTLBankruptcies() + ", " +
-                Model.householdStats.getnBTLBankruptcies() + ", " +
-                Model.demographics.getTotalPopulation() + ", " +
-                // Numbers of houses of each type
-                Model.construction.getHousingStock() + ", " +
-                Model.construction.getnNewBuild() + ", " +
-                Model.housingMarketStats.getnUnsoldNewBuild() + ", " +
-                Model.householdStats.getnEmptyHouses() + ", " +
-                Model.householdStats.getBTLStockFraction() + ", " +
-                // House sale market data
-                Model.housingMarketStats.getHPI() + ", " +
-                Model.housingMarketStats.getAnnualHPA() + ", " +
-                Model.housingMarketStats.getAvBidPrice() + ", " +
-                Model.housingMarketStats.getAvOfferPrice() + ", " +
-                Model.housingMarketStats.getAvSalePrice() + ", " +
-                Model.housingMarketStats.getExpAvSalePrice() + ", " +
-                Model.housingMarketStats.getAvMonthsOnMarket() + ", " +
-                Model.housingMarketStats.getExpAvMonthsOnMarket() + ", " +
-                Model.housingMarketStats.getnBuyers() + ", " +
-                Model.housingMarketStats.getnBTLBuyers() + ", " +
-                Model.housingMarketStats.getnSellers() + ", " +
-                Model.housingMarketStats.getnNewSellers() + ", " +
-                Model.housingMarketStats.getnBTLSellers() + ", " +
-                Model.housingMarketStats.getnSales() + ", " +
-                Model.householdStats.getnNonBTLBidsAboveExpAvSalePrice() + ", " +
-                Model.householdStats.getnBTLBidsAboveExpAvSalePrice() + ", " +
-                Model.housingMarketStats.getnSalesToBTL() + ", " +
-                Model.housingMarketStats.getnSalesToFTB() + ", " +
-                // Rental market data
-                Model.rentalMarketStats.getHPI() + ", " +
-                Model.rentalMarketStats.getAnnualHPA() + ", " +
-                Model.rentalMarketStats.getAvBidPrice() + ", " +
-                Model.rentalMarketStats.getAvOfferPrice() + ", " +
-                Model.rentalMarketStats.getAvSalePrice() + ", " +
-                Model.rentalMarketStats.getAvMonthsOnMarket() + ", " +
-                Model.rentalMarketStats.getExpAvMonthsOnMarket() + ", " +
-                Model.rentalMarketStats.getnBuyers() + ", " +
-                Model.rentalMarketStats.getnSellers() + ", " +
-                Model.rentalMarketStats.getnSales() + ", " +
-                Model.rentalMarketStats.getExpAvFlowYield() + ", " +
-                // Credit data
-                Model.creditSupply.getnRegisteredMortgages() + ", " +
-                Model.creditSupply.getInterestRate() + ", " +
-                // Commuting data
-                Model.householdStats.getnCommuters() + ", " +
-                Model.householdStats.getSumCommutingFees() + ", " +
-                Model.householdStats.getSumCommutingCost());
+        outfile.add(time);
+        // Number of households of each type
+        outfile.add(Model.householdStats.getnNonBTLHomeless());
+        outfile.add(Model.householdStats.getnBTLHomeless());
+        outfile.add(Model.householdStats.getnHomeless());
+        outfile.add(Model.householdStats.getnRenting());
+        outfile.add(Model.householdStats.getnNonOwner());
+        outfile.add(Model.householdStats.getnNonBTLOwnerOccupier());
+        outfile.add(Model.householdStats.getnBTLOwnerOccupier());
+        outfile.add(Model.householdStats.getnOwnerOccupier());
+        outfile.add(Model.householdStats.getnActiveBTL());
+        outfile.add(Model.householdStats.getnBTL());
+        outfile.add(Model.householdStats.getnNonBTLBankruptcies());
+        outfile.add(Model.householdStats.getnBTLBankruptcies());
+        outfile.add(Model.demographics.getTotalPopulation());
+        // Numbers of houses of each type
+        outfile.add(Model.construction.getHousingStock());
+        outfile.add(Model.construction.getnNewBuild());
+        outfile.add(Model.housingMarketStats.getnUnsoldNewBuild());
+        outfile.add(Model.householdStats.getnEmptyHouses());
+        outfile.add(Model.householdStats.getBTLStockFraction());
+        // House sale market data
+        outfile.add(Model.housingMarketStats.getHPI());
+        outfile.add(Model.housingMarketStats.getAnnualHPA());
+        outfile.add(Model.housingMarketStats.getAvBidPrice());
+        outfile.add(Model.housingMarketStats.getAvOfferPrice());
+        outfile.add(Model.housingMarketStats.getAvSalePrice());
+        outfile.add(Model.housingMarketStats.getExpAvSalePrice());
+        outfile.add(Model.housingMarketStats.getAvMonthsOnMarket());
+        outfile.add(Model.housingMarketStats.getExpAvMonthsOnMarket());
+        outfile.add(Model.housingMarketStats.getnBuyers());
+        outfile.add(Model.housingMarketStats.getnBTLBuyers());
+        outfile.add(Model.housingMarketStats.getnSellers());
+        outfile.add(Model.housingMarketStats.getnNewSellers());
+        outfile.add(Model.housingMarketStats.getnBTLSellers());
+        outfile.add(Model.housingMarketStats.getnSales());
+        outfile.add(Model.householdStats.getnNonBTLBidsAboveExpAvSalePrice());
+        outfile.add(Model.householdStats.getnBTLBidsAboveExpAvSalePrice());
+        outfile.add(Model.housingMarketStats.getnSalesToBTL());
+        outfile.add(Model.housingMarketStats.getnSalesToFTB());
+        // Rental market data
+        outfile.add(Model.rentalMarketStats.getHPI());
+        outfile.add(Model.rentalMarketStats.getAnnualHPA());
+        outfile.add(Model.rentalMarketStats.getAvBidPrice());
+        outfile.add(Model.rentalMarketStats.getAvOfferPrice());
+        outfile.add(Model.rentalMarketStats.getAvSalePrice());
+        outfile.add(Model.rentalMarketStats.getAvMonthsOnMarket());
+        outfile.add(Model.rentalMarketStats.getExpAvMonthsOnMarket());
+        outfile.add(Model.rentalMarketStats.getnBuyers());
+        outfile.add(Model.rentalMarketStats.getnSellers());
+        outfile.add(Model.rentalMarketStats.getnSales());
+        outfile.add(Model.rentalMarketStats.getExpAvFlowYield());
+        // Credit data
+        outfile.add(Model.creditSupply.getnRegisteredMortgages());
+        outfile.add(Model.creditSupply.getInterestRate());
+        // Commuting data
+        outfile.add(Model.householdStats.getnCommuters());
+        outfile.add(Model.householdStats.getSumCommutingFees());
+        outfile.add(Model.householdStats.getSumCommutingCost());
+        outfile.endRow();
 
         // Write general output results for each region
         int i = 0;
         for (Region region: geography.getRegions()) {
-            regionalOutfiles[i].println(time + ", " +
-                    // Number of households of each type
-                    region.regionalHouseholdStats.getnNonBTLHomeless() + ", " +
-                    region.regionalHouseholdStats.getnBTLHomeless() + ", " +
-                    region.regionalHouseholdStats.getnHomeless() + ", " +
-                    region.regionalHouseholdStats.getnRenting() + ", " +
-                    region.regionalHouseholdStats.getnNonOwner() + ", " +
-                    region.regionalHouseholdStats.getnNonBTLOwnerOccupier() + ", " +
-                    region.regionalHouseholdStats.getnBTLOwnerOccupier() + ", " +
-                    region.regionalHouseholdStats.getnOwnerOccupier() + ", " +
-                    region.regionalHouseholdStats.getnActiveBTL() + ", " +
-                    region.regionalHouseholdStats.getnBTL() + ", " +
-                    region.regionalHouseholdStats.getnNonBTLBankruptcies() + ", " +
-                    region.regionalHouseholdStats.getnBTLBankruptcies() + ", " +
-                    region.households.size() + ", " +
-                    // Numbers of houses of each type
-                    region.getHousingStock() + ", " +
-                    Model.construction.getnNewBuildForRegion(region) + ", " +
-                    region.regionalHousingMarketStats.getnUnsoldNewBuild() + ", " +
-                    region.regionalHouseholdStats.getnEmptyHouses() + ", " +
-                    region.regionalHouseholdStats.getBTLStockFraction() + ", " +
-                    // House sale market data
-                    region.regionalHousingMarketStats.getHPI() + ", " +
-                    region.regionalHousingMarketStats.getAnnualHPA() + ", " +
-                    region.regionalHousingMarketStats.getAvBidPrice() + ", " +
-                    region.regionalHousingMarketStats.getAvOfferPrice() + ", " +
-                    region.regionalHousingMarketStats.getAvSalePrice() + ", " +
-                    region.regionalHousingMarketStats.getExpAvSalePrice() + ", " +
-                    region.regionalHousingMarketStats.getAvMonthsOnMarket() + ", " +
-                    region.regionalHousingMarketStats.getExpAvMonthsOnMarket() + ", " +
-                    region.regionalHousingMarketStats.getnBuyers() + ", " +
-                    region.regionalHousingMarketStats.getnBTLBuyers() + ", " +
-                    region.regionalHousingMarketStats.getnSellers() + ", " +
-                    region.regionalHousingMarketStats.getnNewSellers() + ", " +
-                    region.regionalHousingMarketStats.getnBTLSellers() + ", " +
-                    region.regionalHousingMarketStats.getnSales() + ", " +
-                    region.regionalHouseholdStats.getnNonBTLBidsAboveExpAvSalePrice() + ", " +
-                    region.regionalHouseholdStats.getnBTLBidsAboveExpAvSalePrice() + ", " +
-                    region.regionalHousingMarketStats.getnSalesToBTL() + ", " +
-                    region.regionalHousingMarketStats.getnSalesToFTB() + ", " +
-                    // Rental market data
-                    region.regionalRentalMarketStats.getHPI() + ", " +
-                    region.regionalRentalMarketStats.getAnnualHPA() + ", " +
-                    region.regionalRentalMarketStats.getAvBidPrice() + ", " +
-                    region.regionalRentalMarketStats.getAvOfferPrice() + ", " +
-                    region.regionalRentalMarketStats.getAvSalePrice() + ", " +
-                    region.regionalRentalMarketStats.getAvMonthsOnMarket() + ", " +
-                    region.regionalRentalMarketStats.getExpAvMonthsOnMarket() + ", " +
-                    region.regionalRentalMarketStats.getnBuyers() + ", " +
-                    region.regionalRentalMarketStats.getnSellers() + ", " +
-                    region.regionalRentalMarketStats.getnSales() + ", " +
-                    region.regionalRentalMarketStats.getExpAvFlowYield() + ", " +
-                    // Commuting data
-                    region.regionalHouseholdStats.getnCommuters() + ", " +
-                    region.regionalHouseholdStats.getSumCommutingFees() + ", " +
-                    region.regionalHouseholdStats.getSumCommutingCost());
+            regionalOutfiles[i].add(time);
+            // Number of households of each type
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnNonBTLHomeless());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnBTLHomeless());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnHomeless());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnRenting());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnNonOwner());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnNonBTLOwnerOccupier());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnBTLOwnerOccupier());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnOwnerOccupier());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnActiveBTL());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnBTL());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnNonBTLBankruptcies());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnBTLBankruptcies());
+            regionalOutfiles[i].add(region.households.size());
+            // Numbers of houses of each type
+            regionalOutfiles[i].add(region.getHousingStock());
+            regionalOutfiles[i].add(Model.construction.getnNewBuildForRegion(region));
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getnUnsoldNewBuild());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnEmptyHouses());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getBTLStockFraction());
+            // House sale market data
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getHPI());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getAnnualHPA());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getAvBidPrice());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getAvOfferPrice());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getAvSalePrice());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getExpAvSalePrice());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getAvMonthsOnMarket());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getExpAvMonthsOnMarket());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getnBuyers());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getnBTLBuyers());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getnSellers());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getnNewSellers());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getnBTLSellers());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getnSales());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnNonBTLBidsAboveExpAvSalePrice());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnBTLBidsAboveExpAvSalePrice());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getnSalesToBTL());
+            regionalOutfiles[i].add(region.regionalHousingMarketStats.getnSalesToFTB());
+            // Rental market data
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getHPI());
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getAnnualHPA());
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getAvBidPrice());
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getAvOfferPrice());
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getAvSalePrice());
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getAvMonthsOnMarket());
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getExpAvMonthsOnMarket());
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getnBuyers());
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getnSellers());
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getnSales());
+            regionalOutfiles[i].add(region.regionalRentalMarketStats.getExpAvFlowYield());
+            // Commuting data
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getnCommuters());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getSumCommutingFees());
+            regionalOutfiles[i].add(region.regionalHouseholdStats.getSumCommutingCost());
+            regionalOutfiles[i].endRow();
             i++;
         }
 
@@ -334,24 +350,98 @@ public class Recorder {
             str = str.substring(1, str.length() - 1);
             qualityBandPriceFile.println(time + ", " + str);
         }
+
+        // Write percentiles of sale and rental bid and offer prices to file
+        if (recordPriceQuantiles) {
+            StringBuilder str = new StringBuilder(Integer.toString(time));
+            for (QuantileSketch sketch : new QuantileSketch[] {Model.housingMarketStats.getBidPriceSketch(),
+                    Model.housingMarketStats.getOfferPriceSketch(), Model.rentalMarketStats.getBidPriceSketch(),
+                    Model.rentalMarketStats.getOfferPriceSketch()}) {
+                for (double price : sketch.getQuantiles(PRICE_QUANTILES)) {
+                    str.append(", ").append(price);
+                }
+            }
+            priceQuantilesFile.println(str);
+        }
+        FlightRecorderEvents.commitRecorderWrite(event);
+    }
+
+    /**
+     * Current value of each core indicator, in the order of CORE_INDICATOR_NAMES
+     */
+    private double [] getCoreIndicators() {
+        return new double[] {
+                Model.coreIndicators.getOwnerOccupierLTIMeanAboveMedian(),
+                Model.coreIndicators.getBuyToLetLTVMean(),
+                Model.coreIndicators.getHouseholdCreditGrowth(),
+                Model.coreIndicators.getDebtToIncome(),
+                Model.coreIndicators.getOODebtToIncome(),
+                Model.coreIndicators.getMortgageApprovals(),
+                Model.coreIndicators.getHousingTransactions(),
+                Model.coreIndicators.getAdvancesToFTBs(),
+                Model.coreIndicators.getAdvancesToBTL(),
+                Model.coreIndicators.getAdvancesToHomeMovers(),
+                Model.coreIndicators.getPriceToIncome(),
+                Model.coreIndicators.getAvStockYield(),
+                Model.coreIndicators.getQoQHousePriceGrowth(),
+                Model.coreIndicators.getInterestRateSpread()};
+    }
+
+    /**
+     * Write, overwriting any previous version, a file with the number of runs, mean, standard deviation and
+     * percentiles across runs of each core indicator at each time step, such that convergence of the ensemble can be
+     * followed while it runs
+     */
+    private void writeCoreIndicatorsSummary() {
+        try {
+            PrintWriter summaryFile = TextOutputFile.open(outputFolder + "coreIndicator-ensembleSummary.csv",
+                    compressOutput);
+            StringBuilder str = new StringBuilder("indicator, Model time, nRuns, nNonFinite, mean, std");
+            for (double quantile : ENSEMBLE_QUANTILES) {
+                str.append(String.format(", P%d", Math.round(100*quantile)));
+            }
+            summaryFile.println(str);
+            for (int i = 0; i < CORE_INDICATOR_NAMES.length; i++) {
+                EnsembleStatistics statistics = coreIndicatorsEnsemble[i];
+                for (int time = 0; time < statistics.getnTimeSteps(); time++) {
+                    if (statistics.getN(time) == 0 && statistics.getnNonFinite(time) == 0) continue;
+                    str.setLength(0);
+                    str.append(CORE_INDICATOR_NAMES[i]).append(", ").append(time)
+                            .append(", ").append(statistics.getN(time))
+                            .append(", ").append(statistics.getnNonFinite(time))
+                            .append(", ").append(statistics.getMean(time))
+                            .append(", ").append(statistics.getStandardDeviation(time));
+                    for (int j = 0; j < ENSEMBLE_QUANTILES.length; j++) {
+                        str.append(", ").append(statistics.getQuantile(time, j));
+                    }
+                    summaryFile.println(str);
+                }
+            }
+            summaryFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write to disk all results recorded so far, such that files can be truncated at their current length and
+     * appended to after resuming from a checkpoint
+     */
+    public void sync() throws IOException {
+        if (coreIndicatorFiles != null) {
+            for (TextOutputFile file : coreIndicatorFiles) file.sync();
+        }
+        outfile.sync();
+        for (TimeSeriesWriter regionalOutfile : regionalOutfiles) regionalOutfile.sync();
+        if (qualityBandPriceFile != null) qualityBandPriceFile.sync();
+        if (priceQuantilesFile != null) priceQuantilesFile.sync();
     }
 
-    public void finishRun(boolean recordCoreIndicators, boolean recordQualityBandPrice) {
+    public void finishRun(boolean recordCoreIndicators, boolean recordCoreIndicatorsSummary,
+                          boolean recordQualityBandPrice, boolean recordPriceQuantiles) {
+        if (recordCoreIndicatorsSummary) writeCoreIndicatorsSummary();
         if (recordCoreIndicators) {
-            ooLTI.println("");
-            btlLTV.println("");
-            creditGrowth.println("");
-            debtToIncome.println("");
-            ooDebtToIncome.println("");
-            mortgageApprovals.println("");
-            housingTransactions.println("");
-            advancesToFTBs.println("");
-            advancesToBTL.println("");
-            advancesToHomeMovers.println("");
-            priceToIncome.println("");
-            rentalYield.println("");
-            housePriceGrowth.println("");
-            interestRateSpread.println("");
+            for (TextOutputFile file : coreIndicatorFiles) file.println("");
         }
         outfile.close();
         for (int i = 0; i < geography.getRegions().size(); i++) {
@@ -360,24 +450,26 @@ public class Recorder {
         if (recordQualityBandPrice) {
             qualityBandPriceFile.close();
         }
+        if (recordPriceQuantiles) {
+            priceQuantilesFile.close();
+        }
     }
 
-    public void finish(boolean recordCoreIndicators) {
+    public void finish(boolean recordCoreIndicators, boolean recordCoreIndicatorsSummary) {
+        if (recordCoreIndicatorsSummary) writeCoreIndicatorsSummary();
         if (recordCoreIndicators) {
-            ooLTI.close();
-            btlLTV.close();
-            creditGrowth.close();
-            debtToIncome.close();
-            ooDebtToIncome.close();
-            mortgageApprovals.close();
-            housingTransactions.close();
-            advancesToFTBs.close();
-            advancesToBTL.close();
-            advancesToHomeMovers.close();
-            priceToIncome.close();
-            rentalYield.close();
-            housePriceGrowth.close();
-            interestRateSpread.close();
+            for (TextOutputFile file : coreIndicatorFiles) file.close();
         }
     }
+
+    //----- Getter/setter methods -----//
+
+    /**
+     * Statistics across runs of each core indicator, null if not recorded
+     */
+    public EnsembleStatistics [] getCoreIndicatorsEnsemble() { return coreIndicatorsEnsemble; }
+
+    public void setCoreIndicatorsEnsemble(EnsembleStatistics [] coreIndicatorsEnsemble) {
+        this.coreIndicatorsEnsemble = coreIndicatorsEnsemble;
+    }
 }
@@ -3,6 +3,7 @@ package collectors;
 import housing.Config;
 import housing.Household;
 import housing.Region;
+import utilities.StateBuffer;
 
 /**************************************************************************************************
  * Class to collect regional household statistics
@@ -194,6 +195,62 @@ public class RegionalHouseholdStats {
         }
     }
 
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the state of the collector into a state buffer
+     */
+    public void writeState(StateBuffer state) {
+        state.putInt(nBTL);
+        state.putInt(nActiveBTL);
+        state.putInt(nBTLOwnerOccupier);
+        state.putInt(nBTLHomeless);
+        state.putInt(nBTLBankruptcies);
+        state.putInt(nNonBTLOwnerOccupier);
+        state.putInt(nRenting);
+        state.putInt(nNonBTLHomeless);
+        state.putInt(nNonBTLBankruptcies);
+        state.putDouble(activeBTLAnnualisedTotalIncome);
+        state.putDouble(ownerOccupierAnnualisedTotalIncome);
+        state.putDouble(rentingAnnualisedTotalIncome);
+        state.putDouble(homelessAnnualisedTotalIncome);
+        state.putDouble(sumStockYield);
+        state.putDouble(sumCommutingFees);
+        state.putDouble(sumCommutingCost);
+        state.putInt(nCommuters);
+        state.putInt(nNonBTLBidsAboveExpAvSalePrice);
+        state.putInt(nBTLBidsAboveExpAvSalePrice);
+        state.putInt(nNonBTLBidsAboveExpAvSalePriceCounter);
+        state.putInt(nBTLBidsAboveExpAvSalePriceCounter);
+    }
+
+    /**
+     * Read the state of the collector from a state buffer, as written by writeState
+     */
+    public void readState(StateBuffer state) {
+        nBTL = state.getInt();
+        nActiveBTL = state.getInt();
+        nBTLOwnerOccupier = state.getInt();
+        nBTLHomeless = state.getInt();
+        nBTLBankruptcies = state.getInt();
+        nNonBTLOwnerOccupier = state.getInt();
+        nRenting = state.getInt();
+        nNonBTLHomeless = state.getInt();
+        nNonBTLBankruptcies = state.getInt();
+        activeBTLAnnualisedTotalIncome = state.getDouble();
+        ownerOccupierAnnualisedTotalIncome = state.getDouble();
+        rentingAnnualisedTotalIncome = state.getDouble();
+        homelessAnnualisedTotalIncome = state.getDouble();
+        sumStockYield = state.getDouble();
+        sumCommutingFees = state.getDouble();
+        sumCommutingCost = state.getDouble();
+        nCommuters = state.getInt();
+        nNonBTLBidsAboveExpAvSalePrice = state.getInt();
+        nBTLBidsAboveExpAvSalePrice = state.getInt();
+        nNonBTLBidsAboveExpAvSalePriceCounter = state.getInt();
+        nBTLBidsAboveExpAvSalePriceCounter = state.getInt();
+    }
+
     //----- Getter/setter methods -----//
 
     // Getters for numbers of households variables
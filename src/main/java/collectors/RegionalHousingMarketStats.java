@@ -1,8 +1,9 @@
 package collectors;
 
 import housing.*;
-
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import utilities.QuantileSketch;
+import utilities.RingBuffer;
+import utilities.StateBuffer;
 
 import java.util.Arrays;
 
@@ -34,8 +35,9 @@ public class RegionalHousingMarketStats {
     private int                     nBTLSellers;
 	private double                  sumBidPrices;
 	private double                  sumOfferPrices;
-	private double []               offerPrices;
 	private double []               bidPrices;
+    private QuantileSketch          bidPriceSketch; // Summary of the distribution of bid prices, if recordPriceQuantiles
+    private QuantileSketch          offerPriceSketch; // Summary of the distribution of offer prices, if recordPriceQuantiles
 
     // Variables computed during market clearing, counters
     private int                     salesCount; // Dummy variable to count sales
@@ -65,7 +67,7 @@ public class RegionalHousingMarketStats {
     private double []               expAvMonthsOnMarketPerQuality; // Exponential moving average of the months on market for each quality band
     private double []               expAvSalePricePerQuality; // Exponential moving average of the price for each quality band
     private double                  housePriceIndex;
-    private DescriptiveStatistics   HPIRecord;
+    private RingBuffer              HPIRecord; // Record of HPI values, also keeping their quarter sums
     private double                  annualHousePriceAppreciation;
     private double                  longTermHousePriceAppreciation;
 
@@ -86,7 +88,12 @@ public class RegionalHousingMarketStats {
         // TODO: Attention, this is passing the national reference prices for each region! Each region should have its own!
         System.arraycopy(data.HouseSaleMarket.getReferencePricePerQuality(), 0, referencePricePerQuality, 0,
                 this.config.N_QUALITY); // Copies reference prices from data/HouseSaleMarket into referencePricePerQuality
-        HPIRecord = new DescriptiveStatistics(this.config.derivedParams.HPI_RECORD_LENGTH);
+        HPIRecord = new RingBuffer(this.config.derivedParams.HPI_RECORD_LENGTH,
+                this.config.constants.MONTHS_IN_QUARTER);
+        if (this.config.recordPriceQuantiles) {
+            bidPriceSketch = new QuantileSketch();
+            offerPriceSketch = new QuantileSketch();
+        }
     }
 
     //-------------------//
@@ -105,7 +112,6 @@ public class RegionalHousingMarketStats {
         nUnsoldNewBuild = 0;
         sumBidPrices = 0.0;
         sumOfferPrices = 0.0;
-        offerPrices = new double[nSellers];
         bidPrices = new double[nBuyers];
 
         // Set zero initial value for persistent variables whose count is computed during market clearing
@@ -127,7 +133,7 @@ public class RegionalHousingMarketStats {
         System.arraycopy(referencePricePerQuality, 0, expAvSalePricePerQuality, 0,
                 config.N_QUALITY); // Exponential averaging of prices is initialised from reference prices
         housePriceIndex = 1.0;
-        for (int i = 0; i < config.derivedParams.HPI_RECORD_LENGTH; ++i) HPIRecord.addValue(1.0);
+        HPIRecord.fill(1.0);
         annualHousePriceAppreciation = housePriceAppreciation(1);
         longTermHousePriceAppreciation = housePriceAppreciation(config.HPA_YEARS_TO_CHECK);
     }
@@ -149,49 +155,35 @@ public class RegionalHousingMarketStats {
         sumSalePricePerQualityCount = new double[config.N_QUALITY];
         nSalesPerQualityCount = new int[config.N_QUALITY];
 
-        // Re-initialise to zero variables computed before market clearing
+        // Re-initialise variables computed before market clearing, reading the counters kept by the market itself
         nBuyers = market.getBids().size();
-        nBTLBuyers = 0;
-        for (HouseBidderRecord bid: market.getBids()) {
-            if (bid.getBidder().behaviour.isPropertyInvestor() && bid.getBidder().getHome() != null) {
-                nBTLBuyers++;
-            }
-        }
+        nBTLBuyers = market.getnBTLBids();
         nSellers = market.getOffersPQ().size();
-        nNewSellers = 0;
-        nBTLSellers = 0;
-        for (HousingMarketRecord element: market.getOffersPQ()) {
-            HouseOfferRecord offer = (HouseOfferRecord)element;
-            if (offer.gettInitialListing() == Model.getTime()) {
-                nNewSellers++;
+        nNewSellers = market.getnNewOffers();
+        nBTLSellers = market.getnBTLOffers();
+        sumBidPrices = market.getSumBidPrices();
+        sumOfferPrices = market.getSumOfferPrices();
+
+        // If price quantiles are to be recorded, summarise bid and offer prices with quantile sketches...
+        if (config.recordPriceQuantiles) {
+            bidPrices = new double[0];
+            bidPriceSketch.clear();
+            for (HouseBidderRecord bid : market.getBids()) {
+                bidPriceSketch.update(bid.getPrice());
             }
-            if (offer.getHouse().owner != Model.construction) {
-                Household h = (Household) offer.getHouse().owner;
-                if (h.behaviour.isPropertyInvestor()) {
-                    nBTLSellers++;
-                }
+            offerPriceSketch.clear();
+            for (HousingMarketRecord sale : market.getOffersPQ()) {
+                offerPriceSketch.update(sale.getPrice());
+            }
+        // ...otherwise, record bid prices (note that bids only last for a month, while offer prices, which can
+        // accumulate on the market, are only collected on demand)
+        } else {
+            bidPrices = new double[nBuyers];
+            int i = 0;
+            for (HouseBidderRecord bid : market.getBids()) {
+                bidPrices[i] = bid.getPrice();
+                ++i;
             }
-        }
-        sumBidPrices = 0.0;
-        sumOfferPrices = 0.0;
-        offerPrices = new double[nSellers];
-        bidPrices = new double[nBuyers];
-
-
-        // Record bid prices and their average
-        int i = 0;
-        for (HouseBidderRecord bid : market.getBids()) {
-            sumBidPrices += bid.getPrice();
-            bidPrices[i] = bid.getPrice();
-            ++i;
-        }
-
-        // Record offer prices, their average, and the number of empty and new houses
-        i = 0;
-        for (HousingMarketRecord sale : market.getOffersPQ()) {
-            sumOfferPrices += sale.getPrice();
-            offerPrices[i] = sale.getPrice();
-            ++i;
         }
     }
 
@@ -216,7 +208,7 @@ public class RegionalHousingMarketStats {
             }
         }
         // TODO: Attention, call to model from regional class: need to understand if regional micro-data recorders would be needed!
-        Model.transactionRecorder.recordSale(purchase, sale, mortgage, market);
+        if (Model.transactionRecorder != null) Model.transactionRecorder.recordSale(purchase, sale, mortgage, market);
     }
 
     /**
@@ -271,7 +263,7 @@ public class RegionalHousingMarketStats {
             housePriceIndex = sumSoldPrice/sumSoldReferencePrice;
         }
         // ... HPIRecord with the new house price index value
-        HPIRecord.addValue(housePriceIndex);
+        HPIRecord.add(housePriceIndex);
         // ... current house price appreciation values (both annual and long term value)
         annualHousePriceAppreciation = housePriceAppreciation(1);
         longTermHousePriceAppreciation = housePriceAppreciation(config.HPA_YEARS_TO_CHECK);
@@ -281,10 +273,7 @@ public class RegionalHousingMarketStats {
                     + (1.0 - config.MARKET_AVERAGE_PRICE_DECAY)*(housePriceIndex*referencePricePerQuality[q]);
         }
         // ...record number of unsold new build houses
-        nUnsoldNewBuild = 0;
-        for (HousingMarketRecord sale : market.getOffersPQ()) {
-            if (((HouseOfferRecord) sale).getHouse().owner == Model.construction) nUnsoldNewBuild++;
-        }
+        nUnsoldNewBuild = market.getnNewBuildOffers();
     }
 
     /**
@@ -296,15 +285,8 @@ public class RegionalHousingMarketStats {
      * @return Annualised house price appreciation over nYears years
      */
     private double housePriceAppreciation(int nYears) {
-        double HPI = (HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH - 1)
-                + HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH - 2)
-                + HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH - 3));
-        double oldHPI = (HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH
-                - nYears*config.constants.MONTHS_IN_YEAR - 1)
-                + HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH
-                - nYears*config.constants.MONTHS_IN_YEAR - 2)
-                + HPIRecord.getElement(config.derivedParams.HPI_RECORD_LENGTH
-                - nYears*config.constants.MONTHS_IN_YEAR - 3));
+        double HPI = HPIRecord.getBlockSum(0);
+        double oldHPI = HPIRecord.getBlockSum(nYears*config.constants.MONTHS_IN_YEAR);
         return(Math.pow(HPI/oldHPI, 1.0/nYears) - 1.0);
     }
 
@@ -315,15 +297,97 @@ public class RegionalHousingMarketStats {
      * @return Quarter on quarter house price growth
      */
     double getQoQHousePriceGrowth() {
-        double HPI = HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 1)
-                + HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 2)
-                + HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 3);
-        double oldHPI = HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 4)
-                + HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 5)
-                + HPIRecord.getElement(config.derivedParams.getHPIRecordLength() - 6);
+        double HPI = HPIRecord.getBlockSum(0);
+        double oldHPI = HPIRecord.getBlockSum(config.constants.MONTHS_IN_QUARTER);
         return(100.0*(HPI - oldHPI)/oldHPI);
     }
 
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the state of the collector into a state buffer
+     */
+    public void writeState(StateBuffer state) {
+        state.putInt(nBuyers);
+        state.putInt(nBTLBuyers);
+        state.putInt(nSellers);
+        state.putInt(nNewSellers);
+        state.putInt(nBTLSellers);
+        state.putDouble(sumBidPrices);
+        state.putDouble(sumOfferPrices);
+        state.putDoubles(bidPrices);
+        state.putInt(salesCount);
+        state.putInt(ftbSalesCount);
+        state.putInt(btlSalesCount);
+        state.putDouble(sumSoldReferencePriceCount);
+        state.putDouble(sumSoldPriceCount);
+        state.putDouble(sumMonthsOnMarketCount);
+        state.putDoubles(sumMonthsOnMarketPerQualityCount);
+        state.putDoubles(sumSalePricePerQualityCount);
+        state.putInts(nSalesPerQualityCount);
+        state.putInt(nSales);
+        state.putInt(nFTBSales);
+        state.putInt(nBTLSales);
+        state.putInt(nUnsoldNewBuild);
+        state.putDouble(sumSoldReferencePrice);
+        state.putDouble(sumSoldPrice);
+        state.putDouble(sumMonthsOnMarket);
+        state.putDoubles(sumSalePricePerQuality);
+        state.putInts(nSalesPerQuality);
+        state.putDouble(expAvMonthsOnMarket);
+        state.putDoubles(sumMonthsOnMarketPerQuality);
+        state.putDoubles(expAvMonthsOnMarketPerQuality);
+        state.putDoubles(expAvSalePricePerQuality);
+        state.putDouble(housePriceIndex);
+        state.putDouble(annualHousePriceAppreciation);
+        state.putDouble(longTermHousePriceAppreciation);
+        HousingMarketStats.writeSketch(state, bidPriceSketch);
+        HousingMarketStats.writeSketch(state, offerPriceSketch);
+        HPIRecord.writeState(state);
+    }
+
+    /**
+     * Read the state of the collector from a state buffer, as written by writeState
+     */
+    public void readState(StateBuffer state) {
+        nBuyers = state.getInt();
+        nBTLBuyers = state.getInt();
+        nSellers = state.getInt();
+        nNewSellers = state.getInt();
+        nBTLSellers = state.getInt();
+        sumBidPrices = state.getDouble();
+        sumOfferPrices = state.getDouble();
+        bidPrices = state.getDoubles();
+        salesCount = state.getInt();
+        ftbSalesCount = state.getInt();
+        btlSalesCount = state.getInt();
+        sumSoldReferencePriceCount = state.getDouble();
+        sumSoldPriceCount = state.getDouble();
+        sumMonthsOnMarketCount = state.getDouble();
+        sumMonthsOnMarketPerQualityCount = state.getDoubles();
+        sumSalePricePerQualityCount = state.getDoubles();
+        nSalesPerQualityCount = state.getInts();
+        nSales = state.getInt();
+        nFTBSales = state.getInt();
+        nBTLSales = state.getInt();
+        nUnsoldNewBuild = state.getInt();
+        sumSoldReferencePrice = state.getDouble();
+        sumSoldPrice = state.getDouble();
+        sumMonthsOnMarket = state.getDouble();
+        sumSalePricePerQuality = state.getDoubles();
+        nSalesPerQuality = state.getInts();
+        expAvMonthsOnMarket = state.getDouble();
+        sumMonthsOnMarketPerQuality = state.getDoubles();
+        expAvMonthsOnMarketPerQuality = state.getDoubles();
+        expAvSalePricePerQuality = state.getDoubles();
+        housePriceIndex = state.getDouble();
+        annualHousePriceAppreciation = state.getDouble();
+        longTermHousePriceAppreciation = state.getDouble();
+        HousingMarketStats.readSketch(state, bidPriceSketch);
+        HousingMarketStats.readSketch(state, offerPriceSketch);
+        HPIRecord.readState(state);
+    }
+
     //----- Getter/setter methods -----//
 
     // Note that, for security reasons, getters should never give counter variables, as their value changes during
@@ -342,8 +406,24 @@ public class RegionalHousingMarketStats {
     int getnUnsoldNewBuild() { return nUnsoldNewBuild; }
     double getSumBidPrices() { return sumBidPrices; }
     double getSumOfferPrices() { return sumOfferPrices; }
-    double [] getOfferPrices() { return offerPrices; }
+    int getnOffersOnMarket() { return market.getOffersPQ().size(); }
+
+    /**
+     * Prices of all offers currently on the market, collected on demand from the order book
+     */
+    double [] getOfferPrices() {
+        double [] offerPrices = new double[market.getOffersPQ().size()];
+        int i = 0;
+        for (HousingMarketRecord sale : market.getOffersPQ()) {
+            offerPrices[i] = sale.getPrice();
+            ++i;
+        }
+        return offerPrices;
+    }
+
     double [] getBidPrices() { return bidPrices; }
+    QuantileSketch getBidPriceSketch() { return bidPriceSketch; }
+    QuantileSketch getOfferPriceSketch() { return offerPriceSketch; }
 
     // Getters for variables computed after market clearing to keep the previous values during the clearing
     int getnSales() { return nSales; }
@@ -375,7 +455,7 @@ public class RegionalHousingMarketStats {
         return sum/n;
     }
     public double getHPI() { return housePriceIndex; }
-    public DescriptiveStatistics getHPIRecord() { return HPIRecord; }
+    public RingBuffer getHPIRecord() { return HPIRecord; }
     double getAnnualHPA() { return annualHousePriceAppreciation; }
     public double getLongTermHPA() {return longTermHousePriceAppreciation; }
 
@@ -1,6 +1,7 @@
 package collectors;
 
 import housing.*;
+import utilities.StateBuffer;
 
 import java.util.Arrays;
 
@@ -148,6 +149,42 @@ public class RegionalRentalMarketStats extends RegionalHousingMarketStats {
                 + (1.0 - config.derivedParams.KL)*avFlowYield;
     }
 
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * This method extends the corresponding one at the RegionalHousingMarketStats class with the rental-specific
+     * variables
+     */
+    @Override
+    public void writeState(StateBuffer state) {
+        super.writeState(state);
+        state.putDoubles(sumMonthsOnMarketPerQualityCount);
+        state.putDoubles(sumMonthsOnMarketPerQuality);
+        state.putDoubles(expAvMonthsOnMarketPerQuality);
+        state.putDoubles(avOccupancyPerQuality);
+        state.putDoubles(avFlowYieldPerQuality);
+        state.putDouble(avFlowYield);
+        state.putDouble(expAvFlowYield);
+        state.putDouble(longTermExpAvFlowYield);
+    }
+
+    /**
+     * This method extends the corresponding one at the RegionalHousingMarketStats class with the rental-specific
+     * variables
+     */
+    @Override
+    public void readState(StateBuffer state) {
+        super.readState(state);
+        sumMonthsOnMarketPerQualityCount = state.getDoubles();
+        sumMonthsOnMarketPerQuality = state.getDoubles();
+        expAvMonthsOnMarketPerQuality = state.getDoubles();
+        avOccupancyPerQuality = state.getDoubles();
+        avFlowYieldPerQuality = state.getDoubles();
+        avFlowYield = state.getDouble();
+        expAvFlowYield = state.getDouble();
+        longTermExpAvFlowYield = state.getDouble();
+    }
+
     //----- Getter/setter methods -----//
 
     // Note that, for security reasons, getters should never give or use counter variables, as their value changes
@@ -3,6 +3,7 @@ package collectors;
 import housing.Config;
 import housing.Geography;
 import housing.Region;
+import utilities.StateBuffer;
 
 import java.util.Arrays;
 
@@ -151,11 +152,16 @@ public class RentalMarketStats extends HousingMarketStats {
     }
 
     /**
-     * Collects all offer prices from the regional rental market statistics objects
+     * Collects all offer prices currently on the market from the regional rental market statistics objects
      * Note: Overrides equivalent at RentalMarketStats
      */
     @Override
     void collectOfferPrices() {
+        int nOffers = 0;
+        for (Region region: geography.getRegions()) {
+            nOffers += region.regionalRentalMarketStats.getnOffersOnMarket();
+        }
+        offerPrices = new double[nOffers];
         int i = 0;
         for (Region region: geography.getRegions()) {
             for (double price: region.regionalRentalMarketStats.getOfferPrices()) {
@@ -180,6 +186,52 @@ public class RentalMarketStats extends HousingMarketStats {
         }
     }
 
+    /**
+     * Merges the regional bid and offer price sketches of the rental market into the national ones
+     * Note: Overrides equivalent at HousingMarketStats
+     */
+    @Override
+    void mergePriceSketches() {
+        bidPriceSketch.clear();
+        offerPriceSketch.clear();
+        for (Region region: geography.getRegions()) {
+            bidPriceSketch.merge(region.regionalRentalMarketStats.getBidPriceSketch());
+            offerPriceSketch.merge(region.regionalRentalMarketStats.getOfferPriceSketch());
+        }
+    }
+
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * This method extends the corresponding one at the HousingMarketStats class with the rental-specific variables
+     */
+    @Override
+    public void writeState(StateBuffer state) {
+        super.writeState(state);
+        state.putDoubles(sumMonthsOnMarketPerQuality);
+        state.putDoubles(expAvMonthsOnMarketPerQuality);
+        state.putDoubles(avOccupancyPerQuality);
+        state.putDoubles(avFlowYieldPerQuality);
+        state.putDouble(avFlowYield);
+        state.putDouble(expAvFlowYield);
+        state.putDouble(longTermExpAvFlowYield);
+    }
+
+    /**
+     * This method extends the corresponding one at the HousingMarketStats class with the rental-specific variables
+     */
+    @Override
+    public void readState(StateBuffer state) {
+        super.readState(state);
+        sumMonthsOnMarketPerQuality = state.getDoubles();
+        expAvMonthsOnMarketPerQuality = state.getDoubles();
+        avOccupancyPerQuality = state.getDoubles();
+        avFlowYieldPerQuality = state.getDoubles();
+        avFlowYield = state.getDouble();
+        expAvFlowYield = state.getDouble();
+        longTermExpAvFlowYield = state.getDouble();
+    }
+
     //----- Getter/setter methods -----//
 
     // Rental-specific getters
@@ -0,0 +1,120 @@
+package collectors;
+
+import housing.Model;
+import housing.SimulationObserver;
+
+import java.util.Arrays;
+
+/**************************************************************************************************
+ * Class to keep in memory, as one primitive array per series indexed by time step, a selection of
+ * national time series, with the same names as in the output files, sampled at the end of each
+ * time step. Used by SimulationRunner to return results without writing any output file
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class SimulationTimeSeries implements SimulationObserver {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    // Names of the time series which can be selected
+    public static final String [] SERIES_NAMES = {"Sale HPI", "Sale AnnualHPA", "Sale AvBidPrice",
+            "Sale AvOfferPrice", "Sale AvSalePrice", "Sale AvMonthsOnMarket", "Sale nBuyers", "Sale nSellers",
+            "Sale nSales", "Rental HPI", "Rental AvSalePrice", "Rental nSales", "Rental ExpAvFlowYield",
+            "TotalPopulation", "nHomeless", "nRenting", "nOwnerOccupier", "nActiveBTL", "BTLStockFraction",
+            "nRegisteredMortgages", "interestRate", "ooLTI", "btlLTV", "creditGrowth", "debtToIncome",
+            "ooDebtToIncome", "mortgageApprovals", "housingTransactions", "advancesToFTB", "advancesToBTL",
+            "advancesToMovers", "priceToIncome", "rentalYield", "housePriceGrowth", "interestRateSpread"};
+
+    private String []   seriesNames;    // Names of the series selected
+    private int []      series;         // Index in SERIES_NAMES of each series selected
+    private double [][] values;         // Value of each series selected at each time step
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    /**
+     * @param seriesNames Names, from SERIES_NAMES, of the time series to keep
+     * @param nTimeSteps Number of time steps
+     */
+    public SimulationTimeSeries(String [] seriesNames, int nTimeSteps) {
+        this.seriesNames = seriesNames.clone();
+        series = new int[seriesNames.length];
+        for (int j = 0; j < seriesNames.length; j++) {
+            series[j] = Arrays.asList(SERIES_NAMES).indexOf(seriesNames[j]);
+            if (series[j] < 0) {
+                throw new IllegalArgumentException("Unrecognised time series \"" + seriesNames[j] + "\"");
+            }
+        }
+        values = new double[seriesNames.length][nTimeSteps];
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    @Override
+    public void step(int time) {
+        for (int j = 0; j < series.length; j++) values[j][time] = getSeriesValue(series[j]);
+    }
+
+    /**
+     * Current value of a time series, given by its index in SERIES_NAMES
+     */
+    private static double getSeriesValue(int series) {
+        switch (series) {
+            case 0: return Model.housingMarketStats.getHPI();
+            case 1: return Model.housingMarketStats.getAnnualHPA();
+            case 2: return Model.housingMarketStats.getAvBidPrice();
+            case 3: return Model.housingMarketStats.getAvOfferPrice();
+            case 4: return Model.housingMarketStats.getAvSalePrice();
+            case 5: return Model.housingMarketStats.getAvMonthsOnMarket();
+            case 6: return Model.housingMarketStats.getnBuyers();
+            case 7: return Model.housingMarketStats.getnSellers();
+            case 8: return Model.housingMarketStats.getnSales();
+            case 9: return Model.rentalMarketStats.getHPI();
+            case 10: return Model.rentalMarketStats.getAvSalePrice();
+            case 11: return Model.rentalMarketStats.getnSales();
+            case 12: return Model.rentalMarketStats.getExpAvFlowYield();
+            case 13: return Model.demographics.getTotalPopulation();
+            case 14: return Model.householdStats.getnHomeless();
+            case 15: return Model.householdStats.getnRenting();
+            case 16: return Model.householdStats.getnOwnerOccupier();
+            case 17: return Model.householdStats.getnActiveBTL();
+            case 18: return Model.householdStats.getBTLStockFraction();
+            case 19: return Model.creditSupply.getnRegisteredMortgages();
+            case 20: return Model.creditSupply.getInterestRate();
+            case 21: return Model.coreIndicators.getOwnerOccupierLTIMeanAboveMedian();
+            case 22: return Model.coreIndicators.getBuyToLetLTVMean();
+            case 23: return Model.coreIndicators.getHouseholdCreditGrowth();
+            case 24: return Model.coreIndicators.getDebtToIncome();
+            case 25: return Model.coreIndicators.getOODebtToIncome();
+            case 26: return Model.coreIndicators.getMortgageApprovals();
+            case 27: return Model.coreIndicators.getHousingTransactions();
+            case 28: return Model.coreIndicators.getAdvancesToFTBs();
+            case 29: return Model.coreIndicators.getAdvancesToBTL();
+            case 30: return Model.coreIndicators.getAdvancesToHomeMovers();
+            case 31: return Model.coreIndicators.getPriceToIncome();
+            case 32: return Model.coreIndicators.getAvStockYield();
+            case 33: return Model.coreIndicators.getQoQHousePriceGrowth();
+            default: return Model.coreIndicators.getInterestRateSpread();
+        }
+    }
+
+    //----- Getter/setter methods -----//
+
+    public String [] getSeriesNames() { return seriesNames.clone(); }
+
+    /**
+     * Values of a selected time series at each time step, or null if the series was not selected
+     */
+    public double [] getSeries(String name) {
+        int j = Arrays.asList(seriesNames).indexOf(name);
+        return (j >= 0) ? values[j] : null;
+    }
+
+    public double [] getSeries(int j) { return values[j]; }
+}
@@ -0,0 +1,288 @@
+package collectors;
+
+import housing.Geography;
+import housing.Model;
+import housing.Region;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**************************************************************************************************
+ * Embedded HTTP server, listening only on the loopback interface, to follow a running simulation
+ * live. At the end of each model step, the latest national and regional indicators, together with
+ * the time spent in each phase of the step, are copied into a snapshot, which clients can get
+ * - as a JSON document, at /snapshot, or
+ * - as a stream of server-sent events, each with a JSON document, at /events
+ * In order not to block the simulation thread, two snapshot buffers are used: the simulation
+ * fills the one not being served and then publishes it, while clients read the latest published
+ * one. Each buffer is guarded by a lock, which the simulation thread only tries to take, skipping
+ * the publication of a step in the rare case where a slow client is still reading that buffer
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class TelemetryServer {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    private static final String [] NATIONAL_FIELDS = {"Sale HPI", "Sale AnnualHPA", "Sale AvBidPrice",
+            "Sale AvOfferPrice", "Sale AvSalePrice", "Sale ExpAvSalePrice", "Sale AvMonthsOnMarket", "Sale nBuyers",
+            "Sale nSellers", "Sale nSales", "Rental HPI", "Rental AnnualHPA", "Rental AvSalePrice", "Rental nBuyers",
+            "Rental nSellers", "Rental nSales", "Rental ExpAvFlowYield", "TotalPopulation", "nHomeless", "nRenting",
+            "nOwnerOccupier", "nActiveBTL", "BTLStockFraction", "nRegisteredMortgages", "interestRate"};
+    private static final String [] REGIONAL_FIELDS = {"Sale HPI", "Sale AnnualHPA", "Sale AvBidPrice",
+            "Sale AvOfferPrice", "Sale AvSalePrice", "Sale ExpAvSalePrice", "Sale AvMonthsOnMarket", "Sale nBuyers",
+            "Sale nSellers", "Sale nSales", "Rental HPI", "Rental AnnualHPA", "Rental AvSalePrice", "Rental nBuyers",
+            "Rental nSellers", "Rental nSales", "Rental ExpAvFlowYield", "TotalPopulation", "nHomeless", "nRenting",
+            "nOwnerOccupier", "nActiveBTL", "BTLStockFraction"};
+    private static final long EVENTS_POLLING_MILLIS = 100; // Time between checks for new snapshots to stream
+
+    private Geography               geography;
+    private PerformanceRecorder     performanceRecorder;
+    private HttpServer              server;
+    private Snapshot []             snapshots;
+    private volatile int            published;  // Index of the latest published snapshot
+    private volatile long           version;    // Number of snapshots published so far
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    public TelemetryServer(Geography geography, PerformanceRecorder performanceRecorder) {
+        this.geography = geography;
+        this.performanceRecorder = performanceRecorder;
+        int nRegions = geography.getRegions().size();
+        int nPhases = PerformanceRecorder.getPhaseNames().length;
+        snapshots = new Snapshot[] {new Snapshot(nRegions, nPhases), new Snapshot(nRegions, nPhases)};
+        published = 0;
+        version = 0;
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Start listening, on a background thread pool, for requests on the given port of the loopback interface
+     */
+    public void start(int port) throws IOException {
+        performanceRecorder.enableTiming();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/snapshot", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException { serveSnapshot(exchange); }
+        });
+        server.createContext("/events", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException { serveEvents(exchange); }
+        });
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TelemetryServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        System.out.println("Telemetry available at http://localhost:" + server.getAddress().getPort()
+                + "/snapshot and /events");
+    }
+
+    public void stop() {
+        if (server != null) server.stop(0);
+    }
+
+    /**
+     * Copy the latest indicators and phase timings into the snapshot buffer not published, and then publish it. Note
+     * that this must be called from the simulation thread at the end of each model step
+     */
+    public void publish() {
+        Snapshot snapshot = snapshots[1 - published];
+        if (!snapshot.lock.tryLock()) return;
+        try {
+            snapshot.fill();
+        } finally {
+            snapshot.lock.unlock();
+        }
+        published = 1 - published;
+        version++;
+    }
+
+    /**
+     * JSON document with the latest published snapshot, or null if none has been published yet
+     */
+    private String getLatestJson() {
+        if (version == 0) return null;
+        Snapshot snapshot = snapshots[published];
+        snapshot.lock.lock();
+        try {
+            return snapshot.toJson();
+        } finally {
+            snapshot.lock.unlock();
+        }
+    }
+
+    private void serveSnapshot(HttpExchange exchange) throws IOException {
+        String json = getLatestJson();
+        byte [] body = ((json == null) ? "{}" : json).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders((json == null) ? 503 : 200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Stream each new snapshot as a server-sent event, until the client disconnects
+     */
+    private void serveEvents(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        long lastVersion = 0;
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (true) {
+                if (version != lastVersion) {
+                    lastVersion = version;
+                    String json = getLatestJson();
+                    out.write(("data: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                Thread.sleep(EVENTS_POLLING_MILLIS);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Client disconnected or server stopped, nothing else to do
+        }
+    }
+
+    /**
+     * Copy of the latest indicators, guarded by a lock
+     */
+    private class Snapshot {
+        private final ReentrantLock lock = new ReentrantLock();
+        private int                 simulation;
+        private int                 time;
+        private double []           national = new double[NATIONAL_FIELDS.length];
+        private double [][]         regional;
+        private double []           phaseMillis;
+
+        private Snapshot(int nRegions, int nPhases) {
+            regional = new double[nRegions][REGIONAL_FIELDS.length];
+            phaseMillis = new double[nPhases];
+        }
+
+        /**
+         * Copy the latest values of all indicators, in the order of NATIONAL_FIELDS and REGIONAL_FIELDS
+         */
+        private void fill() {
+            simulation = Model.nSimulation;
+            time = Model.getTime();
+            int i = 0;
+            national[i++] = Model.housingMarketStats.getHPI();
+            national[i++] = Model.housingMarketStats.getAnnualHPA();
+            national[i++] = Model.housingMarketStats.getAvBidPrice();
+            national[i++] = Model.housingMarketStats.getAvOfferPrice();
+            national[i++] = Model.housingMarketStats.getAvSalePrice();
+            national[i++] = Model.housingMarketStats.getExpAvSalePrice();
+            national[i++] = Model.housingMarketStats.getAvMonthsOnMarket();
+            national[i++] = Model.housingMarketStats.getnBuyers();
+            national[i++] = Model.housingMarketStats.getnSellers();
+            national[i++] = Model.housingMarketStats.getnSales();
+            national[i++] = Model.rentalMarketStats.getHPI();
+            national[i++] = Model.rentalMarketStats.getAnnualHPA();
+            national[i++] = Model.rentalMarketStats.getAvSalePrice();
+            national[i++] = Model.rentalMarketStats.getnBuyers();
+            national[i++] = Model.rentalMarketStats.getnSellers();
+            national[i++] = Model.rentalMarketStats.getnSales();
+            national[i++] = Model.rentalMarketStats.getExpAvFlowYield();
+            national[i++] = Model.demographics.getTotalPopulation();
+            national[i++] = Model.householdStats.getnHomeless();
+            national[i++] = Model.householdStats.getnRenting();
+            national[i++] = Model.householdStats.getnOwnerOccupier();
+            national[i++] = Model.householdStats.getnActiveBTL();
+            national[i++] = Model.householdStats.getBTLStockFraction();
+            national[i++] = Model.creditSupply.getnRegisteredMortgages();
+            national[i] = Model.creditSupply.getInterestRate();
+            int r = 0;
+            for (Region region : geography.getRegions()) {
+                double [] values = regional[r++];
+                i = 0;
+                values[i++] = region.regionalHousingMarketStats.getHPI();
+                values[i++] = region.regionalHousingMarketStats.getAnnualHPA();
+                values[i++] = region.regionalHousingMarketStats.getAvBidPrice();
+                values[i++] = region.regionalHousingMarketStats.getAvOfferPrice();
+                values[i++] = region.regionalHousingMarketStats.getAvSalePrice();
+                values[i++] = region.regionalHousingMarketStats.getExpAvSalePrice();
+                values[i++] = region.regionalHousingMarketStats.getAvMonthsOnMarket();
+                values[i++] = region.regionalHousingMarketStats.getnBuyers();
+                values[i++] = region.regionalHousingMarketStats.getnSellers();
+                values[i++] = region.regionalHousingMarketStats.getnSales();
+                values[i++] = region.regionalRentalMarketStats.getHPI();
+                values[i++] = region.regionalRentalMarketStats.getAnnualHPA();
+                values[i++] = region.regionalRentalMarketStats.getAvSalePrice();
+                values[i++] = region.regionalRentalMarketStats.getnBuyers();
+                values[i++] = region.regionalRentalMarketStats.getnSellers();
+                values[i++] = region.regionalRentalMarketStats.getnSales();
+                values[i++] = region.regionalRentalMarketStats.getExpAvFlowYield();
+                values[i++] = region.households.size();
+                values[i++] = region.regionalHouseholdStats.getnHomeless();
+                values[i++] = region.regionalHouseholdStats.getnRenting();
+                values[i++] = region.regionalHouseholdStats.getnOwnerOccupier();
+                values[i++] = region.regionalHouseholdStats.getnActiveBTL();
+                values[i] = region.regionalHouseholdStats.getBTLStockFraction();
+            }
+            for (int phase = 0; phase < phaseMillis.length; phase++) {
+                phaseMillis[phase] = performanceRecorder.getPhaseMillis(phase);
+            }
+        }
+
+        private String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"simulation\": ").append(simulation).append(", \"time\": ").append(time);
+            json.append(", \"national\": ");
+            appendObject(json, NATIONAL_FIELDS, national);
+            json.append(", \"regions\": [");
+            for (int r = 0; r < regional.length; r++) {
+                if (r > 0) json.append(", ");
+                appendObject(json, REGIONAL_FIELDS, regional[r]);
+            }
+            json.append("], \"phaseMs\": ");
+            appendObject(json, PerformanceRecorder.getPhaseNames(), phaseMillis);
+            return json.append("}").toString();
+        }
+
+        /**
+         * Append a JSON object with the given keys and numeric values, writing non-finite values as null
+         */
+        private void appendObject(StringBuilder json, String [] keys, double [] values) {
+            json.append("{");
+            for (int i = 0; i < keys.length; i++) {
+                if (i > 0) json.append(", ");
+                json.append("\"").append(keys[i]).append("\": ");
+                if (Double.isNaN(values[i]) || Double.isInfinite(values[i])) {
+                    json.append("null");
+                } else if (values[i] == Math.rint(values[i]) && Math.abs(values[i]) < 1e15) {
+                    json.append((long)values[i]);
+                } else {
+                    json.append(values[i]);
+                }
+            }
+            json.append("}");
+        }
+    }
+}
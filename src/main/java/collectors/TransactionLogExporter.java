@@ -0,0 +1,121 @@
+package collectors;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**************************************************************************************************
+ * Program to convert a binary transaction log, as written by TransactionRecorder, into the CSV
+ * file that would have been written instead, with the same fields selected.
+ * Usage: java collectors.TransactionLogExporter inputFile.bin [outputFile.csv], where the output
+ * file defaults to the input file with its extension replaced by .csv
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class TransactionLogExporter {
+
+    private static final int BUFFER_SIZE = 1 << 22; // Bytes to read from file at a time
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: java collectors.TransactionLogExporter inputFile.bin [outputFile.csv]");
+            System.exit(1);
+        }
+        String outputFileName;
+        if (args.length == 2) {
+            outputFileName = args[1];
+        } else if (args[0].endsWith(".bin")) {
+            outputFileName = args[0].substring(0, args[0].length() - 4) + ".csv";
+        } else {
+            outputFileName = args[0] + ".csv";
+        }
+        try {
+            exportToCsv(args[0], outputFileName);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write all records of a binary transaction log to a CSV file
+     */
+    public static void exportToCsv(String inputFileName, String outputFileName) throws IOException {
+        try (FileChannel infile = new FileInputStream(inputFileName).getChannel();
+             PrintWriter outfile = new PrintWriter(outputFileName, "UTF-8")) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            // Read header
+            buffer.limit(12);
+            readFully(infile, buffer);
+            buffer.flip();
+            if (buffer.getInt() != TransactionRecorder.BINARY_MAGIC) {
+                throw new IOException(inputFileName + " is not a binary transaction log");
+            }
+            int version = buffer.getInt();
+            if (version != TransactionRecorder.BINARY_VERSION) {
+                throw new IOException("Unsupported binary transaction log version " + version + " in "
+                        + inputFileName);
+            }
+            int headerLength = buffer.getInt();
+            buffer.clear();
+            buffer.limit(headerLength - 12);
+            readFully(infile, buffer);
+            buffer.flip();
+            int recordLength = buffer.getInt();
+            int nFields = buffer.getInt();
+            boolean [] selected = new boolean[TransactionRecorder.FIELD_NAMES.length];
+            List<String> columnNames = new ArrayList<>();
+            for (int j = 0; j < nFields; j++) {
+                byte [] name = new byte[buffer.getShort()];
+                buffer.get(name);
+                buffer.get();
+                String fieldName = new String(name, StandardCharsets.UTF_8);
+                int i = Arrays.asList(TransactionRecorder.FIELD_NAMES).indexOf(fieldName);
+                if (i < 0) throw new IOException("Unrecognised transaction field \"" + fieldName + "\"");
+                selected[i] = true;
+                columnNames.add(fieldName);
+            }
+            outfile.println(String.join(", ", columnNames));
+            // Read records, in blocks of as many whole records as fit in the buffer
+            double [] values = new double[TransactionRecorder.FIELD_NAMES.length];
+            StringBuilder row = new StringBuilder();
+            buffer.clear();
+            while (infile.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+                if (buffer.remaining() < recordLength) {
+                    if (buffer.remaining() > 0 && infile.position() == infile.size()) {
+                        throw new IOException("Truncated record at the end of " + inputFileName);
+                    }
+                    buffer.compact();
+                    continue;
+                }
+                while (buffer.remaining() >= recordLength) {
+                    int flags = buffer.get();
+                    for (int i = 0; i < values.length; i++) {
+                        if (!selected[i]) continue;
+                        if (TransactionRecorder.FIELD_TYPES[i] == 'I') values[i] = buffer.getInt();
+                        if (TransactionRecorder.FIELD_TYPES[i] == 'D') values[i] = buffer.getDouble();
+                    }
+                    row.setLength(0);
+                    TransactionRecorder.appendRecord(row, selected, flags, values);
+                    outfile.println(row);
+                }
+                buffer.compact();
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Unexpected end of binary transaction log");
+        }
+    }
+}
@@ -1,20 +1,70 @@
 package collectors;
 
 import housing.*;
+import utilities.TextOutputFile;
 
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+/**************************************************************************************************
+ * Class to write data for each transaction, either as CSV (one row per transaction) or as a log of
+ * fixed-width binary records, which can be converted to the same CSV with TransactionLogExporter.
+ * In both cases, only the fields listed in config.TRANSACTION_FIELDS (or all of them, if set to
+ * "all") are written. Binary files (Transactions-run*.bin) are little-endian, and start with a
+ * header with the magic number "HMTX", the format version, the header length in bytes, the record
+ * length in bytes, the number of fields and, for each field, its name (as a short length followed
+ * by UTF-8 bytes) and type (byte 'I' for int, 'D' for double, 'F' for flag). Each record then
+ * holds a flags byte, encoding the transaction type, all boolean fields and whether there is a
+ * mortgage and a household seller, followed by the int and double fields selected, in order
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
 public class TransactionRecorder {
 
     //------------------//
     //----- Fields -----//
     //------------------//
 
+    // Name of each field, in CSV column order
+    static final String [] FIELD_NAMES = {"Model time", "transactionType", "houseId", "houseQuality",
+            "initialListedPrice", "timeFirstOffered", "transactionPrice", "buyerId", "buyerAge", "buyerHasBTLGene",
+            "buyerMonthlyGrossTotalIncome", "buyerMonthlyGrossEmploymentIncome", "buyerPostPurchaseBankBalance",
+            "buyerCapGainCoeff", "mortgageDownpayment", "mortgagePrincipal", "firstTimeBuyerMortgage",
+            "buyToLetMortgage", "sellerId", "sellerAge", "sellerHasBTLGene", "sellerMonthlyGrossTotalIncome",
+            "sellerMonthlyGrossEmploymentIncome", "sellerPostPurchaseBankBalance", "sellerCapGainCoeff"};
+    // Type of each field: int, double or flag (stored as a bit of the flags byte of each record)
+    static final byte [] FIELD_TYPES = "IFIIDIDIDFDDDDDDFFIDFDDDD".getBytes(StandardCharsets.US_ASCII);
+    // Bit of the flags byte for each flag field, and for absent mortgages and sellers other than households
+    static final int [] FIELD_FLAGS = {0, 1, 0, 0, 0, 0, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 4, 8, 0, 0, 16, 0, 0, 0, 0};
+    static final int NO_MORTGAGE = 32;
+    static final int NO_HOUSEHOLD_SELLER = 64;
+    // Text written instead of each field when there is no mortgage or the seller is not a household
+    static final String [] FIELD_MISSING_TEXT = {null, null, null, null, null, null, null, null, null, null, null,
+            null, null, null, "-1", "-1", "false", "false", "-1", "0", "false", "0", "0", "0", "0"};
+    private static final int FIRST_MORTGAGE_FIELD = 14;
+    private static final int FIRST_SELLER_FIELD = 18;
+
+    static final int BINARY_MAGIC = 0x484D5458; // "HMTX"
+    static final int BINARY_VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 22; // Bytes of binary records to accumulate before writing to file
+
     private String outputFolder;
 
-    private PrintWriter outfile;
+    private TextOutputFile outfile;
+    private FileChannel binaryOutfile;
+    private ByteBuffer buffer;              // Direct buffer for binary records, re-used for every run
+    private StringBuilder row;              // CSV row, re-used for every transaction
+    private boolean [] selected;            // Whether each field is to be written
+    private double [] values;               // Values of each int and double field for the current transaction
+    private boolean binary;                 // True if writing binary records, false if writing CSV
 
     private Config config = Model.config; // Passes the Model's configuration parameters object to a private field
 
@@ -22,75 +72,222 @@ public class TransactionRecorder {
     //----- Constructors -----//
     //------------------------//
 
-    public TransactionRecorder(String outputFolder) { this.outputFolder = outputFolder; }
+    public TransactionRecorder(String outputFolder) {
+        this.outputFolder = outputFolder;
+        row = new StringBuilder();
+        values = new double[FIELD_NAMES.length];
+    }
 
     //-------------------//
     //----- Methods -----//
     //-------------------//
 
-    public void openSingleRunFiles(int nRun) {
-        // Try opening output files and write first row header with column names
-        try {
-            outfile = new PrintWriter(outputFolder + "Transactions-run" + nRun + ".csv", "UTF-8");
-            outfile.println("Model time, "
-                    + "transactionType, houseId, houseQuality, initialListedPrice, timeFirstOffered, "
-                    + "transactionPrice, buyerId, buyerAge, buyerHasBTLGene, buyerMonthlyGrossTotalIncome, "
-                    + "buyerMonthlyGrossEmploymentIncome, buyerPostPurchaseBankBalance, buyerCapGainCoeff, "
-                    + "mortgageDownpayment, mortgagePrincipal, firstTimeBuyerMortgage, buyToLetMortgage, sellerId, "
-                    + "sellerAge, sellerHasBTLGene, sellerMonthlyGrossTotalIncome, sellerMonthlyGrossEmploymentIncome, "
-                    + "sellerPostPurchaseBankBalance, sellerCapGainCoeff");
-        } catch (FileNotFoundException | UnsupportedEncodingException e) {
-            e.printStackTrace();
+    /**
+     * Open the transactions file of a run
+     *
+     * @param append True to append to an existing file, without writing again its header, for instance when resuming
+     *               from a checkpoint
+     */
+    public void openSingleRunFiles(int nRun, boolean append) {
+        selected = selectFields(config.TRANSACTION_FIELDS);
+        binary = config.recordTransactionsInBinary;
+        if (binary) {
+            // Try opening binary output file and write header with field names and types
+            try {
+                if (buffer == null) buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.clear();
+                binaryOutfile = new FileOutputStream(outputFolder + "Transactions-run" + nRun + ".bin", append)
+                        .getChannel();
+                if (!append) writeBinaryHeader();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            // Try opening output file and write first row header with column names
+            try {
+                outfile = TextOutputFile.open(outputFolder + "Transactions-run" + nRun + ".csv",
+                        config.compressOutput, append);
+                List<String> columnNames = new ArrayList<>();
+                for (int i = 0; i < FIELD_NAMES.length; i++) {
+                    if (selected[i]) columnNames.add(FIELD_NAMES[i]);
+                }
+                if (!append) outfile.println(String.join(", ", columnNames));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
-	
+
+    /**
+     * Parse a comma-separated list of field names, or "all", into a selection of fields
+     */
+    private static boolean [] selectFields(String fieldNames) {
+        boolean [] selection = new boolean[FIELD_NAMES.length];
+        if (fieldNames.trim().equalsIgnoreCase("all")) {
+            Arrays.fill(selection, true);
+            return selection;
+        }
+        for (String name : fieldNames.split(",")) {
+            int i = Arrays.asList(FIELD_NAMES).indexOf(name.trim());
+            if (i >= 0) {
+                selection[i] = true;
+            } else {
+                System.out.println("Unrecognised transaction field \"" + name.trim() + "\" in TRANSACTION_FIELDS, "
+                        + "ignored");
+            }
+        }
+        return selection;
+    }
+
+    private void writeBinaryHeader() throws IOException {
+        int nSelected = 0;
+        int recordLength = 1;
+        int headerLength = 20;
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (!selected[i]) continue;
+            nSelected++;
+            if (FIELD_TYPES[i] == 'I') recordLength += 4;
+            if (FIELD_TYPES[i] == 'D') recordLength += 8;
+            headerLength += 3 + FIELD_NAMES[i].getBytes(StandardCharsets.UTF_8).length;
+        }
+        buffer.putInt(BINARY_MAGIC);
+        buffer.putInt(BINARY_VERSION);
+        buffer.putInt(headerLength);
+        buffer.putInt(recordLength);
+        buffer.putInt(nSelected);
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (!selected[i]) continue;
+            byte [] name = FIELD_NAMES[i].getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short)name.length);
+            buffer.put(name);
+            buffer.put(FIELD_TYPES[i]);
+        }
+    }
+
 	void recordSale(HouseBidderRecord purchase, HouseOfferRecord sale, MortgageAgreement mortgage,
                     HousingMarket market) {
         if (Model.getTime() >= config.TIME_TO_START_RECORDING_TRANSACTIONS) {
-            outfile.print(Model.getTime() + ", ");
-            if (market instanceof HouseSaleMarket) {
-                outfile.print("sale, ");
-            } else {
-                outfile.print("rental, ");
-            }
-            outfile.print(
-                    sale.getHouse().id + ", " +
-                            sale.getHouse().getQuality() + ", " +
-                            sale.getInitialListedPrice() + ", " +
-                            sale.gettInitialListing() + ", " +
-                            sale.getPrice() + ", " +
-                            purchase.getBidder().id + ", " +
-                            purchase.getBidder().getAge() + ", " +
-                            purchase.getBidder().behaviour.isPropertyInvestor() + ", " +
-                            purchase.getBidder().getMonthlyGrossTotalIncome() + ", " +
-                            purchase.getBidder().getMonthlyGrossEmploymentIncome() + ", " +
-                            purchase.getBidder().getBankBalance() + ", " +
-                            purchase.getBidder().behaviour.getBTLCapGainCoefficient() + ", ");
+            int flags = 0;
+            values[0] = Model.getTime();
+            if (!(market instanceof HouseSaleMarket)) flags |= FIELD_FLAGS[1];
+            values[2] = sale.getHouse().id;
+            values[3] = sale.getHouse().getQuality();
+            values[4] = sale.getInitialListedPrice();
+            values[5] = sale.gettInitialListing();
+            values[6] = sale.getPrice();
+            values[7] = purchase.getBidder().id;
+            values[8] = purchase.getBidder().getAge();
+            if (purchase.getBidder().behaviour.isPropertyInvestor()) flags |= FIELD_FLAGS[9];
+            values[10] = purchase.getBidder().getMonthlyGrossTotalIncome();
+            values[11] = purchase.getBidder().getMonthlyGrossEmploymentIncome();
+            values[12] = purchase.getBidder().getBankBalance();
+            values[13] = purchase.getBidder().behaviour.getBTLCapGainCoefficient();
             if (mortgage != null) {
-                outfile.print(
-                        mortgage.downPayment + ", " +
-                                mortgage.principal + ", " +
-                                mortgage.isFirstTimeBuyer + ", " +
-                                mortgage.isBuyToLet + ", ");
+                values[14] = mortgage.downPayment;
+                values[15] = mortgage.principal;
+                if (mortgage.isFirstTimeBuyer) flags |= FIELD_FLAGS[16];
+                if (mortgage.isBuyToLet) flags |= FIELD_FLAGS[17];
             } else {
-                outfile.print("-1, -1, false, false, ");
+                flags |= NO_MORTGAGE;
+                values[14] = -1.0;
+                values[15] = -1.0;
             }
             if (sale.getHouse().owner instanceof Household) {
                 Household seller = (Household) sale.getHouse().owner;
-                outfile.println(
-                        seller.id + ", " +
-                                seller.getAge() + ", " +
-                                seller.behaviour.isPropertyInvestor() + ", " +
-                                seller.getMonthlyGrossTotalIncome() + ", " +
-                                seller.getMonthlyGrossEmploymentIncome() + ", " +
-                                seller.getBankBalance() + ", " +
-                                seller.behaviour.getBTLCapGainCoefficient());
+                values[18] = seller.id;
+                values[19] = seller.getAge();
+                if (seller.behaviour.isPropertyInvestor()) flags |= FIELD_FLAGS[20];
+                values[21] = seller.getMonthlyGrossTotalIncome();
+                values[22] = seller.getMonthlyGrossEmploymentIncome();
+                values[23] = seller.getBankBalance();
+                values[24] = seller.behaviour.getBTLCapGainCoefficient();
             } else {
                 // must be construction sector
-                outfile.println("-1, 0, false, 0, 0, 0, 0");
+                flags |= NO_HOUSEHOLD_SELLER;
+                values[18] = -1;
+                Arrays.fill(values, 19, values.length, 0.0);
+            }
+            if (binary) {
+                writeBinaryRecord(flags);
+            } else {
+                row.setLength(0);
+                appendRecord(row, selected, flags, values);
+                outfile.println(row);
             }
         }
 	}
 
-	public void finishRun() { outfile.close(); }
+    private void writeBinaryRecord(int flags) {
+        if (buffer.remaining() < 1 + 8*values.length) flushBuffer();
+        buffer.put((byte)flags);
+        for (int i = 0; i < values.length; i++) {
+            if (!selected[i]) continue;
+            if (FIELD_TYPES[i] == 'I') buffer.putInt((int)values[i]);
+            if (FIELD_TYPES[i] == 'D') buffer.putDouble(values[i]);
+        }
+    }
+
+    private void flushBuffer() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) binaryOutfile.write(buffer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Append to a CSV row the selected fields of a transaction, with the same text as originally written for CSV files
+     *
+     * @param row StringBuilder to append to
+     * @param selected Whether each field is to be written
+     * @param flags Transaction type, boolean fields and absence of mortgage or household seller, as bits
+     * @param values Value of each int and double field
+     */
+    static void appendRecord(StringBuilder row, boolean [] selected, int flags, double [] values) {
+        boolean first = true;
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if (!selected[i]) continue;
+            if (!first) row.append(", ");
+            first = false;
+            if (((flags & NO_MORTGAGE) != 0 && i >= FIRST_MORTGAGE_FIELD && i < FIRST_SELLER_FIELD)
+                    || ((flags & NO_HOUSEHOLD_SELLER) != 0 && i >= FIRST_SELLER_FIELD)) {
+                row.append(FIELD_MISSING_TEXT[i]);
+            } else if (i == 1) {
+                row.append(((flags & FIELD_FLAGS[1]) != 0) ? "rental" : "sale");
+            } else if (FIELD_TYPES[i] == 'F') {
+                row.append((flags & FIELD_FLAGS[i]) != 0);
+            } else if (FIELD_TYPES[i] == 'I') {
+                row.append((int)values[i]);
+            } else {
+                row.append(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Write to disk all transactions recorded so far, such that the file can be truncated at its current length and
+     * appended to after resuming from a checkpoint
+     */
+    public void sync() throws IOException {
+        if (binary) {
+            flushBuffer();
+        } else {
+            outfile.sync();
+        }
+    }
+
+	public void finishRun() {
+        if (binary) {
+            flushBuffer();
+            try {
+                binaryOutfile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            outfile.close();
+        }
+    }
 }
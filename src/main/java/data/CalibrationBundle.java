@@ -0,0 +1,320 @@
+package data;
+
+import housing.Config;
+import housing.Model;
+
+import org.apache.commons.math3.random.MersenneTwister;
+import utilities.BinnedData;
+import utilities.BinnedDataDouble;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**************************************************************************************************
+ * Class to write and read a single binary file bundling all calibration tables the data classes
+ * would otherwise parse from their CSV and TXT files at class initialisation: the monthly age
+ * distribution, the real population per region, the histograms of income given age and of wealth
+ * given income (from which Pdf objects and their inverse CDFs are then built), tax and national
+ * insurance bands and rates, and commuting time and fee matrices. Each table is stored together
+ * with the name and a CRC32 checksum of the contents of the data file it was built from, and only
+ * used if this name coincides with the file currently set in the configuration and the checksum
+ * with that of its current contents, such that a stale bundle never replaces changed settings or
+ * edited data files (a warning is printed for each table whose data file has changed since the
+ * bundle was written, which is then read from the data file). The bundle, set with
+ * DATA_CALIBRATION_BUNDLE, is memory-mapped and its checksum verified when first needed after the
+ * configuration is (re-)bound; if missing or corrupt, all data is read from the original files.
+ * Usage: java data.CalibrationBundle configFile.properties outputFile.bin, for instance with
+ * mvn compile exec:java -Dexec.mainClass=data.CalibrationBundle -Dexec.args="configFile outputFile"
+ *
+ * File format (big-endian): magic number "HMCB", format version, payload length in bytes, CRC32
+ * of the payload (as a long) and the payload, with the number of tables followed, for each table,
+ * by its type byte, its source file name (as a short length followed by UTF-8 bytes), the CRC32
+ * of the contents of its source file (as a long) and its data
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class CalibrationBundle {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    static final int MAGIC = 0x484D4342; // "HMCB"
+    static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 20;    // Bytes before the payload
+    private static final int N_TABLES = 8;          // Number of tables written to each bundle
+
+    // Types of table
+    private static final byte BINNED = 'B';         // BinnedDataDouble
+    private static final byte INTEGERS = 'I';       // List of integers
+    private static final byte BINNED_BINNED = 'H';  // BinnedData of BinnedDataDouble histograms
+    private static final byte BANDS_AND_RATES = 'R'; // Government.BandsAndRates
+    private static final byte MATRIX = 'M';         // Square matrix of doubles
+
+    private static Map<String, Object>  tables;     // Tables from the bundle, by type and source file, once loaded
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: java data.CalibrationBundle configFile.properties outputFile.bin");
+            System.exit(1);
+        }
+        // Read all tables from the original data files, even if the configuration sets a calibration bundle
+        Model.config = new Config(args[0]);
+        Model.config.DATA_CALIBRATION_BUNDLE = "";
+        Model.rand = new MersenneTwister(); // Only needed for the initialisation of Demographics, never used
+        try {
+            write(Model.config, args[1]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.out.println("Calibration bundle written to " + args[1]);
+    }
+
+    /**
+     * Read all calibration tables from the data files set in a given configuration, and write them to a bundle file
+     */
+    public static void write(Config config, String fileName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeInt(N_TABLES);
+        writeSource(payload, BINNED, config.DATA_AGE_DISTRIBUTION);
+        writeBinned(payload, Demographics.transformAgeDistributionToMonthly(
+                new BinnedDataDouble(config.DATA_AGE_DISTRIBUTION)));
+        writeSource(payload, INTEGERS, config.DATA_REAL_POPULATION_PER_REGION);
+        List<Integer> population = Demographics.readRealPopulationPerRegion(config.DATA_REAL_POPULATION_PER_REGION);
+        payload.writeInt(population.size());
+        for (int value : population) payload.writeInt(value);
+        writeSource(payload, BINNED_BINNED, config.DATA_INCOME_GIVEN_AGE);
+        writeBinnedBinned(payload, EmploymentIncome.readLnIncomeHistogramsGivenAge(config.DATA_INCOME_GIVEN_AGE));
+        writeSource(payload, BINNED_BINNED, config.DATA_WEALTH_GIVEN_INCOME);
+        writeBinnedBinned(payload, Wealth.readLnWealthHistogramsGivenLnIncome(config.DATA_WEALTH_GIVEN_INCOME));
+        for (String source : new String[] {config.DATA_TAX_RATES, config.DATA_NATIONAL_INSURANCE_RATES}) {
+            writeSource(payload, BANDS_AND_RATES, source);
+            Government.BandsAndRates bandsAndRates = Government.readBandsAndRates(source);
+            payload.writeInt(bandsAndRates.bands.length);
+            for (int i = 0; i < bandsAndRates.bands.length; i++) {
+                payload.writeDouble(bandsAndRates.bands[i]);
+                payload.writeDouble(bandsAndRates.rates[i]);
+            }
+        }
+        for (String source : new String[] {config.DATA_COMMUTING_TIMES, config.DATA_COMMUTING_FEES}) {
+            writeSource(payload, MATRIX, source);
+            ArrayList<ArrayList<Double>> matrix = Transport.readMatrix(source);
+            payload.writeInt(matrix.size());
+            for (ArrayList<Double> row : matrix) {
+                for (double value : row) payload.writeDouble(value);
+            }
+        }
+        payload.flush();
+        byte [] payloadBytes = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payloadBytes);
+        try (DataOutputStream outfile = new DataOutputStream(new FileOutputStream(fileName))) {
+            outfile.writeInt(MAGIC);
+            outfile.writeInt(VERSION);
+            outfile.writeInt(payloadBytes.length);
+            outfile.writeLong(crc.getValue());
+            outfile.write(payloadBytes);
+        }
+    }
+
+    private static void writeSource(DataOutputStream payload, byte type, String source) throws IOException {
+        byte [] name = source.getBytes(StandardCharsets.UTF_8);
+        payload.writeByte(type);
+        payload.writeShort(name.length);
+        payload.write(name);
+        payload.writeLong(checksum(source));
+    }
+
+    /**
+     * Compute the CRC32 checksum of the contents of a given file
+     */
+    private static long checksum(String fileName) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(Paths.get(fileName)));
+        return crc.getValue();
+    }
+
+    private static void writeBinned(DataOutputStream payload, BinnedDataDouble data) throws IOException {
+        payload.writeDouble(data.getSupportLowerBound());
+        payload.writeDouble(data.getBinWidth());
+        payload.writeInt(data.size());
+        for (double value : data) payload.writeDouble(value);
+    }
+
+    private static void writeBinnedBinned(DataOutputStream payload, BinnedData<BinnedDataDouble> data)
+            throws IOException {
+        payload.writeDouble(data.getSupportLowerBound());
+        payload.writeDouble(data.getBinWidth());
+        payload.writeInt(data.size());
+        for (BinnedDataDouble histogram : data) writeBinned(payload, histogram);
+    }
+
+    /**
+     * Forget any tables loaded from a calibration bundle, such that the bundle set in the configuration is loaded again
+     * when next needed, for instance when the model is created again within the same JVM with a different configuration
+     */
+    public static synchronized void reset() { tables = null; }
+
+    /**
+     * Load, the first time it is needed, the calibration bundle set in the configuration, if any, memory-mapping it and
+     * verifying its checksum, as well as that of the source file of each table. If there is none, or it cannot be read,
+     * no table is returned from the bundle, and tables whose source file has changed are never returned
+     */
+    private static synchronized Map<String, Object> getTables() {
+        if (tables != null) return tables;
+        tables = new HashMap<>();
+        String fileName = Model.config.DATA_CALIBRATION_BUNDLE;
+        if (fileName == null || fileName.isEmpty()) return tables;
+        try (FileChannel channel = new FileInputStream(fileName).getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+                throw new IOException(fileName + " is not a calibration bundle");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported calibration bundle version " + version + " at " + fileName);
+            }
+            int payloadLength = buffer.getInt();
+            long checksum = buffer.getLong();
+            if (buffer.remaining() != payloadLength) {
+                throw new IOException("Calibration bundle " + fileName + " is truncated");
+            }
+            ByteBuffer payload = buffer.slice();
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if (crc.getValue() != checksum) {
+                throw new IOException("Checksum mismatch at calibration bundle " + fileName);
+            }
+            Map<String, Object> newTables = new HashMap<>();
+            int nTables = payload.getInt();
+            for (int i = 0; i < nTables; i++) {
+                byte type = payload.get();
+                byte [] name = new byte[payload.getShort()];
+                payload.get(name);
+                String source = new String(name, StandardCharsets.UTF_8);
+                long sourceChecksum = payload.getLong();
+                Object table = readTable(payload, type);
+                if (isUnchanged(source, sourceChecksum)) {
+                    newTables.put(key(type, source), table);
+                } else {
+                    System.out.println("Data file '" + source + "' has changed since calibration bundle '" + fileName
+                            + "' was written, reading it instead of its bundled table");
+                }
+            }
+            tables = newTables;
+        } catch (IOException e) {
+            System.out.println("Exception " + e + " while trying to read calibration bundle '" + fileName
+                    + "', reading original data files instead");
+            e.printStackTrace();
+        }
+        return tables;
+    }
+
+    private static String key(byte type, String source) { return (char)type + source; }
+
+    private static boolean isUnchanged(String source, long sourceChecksum) {
+        try {
+            return checksum(source) == sourceChecksum;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Object readTable(ByteBuffer payload, byte type) throws IOException {
+        switch (type) {
+            case BINNED:
+                return readBinned(payload);
+            case INTEGERS:
+                ArrayList<Integer> values = new ArrayList<>();
+                int n = payload.getInt();
+                for (int i = 0; i < n; i++) values.add(payload.getInt());
+                return values;
+            case BINNED_BINNED:
+                BinnedData<BinnedDataDouble> data = new BinnedData<>(payload.getDouble(), payload.getDouble());
+                int nBins = payload.getInt();
+                for (int i = 0; i < nBins; i++) data.add(readBinned(payload));
+                return data;
+            case BANDS_AND_RATES:
+                Government.BandsAndRates bandsAndRates = new Government.BandsAndRates();
+                int nBands = payload.getInt();
+                bandsAndRates.bands = new Double[nBands];
+                bandsAndRates.rates = new Double[nBands];
+                for (int i = 0; i < nBands; i++) {
+                    bandsAndRates.bands[i] = payload.getDouble();
+                    bandsAndRates.rates[i] = payload.getDouble();
+                }
+                return bandsAndRates;
+            case MATRIX:
+                ArrayList<ArrayList<Double>> matrix = new ArrayList<>();
+                int size = payload.getInt();
+                for (int i = 0; i < size; i++) {
+                    ArrayList<Double> row = new ArrayList<>();
+                    for (int j = 0; j < size; j++) row.add(payload.getDouble());
+                    matrix.add(row);
+                }
+                return matrix;
+            default:
+                throw new IOException("Unrecognised table type " + type + " in calibration bundle");
+        }
+    }
+
+    private static BinnedDataDouble readBinned(ByteBuffer payload) {
+        BinnedDataDouble data = new BinnedDataDouble(payload.getDouble(), payload.getDouble());
+        int n = payload.getInt();
+        for (int i = 0; i < n; i++) data.add(payload.getDouble());
+        return data;
+    }
+
+    //----- Getter/setter methods -----//
+
+    // Each of the following returns the table built from the given data file, or null if not in the bundle
+
+    static BinnedDataDouble getMonthlyAgeDistribution(String source) {
+        return (BinnedDataDouble)getTables().get(key(BINNED, source));
+    }
+
+    @SuppressWarnings("unchecked")
+    static ArrayList<Integer> getRealPopulationPerRegion(String source) {
+        return (ArrayList<Integer>)getTables().get(key(INTEGERS, source));
+    }
+
+    @SuppressWarnings("unchecked")
+    static BinnedData<BinnedDataDouble> getLnIncomeGivenAge(String source) {
+        return (BinnedData<BinnedDataDouble>)getTables().get(key(BINNED_BINNED, source));
+    }
+
+    @SuppressWarnings("unchecked")
+    static BinnedData<BinnedDataDouble> getLnWealthGivenLnIncome(String source) {
+        return (BinnedData<BinnedDataDouble>)getTables().get(key(BINNED_BINNED, source));
+    }
+
+    static Government.BandsAndRates getBandsAndRates(String source) {
+        return (Government.BandsAndRates)getTables().get(key(BANDS_AND_RATES, source));
+    }
+
+    @SuppressWarnings("unchecked")
+    static ArrayList<ArrayList<Double>> getMatrix(String source) {
+        return (ArrayList<ArrayList<Double>>)getTables().get(key(MATRIX, source));
+    }
+}
@@ -29,26 +29,25 @@ public class Demographics {
     private static Config config = Model.config; // Passes the Model's configuration parameters object to a private field
     private static MersenneTwister rand = Model.rand; // Passes the Model's random number generator to a private static field
 
-    // Read original age distribution from file
-    private static BinnedDataDouble ageDistribution = new BinnedDataDouble(config.DATA_AGE_DISTRIBUTION);
-
-    // Transform original age distribution to a new distribution with monthly bins (linear assumption)
-    private static BinnedDataDouble monthlyAgeDistribution = transformAgeDistributionToMonthly(ageDistribution);
+    // Read original age distribution from file and transform it to a new distribution with monthly bins (linear
+    // assumption), or take the latter directly from the calibration bundle, if available
+    private static String ageDistributionFile = config.DATA_AGE_DISTRIBUTION; // File from which it is loaded
+    private static BinnedDataDouble monthlyAgeDistribution = loadMonthlyAgeDistribution();
 
     // Compute expected number of households for each monthly age band given a certain target population
     private static int [] expectedHouseholdsPerAgeBand = computeExpectedHouseholdsPerAgeBand(monthlyAgeDistribution,
             config.TARGET_POPULATION);
 
-    private static int  totalRealPopulation = 0;
-
     /**
      * Target number of households for each region. Note that we are using Local Authority Districts as regions and that
      * we only have data on their population, not their number of households. Furthermore, we want to be able to set the
      * target total number of agents as a separate parameter. To solve this, we assume that each Local Authority
      * District contains the same fraction of the total number of households as their fraction of the total population.
      */
+    private static String realPopulationPerRegionFile = config.DATA_REAL_POPULATION_PER_REGION; // File of the data
+    private static ArrayList<Integer> realPopulationPerRegion = loadRealPopulationPerRegion();
     private static ArrayList<Integer> targetPopulationPerRegion =
-            computeTargetPopulationPerRegion(config.DATA_REAL_POPULATION_PER_REGION, config.TARGET_POPULATION);
+            computeTargetPopulationPerRegion(realPopulationPerRegion, config.TARGET_POPULATION);
 
     // Compute a probability distribution of regions (numbers) proportional to their target population
     private static EnumeratedIntegerDistribution probDistOfRegionsByPopulation = computeProbDistOfRegionsByPopulation();
@@ -57,11 +56,23 @@ public class Demographics {
     //----- Methods -----//
     //-------------------//
 
+    private static BinnedDataDouble loadMonthlyAgeDistribution() {
+        BinnedDataDouble bundled = CalibrationBundle.getMonthlyAgeDistribution(ageDistributionFile);
+        if (bundled != null) return bundled;
+        return transformAgeDistributionToMonthly(new BinnedDataDouble(ageDistributionFile));
+    }
+
+    private static ArrayList<Integer> loadRealPopulationPerRegion() {
+        ArrayList<Integer> bundled = CalibrationBundle.getRealPopulationPerRegion(realPopulationPerRegionFile);
+        if (bundled != null) return bundled;
+        return readRealPopulationPerRegion(realPopulationPerRegionFile);
+    }
+
     /**
      * Compute an alternative age distribution with a bin per month from the original one assuming straight linear
      * behaviour between every two points
      */
-    private static BinnedDataDouble transformAgeDistributionToMonthly(BinnedDataDouble ageDistribution) {
+    static BinnedDataDouble transformAgeDistributionToMonthly(BinnedDataDouble ageDistribution) {
         // Declare and initialise the new monthly age distribution with the same minimum bin edge as the original age
         // distribution and one month as bin width
         BinnedDataDouble monthlyAgeDistribution = new BinnedDataDouble(ageDistribution.getSupportLowerBound(),
@@ -185,13 +196,16 @@ public class Demographics {
      * each region, the target total number of households in the model set by the user, and the assumption that regions
      * contain the same fraction of households as the fraction they contain of the total population.
      *
-     * @param fileName String with name of file (address inside source folder)
+     * @param realPopulationPerRegion ArrayList of integers with the real population of each region
      * @param totalTargetPopulation Integer with the total target number of households set by the user
      * @return targetPopulationPerRegion ArrayList of integers with the target number of households for each region
      */
-    private static ArrayList<Integer> computeTargetPopulationPerRegion(String fileName, int totalTargetPopulation) {
+    private static ArrayList<Integer> computeTargetPopulationPerRegion(ArrayList<Integer> realPopulationPerRegion,
+                                                                       int totalTargetPopulation) {
+        int totalRealPopulation = 0;
+        for (Integer realPopulation: realPopulationPerRegion) totalRealPopulation += realPopulation;
         ArrayList<Integer> targetPopulationPerRegion = new ArrayList<>();
-        for (Integer realPopulation: readRealPopulationPerRegion(fileName)) {
+        for (Integer realPopulation: realPopulationPerRegion) {
             targetPopulationPerRegion.add(totalTargetPopulation*realPopulation/totalRealPopulation);
         }
         return targetPopulationPerRegion;
@@ -203,7 +217,7 @@ public class Demographics {
      * @param fileName String with name of file (address inside source folder)
      * @return realPopulationPerRegion ArrayList of integers with the real population of each region
      */
-    private static ArrayList<Integer> readRealPopulationPerRegion(String fileName) {
+    static ArrayList<Integer> readRealPopulationPerRegion(String fileName) {
         int realPopulation;
         ArrayList<Integer> realPopulationPerRegion = new ArrayList<>();
         // Try-with-resources statement
@@ -214,7 +228,6 @@ public class Demographics {
                     try {
                         realPopulation = Integer.parseInt(line.split(",")[1].trim());
                         realPopulationPerRegion.add(realPopulation);
-                        totalRealPopulation += realPopulation;
                     } catch (NumberFormatException nfe) {
                         System.out.println("Exception " + nfe + " while trying to parse " +
                                 line.split(",")[1] + " for an integer");
@@ -253,4 +266,34 @@ public class Demographics {
     public static int getMonthlyAgeDistributionSize() {
         return monthlyAgeDistribution.size();
     }
+
+    /**
+     * Replace the static references to the configuration and the random number generator, loading again any data whose
+     * file has changed and computing again all targets derived from the target population, such that a new model
+     * created within the same JVM (for instance, by SimulationRunner) uses its own configuration
+     */
+    public static void setConfig(Config newConfig, MersenneTwister newRand) {
+        config = newConfig;
+        if (!config.DATA_AGE_DISTRIBUTION.equals(ageDistributionFile)) {
+            ageDistributionFile = config.DATA_AGE_DISTRIBUTION;
+            monthlyAgeDistribution = loadMonthlyAgeDistribution();
+        }
+        if (!config.DATA_REAL_POPULATION_PER_REGION.equals(realPopulationPerRegionFile)) {
+            realPopulationPerRegionFile = config.DATA_REAL_POPULATION_PER_REGION;
+            realPopulationPerRegion = loadRealPopulationPerRegion();
+        }
+        expectedHouseholdsPerAgeBand = computeExpectedHouseholdsPerAgeBand(monthlyAgeDistribution,
+                config.TARGET_POPULATION);
+        targetPopulationPerRegion = computeTargetPopulationPerRegion(realPopulationPerRegion, config.TARGET_POPULATION);
+        setRand(newRand);
+    }
+
+    /**
+     * Replace the static reference to the random number generator, for instance after restoring it from a snapshot,
+     * rebuilding accordingly the probability distribution of regions by population
+     */
+    public static void setRand(MersenneTwister newRand) {
+        rand = newRand;
+        probDistOfRegionsByPopulation = computeProbDistOfRegionsByPopulation();
+    }
 }
@@ -30,6 +30,7 @@ public class EmploymentIncome {
 
 	private static Config config = Model.config; // Passes the Model's configuration parameters object to a private field
 
+    private static String incomeGivenAgeFile = config.DATA_INCOME_GIVEN_AGE; // File from which data is loaded
     static private BinnedData<Pdf> lnIncomeGivenAge = loadGrossEmploymentIncomePDFGivenAge(); // Calibrated against LCFS 2012 data
 
     //-------------------//
@@ -37,16 +38,44 @@ public class EmploymentIncome {
     //-------------------//
 
     /**
-     * Read data from file Model.config.DATA_INCOME_GIVEN_AGE and return it as a binnedData pdf of gross employment
-     * income conditional on household age. Note that we are dealing here with logarithmic incomes.
+     * Replace the static reference to the configuration, loading again the income distributions if their file has
+     * changed, such that a new model created within the same JVM (for instance, by SimulationRunner) uses its own
+     * configuration
+     */
+    public static void setConfig(Config newConfig) {
+        config = newConfig;
+        if (!config.DATA_INCOME_GIVEN_AGE.equals(incomeGivenAgeFile)) {
+            incomeGivenAgeFile = config.DATA_INCOME_GIVEN_AGE;
+            lnIncomeGivenAge = loadGrossEmploymentIncomePDFGivenAge();
+        }
+    }
+
+    /**
+     * Return, as a binnedData pdf, the distribution of gross employment income conditional on household age, taking
+     * the histograms either from the calibration bundle, if available, or from file Model.config.DATA_INCOME_GIVEN_AGE.
+     * Note that we are dealing here with logarithmic incomes.
      */
 	static private BinnedData<Pdf> loadGrossEmploymentIncomePDFGivenAge() {
+		BinnedData<BinnedDataDouble> pdfData = CalibrationBundle.getLnIncomeGivenAge(incomeGivenAgeFile);
+		if (pdfData == null) pdfData = readLnIncomeHistogramsGivenAge(incomeGivenAgeFile);
+		BinnedData<Pdf> data = new BinnedData<>(pdfData.getSupportLowerBound(), pdfData.getBinWidth());
+		// Turn the BinnedDataDoubles in the container into Pdf objects and add them to the general data container
+		for (BinnedDataDouble d: pdfData) {
+			data.add(new Pdf(d));
+		}
+		return data;
+	}
+
+    /**
+     * Read data from a file with the format of Model.config.DATA_INCOME_GIVEN_AGE and return it as a binnedData
+     * container, with an (age) bin for each histogram of (log) gross employment income
+     */
+	static BinnedData<BinnedDataDouble> readLnIncomeHistogramsGivenAge(String fileName) {
 		final int ageMinCol = 0;
 		final int ageMaxCol = 1;
 		final int incomeMinCol = 2;
 		final int incomeMaxCol = 3;
 		final int probCol = 4;
-		BinnedData<Pdf> data = new BinnedData<>(0.0, 0.0);
 		BinnedData<BinnedDataDouble> pdfData = new BinnedData<>(0.0,0.0);
 		BinnedDataDouble pdf;
 		double pdfBinMin;
@@ -56,7 +85,7 @@ public class EmploymentIncome {
 		Iterator<CSVRecord> records;
 		try {
             // Open a file reader
-			Reader in = new FileReader(config.DATA_INCOME_GIVEN_AGE);
+			Reader in = new FileReader(fileName);
             // Pass reader to CSVFormat parser, which will use first line (header) to set column names
 			records = CSVFormat.EXCEL.withHeader().parse(in).iterator();
 			CSVRecord record;
@@ -64,8 +93,8 @@ public class EmploymentIncome {
 			if (records.hasNext()) {
 				record = records.next();
                 // Use the first record to set the first (age) bin minimum and the (age) bin width...
-                data.setFirstBinMin(Double.valueOf(record.get(ageMinCol)));
-			    data.setBinWidth(Double.valueOf(record.get(ageMaxCol)) - data.getSupportLowerBound());
+                pdfData.setFirstBinMin(Double.valueOf(record.get(ageMinCol)));
+			    pdfData.setBinWidth(Double.valueOf(record.get(ageMaxCol)) - pdfData.getSupportLowerBound());
 			    // ...as well as the first (income) bin minimum and the (income) bin width...
 			    pdfBinMin = Double.valueOf(record.get(incomeMinCol));
 			    pdfBinWidth = Double.valueOf(record.get(incomeMaxCol)) - pdfBinMin;
@@ -75,7 +104,7 @@ public class EmploymentIncome {
 			    pdfData.add(pdf);
                 // ...then the probability is actually added to the array of values within the BinnedDataDouble object
                 pdf.add(Double.valueOf(record.get(probCol)));
-			    lastBinMin = data.getSupportLowerBound();
+			    lastBinMin = pdfData.getSupportLowerBound();
 			    // ...finally, iterate over the rest of the records
 			    while (records.hasNext()) {
 			    	record = records.next();
@@ -88,19 +117,32 @@ public class EmploymentIncome {
 			    	// ...continue adding values to the previous BinnedDataDouble object
 		    		pdf.add(Double.valueOf(record.get(probCol)));
 			    }
-			    // Finally, iterate over the BinnedDataDoubles in the container...
-				for (BinnedDataDouble d: pdfData) {
-			        // ...turning them into Pdf objects and adding them to the general data container
-					data.add(new Pdf(d));
-				}
 			}
 		} catch (IOException e) {
 			System.out.println("Error loading data for income given age in data.EmploymentIncome");
 			e.printStackTrace();
 		}
-		return data;
+		return pdfData;
 	}
 
+    /**
+     * Find the age at which the annual gross income of a household of a given age will next change. Since the income
+     * percentile of each household is fixed for its whole lifetime, this is the upper edge of the age bin the household
+     * currently falls into or, for households already in the last age bin, infinity
+     */
+    static public double getAgeOfNextIncomeChange(double age) {
+        // If age is below minimum age bin, then minimum age bin is assigned
+        if (age < lnIncomeGivenAge.getSupportLowerBound()) {
+            age = lnIncomeGivenAge.getSupportLowerBound();
+        }
+        int ageBin = (int)((age - lnIncomeGivenAge.getSupportLowerBound())/lnIncomeGivenAge.getBinWidth());
+        if (ageBin >= lnIncomeGivenAge.size() - 1) {
+            return Double.POSITIVE_INFINITY;
+        } else {
+            return lnIncomeGivenAge.getSupportLowerBound() + (ageBin + 1)*lnIncomeGivenAge.getBinWidth();
+        }
+    }
+
     /**
      * Find household annual gross income given age and income percentile
      */
@@ -25,8 +25,11 @@ public class Government {
 
     private static Config config = Model.config; // Passes the Model's configuration parameters object to a private field
 
-    public static BandsAndRates tax = readBandsAndRates(config.DATA_TAX_RATES);
-    public static BandsAndRates nationalInsurance = readBandsAndRates(config.DATA_NATIONAL_INSURANCE_RATES);
+    private static String taxRatesFile = config.DATA_TAX_RATES; // File from which tax is loaded
+    private static String nationalInsuranceRatesFile = config.DATA_NATIONAL_INSURANCE_RATES; // Same for NICs
+
+    public static BandsAndRates tax = loadBandsAndRates(taxRatesFile);
+    public static BandsAndRates nationalInsurance = loadBandsAndRates(nationalInsuranceRatesFile);
 
     //-------------------//
     //----- Methods -----//
@@ -40,12 +43,37 @@ public class Government {
         public Double[] rates = null;
     }
 
+    /**
+     * Replace the static reference to the configuration, loading again bands and rates if their files have changed,
+     * such that a new model created within the same JVM (for instance, by SimulationRunner) uses its own configuration
+     */
+    public static void setConfig(Config newConfig) {
+        config = newConfig;
+        if (!config.DATA_TAX_RATES.equals(taxRatesFile)) {
+            taxRatesFile = config.DATA_TAX_RATES;
+            tax = loadBandsAndRates(taxRatesFile);
+        }
+        if (!config.DATA_NATIONAL_INSURANCE_RATES.equals(nationalInsuranceRatesFile)) {
+            nationalInsuranceRatesFile = config.DATA_NATIONAL_INSURANCE_RATES;
+            nationalInsurance = loadBandsAndRates(nationalInsuranceRatesFile);
+        }
+    }
+
+    /**
+     * Take bands and rates from the calibration bundle, if available, or otherwise read them from file
+     */
+    private static BandsAndRates loadBandsAndRates(String fileName) {
+        BandsAndRates bundled = CalibrationBundle.getBandsAndRates(fileName);
+        if (bundled != null) return bundled;
+        return readBandsAndRates(fileName);
+    }
+
     /**
      * Method to read bands and rates from a file, to be used to read both tax and national insurance data
      * @param   fileName    String with name of file (address inside source folder)
      * @return  BandsAndRates object containing two arrays of Doubles, one with the bands and the other with the rates
      */
-    private static BandsAndRates readBandsAndRates(String fileName) {
+    static BandsAndRates readBandsAndRates(String fileName) {
         BandsAndRates bandsAndRates = new BandsAndRates();
         List<Double> dummyBands = new ArrayList<>();
         List<Double> dummyRates = new ArrayList<>();
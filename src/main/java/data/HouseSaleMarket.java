@@ -30,6 +30,16 @@ public class HouseSaleMarket {
     //----- Methods -----//
     //-------------------//
 
+    /**
+     * Replace the static reference to the configuration, computing again the price distribution and reference prices,
+     * such that a new model created within the same JVM (for instance, by SimulationRunner) uses its own configuration
+     */
+    public static void setConfig(Config newConfig) {
+        config = newConfig;
+        priceDistribution = new LogNormalDistribution(config.HOUSE_PRICES_SCALE, config.HOUSE_PRICES_SHAPE);
+        referencePrices = setupReferencePrices();
+    }
+
 	/**
 	 * @return referencePrices Array of doubles with the reference price for each quality band
 	 */
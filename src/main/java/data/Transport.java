@@ -23,22 +23,49 @@ public class Transport {
     //------------------//
 
     private static Config config = Model.config; // Passes the Model's configuration parameters object to a private field
+    private static String commutingTimesFile = config.DATA_COMMUTING_TIMES; // File from which times are loaded
+    private static String commutingFeesFile = config.DATA_COMMUTING_FEES; // File from which fees are loaded
     // Reads and stores the matrix of commuting times between regions as a static 2D ArrayList of doubles
-	private static ArrayList<ArrayList<Double>> commutingTimeMatrix = readMatrix(config.DATA_COMMUTING_TIMES);
+	private static ArrayList<ArrayList<Double>> commutingTimeMatrix = loadMatrix(commutingTimesFile);
     // Reads and stores the matrix of commuting fees between regions as a static 2D ArrayList of doubles
-    private static ArrayList<ArrayList<Double>> commutingFeeMatrix = readMatrix(config.DATA_COMMUTING_FEES);
+    private static ArrayList<ArrayList<Double>> commutingFeeMatrix = loadMatrix(commutingFeesFile);
 
     //-------------------//
     //----- Methods -----//
     //-------------------//
 
+    /**
+     * Replace the static reference to the configuration, loading again the matrices if their files have changed, such
+     * that a new model created within the same JVM (for instance, by SimulationRunner) uses its own configuration
+     */
+    public static void setConfig(Config newConfig) {
+        config = newConfig;
+        if (!config.DATA_COMMUTING_TIMES.equals(commutingTimesFile)) {
+            commutingTimesFile = config.DATA_COMMUTING_TIMES;
+            commutingTimeMatrix = loadMatrix(commutingTimesFile);
+        }
+        if (!config.DATA_COMMUTING_FEES.equals(commutingFeesFile)) {
+            commutingFeesFile = config.DATA_COMMUTING_FEES;
+            commutingFeeMatrix = loadMatrix(commutingFeesFile);
+        }
+    }
+
+    /**
+     * Take a matrix from the calibration bundle, if available, or otherwise read it from file
+     */
+    private static ArrayList<ArrayList<Double>> loadMatrix(String fileName) {
+        ArrayList<ArrayList<Double>> bundled = CalibrationBundle.getMatrix(fileName);
+        if (bundled != null) return bundled;
+        return readMatrix(fileName);
+    }
+
 	/**
 	 * Method to read a matrix of doubles from a file.
 	 *
 	 * @param fileName String with name of file (address inside source folder)
 	 * @return matrix 2D ArrayList of doubles with the values read from the file
 	 */
-	private static ArrayList<ArrayList<Double>> readMatrix(String fileName) {
+	static ArrayList<ArrayList<Double>> readMatrix(String fileName) {
 		ArrayList<ArrayList<Double>> matrix = new ArrayList<>();
 		// Try-with-resources statement
 		try (BufferedReader buffReader = new BufferedReader(new FileReader(fileName))) {
@@ -65,8 +92,7 @@ public class Transport {
 		}
 		// Check that the matrix is squared
         if (matrix.size() != matrix.get(0).size()) {
-            System.out.println("Matrix at " + fileName + " is not squared");
-            System.exit(0);
+            throw new IllegalStateException("Matrix at " + fileName + " is not squared");
         }
 		return matrix;
 	}
@@ -77,10 +103,9 @@ public class Transport {
 	    // First check if the number of regions passed as input (derived from reading the population per region file) is
         // the same as the number of regions read from the commuting times file
 	    if (numberOfRegions != commutingTimeMatrix.size()) {
-            System.out.println("Number of regions at population file, " + numberOfRegions +
+            throw new IllegalStateException("Number of regions at population file, " + numberOfRegions +
                     ", incoherent with the number of regions at the commuting times file, "
                     + commutingTimeMatrix.size());
-            System.exit(0);
         }
         return commutingTimeMatrix;
     }
@@ -89,10 +114,9 @@ public class Transport {
         // First check if the number of regions passed as input (derived from reading the population per region file) is
         // the same as the number of regions read from the commuting fees file
         if (numberOfRegions != commutingFeeMatrix.size()) {
-            System.out.println("Number of regions at population file, " + numberOfRegions +
+            throw new IllegalStateException("Number of regions at population file, " + numberOfRegions +
                     ", incoherent with the number of regions at the commuting fees file, "
                     + commutingFeeMatrix.size());
-            System.exit(0);
         }
         return commutingFeeMatrix;
     }
@@ -1,5 +1,6 @@
 package data;
 
+import housing.Config;
 import housing.Model;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
@@ -24,23 +25,56 @@ public class Wealth {
     //----- Fields -----//
     //------------------//
 
+    static private String          wealthGivenIncomeFile = Model.config.DATA_WEALTH_GIVEN_INCOME; // File of the data
     static private BinnedData<Pdf> lnWealthGivenLnIncome = loadLnWealthPDFGivenLnIncome();
+    static private final int       PROPENSITY_SAMPLES = 100; // Number of equi-spaced propensities sampled per income bin
+    // Log desired bank balance sampled at each income bin and each propensity sample, stored as a flat array such that
+    // element (incomeBin, j) is found at position incomeBin*PROPENSITY_SAMPLES + j
+    static private double []       lnDesiredBankBalanceSurface = computeLnDesiredBankBalanceSurface();
 
     //-------------------//
     //----- Methods -----//
     //-------------------//
 
     /**
-     * Read data from file Model.config.DATA_WEALTH_GIVEN_INCOME and return it as a binnedData pdf of (log) wealth
-     * conditional on household (log) income.
+     * Load again the wealth distributions, and the desired bank balances derived from them, if the file set in the
+     * current configuration differs from the one they were loaded from, such that a new model created within the same
+     * JVM (for instance, by SimulationRunner) uses its own configuration
+     */
+    public static void setConfig(Config newConfig) {
+        if (!newConfig.DATA_WEALTH_GIVEN_INCOME.equals(wealthGivenIncomeFile)) {
+            wealthGivenIncomeFile = newConfig.DATA_WEALTH_GIVEN_INCOME;
+            lnWealthGivenLnIncome = loadLnWealthPDFGivenLnIncome();
+            lnDesiredBankBalanceSurface = computeLnDesiredBankBalanceSurface();
+        }
+    }
+
+    /**
+     * Return, as a binnedData pdf, the distribution of (log) wealth conditional on household (log) income, taking the
+     * histograms either from the calibration bundle, if available, or from file Model.config.DATA_WEALTH_GIVEN_INCOME
      */
 	static private BinnedData<Pdf> loadLnWealthPDFGivenLnIncome() {
+		BinnedData<BinnedDataDouble> pdfData =
+				CalibrationBundle.getLnWealthGivenLnIncome(wealthGivenIncomeFile);
+		if (pdfData == null) pdfData = readLnWealthHistogramsGivenLnIncome(wealthGivenIncomeFile);
+		BinnedData<Pdf> data = new BinnedData<>(pdfData.getSupportLowerBound(), pdfData.getBinWidth());
+		// Turn the BinnedDataDoubles in the container into Pdf objects and add them to the general data container
+		for (BinnedDataDouble d: pdfData) {
+			data.add(new Pdf(d));
+		}
+		return data;
+	}
+
+    /**
+     * Read data from a file with the format of Model.config.DATA_WEALTH_GIVEN_INCOME and return it as a binnedData
+     * container, with a (log income) bin for each histogram of (log) wealth
+     */
+	static BinnedData<BinnedDataDouble> readLnWealthHistogramsGivenLnIncome(String fileName) {
 		final int incomeMinCol = 0;
 		final int incomeMaxCol = 1;
 		final int wealthMinCol = 2;
 		final int wealthMaxCol = 3;
 		final int probCol = 4;
-		BinnedData<Pdf> data = new BinnedData<>(0.0, 0.0);
 		BinnedData<BinnedDataDouble> pdfData = new BinnedData<>(0.0,0.0);
 		BinnedDataDouble pdf;
 		double pdfBinMin;
@@ -50,7 +84,7 @@ public class Wealth {
 		Iterator<CSVRecord> records;
 		try {
             // Open a file reader
-			Reader in = new FileReader(Model.config.DATA_WEALTH_GIVEN_INCOME);
+			Reader in = new FileReader(fileName);
             // Pass reader to CSVFormat parser, which will use first line (header) to set column names
 			records = CSVFormat.EXCEL.withHeader().parse(in).iterator();
 			CSVRecord record;
@@ -58,8 +92,8 @@ public class Wealth {
 			if (records.hasNext()) {
 				record = records.next();
                 // Use the first record to set the first (income) bin minimum and the (income) bin width...
-                data.setFirstBinMin(Double.valueOf(record.get(incomeMinCol)));
-			    data.setBinWidth(Double.valueOf(record.get(incomeMaxCol)) - data.getSupportLowerBound());
+                pdfData.setFirstBinMin(Double.valueOf(record.get(incomeMinCol)));
+			    pdfData.setBinWidth(Double.valueOf(record.get(incomeMaxCol)) - pdfData.getSupportLowerBound());
 			    // ...as well as the first (income) bin minimum and the (income) bin width...
 			    pdfBinMin = Double.valueOf(record.get(wealthMinCol));
 			    pdfBinWidth = Double.valueOf(record.get(wealthMaxCol)) - pdfBinMin;
@@ -69,7 +103,7 @@ public class Wealth {
 			    pdfData.add(pdf);
                 // ...then the probability is actually added to the array of values within the BinnedDataDouble object
                 pdf.add(Double.valueOf(record.get(probCol)));
-			    lastBinMin = data.getSupportLowerBound();
+			    lastBinMin = pdfData.getSupportLowerBound();
 			    // ...finally, iterate over the rest of the records
 			    while (records.hasNext()) {
 			    	record = records.next();
@@ -82,38 +116,94 @@ public class Wealth {
 			    	// ...continue adding values to the previous BinnedDataDouble object
 		    		pdf.add(Double.valueOf(record.get(probCol)));
 			    }
-			    // Finally, iterate over the BinnedDataDoubles in the container...
-				for (BinnedDataDouble d: pdfData) {
-			        // ...turning them into Pdf objects and adding them to the general data container
-					data.add(new Pdf(d));
-				}
 			}
 		} catch (IOException e) {
 			System.out.println("Error loading data for wealth given income in data.Wealth");
 			e.printStackTrace();
 		}
-		return data;
+		return pdfData;
 	}
 
     /**
-     * Minimum bank balance each household is willing to have at the end of the month for the whole population to match
-     * the wealth distribution obtained from the Wealth and Assets Survey. This desired bank balance will be then used
-     * to determine non-essential consumption.
+     * Tabulate the (log) desired bank balance for each income bin at PROPENSITY_SAMPLES equi-spaced values of the
+     * propensity to save, from 0 to 1 (both included). Note that, as long as PROPENSITY_SAMPLES coincides with the
+     * number of points used by each Pdf to represent its inverse cumulative distribution function, linear interpolation
+     * on this surface reproduces exactly the direct computation
+     */
+    static private double [] computeLnDesiredBankBalanceSurface() {
+        double [] surface = new double[lnWealthGivenLnIncome.size()*PROPENSITY_SAMPLES];
+        for (int incomeBin = 0; incomeBin < lnWealthGivenLnIncome.size(); incomeBin++) {
+            Pdf pdf = lnWealthGivenLnIncome.get(incomeBin);
+            for (int j = 0; j < PROPENSITY_SAMPLES - 1; j++) {
+                surface[incomeBin*PROPENSITY_SAMPLES + j] =
+                        pdf.inverseCumulativeProbability(j/(PROPENSITY_SAMPLES - 1.0));
+            }
+            surface[incomeBin*PROPENSITY_SAMPLES + PROPENSITY_SAMPLES - 1] = pdf.getUpperLimit();
+        }
+        return surface;
+    }
+
+    /**
+     * Find the income bin of the wealth data corresponding to a given annual gross total income, assigning the minimum
+     * (maximum) income bin to any income below (above) the support of the data
      *
      * @param annualGrossTotalIncome Household annual gross total income
-     * @param propensityToSave Household propensity to save
      */
-    static public double getDesiredBankBalance(double annualGrossTotalIncome, double propensityToSave) {
+    static public int getIncomeBin(double annualGrossTotalIncome) {
         double lnAnnualGrossTotalIncome = Math.log(annualGrossTotalIncome);
         // If lnAnnualGrossTotalIncome is below minimum income bin, then minimum income bin is assigned
         if (lnAnnualGrossTotalIncome < lnWealthGivenLnIncome.getSupportLowerBound()) {
-            lnAnnualGrossTotalIncome = lnWealthGivenLnIncome.getSupportLowerBound();
+            return 0;
         }
+        int incomeBin = (int)((lnAnnualGrossTotalIncome - lnWealthGivenLnIncome.getSupportLowerBound())
+                /lnWealthGivenLnIncome.getBinWidth());
         // If lnAnnualGrossTotalIncome is above maximum income bin, then maximum income bin is assigned
-        else if (lnAnnualGrossTotalIncome > lnWealthGivenLnIncome.getSupportUpperBound()) {
-            lnAnnualGrossTotalIncome = lnWealthGivenLnIncome.getSupportUpperBound() - 1e-7;
-        }
-        // Assign gross wealth (desired bank balance) according to the determined annualGrossTotalIncome
-        return Math.exp(lnWealthGivenLnIncome.getBinAt(lnAnnualGrossTotalIncome).inverseCumulativeProbability(propensityToSave));
+        return Math.min(incomeBin, lnWealthGivenLnIncome.size() - 1);
+    }
+
+    /**
+     * Lower edge, in annual gross total income (not log), of a given income bin, or zero for the first bin
+     */
+    static public double getIncomeBinLowerEdge(int incomeBin) {
+        if (incomeBin == 0) return 0.0;
+        return Math.exp(lnWealthGivenLnIncome.getSupportLowerBound() + incomeBin*lnWealthGivenLnIncome.getBinWidth());
+    }
+
+    /**
+     * Upper edge, in annual gross total income (not log), of a given income bin, or infinity for the last bin
+     */
+    static public double getIncomeBinUpperEdge(int incomeBin) {
+        if (incomeBin == lnWealthGivenLnIncome.size() - 1) return Double.POSITIVE_INFINITY;
+        return Math.exp(lnWealthGivenLnIncome.getSupportLowerBound()
+                + (incomeBin + 1)*lnWealthGivenLnIncome.getBinWidth());
+    }
+
+    /**
+     * Desired bank balance for a given income bin and propensity to save, found by linear interpolation on the
+     * precomputed surface of log desired bank balances
+     *
+     * @param incomeBin Household income bin, as given by getIncomeBin
+     * @param propensityToSave Household propensity to save
+     */
+    static public double getDesiredBankBalance(int incomeBin, double propensityToSave) {
+        // Clamp the lower node such that a propensity of 1.0 interpolates fully onto the last node of the income bin,
+        // instead of reading beyond it
+        int j = Math.min((int)(propensityToSave*(PROPENSITY_SAMPLES - 1)), PROPENSITY_SAMPLES - 2);
+        double remainder = propensityToSave*(PROPENSITY_SAMPLES - 1) - j;
+        int position = incomeBin*PROPENSITY_SAMPLES + j;
+        return Math.exp((1.0 - remainder)*lnDesiredBankBalanceSurface[position]
+                + remainder*lnDesiredBankBalanceSurface[position + 1]);
+    }
+
+    /**
+     * Minimum bank balance each household is willing to have at the end of the month for the whole population to match
+     * the wealth distribution obtained from the Wealth and Assets Survey. This desired bank balance will be then used
+     * to determine non-essential consumption.
+     *
+     * @param annualGrossTotalIncome Household annual gross total income
+     * @param propensityToSave Household propensity to save
+     */
+    static public double getDesiredBankBalance(double annualGrossTotalIncome, double propensityToSave) {
+        return getDesiredBankBalance(getIncomeBin(annualGrossTotalIncome), propensityToSave);
     }
 }
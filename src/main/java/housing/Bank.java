@@ -1,6 +1,10 @@
 package housing;
 
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import utilities.StateBuffer;
 
 /**************************************************************************************************
  * Class to represent a mortgage-lender (i.e. a bank or building society), whose only function is
@@ -46,7 +50,7 @@ public class Bank {
     //------------------------//
 
 	public Bank() {
-		mortgages = new HashSet<>();
+		mortgages = new LinkedHashSet<>(); // Iterated in insertion order, independent of object hash codes
 		init();
 	}
 
@@ -62,6 +66,14 @@ public class Bank {
         // TODO: Is this (0.02) a parameter? Does it affect results in any significant way or is it just a dummy initialisation?
         setMortgageInterestRate(0.02);
 		resetMonthlyCounters();
+        setPolicyThresholds();
+    }
+
+    /**
+     * Set the internal policy thresholds from the configuration, for instance again after restoring the model state
+     * with a configuration with different policies
+     */
+    void setPolicyThresholds() {
         // Setup initial LTV internal policy thresholds
         firstTimeBuyerLTVLimit = config.BANK_MAX_FTB_LTV;
         ownerOccupierLTVLimit= config.BANK_MAX_OO_LTV;
@@ -127,7 +139,7 @@ public class Bank {
 	/**
 	 * Get the monthly payment factor, i.e., the monthly payment on a mortgage as a fraction of the mortgage principal.
 	 */
-	private double getMonthlyPaymentFactor(boolean isHome) {
+	double getMonthlyPaymentFactor(boolean isHome) {
 		if (isHome) {
 			return monthlyPaymentFactor; // Monthly payment factor to pay off the principal in N_PAYMENTS
 		} else {
@@ -176,34 +188,14 @@ public class Bank {
                                       boolean isHome) {
 		MortgageAgreement approval = new MortgageAgreement(h, !isHome);
 		double r = getMortgageInterestRate()/config.constants.MONTHS_IN_YEAR; // monthly interest rate
-		double lti_principal, affordable_principal, icr_principal;
 		double liquidWealth = h.getBankBalance(); // No home equity needs to be added here: home-movers always sell their homes before trying to buy new ones
 
-		// --- LTV constraint
-		approval.principal = housePrice*getLoanToValueLimit(h.isFirstTimeBuyer(), isHome);
-
-		if(isHome) {
-			// --- affordability constraint TODO: affordability for BTL?
-			affordable_principal = Math.max(0.0, config.CENTRAL_BANK_AFFORDABILITY_COEFF
-					* h.getMonthlyNetEmploymentIncome()) / getMonthlyPaymentFactor(isHome);
-			approval.principal = Math.min(approval.principal, affordable_principal);
-
-			// --- lti constraint
-			lti_principal = h.getAnnualGrossEmploymentIncome()*getLoanToIncomeLimit(h.isFirstTimeBuyer(), isHome);
-			approval.principal = Math.min(approval.principal, lti_principal);
-		} else {
-			// --- BTL ICR constraint
-			icr_principal = Model.rentalMarketStats.getExpAvFlowYield()*housePrice
-                    /(Model.centralBank.getInterestCoverRatioLimit(isHome)*config.CENTRAL_BANK_BTL_STRESSED_INTEREST);
-			approval.principal = Math.min(approval.principal, icr_principal);
-		}
-		
+		approval.principal = getApprovablePrincipal(h, housePrice, isHome);
 		approval.downPayment = housePrice - approval.principal;
 
         if(liquidWealth < approval.downPayment) {
-			System.out.println("Failed down-payment constraint: bank balance = " + liquidWealth + " downpayment = "
-                    + approval.downPayment);
-			System.exit(0);
+			throw new IllegalStateException("Failed down-payment constraint: bank balance = " + liquidWealth
+                    + " downpayment = " + approval.downPayment);
 		}
 		// --- allow larger downpayments
 		if(desiredDownPayment < 0.0) desiredDownPayment = 0.0;
@@ -222,6 +214,41 @@ public class Bank {
 		return approval;
 	}
 
+	/**
+	 * Find the maximum principal that this mortgage-lender would approve for a given household and house price, before
+	 * taking into account any desired down-payment larger than the required one. This is the part of the approval
+	 * process determined by the regulatory and internal policy constraints, and does not allocate any object, so it
+	 * can be used directly when only the leverage of a hypothetical mortgage is needed
+	 *
+	 * @param h The household requesting the mortgage
+	 * @param housePrice The price of the house that household h wants to buy
+	 * @param isHome True if household h plans to live in the house (non-BTL mortgage)
+	 * @return The maximum principal for this household and house price
+	 */
+	double getApprovablePrincipal(Household h, double housePrice, boolean isHome) {
+		double principal, lti_principal, affordable_principal, icr_principal;
+
+		// --- LTV constraint
+		principal = housePrice*getLoanToValueLimit(h.isFirstTimeBuyer(), isHome);
+
+		if(isHome) {
+			// --- affordability constraint TODO: affordability for BTL?
+			affordable_principal = Math.max(0.0, config.CENTRAL_BANK_AFFORDABILITY_COEFF
+					* h.getMonthlyNetEmploymentIncome()) / getMonthlyPaymentFactor(isHome);
+			principal = Math.min(principal, affordable_principal);
+
+			// --- lti constraint
+			lti_principal = h.getAnnualGrossEmploymentIncome()*getLoanToIncomeLimit(h.isFirstTimeBuyer(), isHome);
+			principal = Math.min(principal, lti_principal);
+		} else {
+			// --- BTL ICR constraint
+			icr_principal = Model.rentalMarketStats.getExpAvFlowYield()*housePrice
+                    /(Model.centralBank.getInterestCoverRatioLimit(isHome)*config.CENTRAL_BANK_BTL_STRESSED_INTEREST);
+			principal = Math.min(principal, icr_principal);
+		}
+		return principal;
+	}
+
 	/**
 	 * Find, for a given household, the maximum house price that this mortgage-lender is willing to approve a mortgage
      * for.
@@ -271,6 +298,55 @@ public class Bank {
      */
     void endMortgageContract(MortgageAgreement mortgage) { mortgages.remove(mortgage); }
 
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the state of the bank into a state buffer, including all its mortgages, and record the position of each of
+     * them, such that households can refer to them by this position
+     *
+     * @param mortgageIndices Map to be filled with the position of each mortgage written
+     */
+    void writeState(StateBuffer state, Map<MortgageAgreement, Integer> mortgageIndices) {
+        state.putInt(mortgages.size());
+        for (MortgageAgreement mortgage : mortgages) {
+            mortgageIndices.put(mortgage, mortgageIndices.size());
+            mortgage.writeState(state);
+        }
+        state.putDouble(interestSpread);
+        state.putDouble(monthlyPaymentFactor);
+        state.putDouble(monthlyPaymentFactorBTL);
+        state.putDouble(baseRate);
+        state.putDouble(supplyTarget);
+        state.putDouble(supplyVal);
+        state.putDouble(dDemand_dInterest);
+        state.putInt(nOOMortgagesOverLTI);
+        state.putInt(nOOMortgages);
+    }
+
+    /**
+     * Read the state of the bank from a state buffer, as written by writeState, replacing all its mortgages, while
+     * policy thresholds are set from the current configuration
+     */
+    void readState(StateBuffer state, ModelState.References references) {
+        mortgages.clear();
+        int nMortgages = state.getInt();
+        for (int i = 0; i < nMortgages; i++) {
+            MortgageAgreement mortgage = new MortgageAgreement(state);
+            mortgages.add(mortgage);
+            references.add(mortgage);
+        }
+        interestSpread = state.getDouble();
+        monthlyPaymentFactor = state.getDouble();
+        monthlyPaymentFactorBTL = state.getDouble();
+        baseRate = state.getDouble();
+        supplyTarget = state.getDouble();
+        supplyVal = state.getDouble();
+        dDemand_dInterest = state.getDouble();
+        nOOMortgagesOverLTI = state.getInt();
+        nOOMortgages = state.getInt();
+        setPolicyThresholds();
+    }
+
     //----- Mortgage policy methods -----//
 
     /**
@@ -0,0 +1,329 @@
+package housing;
+
+import utilities.EnsembleStatistics;
+import utilities.StateBuffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**************************************************************************************************
+ * Class to write periodic checkpoints of a simulation to file 'Checkpoint.bin' in the output
+ * folder, and to resume a simulation from them. Each checkpoint holds the full model state (see
+ * ModelState), the simulation number, the statistics across runs of core indicators and the
+ * length of each output file, all of which must have been synced to disk beforehand, as well as
+ * the name of the configuration file, whose copy in the output folder is then used to resume the
+ * simulation. Upon resuming, output files are truncated to these lengths, such that recorders can
+ * reopen them in append mode and continue writing from the step after the checkpoint.
+ *
+ * Checkpoints are not free: in order to capture a consistent state, the state is copied field by
+ * field into a state buffer of primitive values on the simulation thread, which stalls the step
+ * loop for a time that grows with the population, as every household, house and agreement has to
+ * be visited. As measured on a single core, this takes about 10 to 15 ms with 2000 households and
+ * about 30 to 45 ms with the default 10000 (about 130 ms for the first checkpoint of a run, while
+ * the code is still being compiled), i.e., less than the time of one time step, plus about 3 to
+ * 5 ms if statistics across runs of core indicators are recorded. This is well above the few
+ * milliseconds that would make checkpoints unnoticeable, as the cost is bound by visiting the
+ * objects themselves, scattered in memory, rather than by copying their values. The period should
+ * be set accordingly. Converting the buffer to bytes, compressing it (about 70 to 150 ms with the default
+ * population) and writing it to file is done in a background thread, which writes first to a
+ * temporary file, forces it to disk and only then renames it, atomically, over the previous
+ * checkpoint. Thus, the checkpoint file always holds a complete checkpoint, even if the simulation
+ * crashes while writing it. If a checkpoint is still being written when the next one is due, the
+ * simulation also waits for it to finish. The micro-data file, written by its own background
+ * thread, is synced from that thread, and its length is recorded by the checkpoint thread.
+ *
+ * File format: magic number "HMCK", format version and time (all as big-endian integers) and name
+ * of the configuration file (in modified UTF-8), followed by the compressed state buffer, holding
+ * the model state and then the simulation number, statistics and output file lengths
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class Checkpoint {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    static final String             FILE_NAME = "Checkpoint.bin";
+    private static final String     TEMPORARY_SUFFIX = ".tmp";
+    private static final int        MAGIC = 0x484D434B; // "HMCK"
+    private static final int        VERSION = 4;
+    private static final int        BUFFER_SIZE = 1 << 16;
+
+    private String                  outputFolder;
+    private String                  configFileName; // Name, without folder, of the configuration file copy
+    private StateBuffer             state; // State of the last checkpoint, re-used for every checkpoint
+    private Future<?>               pendingWrite; // Background writing of the last checkpoint, if any
+    private ExecutorService         writerThread; // Created with the first checkpoint to be written
+
+    // Fields read when resuming from a checkpoint
+    private int                     time; // Time step at the end of which the checkpoint was written
+    private int                     nSimulation; // Simulation number at the checkpoint
+    private EnsembleStatistics []   coreIndicatorsEnsemble; // Statistics across runs of core indicators, if recorded
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    /**
+     * @param outputFolder Folder with all output files, and where checkpoints are to be written
+     * @param configFileName Name, without folder, of the copy of the configuration file in the output folder
+     */
+    Checkpoint(String outputFolder, String configFileName) {
+        this.outputFolder = outputFolder;
+        this.configFileName = configFileName;
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Copy the current state of the simulation into a state buffer, recording the length of all output files in the
+     * output folder, and hand it over to the background thread for writing to file. Note that copying the state blocks
+     * the caller (see class description for its cost). All recorders must have been synced beforehand, apart from one
+     * whose file is still being written in the background, and whose length is then recorded by the background thread
+     *
+     * @param nSimulation Current simulation number
+     * @param coreIndicatorsEnsemble Statistics across runs of core indicators, or null if not recorded
+     * @param pendingFileName Name, without folder, of an output file still being written, or null if none
+     * @param pendingFileLength Length of this file once all output before the checkpoint has been written to it
+     */
+    void save(int nSimulation, EnsembleStatistics [] coreIndicatorsEnsemble, final String pendingFileName,
+              final Future<Long> pendingFileLength) {
+        if (writerThread == null) {
+            state = new StateBuffer();
+            writerThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Checkpoint");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        // Wait until the last checkpoint has been written to file, if still pending, before re-using its buffer
+        waitFor(pendingWrite);
+        state.clear();
+        ModelState.writeState(state);
+        state.putInt(nSimulation);
+        if (coreIndicatorsEnsemble == null) {
+            state.putInt(-1);
+        } else {
+            state.putInt(coreIndicatorsEnsemble.length);
+            for (EnsembleStatistics statistics : coreIndicatorsEnsemble) statistics.writeState(state);
+        }
+        writeOutputFileLengths(pendingFileName);
+        final int checkpointTime = Model.t;
+        pendingWrite = writerThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writePendingFileLength(pendingFileName, pendingFileLength);
+                    write(checkpointTime);
+                } catch (IOException | InterruptedException | ExecutionException e) {
+                    System.err.println("Writing checkpoint at time " + checkpointTime + " failed. Reason: "
+                            + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Copy into the state buffer the length of each file in the output folder, apart from checkpoints, configuration
+     * files and the file still being written, preceded by their number
+     */
+    private void writeOutputFileLengths(String pendingFileName) {
+        File [] files = new File(outputFolder).listFiles();
+        if (files == null) files = new File[0];
+        int nFiles = 0;
+        for (File file : files) {
+            if (isOutputFile(file, pendingFileName)) nFiles++;
+        }
+        state.putInt(nFiles);
+        for (File file : files) {
+            if (isOutputFile(file, pendingFileName)) {
+                state.putString(file.getName());
+                state.putLong(file.length());
+            }
+        }
+    }
+
+    private static boolean isOutputFile(File file, String pendingFileName) {
+        return file.isFile() && !file.getName().startsWith(FILE_NAME) && !file.getName().endsWith(".properties")
+                && !file.getName().equals(pendingFileName);
+    }
+
+    /**
+     * Copy into the state buffer the length of the file still being written, if any, once known, preceded by the
+     * number of such files (zero or one)
+     */
+    private void writePendingFileLength(String pendingFileName, Future<Long> pendingFileLength)
+            throws InterruptedException, ExecutionException {
+        if (pendingFileName == null || pendingFileLength == null) {
+            state.putInt(0);
+        } else {
+            long length = pendingFileLength.get();
+            state.putInt(1);
+            state.putString(pendingFileName);
+            state.putLong(length);
+        }
+    }
+
+    /**
+     * Compress the state buffer into a temporary file, force it to disk and rename it over the checkpoint file
+     */
+    private void write(int checkpointTime) throws IOException {
+        File temporaryFile = new File(outputFolder + FILE_NAME + TEMPORARY_SUFFIX);
+        try (FileOutputStream file = new FileOutputStream(temporaryFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(checkpointTime);
+            out.writeUTF(configFileName);
+            ModelState.writeCompressed(state, out);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporaryFile.toPath(), new File(outputFolder + FILE_NAME).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void waitFor(Future<?> write) {
+        if (write == null) return;
+        try {
+            write.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wait for the last checkpoint to be written to file, if still pending, and stop the background thread
+     */
+    void finish() {
+        if (writerThread == null) return;
+        writerThread.shutdown();
+        try {
+            if (!writerThread.awaitTermination(1, TimeUnit.HOURS)) {
+                System.out.println("Strange: checkpoint could not be written to file within an hour");
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Read, without restoring the model state, the name of the configuration file a checkpoint file was written with,
+     * whose copy is to be found in the output folder of the simulation
+     *
+     * @param fileName Address of the checkpoint file
+     * @return Name, without folder, of the configuration file
+     */
+    static String readConfigFileName(String fileName) throws IOException {
+        try (DataInputStream header = new DataInputStream(new FileInputStream(fileName))) {
+            readHeader(header, fileName);
+            header.readInt();
+            return header.readUTF();
+        }
+    }
+
+    /**
+     * Check the magic number and format version at the start of a checkpoint file
+     */
+    private static void readHeader(DataInputStream header, String fileName) throws IOException {
+        if (header.readInt() != MAGIC) throw new IOException(fileName + " is not a checkpoint file");
+        int version = header.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version + " at " + fileName);
+        }
+    }
+
+    /**
+     * Replace the current state of the model by the one in a checkpoint file, setting the time to that of the
+     * checkpoint, and truncate all output files in the output folder to their length at the checkpoint
+     *
+     * @param fileName Address of the checkpoint file
+     * @param outputFolder Folder with the output files of the simulation to resume
+     * @return Checkpoint read, with its time, simulation number and statistics across runs of core indicators
+     */
+    static Checkpoint resume(String fileName, String outputFolder) throws IOException {
+        Checkpoint checkpoint = new Checkpoint(outputFolder, null);
+        StateBuffer state;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName),
+                BUFFER_SIZE))) {
+            readHeader(in, fileName);
+            checkpoint.time = in.readInt();
+            checkpoint.configFileName = in.readUTF();
+            state = ModelState.readCompressed(in);
+        }
+        ModelState.readState(state, fileName);
+        String [] fileNames;
+        long [] fileLengths;
+        try {
+            checkpoint.nSimulation = state.getInt();
+            int nStatistics = state.getInt();
+            if (nStatistics >= 0) {
+                checkpoint.coreIndicatorsEnsemble = new EnsembleStatistics[nStatistics];
+                for (int i = 0; i < nStatistics; i++) {
+                    checkpoint.coreIndicatorsEnsemble[i] = new EnsembleStatistics(state);
+                }
+            }
+            // Output file lengths, in two groups: those recorded by the simulation thread and the background thread
+            int nFiles = state.getInt();
+            fileNames = new String[nFiles + 1];
+            fileLengths = new long[nFiles + 1];
+            for (int i = 0; i < nFiles; i++) {
+                fileNames[i] = state.getString();
+                fileLengths[i] = state.getLong();
+            }
+            if (state.getInt() == 1) {
+                fileNames[nFiles] = state.getString();
+                fileLengths[nFiles] = state.getLong();
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException("Checkpoint at " + fileName + " cannot be read: " + e.getMessage(), e);
+        }
+        if (state.hasRemaining()) {
+            throw new IOException("Checkpoint at " + fileName + " holds more values than this version of the code "
+                    + "reads");
+        }
+        for (int i = 0; i < fileNames.length; i++) {
+            if (fileNames[i] == null) continue;
+            File file = new File(outputFolder + fileNames[i]);
+            if (file.length() < fileLengths[i]) {
+                throw new IOException("Output file " + file + " is shorter than at the checkpoint");
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(fileLengths[i]);
+            }
+        }
+        Model.t = checkpoint.time;
+        return checkpoint;
+    }
+
+    //----- Getter/setter methods -----//
+
+    int getTime() { return time; }
+
+    int getnSimulation() { return nSimulation; }
+
+    EnsembleStatistics [] getCoreIndicatorsEnsemble() { return coreIndicatorsEnsemble; }
+}
@@ -28,14 +28,23 @@ public class Config {
     int SEED;                                           // Seed for the random number generator
     int N_STEPS;                                        // Simulation duration in time steps
     int N_SIMS;                                         // Number of simulations to run (monte-carlo)
+    public String DATA_CALIBRATION_BUNDLE;              // Address of a binary bundle of calibration tables (written with data.CalibrationBundle) to use instead of parsing the data files, or empty
     public int TIME_TO_START_RECORDING_TRANSACTIONS;    // Time step to start recording transactions (to avoid too large files)
     boolean recordTransactions;			                // True to write data for each transaction
+    public boolean recordTransactionsInBinary;          // True to write transactions as fixed-width binary records (Transactions-run*.bin) instead of CSV
+    public String TRANSACTION_FIELDS;                   // Comma-separated names of the transaction fields to write, or "all"
     boolean recordCoreIndicators;		                // True to write time series for each core indicator
+    boolean recordCoreIndicatorsSummary;                // True to write statistics across runs (mean, standard deviation and percentiles) of each core indicator at each time step
     boolean recordQualityBandPrice;                     // True to write time series of prices for each quality band to a single file per run
+    public boolean compressOutput;                      // True to gzip-compress all CSV output files (written as *.csv.gz)
+    boolean recordOutputInBinary;                       // True to write output time series and micro-data snapshots in binary columnar format (*.bin) instead of CSV
+    boolean recordPerformanceMetrics;                   // True to write time spent in each phase of each step, and throughput figures, to a file per run
+    public boolean recordPriceQuantiles;                // True to summarise bid and offer prices with quantile sketches and write their percentiles to a single file per run
+    int MICRODATA_SNAPSHOT_PERIOD;                      // Number of months between consecutive snapshots of the individual household data selected below
     public boolean recordEmploymentIncome;              // True to write individual household monthly gross employment income data
     public boolean recordRentalIncome;                  // True to write individual household monthly gross rental income data (after market clearing)
     public boolean recordBankBalance;                   // True to write individual household liquid wealth (bank balance) data (after market clearing)
-    public boolean recordHousingWealth;                 // True to write individual household housing wealth data (after market clearing, assuming constant house prices!)
+    public boolean recordHousingWealth;                 // True to write individual household housing wealth data (after market clearing, at exponentially averaged sale prices per quality)
     public boolean recordNHousesOwned;                  // True to write individual household number of houses owned data (after market clearing)
     public boolean recordAge;                           // True to write individual household age of the household representative person
     public boolean recordSavingRate;                    // True to write individual household saving rate data [1 - (taxExpenses + housing expenses(except deposits) + essentialConsumption + nonEssentialConsumption)/monthlyGrossTotalIncome]
@@ -197,6 +206,7 @@ public class Config {
     public class Constants {
         final public int DAYS_IN_MONTH = 30;
         final public int MONTHS_IN_YEAR = 12;
+        final public int MONTHS_IN_QUARTER = 3;
         final int WORKING_DAYS_IN_MONTH = 20;
         final int WORKING_HOURS_IN_DAY = 8;
     }
@@ -338,7 +348,7 @@ public class Config {
      */
     private void setDerivedParams() {
         // Housing market parameters
-        derivedParams.HPI_RECORD_LENGTH = HPA_YEARS_TO_CHECK*constants.MONTHS_IN_YEAR + 3;  // Plus three months in a quarter
+        derivedParams.HPI_RECORD_LENGTH = HPA_YEARS_TO_CHECK*constants.MONTHS_IN_YEAR + constants.MONTHS_IN_QUARTER;
         derivedParams.MONTHS_UNDER_OFFER = (double)DAYS_UNDER_OFFER/constants.DAYS_IN_MONTH;
         derivedParams.T = 0.02*TARGET_POPULATION;                   // TODO: Clarify where does this 0.2 come from, and provide explanation for this formula
         derivedParams.E = Math.exp(-1.0/derivedParams.T);           // TODO: Provide explanation for this formula
@@ -1,9 +1,11 @@
 package housing;
 
 import org.apache.commons.math3.random.MersenneTwister;
+import utilities.StateBuffer;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 /**************************************************************************************************
  * Class to represent the building sector in the aggregate and encapsulate its decisions
@@ -48,7 +50,7 @@ public class Construction implements IHouseOwner {
         this.rand = rand;
         this.geography = geography;
         nNewBuildPerRegion = new HashMap<>();
-        onMarket = new HashSet<>();
+        onMarket = new LinkedHashSet<>(); // Iterated in insertion order, independent of object hash codes
 	}
 
     //-------------------//
@@ -210,6 +212,57 @@ public class Construction implements IHouseOwner {
         System.out.println("Strange: the construction sector is trying to let a house!");
 	}
 
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the houses owned by the construction sector, i.e., those on the market, into a state buffer, preceded by
+     * their number
+     */
+    void writeHouses(StateBuffer state) {
+        state.putInt(onMarket.size());
+        for (House h : onMarket) h.writeState(state);
+    }
+
+    /**
+     * Copy the state of the construction sector into a state buffer, with houses and regions written as identifiers
+     */
+    void writeState(StateBuffer state) {
+        state.putInt(housingStock);
+        state.putInt(nNewBuild);
+        int nRegions = 0;
+        for (Region region : geography.getRegions()) {
+            if (nNewBuildPerRegion.containsKey(region)) nRegions++;
+        }
+        state.putInt(nRegions);
+        for (Region region : geography.getRegions()) {
+            if (nNewBuildPerRegion.containsKey(region)) {
+                state.putInt(region.getRegionID());
+                state.putInt(nNewBuildPerRegion.get(region));
+            }
+        }
+        state.putInt(onMarket.size());
+        for (House h : onMarket) state.putInt(h.id);
+    }
+
+    /**
+     * Read the state of the construction sector from a state buffer, as written by writeState, once all houses have
+     * been restored
+     */
+    void readState(StateBuffer state, ModelState.References references) {
+        rand = Model.rand;
+        housingStock = state.getInt();
+        nNewBuild = state.getInt();
+        nNewBuildPerRegion.clear();
+        int nRegions = state.getInt();
+        for (int i = 0; i < nRegions; i++) {
+            Region region = references.getRegion(state.getInt());
+            nNewBuildPerRegion.put(region, state.getInt());
+        }
+        onMarket.clear();
+        int nHouses = state.getInt();
+        for (int i = 0; i < nHouses; i++) onMarket.add(references.getHouse(state.getInt()));
+    }
+
     //----- Getter/setter methods -----//
 
     public int getHousingStock() { return housingStock; }
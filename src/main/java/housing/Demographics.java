@@ -1,8 +1,11 @@
 package housing;
 
+import collectors.FlightRecorderEvents;
+
 import java.util.*;
 
 import org.apache.commons.math3.random.MersenneTwister;
+import utilities.StateBuffer;
 
 public class Demographics {
 
@@ -130,6 +133,7 @@ public class Demographics {
      * regions if they inherit a new home in a different region from the one they had so far been living at.
      */
     private void implementDeaths() {
+        Object event = FlightRecorderEvents.begin(FlightRecorderEvents.DEATHS);
         // First, run through the regions collecting all households in a single ArrayList...
         ArrayList<Household> allHouseholds = new ArrayList<>();
         for (Region region: geography.getRegions()) {
@@ -166,6 +170,32 @@ public class Demographics {
             }
             h.transferAllWealthTo(beneficiary);
         }
+        FlightRecorderEvents.commitDeaths(event, householdsToKill.size(), totalPopulation);
+    }
+
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the state of the demographics into a state buffer, with the alternative random number generator written as
+     * its Java serialization
+     */
+    void writeState(StateBuffer state) {
+        state.putObject(altRand);
+        state.putInt(totalPopulation);
+        state.putInts(householdsPerAgeBand);
+        state.putInts(birthsAndDeaths);
+    }
+
+    /**
+     * Read the state of the demographics from a state buffer, as written by writeState, once the random number
+     * generator of the model has been restored
+     */
+    void readState(StateBuffer state) {
+        rand = Model.rand;
+        altRand = (Random)state.getObject();
+        totalPopulation = state.getInt();
+        householdsPerAgeBand = state.getInts();
+        birthsAndDeaths = state.getInts();
     }
 
     //----- Getter/setter methods -----//
@@ -1,8 +1,11 @@
 package housing;
 
+import collectors.PerformanceRecorder;
 import data.Transport;
 import org.apache.commons.math3.random.MersenneTwister;
 
+import utilities.StateBuffer;
+
 import java.util.ArrayList;
 
 /**************************************************************************************************
@@ -19,8 +22,12 @@ public class Geography {
     //------------------//
 
     private static ArrayList<Region>        regions;
-    private ArrayList<ArrayList<Double>>    commutingTimeMatrix;
-    private ArrayList<ArrayList<Double>>    commutingFeeMatrix;
+    private int                             nRegions;
+    private double []                       commutingTimeMatrix; // Flat row-major matrix, multiplier already applied
+    private double []                       commutingFeeMatrix; // Flat row-major matrix, multiplier already applied
+    private double []                       expAvFlowYields; // Rental yield of each region, updated monthly
+    private double []                       longTermHPAExpectations; // Expected house price appreciation of each region, updated monthly
+    private double []                       minExpAvSalePrices; // Average price of lowest quality band in each region, updated monthly
     private Config	                        config = Model.config; // Passes the Model's configuration parameters object to a private field
 
     //------------------------//
@@ -38,12 +45,16 @@ public class Geography {
             regions.add(new Region(config, rand, targetPopulation, regionID));
             regionID++;
         }
+        nRegions = regions.size();
         // Read matrix of commuting times between regions, pass the number of regions to check if it is the same as in
-        // the commuting times file
-        commutingTimeMatrix = Transport.getCommutingTimeMatrix(regions.size());
-        // Read matrix of commuting times between regions, pass the number of regions to check if it is the same as in
-        // the commuting times file
-        commutingFeeMatrix = Transport.getCommutingFeeMatrix(regions.size());
+        // the commuting times file, and store it as a flat array with the commuting costs multiplier already applied
+        commutingTimeMatrix = flattenMatrix(Transport.getCommutingTimeMatrix(nRegions));
+        // Read matrix of commuting fees between regions, pass the number of regions to check if it is the same as in
+        // the commuting fees file, and store it as a flat array with the commuting costs multiplier already applied
+        commutingFeeMatrix = flattenMatrix(Transport.getCommutingFeeMatrix(nRegions));
+        expAvFlowYields = new double[nRegions];
+        longTermHPAExpectations = new double[nRegions];
+        minExpAvSalePrices = new double[nRegions];
     }
 
     //-------------------//
@@ -60,23 +71,103 @@ public class Geography {
      * both markets and recording data as appropriate
      */
     public void step() {
+        // Update regional market indicators used by investors, which stay constant while households make decisions
+        updateRegionalInvestmentIndicators();
+        Model.performanceRecorder.endPhase(PerformanceRecorder.INVESTMENT_INDICATORS);
         // Update, for each region, its households, collecting bids at the corresponding markets
-        for (Region r : regions) r.stepHouseholds();
+        for (Region r : regions) {
+            r.stepHouseholds();
+            Model.performanceRecorder.endRegionalPhase(PerformanceRecorder.HOUSEHOLDS, r.getRegionID());
+        }
         // Update, for each region, its market statistics collectors and markets
-        for (Region r : regions) r.stepMarkets();
+        for (Region r : regions) {
+            r.stepMarkets();
+            Model.performanceRecorder.endRegionalPhase(PerformanceRecorder.MARKETS, r.getRegionID());
+        }
         // Update, for each region, its household statistics collectors, after all markets have been cleared
-        for (Region r : regions) r.regionalHouseholdStats.record();
+        for (Region r : regions) {
+            r.regionalHouseholdStats.record();
+            Model.performanceRecorder.endRegionalPhase(PerformanceRecorder.REGIONAL_HOUSEHOLD_STATS, r.getRegionID());
+        }
+    }
+
+    /**
+     * Store, for each region, the market indicators needed by every BTL investor when deciding where to invest, such
+     * that they are read from the regional collectors only once per month. These indicators only change when markets
+     * are cleared, after all households have made their decisions
+     */
+    private void updateRegionalInvestmentIndicators() {
+        for (Region r : regions) {
+            int i = r.getRegionID();
+            expAvFlowYields[i] = r.regionalRentalMarketStats.getExpAvFlowYield();
+            longTermHPAExpectations[i] = HouseholdBehaviour.getLongTermHPAExpectation(r);
+            minExpAvSalePrices[i] = r.regionalHousingMarketStats.getExpAvSalePriceForQuality(0);
+        }
+    }
+
+    /**
+     * Copy a square matrix into a flat row-major array of doubles, such that element (i, j) is found at position
+     * i*nRegions + j, multiplying each element by the commuting costs multiplier
+     */
+    private double [] flattenMatrix(ArrayList<ArrayList<Double>> matrix) {
+        double [] flatMatrix = new double[nRegions*nRegions];
+        for (int i = 0; i < nRegions; i++) {
+            for (int j = 0; j < nRegions; j++) {
+                flatMatrix[i*nRegions + j] = config.COMMUTING_COSTS_MULTIPLIER*matrix.get(i).get(j);
+            }
+        }
+        return flatMatrix;
+    }
+
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the state of the geography, including that of each of its regions, into a state buffer. Commuting costs
+     * matrices are not written, as they follow from the configuration
+     */
+    void writeState(StateBuffer state) {
+        state.putDoubles(expAvFlowYields);
+        state.putDoubles(longTermHPAExpectations);
+        state.putDoubles(minExpAvSalePrices);
+        for (Region r : regions) r.writeState(state);
+    }
+
+    /**
+     * Read the state of the geography from a state buffer, as written by writeState, once all households and houses
+     * have been restored
+     */
+    void readState(StateBuffer state, ModelState.References references) {
+        expAvFlowYields = state.getDoubles();
+        longTermHPAExpectations = state.getDoubles();
+        minExpAvSalePrices = state.getDoubles();
+        for (Region r : regions) r.readState(state, references);
     }
 
     //----- Getter/setter methods -----//
 
     public ArrayList<Region> getRegions() { return regions; }
 
+    int getNRegions() { return nRegions; }
+
+    double [] getExpAvFlowYields() { return expAvFlowYields; }
+
+    double [] getLongTermHPAExpectations() { return longTermHPAExpectations; }
+
+    double [] getMinExpAvSalePrices() { return minExpAvSalePrices; }
+
     double getCommutingTimeBetween(Region region1, Region region2) {
-        return config.COMMUTING_COSTS_MULTIPLIER*commutingTimeMatrix.get(region1.getRegionID()).get(region2.getRegionID());
+        return commutingTimeMatrix[region1.getRegionID()*nRegions + region2.getRegionID()];
     }
 
     double getCommutingFeeBetween(Region region1, Region region2) {
-        return config.COMMUTING_COSTS_MULTIPLIER*commutingFeeMatrix.get(region1.getRegionID()).get(region2.getRegionID());
+        return commutingFeeMatrix[region1.getRegionID()*nRegions + region2.getRegionID()];
+    }
+
+    double getCommutingTimeBetween(int regionID1, int regionID2) {
+        return commutingTimeMatrix[regionID1*nRegions + regionID2];
+    }
+
+    double getCommutingFeeBetween(int regionID1, int regionID2) {
+        return commutingFeeMatrix[regionID1*nRegions + regionID2];
     }
 }
@@ -1,5 +1,8 @@
 package housing;
 
+import utilities.DoubleUnaryOperator;
+import utilities.PiecewiseLinearFunction;
+
 /**************************************************************************************************
  * Class to represent the government, whose only role in the current model is to collect taxes,
  * including both income tax and national insurance contributions
@@ -13,13 +16,18 @@ public class Government {
     //----- Fields -----//
     //------------------//
 
-    private Config      config; // Private field to receive the Model's configuration parameters object
+    private Config                  config; // Private field to receive the Model's configuration parameters object
+    private PiecewiseLinearFunction incomeTaxSchedule; // Compiled income tax due as a function of gross income
+    private PiecewiseLinearFunction class1NICsSchedule; // Compiled class 1 NICs due as a function of gross income
 
     //------------------------//
     //----- Constructors -----//
     //------------------------//
 
-    public Government(Config config) { this.config = config; }
+    public Government(Config config) {
+        this.config = config;
+        compileSchedules();
+    }
 
     //-------------------//
     //----- Methods -----//
@@ -27,12 +35,79 @@ public class Government {
 
     /**
      * Calculates the income tax due in one year for a given gross annual income, taking into account the dependence of
-     * the personal allowance on gross annual income, but not accounting for married couple's allowance
+     * the personal allowance on gross annual income, but not accounting for married couple's allowance. This uses the
+     * compiled income tax schedule, equivalent to computeIncomeTaxDue up to rounding errors
 	 *
      * @param grossIncome Gross annual income in pounds
      * @return Annual income tax due in pounds
 	 */
-	double incomeTaxDue(double grossIncome) {
+	double incomeTaxDue(double grossIncome) { return incomeTaxSchedule.value(grossIncome); }
+
+    /**
+     * Calculate the class 1 National Insurance Contributions due on a given gross annual income (under PAYE), using the
+     * compiled national insurance schedule, equivalent to computeClass1NICsDue up to rounding errors
+     *
+     * @param grossIncome Gross annual income in pounds
+     * @return Annual class 1 NICs due
+     */
+    double class1NICsDue(double grossIncome) { return class1NICsSchedule.value(grossIncome); }
+
+    /**
+     * Computes, for each element of an array of gross annual employment incomes, the corresponding net annual income,
+     * that is, subtracting both income tax and class 1 national insurance contributions
+     *
+     * @param grossIncomes Array of gross annual incomes in pounds
+     * @param netIncomes Array (of at least the same length as grossIncomes) where net annual incomes are written
+     */
+    public void netIncomes(double [] grossIncomes, double [] netIncomes) {
+        for (int i = 0; i < grossIncomes.length; i++) {
+            netIncomes[i] = grossIncomes[i] - incomeTaxSchedule.value(grossIncomes[i])
+                    - class1NICsSchedule.value(grossIncomes[i]);
+        }
+    }
+
+    /**
+     * Tabulates both income tax and class 1 national insurance contributions as piecewise-linear functions of gross
+     * annual income. Kinks of the income tax function are found at each band threshold shifted by the general personal
+     * allowance (below the income limit for personal allowance), at the start and end of the personal allowance taper,
+     * at each band threshold shifted by the tapered personal allowance (within the taper) and at each band threshold
+     * itself (once the personal allowance has reached zero). Kinks of the national insurance function are found at each
+     * band threshold
+     */
+    private void compileSchedules() {
+        double allowance = config.GOVERNMENT_GENERAL_PERSONAL_ALLOWANCE;
+        double limit = config.GOVERNMENT_INCOME_LIMIT_FOR_PERSONAL_ALLOWANCE;
+        Double [] taxBands = data.Government.tax.bands;
+        double [] taxKinks = new double[3*taxBands.length + 2];
+        for (int i = 0; i < taxBands.length; i++) {
+            taxKinks[3*i] = taxBands[i] + allowance;
+            taxKinks[3*i + 1] = (2.0*(taxBands[i] + allowance) + limit)/3.0;
+            taxKinks[3*i + 2] = taxBands[i];
+        }
+        taxKinks[3*taxBands.length] = limit;
+        taxKinks[3*taxBands.length + 1] = limit + 2.0*allowance;
+        incomeTaxSchedule = PiecewiseLinearFunction.tabulate(taxKinks, new DoubleUnaryOperator() {
+            public double applyAsDouble(double operand) {
+                return computeIncomeTaxDue(operand);
+            }});
+        Double [] niBands = data.Government.nationalInsurance.bands;
+        double [] niKinks = new double[niBands.length];
+        for (int i = 0; i < niBands.length; i++) niKinks[i] = niBands[i];
+        class1NICsSchedule = PiecewiseLinearFunction.tabulate(niKinks, new DoubleUnaryOperator() {
+            public double applyAsDouble(double operand) {
+                return computeClass1NICsDue(operand);
+            }});
+    }
+
+    /**
+     * Computes directly from bands and rates the income tax due in one year for a given gross annual income, taking into
+     * account the dependence of the personal allowance on gross annual income. This is only used to compile the income
+     * tax schedule
+     *
+     * @param grossIncome Gross annual income in pounds
+     * @return Annual income tax due in pounds
+     */
+	private double computeIncomeTaxDue(double grossIncome) {
         // First, the personal allowance is computed, starting from its general value
         double personalAllowance = config.GOVERNMENT_GENERAL_PERSONAL_ALLOWANCE;
         // If gross annual income is above the income limit for personal allowance...
@@ -48,7 +123,8 @@ public class Government {
 	}
 
     /**
-     * Calculate the class 1 National Insurance Contributions due on a given gross annual income (under PAYE)
+     * Calculate directly from bands and rates the class 1 National Insurance Contributions due on a given gross annual
+     * income (under PAYE). This is only used to compile the national insurance schedule
      *
      * Note that, since the untaxed allowance for national insurance contributions is the same for every household, it
      * is already taken into account in the band thresholds, rather than as an untaxed allowance when calling the
@@ -57,7 +133,7 @@ public class Government {
      * @param grossIncome Gross annual income in pounds
      * @return Annual class 1 NICs due
      */
-    double class1NICsDue(double grossIncome) {
+    private double computeClass1NICsDue(double grossIncome) {
         return bandedPercentage(grossIncome, data.Government.nationalInsurance.bands,
                 data.Government.nationalInsurance.rates, 0.0);
 	}
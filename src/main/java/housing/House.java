@@ -1,5 +1,7 @@
 package housing;
 
+import utilities.StateBuffer;
+
 /**************************************************************************************************
  * Class to represent a house with all its intrinsic characteristics.
  *
@@ -42,10 +44,39 @@ public class House implements Comparable<House> {
 		this.quality = quality;
 	}
 
+    /**
+     * Restores a house from a state buffer, as written by writeState, with its owner and resident already restored.
+     * Its sale and rental records are then set when restoring the markets
+     */
+    House(StateBuffer state, ModelState.References references) {
+        id = state.getInt();
+        region = references.getRegion(state.getInt());
+        quality = state.getInt();
+        owner = references.getOwner(state.getInt());
+        resident = references.getHousehold(state.getInt());
+    }
+
     //-------------------//
     //----- Methods -----//
     //-------------------//
 
+    /**
+     * Copy the house into a state buffer, with its owner and resident as identifiers
+     */
+    void writeState(StateBuffer state) {
+        state.putInt(id);
+        state.putInt(region.getRegionID());
+        state.putInt(quality);
+        if (owner == null) {
+            state.putInt(ModelState.NONE);
+        } else if (owner == Model.construction) {
+            state.putInt(ModelState.CONSTRUCTION);
+        } else {
+            state.putInt(((Household)owner).id);
+        }
+        state.putInt((resident == null) ? ModelState.NONE : resident.id);
+    }
+
 	boolean isOnMarket() { return saleRecord != null; }
 
 	HouseOfferRecord getSaleRecord() { return saleRecord; }
@@ -64,6 +95,10 @@ public class House implements Comparable<House> {
 
     public Region getRegion() { return region; }
 
+	static int getIdPool() { return id_pool; }
+
+	static void setIdPool(int newIdPool) { id_pool = newIdPool; }
+
 	@Override
 	public int compareTo(House o) { return((int)Math.signum(id-o.id)); }
 	
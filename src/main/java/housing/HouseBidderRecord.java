@@ -1,5 +1,7 @@
 package housing;
 
+import utilities.StateBuffer;
+
 import java.util.Comparator;
 
 /**************************************************************************************************
@@ -29,6 +31,15 @@ public class HouseBidderRecord extends HousingMarketRecord {
 		this.BTLBid = BTLBid;
 	}
 
+    /**
+     * Restores a bid from a state buffer, as written by writeState, with its bidder already restored
+     */
+    HouseBidderRecord(StateBuffer state, ModelState.References references) {
+        super(state);
+        bidder = references.getHousehold(state.getInt());
+        BTLBid = state.getBoolean();
+    }
+
     //----------------------//
     //----- Subclasses -----//
     //----------------------//
@@ -51,6 +62,16 @@ public class HouseBidderRecord extends HousingMarketRecord {
     //----- Methods -----//
     //-------------------//
 
+    /**
+     * Copy the bid into a state buffer, with its bidder as an identifier
+     */
+    @Override
+    void writeState(StateBuffer state) {
+        super.writeState(state);
+        state.putInt(bidder.id);
+        state.putBoolean(BTLBid);
+    }
+
     //----- Getter/setter methods -----//
 
     public Household getBidder() { return bidder; }
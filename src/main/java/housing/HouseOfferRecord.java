@@ -1,5 +1,7 @@
 package housing;
 
+import utilities.StateBuffer;
+
 import java.util.ArrayList;
 
 /**************************************************************************************************
@@ -40,6 +42,22 @@ public class HouseOfferRecord extends HousingMarketRecord {
         recalculateHouseSpecificYield(price);
     }
 
+    /**
+     * Restores an offer from a state buffer, as written by writeState, with its house and any bidder already restored
+     */
+    HouseOfferRecord(StateBuffer state, Region region, ModelState.References references) {
+        super(state);
+        this.region = region;
+        house = references.getHouse(state.getInt());
+        initialListedPrice = state.getDouble();
+        tInitialListing = state.getInt();
+        houseSpecificYield = state.getDouble();
+        BTLOffer = state.getBoolean();
+        matchedBids = new ArrayList<>(8);
+        int nMatchedBids = state.getInt();
+        for (int i = 0; i < nMatchedBids; i++) matchedBids.add(new HouseBidderRecord(state, references));
+    }
+
     //-------------------//
     //----- Methods -----//
     //-------------------//
@@ -67,6 +85,21 @@ public class HouseOfferRecord extends HousingMarketRecord {
      */
     void matchWith(HouseBidderRecord bid) { matchedBids.add(bid); }
 
+    /**
+     * Copy the offer into a state buffer, with its house as an identifier and any matched bids in full
+     */
+    @Override
+    void writeState(StateBuffer state) {
+        super.writeState(state);
+        state.putInt(house.id);
+        state.putDouble(initialListedPrice);
+        state.putInt(tInitialListing);
+        state.putDouble(houseSpecificYield);
+        state.putBoolean(BTLOffer);
+        state.putInt(matchedBids.size());
+        for (HouseBidderRecord bid : matchedBids) bid.writeState(state);
+    }
+
     //----- Getter/setter methods -----//
 
     /**
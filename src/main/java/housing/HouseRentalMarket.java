@@ -1,6 +1,7 @@
 package housing;
 
 import org.apache.commons.math3.random.MersenneTwister;
+import utilities.StateBuffer;
 
 /**************************************************************************************************
  * Class to represent the rental market
@@ -50,4 +51,15 @@ public class HouseRentalMarket extends HousingMarket {
 		super.removeOffer(hsr);
 		hsr.getHouse().resetRentalRecord();
 	}
+
+    /**
+     * Replace the contents of the market by those read from a state buffer, putting again each house for rent
+     */
+    @Override
+    void readState(StateBuffer state, ModelState.References references) {
+        super.readState(state, references);
+        for (HousingMarketRecord offer : getOffersPQ()) {
+            ((HouseOfferRecord)offer).getHouse().putForRent((HouseOfferRecord)offer);
+        }
+    }
 }
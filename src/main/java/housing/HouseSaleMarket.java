@@ -4,6 +4,7 @@ import java.util.Iterator;
 
 import org.apache.commons.math3.random.MersenneTwister;
 import utilities.PriorityQueue2D;
+import utilities.StateBuffer;
 
 /*******************************************************
  * Class that represents market for houses for-sale.
@@ -12,7 +13,6 @@ import utilities.PriorityQueue2D;
  *
  *****************************************************/
 public class HouseSaleMarket extends HousingMarket {
-
     private Config	                    			config; // Private field to receive the Model's configuration parameters object
     private Region                                  region;
     private PriorityQueue2D<HousingMarketRecord>    offersPY;
@@ -111,6 +111,29 @@ public class HouseSaleMarket extends HousingMarket {
         offersPY.remove(offer);
     }
 
+    /**
+     * Copy the state of the market into a state buffer, followed by the uncovered offers of the price-yield queue
+     */
+    @Override
+    void writeState(StateBuffer state) {
+        super.writeState(state);
+        writeUncovered(state, offersPY);
+    }
+
+    /**
+     * Replace the contents of the market by those read from a state buffer, putting again each house for sale
+     */
+    @Override
+    void readState(StateBuffer state, ModelState.References references) {
+        super.readState(state, references);
+        offersPY.clear();
+        for (HousingMarketRecord offer : getOffersPQ()) {
+            offersPY.add(offer);
+            ((HouseOfferRecord)offer).getHouse().putForSale((HouseOfferRecord)offer);
+        }
+        readUncovered(state, offersPY, references);
+    }
+
 	/*******************************************
 	 * Make a bid on the market as a Buy-to-let investor
 	 *  (i.e. make an offer on a (yet to be decided) house).
@@ -118,5 +141,5 @@ public class HouseSaleMarket extends HousingMarket {
 	 * @param buyer The household that is making the bid.
 	 * @param maxPrice The maximum price that the household is willing to pay.
 	 ******************************************/
-    void BTLbid(Household buyer, double maxPrice) { bids.add(new HouseBidderRecord(buyer, maxPrice, true)); }
+    void BTLbid(Household buyer, double maxPrice) { addBid(new HouseBidderRecord(buyer, maxPrice, true)); }
 }
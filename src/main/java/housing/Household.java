@@ -6,6 +6,7 @@ import java.util.Map.Entry;
 import java.util.TreeMap;
 
 import org.apache.commons.math3.random.MersenneTwister;
+import utilities.StateBuffer;
 
 /**************************************************************************************************
  * This represents a household who receives an income, consumes, saves and can buy, sell, let, and
@@ -21,6 +22,13 @@ public class Household implements IHouseOwner {
     //----- Fields -----//
     //------------------//
 
+    // Kinds of payment agreements, as written to state buffers
+    private static final int    BANK_MORTGAGE = 0; // Mortgage held by the bank, written as its position there
+    private static final int    MORTGAGE = 1; // Mortgage not held by the bank any more
+    private static final int    LANDLORD_RENTAL = 2; // Rental agreement also held by the landlord, written only there
+    private static final int    RENTAL = 3;
+    private static final int    PAYMENT = 4;
+
     private static int          id_pool;
 
     public int                  id; // Only used for identifying households within the class TransactionRecorder
@@ -40,8 +48,15 @@ public class Household implements IHouseOwner {
     private double                          bankBalance;
     private double                          annualGrossEmploymentIncome;
     private double                          monthlyGrossEmploymentIncome;
+    private double                          monthlyGrossRentalIncome; // Ledger of rental income from all current rental contracts
+    private double                          monthlyNetEmploymentIncome; // Cached along with gross employment income
+    private double                          annualClass1NICs; // Cached along with gross employment income
+    private double                          ageOfNextIncomeChange; // Age at which employment income next changes
     private boolean                         isFirstTimeBuyer;
     private boolean                         isBankrupt;
+    private double                          savingRate; // Fraction of last month's gross total income added to bank balance
+    private double []                       monthlyCommutingCosts; // Cached monthly commuting cost to each region, indexed by region ID
+    private boolean                         commutingCostsUpToDate; // False if income or job region changed since last computed
 
     //------------------------//
     //----- Constructors -----//
@@ -57,7 +72,7 @@ public class Household implements IHouseOwner {
         this.rand = rand;
         this.age = age;
         this.geography = geography;
-        this.jobRegion = jobRegion;
+        setJobRegion(jobRegion);
         homeRegion = jobRegion; // Households are initially created at the region where they have a job
         home = null;
         isFirstTimeBuyer = true;
@@ -66,9 +81,20 @@ public class Household implements IHouseOwner {
         incomePercentile = this.rand.nextDouble();
         behaviour = new HouseholdBehaviour(this.geography, incomePercentile);
         // Find initial values for the annual and monthly gross employment income
-        annualGrossEmploymentIncome = data.EmploymentIncome.getAnnualGrossEmploymentIncome(age, incomePercentile);
-        monthlyGrossEmploymentIncome = annualGrossEmploymentIncome/config.constants.MONTHS_IN_YEAR;
-        bankBalance = data.Wealth.getDesiredBankBalance(getAnnualGrossTotalIncome(), behaviour.getPropensityToSave()); // Desired bank balance is used as initial value for actual bank balance
+        updateEmploymentIncome();
+        bankBalance = behaviour.getDesiredBankBalance(getAnnualGrossTotalIncome()); // Desired bank balance is used as initial value for actual bank balance
+    }
+
+    /**
+     * Creates a household with a given identifier, without drawing any random number, whose state is then to be read
+     * with readState
+     */
+    Household(Config config, MersenneTwister rand, Geography geography, int id) {
+        this.config = config;
+        this.rand = rand;
+        this.geography = geography;
+        this.id = id;
+        behaviour = new HouseholdBehaviour(geography);
     }
 
     //-------------------//
@@ -87,13 +113,14 @@ public class Household implements IHouseOwner {
      */
     public void step() {
         isBankrupt = false; // Delete bankruptcies from previous time step
-        // Update annual and monthly gross employment income
-        annualGrossEmploymentIncome = data.EmploymentIncome.getAnnualGrossEmploymentIncome(age, incomePercentile);
-        monthlyGrossEmploymentIncome = annualGrossEmploymentIncome/config.constants.MONTHS_IN_YEAR;
+        // Update annual and monthly gross employment income, only needed when the household crosses into a new age bin
+        if (age >= ageOfNextIncomeChange) updateEmploymentIncome();
+        double previousBankBalance = bankBalance;
         // Add monthly disposable income (net total income minus essential consumption and housing expenses) to bank balance
         bankBalance += getMonthlyDisposableIncome();
         // Consume according to gross annual income and capped by current bank balance (after disposable income has been added)
         bankBalance -= behaviour.getDesiredConsumption(bankBalance, getAnnualGrossTotalIncome());
+        savingRate = (bankBalance - previousBankBalance)/getMonthlyGrossTotalIncome();
         // Deal with bankruptcies
         // TODO: Improve bankruptcy procedures (currently, simple cash injection), such as terminating contracts!
         if (bankBalance < 0.0) {
@@ -170,7 +197,7 @@ public class Household implements IHouseOwner {
     private double getMonthlyNetTotalIncome() {
         return getMonthlyGrossTotalIncome()
                 - (Model.government.incomeTaxDue(getAnnualGrossTotalIncome() - getAnnualFinanceCosts())  // Income tax (with finance costs tax relief)
-                + Model.government.class1NICsDue(annualGrossEmploymentIncome))  // National insurance contributions
+                + annualClass1NICs)  // National insurance contributions
                 /config.constants.MONTHS_IN_YEAR;
     }
 
@@ -182,11 +209,24 @@ public class Household implements IHouseOwner {
      * (ignoring any rental income). Note that only income tax on employment income and national insurance contributions
      * are implemented (no capital gains tax)!
      */
-    double getMonthlyNetEmploymentIncome() {
-        return getMonthlyGrossEmploymentIncome()
+    double getMonthlyNetEmploymentIncome() { return monthlyNetEmploymentIncome; }
+
+    /**
+     * Recompute the annual and monthly gross employment income of the household, together with all quantities derived
+     * from it (class 1 national insurance contributions, monthly net employment income and commuting costs), and find
+     * the age at which it will next change. Since the income percentile is fixed for the whole lifetime of the
+     * household, employment income only changes when the household crosses into a new age bin
+     */
+    private void updateEmploymentIncome() {
+        annualGrossEmploymentIncome = data.EmploymentIncome.getAnnualGrossEmploymentIncome(age, incomePercentile);
+        monthlyGrossEmploymentIncome = annualGrossEmploymentIncome/config.constants.MONTHS_IN_YEAR;
+        annualClass1NICs = Model.government.class1NICsDue(annualGrossEmploymentIncome);
+        monthlyNetEmploymentIncome = monthlyGrossEmploymentIncome
                 - (Model.government.incomeTaxDue(annualGrossEmploymentIncome)  // Income tax
-                + Model.government.class1NICsDue(annualGrossEmploymentIncome))  // National insurance contributions
+                + annualClass1NICs)  // National insurance contributions
                 /config.constants.MONTHS_IN_YEAR;
+        ageOfNextIncomeChange = data.EmploymentIncome.getAgeOfNextIncomeChange(age);
+        commutingCostsUpToDate = false;
     }
 
     /**
@@ -218,14 +258,42 @@ public class Household implements IHouseOwner {
     public double getMonthlyGrossTotalIncome() { return monthlyGrossEmploymentIncome + getMonthlyGrossRentalIncome(); }
 
     /**
-     * Adds up this month's rental income from all currently owned and rented properties
+     * This month's rental income from all currently owned and rented properties. Rather than adding up all rental
+     * contracts, this is kept as a ledger updated whenever a contract is added or removed (see addRentalContract and
+     * removeRentalContract) or makes its last payment (see RentalAgreement)
+     */
+    public double getMonthlyGrossRentalIncome() { return monthlyGrossRentalIncome; }
+
+    /**
+     * Add a new rental contract to the landlord's list of rental contracts, updating the rental income ledger
+     */
+    private void addRentalContract(House h, RentalAgreement rentalAgreement) {
+        rentalAgreement.landlord = this;
+        RentalAgreement oldAgreement = rentalContracts.put(h, rentalAgreement);
+        if (oldAgreement != null) monthlyGrossRentalIncome -= oldAgreement.nextPayment();
+        monthlyGrossRentalIncome += rentalAgreement.nextPayment();
+    }
+
+    /**
+     * Remove a rental contract from the landlord's list of rental contracts, updating the rental income ledger. Since the
+     * ledger is updated incrementally, it is reset to exactly zero whenever no rental contracts remain, thus preventing
+     * the accumulation of rounding errors
      */
-    public double getMonthlyGrossRentalIncome() {
-        double monthlyGrossRentalIncome = 0.0;
-        for(RentalAgreement rentalAgreement: rentalContracts.values()) {
-            monthlyGrossRentalIncome += rentalAgreement.nextPayment();
+    private void removeRentalContract(House h) {
+        RentalAgreement rentalAgreement = rentalContracts.remove(h);
+        if (rentalAgreement != null) {
+            monthlyGrossRentalIncome -= rentalAgreement.nextPayment();
+            rentalAgreement.landlord = null;
         }
-        return monthlyGrossRentalIncome;
+        if (rentalContracts.isEmpty()) monthlyGrossRentalIncome = 0.0;
+    }
+
+    /**
+     * Subtract from the rental income ledger the income from a rental contract which has made its last payment
+     */
+    void removeRentalIncome(double monthlyPayment) {
+        monthlyGrossRentalIncome -= monthlyPayment;
+        if (rentalContracts.isEmpty()) monthlyGrossRentalIncome = 0.0;
     }
 
     //----- Methods for house owners -----//
@@ -372,7 +440,7 @@ public class Household implements IHouseOwner {
         // ...otherwise, if the house has a resident, it must be a renter, who must get evicted, also the rental income
         // corresponding to this tenancy must be subtracted from the owner's monthly rental income
         } else if (sale.getHouse().resident != null) {
-            rentalContracts.remove(sale.getHouse());
+            removeRentalContract(sale.getHouse());
             sale.getHouse().resident.getEvicted();
         }
     }
@@ -391,7 +459,7 @@ public class Household implements IHouseOwner {
         // Check that the house is not currently being already offered in the rental market
         if(h.isOnRentalMarket()) System.out.println("Strange: got endOfLettingAgreement on house on rental market");
         // Remove the old rental contract from the landlord's list of rental contracts
-        rentalContracts.remove(h);
+        removeRentalContract(h);
         // Put house back on rental market
         h.region.houseRentalMarket.offer(h, behaviour.buyToLetRent(h.getQuality(), h.region), false);
     }
@@ -531,7 +599,7 @@ public class Household implements IHouseOwner {
      */
     @Override
     public void completeHouseLet(HouseOfferRecord sale, RentalAgreement rentalAgreement) {
-        rentalContracts.put(sale.getHouse(), rentalAgreement);
+        addRentalContract(sale.getHouse(), rentalAgreement);
     }
 
     /**
@@ -539,9 +607,23 @@ public class Household implements IHouseOwner {
      * commuting fee
      */
     public double getMonthlyCommutingCost(Region region) {
-        return 2.0 * (geography.getCommutingTimeBetween(jobRegion, region) * getTimeValue()
-                + geography.getCommutingFeeBetween(jobRegion, region))
-                * config.constants.WORKING_DAYS_IN_MONTH;
+        if (!commutingCostsUpToDate) updateMonthlyCommutingCosts();
+        return monthlyCommutingCosts[region.getRegionID()];
+    }
+
+    /**
+     * Recompute the cached vector of monthly commuting costs from the job region to every region. This is only needed
+     * whenever the income (and thus the value of time) or the job region of the household change
+     */
+    private void updateMonthlyCommutingCosts() {
+        int jobRegionID = jobRegion.getRegionID();
+        double timeValue = getTimeValue();
+        for (int regionID = 0; regionID < monthlyCommutingCosts.length; regionID++) {
+            monthlyCommutingCosts[regionID] = 2.0 * (geography.getCommutingTimeBetween(jobRegionID, regionID)
+                    * timeValue + geography.getCommutingFeeBetween(jobRegionID, regionID))
+                    * config.constants.WORKING_DAYS_IN_MONTH;
+        }
+        commutingCostsUpToDate = true;
     }
 
     /**
@@ -556,7 +638,8 @@ public class Household implements IHouseOwner {
      * Find the monthly commuting fee for this household
      */
     public double getMonthlyCommutingFee(Region region) {
-        return 2.0 * geography.getCommutingFeeBetween(jobRegion, region) * config.constants.WORKING_DAYS_IN_MONTH;
+        return 2.0 * geography.getCommutingFeeBetween(jobRegion.getRegionID(), region.getRegionID())
+                * config.constants.WORKING_DAYS_IN_MONTH;
     }
 
     /////////////////////////////////////////////////////////
@@ -573,8 +656,7 @@ public class Household implements IHouseOwner {
     void transferAllWealthTo(Household beneficiary) {
         // Check if beneficiary is the same as the deceased household
         if (beneficiary == this) { // TODO: I don't think this check is really necessary
-            System.out.println("Strange: I'm transferring all my wealth to myself");
-            System.exit(0);
+            throw new IllegalStateException("Strange: I'm transferring all my wealth to myself");
         }
         // Create an iterator over the house-paymentAgreement pairs at the deceased household's housePayments object
         Iterator<Entry<House, PaymentAgreement>> paymentIt = housePayments.entrySet().iterator();
@@ -596,6 +678,7 @@ public class Household implements IHouseOwner {
                     // ...and this resident is different from the deceased household, then this resident must be a
                     // tenant, who must get evicted
                     if (h.resident != this) {
+                        removeRentalContract(h);
                         h.resident.getEvicted(); // TODO: Explain in paper that renters always get evicted, not just if heir needs the house
                     // ...otherwise, if the resident is the deceased household, remove it from the house
                     } else {
@@ -643,8 +726,7 @@ public class Household implements IHouseOwner {
         h.owner = this;
         // Check for residents in the inherited house
         if (h.resident != null) {
-            System.out.println("Strange: inheriting a house with a resident");
-            System.exit(0);
+            throw new IllegalStateException("Strange: inheriting a house with a resident");
         }
         // If renting or homeless, move into the inherited house
         if (!isHomeowner()) {
@@ -678,6 +760,148 @@ public class Household implements IHouseOwner {
         }
     }
 
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the houses owned by the household into a state buffer, preceded by their number
+     */
+    void writeHouses(StateBuffer state) {
+        int nHousesPosition = state.reserveInt();
+        int nHouses = 0;
+        for (House h : housePayments.keySet()) {
+            if (h.owner == this) {
+                h.writeState(state);
+                nHouses++;
+            }
+        }
+        state.setInt(nHousesPosition, nHouses);
+    }
+
+    /**
+     * Copy the rental contracts of the household, as a landlord, into a state buffer. These are written right after
+     * the houses of the household, and before anything else about any household, such that agreements shared with
+     * tenants can be found when reading the payments of the tenants
+     */
+    void writeRentalContracts(StateBuffer state) {
+        state.putInt(rentalContracts.size());
+        for (Entry<House, RentalAgreement> entry : rentalContracts.entrySet()) {
+            state.putInt(entry.getKey().id);
+            entry.getValue().writeState(state);
+        }
+    }
+
+    void readRentalContracts(StateBuffer state, ModelState.References references) {
+        int nContracts = state.getInt();
+        for (int i = 0; i < nContracts; i++) {
+            House h = references.getHouse(state.getInt());
+            rentalContracts.put(h, new RentalAgreement(state, references));
+        }
+    }
+
+    /**
+     * Copy the rest of the state of the household into a state buffer, with references to regions, houses and
+     * mortgages held by the bank as identifiers
+     *
+     * @param bankMortgageIndices Position of each mortgage held by the bank in the list written by the bank
+     */
+    void writeState(StateBuffer state, Map<MortgageAgreement, Integer> bankMortgageIndices) {
+        behaviour.writeState(state);
+        state.putDouble(incomePercentile);
+        state.putInt(jobRegion.getRegionID());
+        state.putInt(homeRegion.getRegionID());
+        state.putInt((home == null) ? ModelState.NONE : home.id);
+        state.putInt(housePayments.size());
+        for (Entry<House, PaymentAgreement> entry : housePayments.entrySet()) {
+            House h = entry.getKey();
+            PaymentAgreement payment = entry.getValue();
+            state.putInt(h.id);
+            Integer bankMortgageIndex = bankMortgageIndices.get(payment);
+            if (bankMortgageIndex != null) {
+                state.putInt(BANK_MORTGAGE);
+                state.putInt(bankMortgageIndex);
+            } else if (payment instanceof RentalAgreement && h.owner instanceof Household
+                    && ((Household)h.owner).rentalContracts.get(h) == payment) {
+                state.putInt(LANDLORD_RENTAL);
+            } else {
+                if (payment instanceof MortgageAgreement) {
+                    state.putInt(MORTGAGE);
+                } else if (payment instanceof RentalAgreement) {
+                    state.putInt(RENTAL);
+                } else {
+                    state.putInt(PAYMENT);
+                }
+                payment.writeState(state);
+            }
+        }
+        state.putDouble(age);
+        state.putDouble(bankBalance);
+        state.putDouble(annualGrossEmploymentIncome);
+        state.putDouble(monthlyGrossEmploymentIncome);
+        state.putDouble(monthlyGrossRentalIncome);
+        state.putDouble(monthlyNetEmploymentIncome);
+        state.putDouble(annualClass1NICs);
+        state.putDouble(ageOfNextIncomeChange);
+        state.putBoolean(isFirstTimeBuyer);
+        state.putBoolean(isBankrupt);
+        state.putDouble(savingRate);
+        state.putDoubles(monthlyCommutingCosts);
+        state.putBoolean(commutingCostsUpToDate);
+    }
+
+    /**
+     * Read the rest of the state of the household from a state buffer, as written by writeState, once all houses,
+     * mortgages held by the bank and rental contracts have been restored
+     */
+    void readState(StateBuffer state, ModelState.References references) {
+        behaviour.readState(state);
+        incomePercentile = state.getDouble();
+        jobRegion = references.getRegion(state.getInt());
+        homeRegion = references.getRegion(state.getInt());
+        home = references.getHouse(state.getInt());
+        int nPayments = state.getInt();
+        for (int i = 0; i < nPayments; i++) {
+            House h = references.getHouse(state.getInt());
+            PaymentAgreement payment;
+            switch (state.getInt()) {
+                case BANK_MORTGAGE:
+                    payment = references.getBankMortgage(state.getInt());
+                    break;
+                case LANDLORD_RENTAL:
+                    if (!(h.owner instanceof Household) || !((Household)h.owner).rentalContracts.containsKey(h)) {
+                        throw new IllegalStateException("Rental agreement of household " + id + " for house " + h.id
+                                + " not found among those of its landlord");
+                    }
+                    payment = ((Household)h.owner).rentalContracts.get(h);
+                    break;
+                case MORTGAGE:
+                    payment = new MortgageAgreement(state);
+                    break;
+                case RENTAL:
+                    payment = new RentalAgreement(state, references);
+                    break;
+                case PAYMENT:
+                    payment = new PaymentAgreement(state);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown kind of payment agreement for household " + id);
+            }
+            housePayments.put(h, payment);
+        }
+        age = state.getDouble();
+        bankBalance = state.getDouble();
+        annualGrossEmploymentIncome = state.getDouble();
+        monthlyGrossEmploymentIncome = state.getDouble();
+        monthlyGrossRentalIncome = state.getDouble();
+        monthlyNetEmploymentIncome = state.getDouble();
+        annualClass1NICs = state.getDouble();
+        ageOfNextIncomeChange = state.getDouble();
+        isFirstTimeBuyer = state.getBoolean();
+        isBankrupt = state.getBoolean();
+        savingRate = state.getDouble();
+        monthlyCommutingCosts = state.getDoubles();
+        commutingCostsUpToDate = state.getBoolean();
+    }
+
     //----- Helpers -----//
 
     public double getAge() { return age; }
@@ -710,6 +934,12 @@ public class Household implements IHouseOwner {
 
     public double getMonthlyGrossEmploymentIncome() { return monthlyGrossEmploymentIncome; }
 
+    /**
+     * Saving rate over the last month, that is, 1 - (taxes + housing expenses (except deposits) + commuting fees +
+     * essential and non-essential consumption)/monthly gross total income
+     */
+    public double getSavingRate() { return savingRate; }
+
     /***
      * @return Number of properties this household currently has on the sale market
      */
@@ -736,6 +966,20 @@ public class Household implements IHouseOwner {
         }
     }
 
+    /**
+     * @return Current mark-to-market (with exponentially averaged prices per quality) value of all houses owned by this
+     * household
+     */
+    public double getHousingWealth() {
+        double housingWealth = 0.0;
+        for (House h : housePayments.keySet()) {
+            if (h.owner == this) {
+                housingWealth += h.region.regionalHousingMarketStats.getExpAvSalePriceForQuality(h.getQuality());
+            }
+        }
+        return housingWealth;
+    }
+
     /***
      * @return Current mark-to-market (with exponentially averaged prices per quality) equity in this household's home.
      */
@@ -763,5 +1007,18 @@ public class Household implements IHouseOwner {
 
     public Region getJobRegion() { return jobRegion; }
 
+    /**
+     * Set the job region of the household, flagging its cached commuting costs as outdated
+     */
+    private void setJobRegion(Region jobRegion) {
+        this.jobRegion = jobRegion;
+        if (monthlyCommutingCosts == null) monthlyCommutingCosts = new double[geography.getNRegions()];
+        commutingCostsUpToDate = false;
+    }
+
     public Region getHomeRegion() { return homeRegion; }
+
+    static int getIdPool() { return id_pool; }
+
+    static void setIdPool(int newIdPool) { id_pool = newIdPool; }
 }
@@ -2,6 +2,7 @@ package housing;
 
 import org.apache.commons.math3.distribution.LogNormalDistribution;
 import org.apache.commons.math3.random.MersenneTwister;
+import utilities.StateBuffer;
 
 /**************************************************************************************************
  * Class to implement the behavioural decisions made by households
@@ -24,6 +25,13 @@ public class HouseholdBehaviour {
     private boolean                         BTLInvestor;
     private double                          BTLCapGainCoefficient; // Sensitivity of BTL investors to capital gain, 0.0 cares only about rental yield, 1.0 cares only about cap gain
     private double                          propensityToSave;
+    private double                          downpaymentFTBQuantile; // Fixed quantile of downpaymentDistFTB for this household
+    private double                          downpaymentOOQuantile; // Fixed quantile of downpaymentDistOO for this household
+    private double []                       probToBuyPerRegion; // Scratch buffer for investment decisions, only allocated for BTL investors
+    private int                             desiredBankBalanceIncomeBin = -1; // Income bin of cached desired bank balance
+    private double                          desiredBankBalanceLowerIncome; // Lower income edge of that income bin
+    private double                          desiredBankBalanceUpperIncome; // Upper income edge of that income bin
+    private double                          desiredBankBalance; // Cached desired bank balance
     private Geography                       geography;
 
     //------------------------//
@@ -54,8 +62,20 @@ public class HouseholdBehaviour {
         } else {
             BTLInvestor = false;
         }
+        // Find the household's quantiles of the first-time-buyer and owner-occupier downpayment distributions. Since
+        // these depend only on the (fixed) income percentile, they are computed once here rather than at every call to
+        // decideDownPayment, with no loss of accuracy (the cached values are exactly those the distributions return)
+        double downpaymentPercentile = Math.max(0.0,
+                (incomePercentile - config.DOWNPAYMENT_MIN_INCOME)/(1 - config.DOWNPAYMENT_MIN_INCOME));
+        downpaymentFTBQuantile = downpaymentDistFTB.inverseCumulativeProbability(downpaymentPercentile);
+        downpaymentOOQuantile = downpaymentDistOO.inverseCumulativeProbability(downpaymentPercentile);
 	}
 
+    /**
+     * Creates a behaviour without drawing any random number, whose state is then to be read with readState
+     */
+    HouseholdBehaviour(Geography geography) { this.geography = geography; }
+
     //-------------------//
     //----- Methods -----//
     //-------------------//
@@ -70,8 +90,25 @@ public class HouseholdBehaviour {
      * @param annualGrossTotalIncome Household's annual gross total income
 	 */
     double getDesiredConsumption(double bankBalance, double annualGrossTotalIncome) {
-        return config.CONSUMPTION_FRACTION*Math.max(bankBalance
-                - data.Wealth.getDesiredBankBalance(annualGrossTotalIncome, propensityToSave), 0.0);
+        return config.CONSUMPTION_FRACTION*Math.max(bankBalance - getDesiredBankBalance(annualGrossTotalIncome), 0.0);
+    }
+
+    /**
+     * Find the desired bank balance of the household for a given annual gross total income. Since the propensity to save
+     * is fixed for the household, and the desired bank balance only depends on income through the income bin of the
+     * wealth data, this is only recomputed whenever income falls outside the income bin of the last computation
+     *
+     * @param annualGrossTotalIncome Household's annual gross total income
+     */
+    double getDesiredBankBalance(double annualGrossTotalIncome) {
+        if (desiredBankBalanceIncomeBin < 0 || annualGrossTotalIncome < desiredBankBalanceLowerIncome
+                || annualGrossTotalIncome >= desiredBankBalanceUpperIncome) {
+            desiredBankBalanceIncomeBin = data.Wealth.getIncomeBin(annualGrossTotalIncome);
+            desiredBankBalanceLowerIncome = data.Wealth.getIncomeBinLowerEdge(desiredBankBalanceIncomeBin);
+            desiredBankBalanceUpperIncome = data.Wealth.getIncomeBinUpperEdge(desiredBankBalanceIncomeBin);
+            desiredBankBalance = data.Wealth.getDesiredBankBalance(desiredBankBalanceIncomeBin, propensityToSave);
+        }
+        return desiredBankBalance;
     }
 
     //----- Owner-Occupier behaviour -----//
@@ -135,14 +172,12 @@ public class HouseholdBehaviour {
 		if (me.isFirstTimeBuyer()) {
 		    // Since the function of the HPI is to move the down payments distribution upwards or downwards to
             // accommodate current price levels, and the distribution is itself aggregate, we use the aggregate HPI
-			downpayment = Model.housingMarketStats.getHPI()*downpaymentDistFTB.inverseCumulativeProbability(Math.max(0.0,
-                    (me.incomePercentile - config.DOWNPAYMENT_MIN_INCOME)/(1 - config.DOWNPAYMENT_MIN_INCOME)));
+			downpayment = Model.housingMarketStats.getHPI()*downpaymentFTBQuantile;
 		} else if (isPropertyInvestor()) {
 			downpayment = housePrice*(Math.max(0.0,
 					config.DOWNPAYMENT_BTL_MEAN + config.DOWNPAYMENT_BTL_EPSILON*rand.nextGaussian()));
 		} else {
-			downpayment = Model.housingMarketStats.getHPI()*downpaymentDistOO.inverseCumulativeProbability(Math.max(0.0,
-                    (me.incomePercentile - config.DOWNPAYMENT_MIN_INCOME)/(1 - config.DOWNPAYMENT_MIN_INCOME)));
+			downpayment = Model.housingMarketStats.getHPI()*downpaymentOOQuantile;
 		}
 		if (downpayment > me.getBankBalance()) downpayment = me.getBankBalance();
 		return downpayment;
@@ -476,15 +511,12 @@ public class HouseholdBehaviour {
      */
     Region decideWhereToBuyInvestmentProperty(Household me) {
         // Fast decision: never buy (keep on saving) if bank balance is below the household's desired bank balance
-        if (me.getBankBalance() < data.Wealth.getDesiredBankBalance(me.getAnnualGrossTotalIncome(),
-                me.behaviour.getPropensityToSave())*config.BTL_CHOICE_MIN_BANK_BALANCE) { return null; }
+        if (me.getBankBalance() < getDesiredBankBalance(me.getAnnualGrossTotalIncome())
+                *config.BTL_CHOICE_MIN_BANK_BALANCE) { return null; }
 
         // Compute and store the probability to invest en each region, as well as the sum of these probabilities
-        double[] probToBuyPerRegion = findProbabilityToInvestPerRegion(me);
-        double sumProbToBuy = 0.0;
-        for (double probToBuy : probToBuyPerRegion) {
-            sumProbToBuy += probToBuy;
-        }
+        if (probToBuyPerRegion == null) probToBuyPerRegion = new double[geography.getNRegions()];
+        double sumProbToBuy = findProbabilityToInvestPerRegion(me, probToBuyPerRegion);
 
         // Draw a double random number for decision making and initialise a counter
         double randDouble = rand.nextDouble();
@@ -522,49 +554,54 @@ public class HouseholdBehaviour {
     /**
      * Compute the probability to invest in each region, proportional to the expected yield of a newly bought property
      * in that region. This expected yield is based on two contributions: rental yield and capital gain (with weights
-     * that depend on the type of investor).
+     * that depend on the type of investor). Regional rental yields, capital gain expectations and prices are read from
+     * the indicators stored by the geography once per month
      *
      * @param me The investor household
-     * @return An array with the probability to buy an investment property in each region
+     * @param probToBuyPerRegion Array to be filled with the probability to buy an investment property in each region
+     * @return The sum of the probabilities to buy over all regions
      */
-    private double[] findProbabilityToInvestPerRegion(Household me) {
+    private double findProbabilityToInvestPerRegion(Household me, double[] probToBuyPerRegion) {
         // Find variables common to all regions (equity, leverage and mortgage rate) for a hypothetical house maximising
         // the leverage available to the household...
         // ...find maximum price (maximum mortgage + all liquid wealth) the household could pay
         double maxPrice = Model.bank.getMaxMortgage(me.getBankBalance(), me.getAnnualGrossEmploymentIncome(),
                 me.getMonthlyNetEmploymentIncome(), me.isFirstTimeBuyer(), false);
         // ...find mortgage with maximum leverage by requesting maximum mortgage with minimum downpayment
-        MortgageAgreement mortgage = Model.bank.requestApproval(me, maxPrice, 0.0, false);
+        double principal = Model.bank.getApprovablePrincipal(me, maxPrice, false);
         // ...find equity, or assets minus liabilities (which, initially, is simply the downpayment)
-        double equity = Math.max(0.01, mortgage.downPayment); // The 0.01 prevents possible divisions by zero later on
+        double equity = Math.max(0.01, maxPrice - principal); // The 0.01 prevents possible divisions by zero later on
         // ...find the leverage on that mortgage (Assets divided by equity, or return on equity)
-        double leverage = mortgage.purchasePrice/equity;
+        double leverage = maxPrice/equity;
         // ...find the mortgage rate (pounds paid a year per pound of equity)
-        double mortgageRate = mortgage.nextPayment()*config.constants.MONTHS_IN_YEAR/equity;
+        double mortgageRate = principal*Model.bank.getMonthlyPaymentFactor(false)*config.constants.MONTHS_IN_YEAR
+                /equity;
 
         // Compute and store the probability to invest en each region, as well as the sum of these probabilities
-        double[] probToBuyPerRegion = new double[geography.getRegions().size()];
+        double[] rentalYields = geography.getExpAvFlowYields();
+        double[] HPAExpectations = geography.getLongTermHPAExpectations();
+        double[] minPrices = geography.getMinExpAvSalePrices();
+        double sumProbToBuy = 0.0;
         // To this end, iterate through the regions...
-        int i = 0;
-        for (Region region : geography.getRegions()) {
-            // ...finding the expected rental yield as an (exponential) average over all house qualities
-            double rentalYield = region.regionalRentalMarketStats.getExpAvFlowYield();
-            // ...computing the expected equity yield, or yield on equity
-            double expectedEquityYield = leverage*((1.0 - BTLCapGainCoefficient)*rentalYield
-                    + BTLCapGainCoefficient*getLongTermHPAExpectation(region))
-                    - mortgageRate;
-            // ...and, finally, computing the probability to buy a new investment property in this region as a function
-            // of its expected equity yield
-            probToBuyPerRegion[i] = 1.0 - Math.pow((1.0 - sigma(config.BTL_CHOICE_INTENSITY*expectedEquityYield)),
-                    1.0/config.constants.MONTHS_IN_YEAR);
-            // ...with the caveat that, households assign zero probability to buy to regions where they cannot afford
-            // the average price of even the lowest quality band
-            if (maxPrice < region.regionalHousingMarketStats.getExpAvSalePriceForQuality(0)) {
+        for (int i = 0; i < probToBuyPerRegion.length; i++) {
+            // ...households assign zero probability to buy to regions where they cannot afford the average price of
+            // even the lowest quality band
+            if (maxPrice < minPrices[i]) {
                 probToBuyPerRegion[i] = 0.0;
+            } else {
+                // ...otherwise, they compute the expected equity yield, or yield on equity, using the expected rental
+                // yield as an (exponential) average over all house qualities...
+                double expectedEquityYield = leverage*((1.0 - BTLCapGainCoefficient)*rentalYields[i]
+                        + BTLCapGainCoefficient*HPAExpectations[i])
+                        - mortgageRate;
+                // ...and, finally, compute the probability to buy a new investment property in this region as a
+                // function of its expected equity yield
+                probToBuyPerRegion[i] = 1.0 - Math.pow((1.0 - sigma(config.BTL_CHOICE_INTENSITY*expectedEquityYield)),
+                        1.0/config.constants.MONTHS_IN_YEAR);
+                sumProbToBuy += probToBuyPerRegion[i];
             }
-            i++;
         }
-        return probToBuyPerRegion;
+        return sumProbToBuy;
     }
 
     double btlPurchaseBid(Household me, Region region) {
@@ -616,17 +653,74 @@ public class HouseholdBehaviour {
     private double sigma(double x) { return 1.0/(1.0 + Math.exp(-1.0*x)); }
 
 	/**
+     * Long-term house price appreciation expected in a region, shared with Geography for the monthly indicators read
+     * by BTL investors, such that there is a single definition of these expectations
+     *
      * @return expectation value of HPI in one year's time divided by today's HPI
      */
-	private double getLongTermHPAExpectation(Region region) {
+	static double getLongTermHPAExpectation(Region region) {
 		// Dampening or multiplier factor, depending on its value being <1 or >1, for the current trend of HPA when
 		// computing expectations as in HPI(t+DT) = HPI(t) + FACTOR*DT*dHPI/dt (double)
 		return(region.regionalHousingMarketStats.getLongTermHPA()*config.HPA_EXPECTATION_FACTOR);
     }
 
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the behavioural parameters of the household, as well as its cached desired bank balance, into a state
+     * buffer
+     */
+    void writeState(StateBuffer state) {
+        state.putBoolean(BTLInvestor);
+        state.putDouble(BTLCapGainCoefficient);
+        state.putDouble(propensityToSave);
+        state.putDouble(downpaymentFTBQuantile);
+        state.putDouble(downpaymentOOQuantile);
+        state.putDoubles(probToBuyPerRegion);
+        state.putInt(desiredBankBalanceIncomeBin);
+        state.putDouble(desiredBankBalanceLowerIncome);
+        state.putDouble(desiredBankBalanceUpperIncome);
+        state.putDouble(desiredBankBalance);
+    }
+
+    void readState(StateBuffer state) {
+        BTLInvestor = state.getBoolean();
+        BTLCapGainCoefficient = state.getDouble();
+        propensityToSave = state.getDouble();
+        downpaymentFTBQuantile = state.getDouble();
+        downpaymentOOQuantile = state.getDouble();
+        probToBuyPerRegion = state.getDoubles();
+        desiredBankBalanceIncomeBin = state.getInt();
+        desiredBankBalanceLowerIncome = state.getDouble();
+        desiredBankBalanceUpperIncome = state.getDouble();
+        desiredBankBalance = state.getDouble();
+    }
+
+    //----- Getter/setter methods -----//
+
     public double getBTLCapGainCoefficient() { return BTLCapGainCoefficient; }
 
     public boolean isPropertyInvestor() { return BTLInvestor; }
 
     double getPropensityToSave() { return propensityToSave; }
+
+    /**
+     * Replace the static references to the configuration and the random number generator, such that a new model
+     * created within the same JVM (for instance, by SimulationRunner) does not keep the parameters of a previous one
+     */
+    static void setConfig(Config newConfig, MersenneTwister newRand) {
+        config = newConfig;
+        setRand(newRand);
+    }
+
+    /**
+     * Replace the static reference to the random number generator, for instance after restoring it from a snapshot,
+     * rebuilding the downpayment distributions that use it
+     */
+    static void setRand(MersenneTwister newRand) {
+        rand = newRand;
+        downpaymentDistFTB = new LogNormalDistribution(rand, config.DOWNPAYMENT_FTB_SCALE,
+                config.DOWNPAYMENT_FTB_SHAPE);
+        downpaymentDistOO = new LogNormalDistribution(rand, config.DOWNPAYMENT_OO_SCALE, config.DOWNPAYMENT_OO_SHAPE);
+    }
 }
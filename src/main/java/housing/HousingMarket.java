@@ -6,7 +6,9 @@ import java.util.Iterator;
 import org.apache.commons.math3.distribution.GeometricDistribution;
 import org.apache.commons.math3.random.MersenneTwister;
 
+import collectors.FlightRecorderEvents;
 import utilities.PriorityQueue2D;
+import utilities.StateBuffer;
 
 /**************************************************************************************************
  * Class that implements the market mechanism behind both the sale and the rental markets
@@ -27,6 +29,16 @@ public abstract class HousingMarket {
 
     ArrayList<HouseBidderRecord>                     bids;
 
+    // Counters kept up to date as offers and bids are added, updated and removed, so that market statistics need not
+    // scan the whole order book
+    private int                                     nBTLOffers; // Offers by buy-to-let investors
+    private int                                     nNewOffers; // Offers first listed at time tNewOffers
+    private int                                     tNewOffers; // Time to which the nNewOffers count refers
+    private int                                     nNewBuildOffers; // Offers by the construction sector
+    private double                                  sumOfferPrices;
+    private int                                     nBTLBids; // Bids by buy-to-let investors who already own a home
+    private double                                  sumBidPrices;
+
     //------------------------//
     //----- Constructors -----//
     //------------------------//
@@ -49,7 +61,16 @@ public abstract class HousingMarket {
 
     //----- Initialisation methods -----//
     
-    public void init() { offersPQ.clear(); }
+    public void init() {
+        offersPQ.clear();
+        nBTLOffers = 0;
+        nNewOffers = 0;
+        tNewOffers = 0;
+        nNewBuildOffers = 0;
+        sumOfferPrices = 0.0;
+        nBTLBids = 0;
+        sumBidPrices = 0.0;
+    }
 
     //----- Methods to add, update, remove offers and bids -----//
     
@@ -63,6 +84,7 @@ public abstract class HousingMarket {
     public HouseOfferRecord offer(House house, double price, boolean BTLOffer) {
         HouseOfferRecord hsr = new HouseOfferRecord(region, house, price, BTLOffer);
         offersPQ.add(hsr);
+        addToOfferCounters(hsr);
         return hsr;
     }
     
@@ -74,6 +96,7 @@ public abstract class HousingMarket {
      */
     public void updateOffer(HouseOfferRecord hsr, double newPrice) {
         offersPQ.remove(hsr);
+        sumOfferPrices += newPrice - hsr.getPrice();
         hsr.setPrice(newPrice);
         offersPQ.add(hsr);
     }
@@ -83,7 +106,10 @@ public abstract class HousingMarket {
      * 
      * @param hsr The HouseOfferRecord of the house to take off the market
      */
-    public void removeOffer(HouseOfferRecord hsr) { offersPQ.remove(hsr); }
+    public void removeOffer(HouseOfferRecord hsr) {
+        offersPQ.remove(hsr);
+        removeFromOfferCounters(hsr);
+    }
 
     /**
      * Make a non-BTL bid on the market, i.e. make an offer on a (yet to be decided) house to become the household's home
@@ -92,7 +118,53 @@ public abstract class HousingMarket {
      * @param price The price that the household is willing to pay
      */
     public void bid(Household buyer, double price) {
-        bids.add(new HouseBidderRecord(buyer, price, false));
+        addBid(new HouseBidderRecord(buyer, price, false));
+    }
+
+    /**
+     * Add a bid to the bids list, updating the bid counters
+     */
+    void addBid(HouseBidderRecord bid) {
+        bids.add(bid);
+        sumBidPrices += bid.getPrice();
+        if (bid.getBidder().behaviour.isPropertyInvestor() && bid.getBidder().getHome() != null) nBTLBids++;
+    }
+
+    /**
+     * Update offer counters with a new offer. Note that the owner of a house cannot change while the house is on the
+     * market, so the classification of the offer made here is still valid when it is removed
+     */
+    private void addToOfferCounters(HouseOfferRecord hsr) {
+        sumOfferPrices += hsr.getPrice();
+        if (hsr.gettInitialListing() != tNewOffers) {
+            tNewOffers = hsr.gettInitialListing();
+            nNewOffers = 0;
+        }
+        nNewOffers++;
+        if (hsr.getHouse().owner == Model.construction) {
+            nNewBuildOffers++;
+        } else if (((Household)hsr.getHouse().owner).behaviour.isPropertyInvestor()) {
+            nBTLOffers++;
+        }
+    }
+
+    /**
+     * Update offer counters with the removal of an offer. This must be called before any change of ownership of the
+     * house, and before any change to the offer price
+     */
+    private void removeFromOfferCounters(HouseOfferRecord hsr) {
+        if (hsr.gettInitialListing() == tNewOffers) nNewOffers--;
+        if (hsr.getHouse().owner == Model.construction) {
+            nNewBuildOffers--;
+        } else if (((Household)hsr.getHouse().owner).behaviour.isPropertyInvestor()) {
+            nBTLOffers--;
+        }
+        // Reset the sum when the market empties, so as to prevent the accumulation of rounding errors
+        if (offersPQ.size() == 0) {
+            sumOfferPrices = 0.0;
+        } else {
+            sumOfferPrices -= hsr.getPrice();
+        }
     }
 
     //----- Market clearing methods -----//
@@ -104,11 +176,21 @@ public abstract class HousingMarket {
         // Before any use, priorities must be sorted by filling in the uncoveredElements TreeSet at the corresponding
         // PriorityQueue2D, in this case, the offersPQ object contains a Price-Quality 2D-priority queue of offers
         offersPQ.sortPriorities();
+        int round = 0;
         while (bids.size() > 0 && offersPQ.size() > 0) {
+            Object event = FlightRecorderEvents.begin(FlightRecorderEvents.MARKET_CLEARING_ROUND);
+            int nBids = bids.size();
+            int nOffers = offersPQ.size();
             matchBidsWithOffers(); // Step 1: iterate through bids
             clearMatches(); // Step 2: iterate through offers
+            // Each match cleared removes one offer from the market
+            FlightRecorderEvents.commitMarketClearingRound(event, region.getRegionID(),
+                    (this instanceof HouseSaleMarket) ? "sale" : "rental", round++, nBids, nOffers,
+                    nOffers - offersPQ.size());
         }
         bids.clear();
+        nBTLBids = 0;
+        sumBidPrices = 0.0;
     }
 
     /**
@@ -190,6 +272,7 @@ public abstract class HousingMarket {
                 // Remove this offer from the offers priority queue, offersPQ, underlying the record iterator (and, for HouseSaleMarket, also from the PY queue)
                 // Note that this needs to be done before modifying offer, so that it can be also found in the PY queue for the HouseSaleMarket case
                 removeOfferFromQueues(record, offer);
+                removeFromOfferCounters(offer);
                 // ...update price for the offer
                 offer.setPrice(salePrice);
                 // ...complete successful transaction and record it into the corresponding regionalHousingMarketStats
@@ -199,6 +282,8 @@ public abstract class HousingMarket {
                 bids.addAll(offer.getMatchedBids().subList(winningBid + 1, offer.getMatchedBids().size()));
             // If there is only one match...
             } else if (nBids == 1) {
+                // ...update offer counters before the house changes hands
+                removeFromOfferCounters(offer);
                 // ...complete successful transaction and record it into the corresponding regionalHousingMarketStats
                 completeTransaction(offer.getMatchedBids().get(0), offer);
                 // ...remove this offer from the offers priority queue, offersPQ, underlying the record iterator (and, for HouseSaleMarket, also from the PY queue)
@@ -228,6 +313,66 @@ public abstract class HousingMarket {
      */
     public abstract void completeTransaction(HouseBidderRecord purchase, HouseOfferRecord sale);
 
+    //----- Methods to save and restore the state of the market -----//
+
+    /**
+     * Copy the counters, the offers, in price-quality order and followed by those uncovered, and the bids of the
+     * market into a state buffer. Note that, at the end of a time step, matched bids and the bids list are empty
+     */
+    void writeState(StateBuffer state) {
+        state.putInt(nBTLOffers);
+        state.putInt(nNewOffers);
+        state.putInt(tNewOffers);
+        state.putInt(nNewBuildOffers);
+        state.putDouble(sumOfferPrices);
+        state.putInt(nBTLBids);
+        state.putDouble(sumBidPrices);
+        state.putInt(offersPQ.size());
+        for (HousingMarketRecord offer : offersPQ) offer.writeState(state);
+        writeUncovered(state, offersPQ);
+        state.putInt(bids.size());
+        for (HouseBidderRecord bid : bids) bid.writeState(state);
+    }
+
+    /**
+     * Replace the contents of the market by those read from a state buffer, as written by writeState
+     */
+    void readState(StateBuffer state, ModelState.References references) {
+        rand = Model.rand;
+        offersPQ.clear();
+        bids.clear();
+        nBTLOffers = state.getInt();
+        nNewOffers = state.getInt();
+        tNewOffers = state.getInt();
+        nNewBuildOffers = state.getInt();
+        sumOfferPrices = state.getDouble();
+        nBTLBids = state.getInt();
+        sumBidPrices = state.getDouble();
+        int nOffers = state.getInt();
+        for (int i = 0; i < nOffers; i++) {
+            HouseOfferRecord offer = new HouseOfferRecord(state, region, references);
+            offersPQ.add(offer);
+            references.add(offer);
+        }
+        readUncovered(state, offersPQ, references);
+        int nBids = state.getInt();
+        for (int i = 0; i < nBids; i++) bids.add(new HouseBidderRecord(state, references));
+    }
+
+    /**
+     * Write the identifiers of the uncovered offers of a queue, which are kept as they are between sorts
+     */
+    static void writeUncovered(StateBuffer state, PriorityQueue2D<HousingMarketRecord> queue) {
+        state.putInt(queue.getUncoveredElements().size());
+        for (HousingMarketRecord offer : queue.getUncoveredElements()) state.putInt(offer.getId());
+    }
+
+    static void readUncovered(StateBuffer state, PriorityQueue2D<HousingMarketRecord> queue,
+                              ModelState.References references) {
+        int nUncovered = state.getInt();
+        for (int i = 0; i < nUncovered; i++) queue.addUncovered(references.getOffer(state.getInt()));
+    }
+
     //----- Getter/setter methods -----//
 
     public ArrayList<HouseBidderRecord> getBids() { return bids; }
@@ -244,4 +389,19 @@ public abstract class HousingMarket {
     protected HouseOfferRecord getBestOffer(HouseBidderRecord bid) { return (HouseOfferRecord)offersPQ.peek(bid); }
 
     int getnHousesOnMarket() { return offersPQ.size(); }
+
+    public int getnBTLOffers() { return nBTLOffers; }
+
+    /**
+     * Number of offers on the market which have been first listed at the current time step
+     */
+    public int getnNewOffers() { return (tNewOffers == Model.getTime()) ? nNewOffers : 0; }
+
+    public int getnNewBuildOffers() { return nNewBuildOffers; }
+
+    public double getSumOfferPrices() { return sumOfferPrices; }
+
+    public int getnBTLBids() { return nBTLBids; }
+
+    public double getSumBidPrices() { return sumBidPrices; }
 }
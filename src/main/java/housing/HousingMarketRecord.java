@@ -1,6 +1,7 @@
 package housing;
 
 import utilities.PriorityQueue2D;
+import utilities.StateBuffer;
 
 /**************************************************************************************************
  * Root class to encapsulate information on housing market transactions, both offers and bids. Both
@@ -30,6 +31,14 @@ public abstract class HousingMarketRecord {
         id = id_pool++;
     }
 
+    /**
+     * Restores a record from a state buffer, as written by writeState, keeping its original identifier
+     */
+    HousingMarketRecord(StateBuffer state) {
+        price = state.getDouble();
+        id = state.getInt();
+    }
+
     //----------------------//
     //----- Subclasses -----//
     //----------------------//
@@ -39,7 +48,6 @@ public abstract class HousingMarketRecord {
      * particular, this class implements the comparators for a price-quality priority queue.
      */
     public static class PQComparator implements PriorityQueue2D.XYComparator<HousingMarketRecord> {
-
         /**
          * @return -1 or 1 if arg0 is, respectively, cheaper than or more expensive than arg1 solving the arg0 == arg1
          * case by reverse comparing their qualities and comparing their Id's if they also have the same quality
@@ -79,7 +87,6 @@ public abstract class HousingMarketRecord {
      * particular, this class implements the comparators for a price-yield priority queue.
      */
     public static class PYComparator implements PriorityQueue2D.XYComparator<HousingMarketRecord> {
-
         /**
          * @return -1 or 1 if arg0 is, respectively, cheaper than or more expensive than arg1 solving the arg0 == arg1
          * case by reverse comparing their yields and comparing their Id's if they also have the same quality
@@ -118,6 +125,14 @@ public abstract class HousingMarketRecord {
     //----- Methods -----//
     //-------------------//
 
+    /**
+     * Copy the price and identifier of the record into a state buffer
+     */
+    void writeState(StateBuffer state) {
+        state.putDouble(price);
+        state.putInt(id);
+    }
+
     //----- Getter/setter methods -----//
 
     // TODO: Check if we really need this to be abstract, or even to stay here
@@ -134,4 +149,8 @@ public abstract class HousingMarketRecord {
     public double getPrice() { return price; }
 
     public void setPrice(double newPrice) { price = newPrice; }
+
+    static int getIdPool() { return id_pool; }
+
+    static void setIdPool(int newIdPool) { id_pool = newIdPool; }
 }
@@ -2,6 +2,9 @@ package housing;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Scanner;
 import java.time.Instant;
 
@@ -25,6 +28,27 @@ import org.apache.commons.io.FileUtils;
  *                      created if it does not exist.
  * -dev                 Removes security question before erasing the content inside output folder
  *                      (if the folder already exists).
+ * -jfr <arg>           Record Java Flight Recorder events for model step phases, market clearing
+ *                      rounds, deaths and output writing, writing the recording to the given file
+ *                      (requires a JVM with JFR support, i.e., Java 11+ or 8u272+).
+ * -telemetry <arg>     Serve live national and regional indicators and step phase timings, as JSON
+ *                      at http://localhost:<arg>/snapshot and as server-sent events at
+ *                      http://localhost:<arg>/events, while the simulation runs.
+ * -saveState <arg>     Save the full state of the model at the end of the given time step of each
+ *                      simulation, to file 'State-run<simulation>-t<time>.bin' in the output folder.
+ * -loadState <arg>     Start each simulation from the model state saved in the given file, instead
+ *                      of initialising it, running from the time step after the saved one. The first
+ *                      simulation continues with the random number generator in its saved state,
+ *                      while each further one reseeds it with SEED + <simulation number>.
+ * -checkpoint <arg>    Write a checkpoint of the simulation every given number of time steps, to
+ *                      file 'Checkpoint.bin' in the output folder, from which it can be resumed.
+ *                      Each checkpoint stalls the simulation while its state is copied, for
+ *                      about 30 to 45 ms with the default population (see Checkpoint).
+ * -resume <arg>        Resume a simulation from the given checkpoint file, appending to its output
+ *                      files, which are first truncated to their length at the checkpoint. By
+ *                      default, the output folder is that of the checkpoint file. The simulation
+ *                      uses the copy of the config file in the output folder it was written with,
+ *                      and any config file passed with -configFile must have the same content.
  * -help                Print input arguments usage information.
  *
  * Note that the seed for random number generation is set from the config file.
@@ -53,6 +77,7 @@ public class Model {
     public static RentalMarketStats     rentalMarketStats;
     public static TransactionRecorder   transactionRecorder;
     public static MicroDataRecorder     microDataRecorder;
+    public static PerformanceRecorder   performanceRecorder;
     public static int	                nSimulation; // To keep track of the simulation number
     public static int	                t; // To keep track of time (in months)
 
@@ -61,6 +86,13 @@ public class Model {
     private static Recorder             recorder;
     private static String               configFileName;
     private static String               outputFolder;
+    private static String               jfrFileName; // Null unless JFR recording has been requested
+    private static int                  telemetryPort = -1; // Negative unless live telemetry has been requested
+    private static TelemetryServer      telemetryServer; // Null unless live telemetry has been requested
+    private static int                  saveStateTime = -1; // Negative unless saving the model state has been requested
+    private static String               loadStateFileName; // Null unless loading a model state has been requested
+    private static int                  checkpointPeriod = -1; // Negative unless checkpoints have been requested
+    private static String               resumeFileName; // Null unless resuming from a checkpoint has been requested
 
     //------------------------//
     //----- Constructors -----//
@@ -71,26 +103,14 @@ public class Model {
      * @param outputFolder String with the address of the folder for storing results
      */
     public Model(String configFileName, String outputFolder) {
-        config = new Config(configFileName);
-        rand = new MersenneTwister(config.SEED);
+        Config newConfig = new Config(configFileName);
+        createAgentsAndCollectors(newConfig, newConfig.SEED);
 
-        geography = new Geography(config, rand);
-        government = new Government(config);
-        demographics = new Demographics(config, rand, geography);
-        construction = new Construction(config, rand, geography);
-        centralBank = new CentralBank();
-        bank = new Bank();
-
-        recorder = new Recorder(outputFolder, geography);
+        recorder = new Recorder(outputFolder, geography, config.compressOutput);
         transactionRecorder = new TransactionRecorder(outputFolder);
-        microDataRecorder = new MicroDataRecorder(outputFolder);
-        creditSupply = new CreditSupply();
-        coreIndicators = new CoreIndicators();
-        householdStats = new HouseholdStats(geography);
-        housingMarketStats = new HousingMarketStats(config, geography);
-        rentalMarketStats = new RentalMarketStats(config, housingMarketStats, geography);
-
-        nSimulation = 0;
+        microDataRecorder = new MicroDataRecorder(outputFolder, geography, config.compressOutput);
+        performanceRecorder = new PerformanceRecorder(outputFolder, config.recordPerformanceMetrics,
+                geography.getRegions().size());
     }
 
     //-------------------//
@@ -102,34 +122,125 @@ public class Model {
 	    // Handle input arguments from command line
         handleInputArguments(args);
 
+        // Run all simulations, turning any inconsistent state found by the model into an error exit code (note that
+        // such states are signalled by an IllegalStateException, possibly wrapped by a static initialiser)
+        try {
+            runSimulations();
+        } catch (IllegalStateException ise) {
+            System.err.println("Simulation stopped. Reason: " + ise.getMessage());
+            System.exit(1);
+        } catch (ExceptionInInitializerError eiie) {
+            if (!(eiie.getCause() instanceof IllegalStateException)) throw eiie;
+            System.err.println("Simulation stopped. Reason: " + eiie.getCause().getMessage());
+            System.exit(1);
+        }
+
+        //Stop the program when finished
+		System.exit(0);
+	}
+
+    /**
+     * Run config.N_SIMS simulations with the configuration and options read from the command line, writing all
+     * requested output to the output folder
+     */
+    private static void runSimulations() {
+
         // Create an instance of Model in order to initialise it (reading config file)
         new Model(configFileName, outputFolder);
 
-        // Open files for writing multiple runs results
-        recorder.openMultiRunFiles(config.recordCoreIndicators);
+        // If requested, start recording Java Flight Recorder events
+        if (jfrFileName != null) FlightRecorderEvents.start(jfrFileName);
+
+        // If requested, start serving live telemetry
+        if (telemetryPort >= 0) {
+            telemetryServer = new TelemetryServer(geography, performanceRecorder);
+            try {
+                telemetryServer.start(telemetryPort);
+            } catch (IOException ioe) {
+                System.err.println("Starting telemetry server failed. Reason: " + ioe.getMessage());
+                telemetryServer = null;
+            }
+        }
 
-        // Perform config.N_SIMS simulations
-		for (nSimulation = 1; nSimulation <= config.N_SIMS; nSimulation += 1) {
+        // If requested, restore the state of the simulation from a checkpoint, truncating output files accordingly
+        Checkpoint resumed = null;
+        if (resumeFileName != null) {
+            try {
+                resumed = Checkpoint.resume(resumeFileName, outputFolder);
+            } catch (IOException ioe) {
+                System.err.println("Resuming from checkpoint failed. Reason: " + ioe.getMessage());
+                System.exit(1);
+            }
+        }
+        Checkpoint checkpoint = new Checkpoint(outputFolder, new File(configFileName).getName());
 
-            // For each simulation, open files for writing single-run results
-            recorder.openSingleRunFiles(nSimulation, true, config.N_QUALITY);
-            if (config.recordTransactions) { transactionRecorder.openSingleRunFiles(nSimulation); }
-            microDataRecorder.openSingleRunSingleVariableFiles(nSimulation, config.recordEmploymentIncome,
-                    config.recordRentalIncome, config.recordBankBalance, config.recordHousingWealth,
-                    config.recordNHousesOwned, config.recordAge, config.recordSavingRate);
+        // Open files for writing multiple runs results
+        recorder.openMultiRunFiles(config.recordCoreIndicators, config.recordCoreIndicatorsSummary, config.N_STEPS,
+                resumed != null);
+        if (resumed != null && resumed.getCoreIndicatorsEnsemble() != null) {
+            recorder.setCoreIndicatorsEnsemble(resumed.getCoreIndicatorsEnsemble());
+        }
 
-		    // For each simulation, initialise both houseSaleMarket and houseRentalMarket variables (including HPI)
-            init();
+        // Perform config.N_SIMS simulations
+		for (nSimulation = (resumed != null) ? resumed.getnSimulation() : 1; nSimulation <= config.N_SIMS;
+             nSimulation += 1) {
+            boolean resuming = resumed != null && nSimulation == resumed.getnSimulation();
+
+            // For each simulation, open files for writing single-run results (appending to them if resuming)
+            recorder.openSingleRunFiles(nSimulation, true, config.N_QUALITY, config.recordPriceQuantiles,
+                    config.recordOutputInBinary, resuming);
+            if (config.recordTransactions) { transactionRecorder.openSingleRunFiles(nSimulation, resuming); }
+            microDataRecorder.openSingleRunFiles(nSimulation, config.recordOutputInBinary,
+                    config.recordEmploymentIncome, config.recordRentalIncome, config.recordBankBalance,
+                    config.recordHousingWealth, config.recordNHousesOwned, config.recordAge, config.recordSavingRate,
+                    resuming);
+            performanceRecorder.openSingleRunFiles(nSimulation, resuming);
+
+		    // For each simulation, initialise both houseSaleMarket and houseRentalMarket variables (including HPI), or
+            // restore the model state from file, if requested, continuing from the time step after the saved one
+            // (unless resuming, in which case the state has already been restored from the checkpoint)
+            int startTime = 0;
+            if (resuming) {
+                startTime = resumed.getTime() + 1;
+            } else if (loadStateFileName != null) {
+                try {
+                    startTime = ModelState.restore(loadStateFileName) + 1;
+                    // Continue the first simulation with the saved random number generator state, but reseed it for
+                    // each further one, such that simulations do not repeat each other (note that the generator is
+                    // reseeded in place, as it is referenced from many restored objects)
+                    if (nSimulation > 1) rand.setSeed(config.SEED + nSimulation);
+                } catch (IOException ioe) {
+                    System.err.println("Loading model state failed. Reason: " + ioe.getMessage());
+                    System.exit(1);
+                }
+            } else {
+                init();
+            }
 
             // For each simulation, run config.N_STEPS time steps
-			for (t = 0; t <= config.N_STEPS; t += 1) {
+			for (t = startTime; t <= config.N_STEPS; t += 1) {
 
                 // Steps model and stores sale and rental markets bid and offer prices, and their averages, into their
                 // respective variables
                 modelStep();
+                performanceRecorder.endStep(t);
 
                 // Write results of this time step and run to both multi- and single-run files
-                recorder.writeTimeStampResults(config.recordCoreIndicators, t, config.recordQualityBandPrice);
+                recorder.writeTimeStampResults(config.recordCoreIndicators, config.recordCoreIndicatorsSummary, t,
+                        config.recordQualityBandPrice, config.recordPriceQuantiles);
+                microDataRecorder.recordSnapshot(t, config.MICRODATA_SNAPSHOT_PERIOD);
+
+                // If requested, save the full state of the model at the end of this time step
+                if (t == saveStateTime) {
+                    try {
+                        ModelState.save(outputFolder + "State-run" + nSimulation + "-t" + t + ".bin");
+                    } catch (IOException ioe) {
+                        System.err.println("Saving model state failed. Reason: " + ioe.getMessage());
+                    }
+                }
+
+                // If requested, write a checkpoint at the end of this time step
+                if (checkpointPeriod > 0 && t > 0 && t % checkpointPeriod == 0) writeCheckpoint(checkpoint);
 
                 // Print time information to screen
                 if (t % 100 == 0) {
@@ -138,21 +249,88 @@ public class Model {
             }
 
 			// Finish each simulation within the recorders (closing single-run files, changing line in multi-run files)
-            recorder.finishRun(config.recordCoreIndicators, config.recordQualityBandPrice);
+            recorder.finishRun(config.recordCoreIndicators, config.recordCoreIndicatorsSummary,
+                    config.recordQualityBandPrice, config.recordPriceQuantiles);
             if (config.recordTransactions) transactionRecorder.finishRun();
-            microDataRecorder.finishRun(config.recordEmploymentIncome, config.recordRentalIncome,
-                    config.recordBankBalance, config.recordHousingWealth, config.recordNHousesOwned, config.recordAge,
-                    config.recordSavingRate);
+            microDataRecorder.finishRun();
+            performanceRecorder.finishRun(nSimulation);
 		}
 
         // After the last simulation, clean up
-        recorder.finish(config.recordCoreIndicators);
+        recorder.finish(config.recordCoreIndicators, config.recordCoreIndicatorsSummary);
+        FlightRecorderEvents.stop();
+        if (telemetryServer != null) telemetryServer.stop();
+        checkpoint.finish();
+    }
 
-        //Stop the program when finished
-		System.exit(0);
-	}
+    /**
+     * Create all agents and statistics collectors, but no recorders, for a given configuration. Note that, since some
+     * classes keep a static reference to the random number generator, this is created only once, and then re-seeded
+     *
+     * @param newConfig Configuration parameters
+     * @param seed Seed for the random number generator
+     */
+    static void createAgentsAndCollectors(Config newConfig, int seed) {
+        config = newConfig;
+        if (rand == null) {
+            rand = new MersenneTwister(seed);
+        } else {
+            rand.setSeed(seed);
+        }
+        // Point the static copies of the configuration and random number generator kept by some classes to the current
+        // ones, such that models created one after the other within the same JVM do not keep previous parameters
+        bindStaticConfig();
 
-	private static void init() {
+        geography = new Geography(config, rand);
+        government = new Government(config);
+        demographics = new Demographics(config, rand, geography);
+        construction = new Construction(config, rand, geography);
+        centralBank = new CentralBank();
+        bank = new Bank();
+
+        creditSupply = new CreditSupply();
+        coreIndicators = new CoreIndicators();
+        householdStats = new HouseholdStats(geography);
+        housingMarketStats = new HousingMarketStats(config, geography);
+        rentalMarketStats = new RentalMarketStats(config, housingMarketStats, geography);
+
+        nSimulation = 0;
+    }
+
+    /**
+     * Re-bind the static copies of the configuration and random number generator kept by some classes, loading again
+     * any data whose file has changed and recomputing any parameter derived from the configuration. The first time a
+     * class is used, its static initialisers already read the current configuration, and nothing is loaded twice. Any
+     * tables loaded from a calibration bundle are forgotten, such that the bundle set in the configuration is used
+     */
+    private static void bindStaticConfig() {
+        data.CalibrationBundle.reset();
+        HouseholdBehaviour.setConfig(config, rand);
+        data.Demographics.setConfig(config, rand);
+        data.EmploymentIncome.setConfig(config);
+        data.Government.setConfig(config);
+        data.HouseSaleMarket.setConfig(config);
+        data.Transport.setConfig(config);
+        data.Wealth.setConfig(config);
+    }
+
+    /**
+     * Sync all recorders, such that output files can be truncated at their current length, and write a checkpoint. The
+     * micro-data recorder syncs its file in its own background thread, whose length is then passed to the checkpoint
+     */
+    private static void writeCheckpoint(Checkpoint checkpoint) {
+        try {
+            recorder.sync();
+            if (config.recordTransactions) transactionRecorder.sync();
+            performanceRecorder.sync();
+            checkpoint.save(nSimulation, recorder.getCoreIndicatorsEnsemble(), microDataRecorder.getFileName(),
+                    microDataRecorder.sync());
+        } catch (IOException ioe) {
+            System.err.println("Writing checkpoint failed. Reason: " + ioe.getMessage());
+        }
+    }
+
+	static void init() {
         demographics.init();
 		construction.init();
 		bank.init();
@@ -163,25 +341,36 @@ public class Model {
         geography.init();
 	}
 
-	private static void modelStep() {
+	static void modelStep() {
+        performanceRecorder.startStep();
         // Update population with births and deaths in each region
         demographics.step();
+        performanceRecorder.endPhase(PerformanceRecorder.DEMOGRAPHICS);
         // Update number of houses in each region
         construction.step();
+        performanceRecorder.endPhase(PerformanceRecorder.CONSTRUCTION);
         // Update, for each region, its households, market statistics collectors and markets
         geography.step();
         // Update all sale market statistics by collecting and aggregating results from the regions
         housingMarketStats.collectRegionalRecords();
+        performanceRecorder.endPhase(PerformanceRecorder.SALE_MARKET_STATS);
         // Update all rental market statistics by collecting and aggregating results from the regions
         rentalMarketStats.collectRegionalRecords();
+        performanceRecorder.endPhase(PerformanceRecorder.RENTAL_MARKET_STATS);
         // Update all household statistics by collecting and aggregating results from the regions
         householdStats.collectRegionalRecords();
+        performanceRecorder.endPhase(PerformanceRecorder.HOUSEHOLD_STATS);
         // Update all credit supply statistics // TODO: Check what this actually does and if it should go elsewhere!
         creditSupply.step();
+        performanceRecorder.endPhase(PerformanceRecorder.CREDIT_SUPPLY);
 		// Update bank and interest rate for new mortgages
 		bank.step(demographics.getTotalPopulation());
+        performanceRecorder.endPhase(PerformanceRecorder.BANK);
         // Update central bank policies (currently empty!)
 		centralBank.step(coreIndicators);
+        performanceRecorder.endPhase(PerformanceRecorder.CENTRAL_BANK);
+        // Publish the results of this step for live telemetry, if requested
+        if (telemetryServer != null) telemetryServer.publish();
 	}
 
     /**
@@ -204,6 +393,26 @@ public class Model {
                 "folder will be created if it does not exist.");
         options.addOption("dev", false, "Removes security question before erasing the content" +
                 "inside output folder (if the folder already exists).");
+        options.addOption("jfr", true, "Record Java Flight Recorder events for model step phases, market " +
+                "clearing rounds, deaths and output writing, writing the recording to the given file (requires a " +
+                "JVM with JFR support, i.e., Java 11+ or 8u272+).");
+        options.addOption("telemetry", true, "Serve live national and regional indicators and step phase " +
+                "timings, as JSON at http://localhost:<arg>/snapshot and as server-sent events at " +
+                "http://localhost:<arg>/events, while the simulation runs.");
+        options.addOption("saveState", true, "Save the full state of the model at the end of the given time " +
+                "step of each simulation, to file 'State-run<simulation>-t<time>.bin' in the output folder.");
+        options.addOption("loadState", true, "Start each simulation from the model state saved in the given " +
+                "file, instead of initialising it, running from the time step after the saved one. The first " +
+                "simulation continues with the random number generator in its saved state, while each further one " +
+                "reseeds it with SEED + <simulation number>.");
+        options.addOption("checkpoint", true, "Write a checkpoint of the simulation every given number of time " +
+                "steps, to file 'Checkpoint.bin' in the output folder, from which it can be resumed. Each checkpoint " +
+                "stalls the simulation while its state is copied, for about 30 to 45 ms with the default population.");
+        options.addOption("resume", true, "Resume a simulation from the given checkpoint file, appending to its " +
+                "output files, which are first truncated to their length at the checkpoint. By default, the output " +
+                "folder is that of the checkpoint file. The simulation uses the copy of the config file in the " +
+                "output folder it was written with, and any config file passed with -configFile must have the same " +
+                "content.");
         options.addOption("help", false, "Print input arguments usage information.");
 
         // Create help formatter in case it will be needed
@@ -227,12 +436,17 @@ public class Model {
                 // If it has, then activate boolean variable for later control
                 devBoolean = true;
             }
+            // Check if resume argument has been passed
+            if(cmd.hasOption("resume")) {
+                // If it has, then use its value to initialise the respective member variable
+                resumeFileName = cmd.getOptionValue("resume");
+            }
             // Check if configFile argument has been passed
             if(cmd.hasOption("configFile")) {
                 // If it has, then use its value to initialise the respective member variable
                 configFileName = cmd.getOptionValue("configFile");
-            } else {
-                // If not, use the default value to initialise the respective member variable
+            } else if (resumeFileName == null) {
+                // If not (and not resuming), use the default value to initialise the respective member variable
                 configFileName = "src/main/resources/config.properties";
             }
             // Check if outputFolder argument has been passed
@@ -241,10 +455,39 @@ public class Model {
                 outputFolder = cmd.getOptionValue("outputFolder");
                 // If outputFolder does not end with "/", add it
                 if (!outputFolder.endsWith("/")) { outputFolder += "/"; }
+            } else if (resumeFileName != null) {
+                // If resuming, use the folder of the checkpoint file
+                File parent = new File(resumeFileName).getAbsoluteFile().getParentFile();
+                outputFolder = parent.getPath() + "/";
             } else {
                 // If not, use the default value to initialise the respective member variable
                 outputFolder = "Results/" + Instant.now().toString().replace(":", "-") + "/";
             }
+            // Check if jfr argument has been passed
+            if(cmd.hasOption("jfr")) {
+                // If it has, then use its value to initialise the respective member variable
+                jfrFileName = cmd.getOptionValue("jfr");
+            }
+            // Check if telemetry argument has been passed
+            if(cmd.hasOption("telemetry")) {
+                // If it has, then use its value to initialise the respective member variable
+                telemetryPort = Integer.parseInt(cmd.getOptionValue("telemetry"));
+            }
+            // Check if saveState argument has been passed
+            if(cmd.hasOption("saveState")) {
+                // If it has, then use its value to initialise the respective member variable
+                saveStateTime = Integer.parseInt(cmd.getOptionValue("saveState"));
+            }
+            // Check if loadState argument has been passed
+            if(cmd.hasOption("loadState")) {
+                // If it has, then use its value to initialise the respective member variable
+                loadStateFileName = cmd.getOptionValue("loadState");
+            }
+            // Check if checkpoint argument has been passed
+            if(cmd.hasOption("checkpoint")) {
+                // If it has, then use its value to initialise the respective member variable
+                checkpointPeriod = Integer.parseInt(cmd.getOptionValue("checkpoint"));
+            }
         }
         catch(ParseException pex) {
             // Catch possible parsing errors
@@ -253,9 +496,9 @@ public class Model {
             formatter.printHelp( "spatial-housing-model", options );
         }
 
-        // Check if outputFolder directory already exists
+        // Check if outputFolder directory already exists (unless resuming, in which case its content is needed)
         File f = new File(outputFolder);
-        if (f.exists() && !devBoolean) {
+        if (f.exists() && !devBoolean && resumeFileName == null) {
             // If it does, try removing everything inside (with a warning that requests approval!)
             Scanner reader = new Scanner(System.in);
             System.out.println("\nATTENTION:\n\nThe folder chosen for output, '" + outputFolder + "', already exists and " +
@@ -278,6 +521,12 @@ public class Model {
             f.mkdirs();
         }
 
+        // If resuming, use the copy of the config file the checkpoint was written with, instead of copying it
+        if (resumeFileName != null) {
+            useCheckpointConfigFile();
+            return;
+        }
+
         // Copy config file to output folder
         try {
             FileUtils.copyFileToDirectory(new File(configFileName), new File(outputFolder));
@@ -286,6 +535,29 @@ public class Model {
         }
     }
 
+    /**
+     * Set the config file to the copy, in the output folder, of the one the checkpoint to resume from was written with,
+     * stopping the program if a config file has been passed as argument whose content differs from this copy
+     */
+    private static void useCheckpointConfigFile() {
+        try {
+            File checkpointConfigFile = new File(outputFolder + Checkpoint.readConfigFileName(resumeFileName));
+            if (!checkpointConfigFile.isFile()) {
+                throw new IOException("Config file " + checkpointConfigFile + " not found");
+            }
+            if (configFileName != null && !Arrays.equals(Files.readAllBytes(Paths.get(configFileName)),
+                    Files.readAllBytes(checkpointConfigFile.toPath()))) {
+                System.err.println("Resuming from checkpoint failed. Reason: Config file " + configFileName
+                        + " differs from " + checkpointConfigFile + ", with which the checkpoint was written");
+                System.exit(1);
+            }
+            configFileName = checkpointConfigFile.getPath();
+        } catch (IOException ioe) {
+            System.err.println("Resuming from checkpoint failed. Reason: " + ioe.getMessage());
+            System.exit(1);
+        }
+    }
+
 	/**
 	 * @return Simulated time in months
 	 */
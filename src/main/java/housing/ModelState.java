@@ -0,0 +1,283 @@
+package housing;
+
+import utilities.StateBuffer;
+
+import org.apache.commons.math3.random.MersenneTwister;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**************************************************************************************************
+ * Class to save the full state of the model at the end of a given time step to a file, and to
+ * restore it later on, such that simulations can start from a state after burn-in instead of
+ * repeating it for every run. The state includes all agents (households with their behaviour and
+ * payment agreements, houses, bank, construction sector, demographics), the regions with their sale
+ * and rental markets (including order books) and statistics collectors, the national statistics
+ * collectors (including their moving averages), the random number generator state, the identifier
+ * counters and the time. The configuration is not part of the state, and the current one is used
+ * upon restoring it, with the policy thresholds of the bank and the central bank re-read from it,
+ * such that policy scenarios can branch from a common state. Recorders are not part of the state
+ * either, such that outputs are written only for time steps after the restored one.
+ *
+ * The state is copied field by field into a StateBuffer, each class writing its own fields, with
+ * references between agents written as identifiers (houses, households, offers) or as positions
+ * (mortgages held by the bank). Since copying into the buffer is cheap, and the buffer can then be
+ * compressed and written on its own, checkpoints only stall the simulation for the copy. Only the
+ * random number generators, whose state is not accessible otherwise, are written with Java
+ * serialization. The state is restored in place, into the agents and collectors already created
+ * for the current configuration, replacing their households, houses, agreements and offers. Thus,
+ * a state can only be restored with the same version of the code it was saved with.
+ *
+ * File format: magic number "HMSS", format version and time (all as big-endian integers),
+ * followed by the state buffer, compressed with deflate
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class ModelState {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    static final int            NONE = -1; // Identifier written for missing references
+    static final int            CONSTRUCTION = 0; // Identifier written for houses owned by the construction sector
+
+    private static final int    MAGIC = 0x484D5353; // "HMSS"
+    private static final int    VERSION = 3;
+    private static final int    BUFFER_SIZE = 1 << 16;
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Write the current state of the model to a file
+     */
+    public static void save(String fileName) throws IOException {
+        StateBuffer state = new StateBuffer();
+        writeState(state);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName),
+                BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(Model.t);
+            writeCompressed(state, out);
+        }
+    }
+
+    /**
+     * Copy the current state of the model into a state buffer, after any value already in it
+     */
+    static void writeState(StateBuffer state) {
+        state.putInt(House.getIdPool());
+        state.putInt(Household.getIdPool());
+        state.putInt(HousingMarketRecord.getIdPool());
+        state.putObject(Model.rand);
+        ArrayList<Region> regions = Model.geography.getRegions();
+        for (Region r : regions) {
+            state.putInt(r.households.size());
+            for (Household h : r.households) state.putInt(h.id);
+        }
+        // Houses, grouped by owner, such that each group can be read once all households exist, each group of a
+        // household followed by the rental agreements it holds as a landlord, before those held by tenants are written
+        for (Region r : regions) {
+            for (Household h : r.households) {
+                h.writeHouses(state);
+                h.writeRentalContracts(state);
+            }
+        }
+        Model.construction.writeHouses(state);
+        // Mortgages held by the bank, such that households can refer to them by their position
+        IdentityHashMap<MortgageAgreement, Integer> bankMortgageIndices =
+                new IdentityHashMap<>(Model.bank.mortgages.size());
+        Model.bank.writeState(state, bankMortgageIndices);
+        for (Region r : regions) {
+            for (Household h : r.households) h.writeState(state, bankMortgageIndices);
+        }
+        Model.geography.writeState(state);
+        Model.demographics.writeState(state);
+        Model.construction.writeState(state);
+        Model.creditSupply.writeState(state);
+        Model.householdStats.writeState(state);
+        Model.housingMarketStats.writeState(state);
+        Model.rentalMarketStats.writeState(state);
+    }
+
+    /**
+     * Replace the current state of the model by the one read from a file, setting the time to that of the state
+     *
+     * @return Time step at the end of which the state was saved
+     */
+    public static int restore(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName),
+                BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) throw new IOException(fileName + " is not a model state file");
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported model state version " + version + " at " + fileName);
+            }
+            int time = in.readInt();
+            StateBuffer state = readCompressed(in);
+            readState(state, fileName);
+            if (state.hasRemaining()) {
+                throw new IOException("Model state at " + fileName + " holds more values than this version of the "
+                        + "code reads");
+            }
+            Model.t = time;
+            return time;
+        }
+    }
+
+    /**
+     * Replace the current state of the model by the one read from a state buffer, leaving any further value written
+     * after the state to be read
+     *
+     * @param source Name of the source of the state, for error messages
+     */
+    static void readState(StateBuffer state, String source) throws IOException {
+        try {
+            readState(state);
+        } catch (IllegalStateException | ClassCastException e) {
+            throw new IOException("Model state at " + source + " cannot be restored: " + e.getMessage(), e);
+        }
+    }
+
+    private static void readState(StateBuffer state) {
+        References references = new References();
+        House.setIdPool(state.getInt());
+        Household.setIdPool(state.getInt());
+        HousingMarketRecord.setIdPool(state.getInt());
+        Model.rand = (MersenneTwister)state.getObject();
+        ArrayList<Region> regions = Model.geography.getRegions();
+        for (Region r : regions) {
+            r.households.clear();
+            int nHouseholds = state.getInt();
+            for (int i = 0; i < nHouseholds; i++) {
+                Household h = new Household(Model.config, Model.rand, Model.geography, state.getInt());
+                r.households.add(h);
+                references.add(h);
+            }
+        }
+        for (Region r : regions) {
+            for (Household h : r.households) {
+                readHouses(state, references);
+                h.readRentalContracts(state, references);
+            }
+        }
+        readHouses(state, references);
+        Model.bank.readState(state, references);
+        for (Region r : regions) {
+            for (Household h : r.households) h.readState(state, references);
+        }
+        Model.geography.readState(state, references);
+        Model.demographics.readState(state);
+        Model.construction.readState(state, references);
+        Model.creditSupply.readState(state);
+        Model.householdStats.readState(state);
+        Model.housingMarketStats.readState(state);
+        Model.rentalMarketStats.readState(state);
+        // Point static references to the random number generator to the restored one
+        HouseholdBehaviour.setRand(Model.rand);
+        data.Demographics.setRand(Model.rand);
+        // Read policy thresholds from the current configuration
+        Model.bank.setPolicyThresholds();
+        Model.centralBank.init();
+    }
+
+    /**
+     * Read a group of houses, preceded by their number, as written by Household.writeHouses or
+     * Construction.writeHouses
+     */
+    private static void readHouses(StateBuffer state, References references) {
+        int nHouses = state.getInt();
+        for (int i = 0; i < nHouses; i++) references.add(new House(state, references));
+    }
+
+    /**
+     * Write a state buffer to a stream, compressed with a fast deflate compression, without closing the stream
+     */
+    static void writeCompressed(StateBuffer state, OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            DataOutputStream data = new DataOutputStream(compressed);
+            state.writeTo(data);
+            data.flush();
+            compressed.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Read a state buffer written with writeCompressed from a stream
+     */
+    static StateBuffer readCompressed(InputStream in) throws IOException {
+        return StateBuffer.readFrom(new DataInputStream(new BufferedInputStream(new InflaterInputStream(in),
+                BUFFER_SIZE)));
+    }
+
+    /**
+     * Objects already restored, by identifier, such that references to them can be resolved while restoring the rest
+     */
+    static class References {
+
+        private HashMap<Integer, Household>         households = new HashMap<>();
+        private HashMap<Integer, House>             houses = new HashMap<>();
+        private HashMap<Integer, HouseOfferRecord>  offers = new HashMap<>();
+        private ArrayList<MortgageAgreement>        bankMortgages = new ArrayList<>();
+
+        void add(Household h) { households.put(h.id, h); }
+
+        void add(House h) { houses.put(h.id, h); }
+
+        void add(HouseOfferRecord offer) { offers.put(offer.getId(), offer); }
+
+        void add(MortgageAgreement bankMortgage) { bankMortgages.add(bankMortgage); }
+
+        Household getHousehold(int id) { return get(households, id, "household"); }
+
+        House getHouse(int id) { return get(houses, id, "house"); }
+
+        HouseOfferRecord getOffer(int id) { return get(offers, id, "offer"); }
+
+        MortgageAgreement getBankMortgage(int index) {
+            if (index < 0 || index >= bankMortgages.size()) {
+                throw new IllegalStateException("Unknown mortgage " + index + " held by the bank");
+            }
+            return bankMortgages.get(index);
+        }
+
+        IHouseOwner getOwner(int id) {
+            return (id == CONSTRUCTION) ? Model.construction : getHousehold(id);
+        }
+
+        Region getRegion(int regionID) {
+            if (regionID < 0 || regionID >= Model.geography.getRegions().size()) {
+                throw new IllegalStateException("Unknown region " + regionID);
+            }
+            return Model.geography.getRegions().get(regionID);
+        }
+
+        private static <T> T get(HashMap<Integer, T> objects, int id, String kind) {
+            if (id == NONE) return null;
+            T object = objects.get(id);
+            if (object == null) throw new IllegalStateException("Unknown " + kind + " " + id);
+            return object;
+        }
+    }
+}
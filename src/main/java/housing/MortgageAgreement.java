@@ -1,5 +1,7 @@
 package housing;
 
+import utilities.StateBuffer;
+
 /**************************************************************************************************
  * Class to represent a mortgage contract, keeping track of the updated principal due, the monthly
  * payment, the number of payments left, etc.
@@ -31,6 +33,20 @@ public class MortgageAgreement extends PaymentAgreement {
 		isActive = true;
 	}
 
+    /**
+     * Restores a mortgage from a state buffer, as written by writeState
+     */
+    MortgageAgreement(StateBuffer state) {
+        super(state);
+        isBuyToLet = state.getBoolean();
+        isFirstTimeBuyer = state.getBoolean();
+        isActive = state.getBoolean();
+        downPayment = state.getDouble();
+        purchasePrice = state.getDouble();
+        principal = state.getDouble();
+        monthlyInterestRate = state.getDouble();
+    }
+
     //-------------------//
     //----- Methods -----//
     //-------------------//
@@ -88,4 +104,19 @@ public class MortgageAgreement extends PaymentAgreement {
      * @return The amount that was actually paid off
      */
 	double payoff() { return payoff(principal); }
+
+    /**
+     * Copy the mortgage, including whether it is still active, into a state buffer
+     */
+    @Override
+    void writeState(StateBuffer state) {
+        super.writeState(state);
+        state.putBoolean(isBuyToLet);
+        state.putBoolean(isFirstTimeBuyer);
+        state.putBoolean(isActive);
+        state.putDouble(downPayment);
+        state.putDouble(purchasePrice);
+        state.putDouble(principal);
+        state.putDouble(monthlyInterestRate);
+    }
 }
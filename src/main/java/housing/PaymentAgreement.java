@@ -1,5 +1,7 @@
 package housing;
 
+import utilities.StateBuffer;
+
 /**************************************************************************************************
  * Class to represent a payment contract in general, so as to include both mortgage and rental
  * contracts. It keeps track of the monthly payments associated to the contract and the number of
@@ -17,6 +19,20 @@ public class PaymentAgreement {
     int 		    nPayments;
     public double 	monthlyPayment;
 
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    public PaymentAgreement() {}
+
+    /**
+     * Restores a payment agreement from a state buffer, as written by writeState
+     */
+    PaymentAgreement(StateBuffer state) {
+        nPayments = state.getInt();
+        monthlyPayment = state.getDouble();
+    }
+
     //-------------------//
     //----- Methods -----//
     //-------------------//
@@ -49,4 +65,12 @@ public class PaymentAgreement {
 		    return monthlyPayment;
         }
 	}
+
+	/**
+	 * Copy the number of payments left and the monthly payment into a state buffer
+	 */
+	void writeState(StateBuffer state) {
+		state.putInt(nPayments);
+		state.putDouble(monthlyPayment);
+	}
 }
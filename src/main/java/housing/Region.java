@@ -5,6 +5,7 @@ import collectors.RegionalHousingMarketStats;
 import collectors.RegionalRentalMarketStats;
 
 import org.apache.commons.math3.random.MersenneTwister;
+import utilities.StateBuffer;
 
 import java.util.ArrayList;
 
@@ -96,6 +97,30 @@ public class Region {
         regionalRentalMarketStats.postClearingRecord();
     }
 
+    //----- Methods to save and restore the state -----//
+
+    /**
+     * Copy the state of the region, including its markets and statistics collectors, into a state buffer. Its
+     * households are written by ModelState, as all of them must be created before any reference to them is read
+     */
+    void writeState(StateBuffer state) {
+        state.putInt(housingStock);
+        houseSaleMarket.writeState(state);
+        houseRentalMarket.writeState(state);
+        regionalHouseholdStats.writeState(state);
+        regionalHousingMarketStats.writeState(state);
+        regionalRentalMarketStats.writeState(state);
+    }
+
+    void readState(StateBuffer state, ModelState.References references) {
+        housingStock = state.getInt();
+        houseSaleMarket.readState(state, references);
+        houseRentalMarket.readState(state, references);
+        regionalHouseholdStats.readState(state);
+        regionalHousingMarketStats.readState(state);
+        regionalRentalMarketStats.readState(state);
+    }
+
     //----- Getter/setter methods -----//
 
     int getTargetPopulation() { return targetPopulation; }
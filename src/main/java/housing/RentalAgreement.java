@@ -1,4 +1,60 @@
 package housing;
 
+import utilities.StateBuffer;
+
+/**************************************************************************************************
+ * Class to represent a rental contract. Besides the payment details common to all payment
+ * agreements, it keeps a reference to the landlord household, so that the landlord's record of
+ * rental income can be updated when the last payment of the contract is made
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
 public class RentalAgreement extends PaymentAgreement {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    Household       landlord; // Set when the landlord lets out the house
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    public RentalAgreement() {}
+
+    /**
+     * Restores a rental agreement from a state buffer, as written by writeState, with its landlord already restored
+     */
+    RentalAgreement(StateBuffer state, ModelState.References references) {
+        super(state);
+        landlord = references.getHousehold(state.getInt());
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Make the monthly payment as for any payment agreement, and inform the landlord whenever this is the last payment,
+     * since from then on the contract yields no more rental income
+     *
+     * @return The amount of the monthly payment
+     */
+    @Override
+    public double makeMonthlyPayment() {
+        double payment = super.makeMonthlyPayment();
+        if (payment != 0.0 && nPayments == 0 && landlord != null) landlord.removeRentalIncome(payment);
+        return payment;
+    }
+
+    /**
+     * Copy the agreement into a state buffer, with its landlord as an identifier
+     */
+    @Override
+    void writeState(StateBuffer state) {
+        super.writeState(state);
+        state.putInt((landlord == null) ? ModelState.NONE : landlord.id);
+    }
 }
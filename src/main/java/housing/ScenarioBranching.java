@@ -0,0 +1,168 @@
+package housing;
+
+import collectors.PerformanceRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**************************************************************************************************
+ * Class to run a set of policy scenarios branching from a common economy. The base configuration
+ * is run once, without writing any output, up to the end of the branching time step, where the
+ * full model state is saved to file 'State-t<time>.bin' in the output folder. Then, for each
+ * scenario configuration file, a branch is run continuing from that state until the end of the
+ * scenario simulation, with its own output folder 'Branch<i>-<scenario file name>/' and log file
+ * 'Branch<i>-<scenario file name>.log'. Thus, the common history before branching is computed
+ * only once, whatever the number of scenarios.
+ *
+ * As the model keeps its state in static fields, branches cannot share a JVM, and each of them is
+ * run as a separate JVM process (with the class path and JVM arguments of this one), restoring the
+ * saved state as with the -loadState option of Model. Up to as many branches as available
+ * processors are run in parallel. Upon restoring the state, bank and central bank policy
+ * thresholds are read from the scenario configuration, as are all other parameters, except for
+ * those setting the structure of the economy (such as the target population or the data files),
+ * which must coincide with those of the base configuration. Note that each simulation of a branch
+ * starts from the same state, so scenario configurations would usually set N_SIMS to 1.
+ *
+ * Usage: java housing.ScenarioBranching baseConfig.properties branchTime outputFolder
+ * scenario1.properties [scenario2.properties ...]
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class ScenarioBranching {
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: java housing.ScenarioBranching baseConfig.properties branchTime outputFolder "
+                    + "scenario1.properties [scenario2.properties ...]");
+            System.exit(1);
+        }
+        Config baseConfig = new Config(args[0]);
+        int branchTime = Integer.parseInt(args[1]);
+        String outputFolder = args[2].endsWith("/") ? args[2] : args[2] + "/";
+        List<String> scenarios = new ArrayList<>();
+        for (int i = 3; i < args.length; i++) {
+            Config scenarioConfig = new Config(args[i]);
+            if (scenarioConfig.TARGET_POPULATION != baseConfig.TARGET_POPULATION) {
+                System.out.println("Strange: Scenario " + args[i] + " sets a different target population than the "
+                        + "base configuration!");
+            }
+            if (scenarioConfig.N_STEPS <= branchTime) {
+                System.out.println("Strange: Scenario " + args[i] + " ends before the branching time step!");
+            }
+            scenarios.add(args[i]);
+        }
+        new File(outputFolder).mkdirs();
+
+        // Run the common history once and save the model state at the branching time step
+        String stateFileName = outputFolder + "State-t" + branchTime + ".bin";
+        long startTime = System.nanoTime();
+        try {
+            runCommonHistory(baseConfig, branchTime, stateFileName);
+        } catch (IOException ioe) {
+            System.err.println("Saving model state failed. Reason: " + ioe.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Common history up to time " + branchTime + " run in "
+                + (System.nanoTime() - startTime)/1000000 + " ms");
+
+        // Run the branches as separate processes, at most as many at a time as available processors
+        int maxRunning = Runtime.getRuntime().availableProcessors();
+        LinkedList<Process> running = new LinkedList<>();
+        LinkedList<String> runningNames = new LinkedList<>();
+        int nFailed = 0;
+        for (int i = 0; i < scenarios.size(); i++) {
+            String scenario = scenarios.get(i);
+            String branchName = "Branch" + (i + 1) + "-" + stripExtension(new File(scenario).getName());
+            if (running.size() == maxRunning) nFailed += waitFor(running.removeFirst(), runningNames.removeFirst());
+            try {
+                running.add(startBranch(scenario, stateFileName, outputFolder + branchName + "/",
+                        new File(outputFolder + branchName + ".log")));
+                runningNames.add(branchName);
+                System.out.println("Started " + branchName);
+            } catch (IOException ioe) {
+                System.err.println("Starting " + branchName + " failed. Reason: " + ioe.getMessage());
+                nFailed++;
+            }
+        }
+        while (!running.isEmpty()) nFailed += waitFor(running.removeFirst(), runningNames.removeFirst());
+        System.out.println((scenarios.size() - nFailed) + " of " + scenarios.size() + " branches finished in "
+                + (System.nanoTime() - startTime)/1000000 + " ms");
+        System.exit(nFailed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Run the model with the base configuration, without writing any output, up to the end of the branching time step,
+     * and save its state to file
+     */
+    private static void runCommonHistory(Config baseConfig, int branchTime, String stateFileName) throws IOException {
+        Model.createAgentsAndCollectors(baseConfig, baseConfig.SEED);
+        Model.transactionRecorder = null;
+        Model.microDataRecorder = null;
+        Model.performanceRecorder = new PerformanceRecorder(null, false, Model.geography.getRegions().size());
+        Model.nSimulation = 1;
+        Model.init();
+        for (Model.t = 0; Model.t <= branchTime; Model.t += 1) {
+            Model.modelStep();
+        }
+        Model.t = branchTime;
+        ModelState.save(stateFileName);
+    }
+
+    /**
+     * Start a JVM process running the model with a scenario configuration from the saved state
+     */
+    private static Process startBranch(String scenario, String stateFileName, String branchFolder, File logFile)
+            throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Model.class.getName());
+        command.add("-configFile");
+        command.add(scenario);
+        command.add("-outputFolder");
+        command.add(branchFolder);
+        command.add("-loadState");
+        command.add(stateFileName);
+        command.add("-dev");
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(logFile);
+        return builder.start();
+    }
+
+    /**
+     * Wait for a branch process to finish
+     *
+     * @return 0 if the branch finished successfully, 1 otherwise
+     */
+    private static int waitFor(Process process, String branchName) {
+        try {
+            int exitValue = process.waitFor();
+            if (exitValue == 0) {
+                System.out.println("Finished " + branchName);
+                return 0;
+            }
+            System.err.println(branchName + " failed with exit value " + exitValue + ", see its log file");
+        } catch (InterruptedException ie) {
+            System.err.println("Interrupted while waiting for " + branchName);
+            process.destroy();
+        }
+        return 1;
+    }
+
+    private static String stripExtension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0) ? fileName.substring(0, dot) : fileName;
+    }
+}
@@ -0,0 +1,15 @@
+package housing;
+
+/**************************************************************************************************
+ * Interface for objects to be notified at the end of each time step of a simulation run through
+ * SimulationRunner, at which point the state of the model can be read through the static fields
+ * of Model, as the recorders do
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public interface SimulationObserver {
+
+    /** Called at the end of each time step, after all agents and statistics collectors have been updated **/
+    void step(int time);
+}
@@ -0,0 +1,55 @@
+package housing;
+
+import collectors.PerformanceRecorder;
+import collectors.SimulationTimeSeries;
+
+/**************************************************************************************************
+ * Programmatic entry point to run single simulations within a running JVM, for instance from a
+ * calibration loop, without writing any output file nor exiting the JVM. Each call to run creates
+ * all agents and statistics collectors anew for the given configuration and seed, disables all
+ * recorders, runs config.N_STEPS time steps and returns the selected time series as primitive
+ * arrays (see SimulationTimeSeries for the series available). Observers can be passed to follow,
+ * at the end of each time step, any other quantity. Note that, as the model keeps its state in
+ * static fields, only one simulation can be run at a time within a JVM. Classes keeping static
+ * copies of the configuration are re-bound to that of each run, with data files loaded again only
+ * when the configuration of a run sets a different file than the previous one. Inconsistent model
+ * states or data files are signalled by throwing an IllegalStateException, never by exiting the JVM
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class SimulationRunner {
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Run a single simulation, without writing any output file
+     *
+     * @param config Configuration parameters, only read
+     * @param seed Seed for the random number generator, used instead of config.SEED
+     * @param seriesNames Names, from SimulationTimeSeries.SERIES_NAMES, of the time series to return
+     * @param observers Objects to be notified at the end of each time step, if any
+     * @return Selected time series, with a value for each time step from 0 to config.N_STEPS
+     */
+    public static SimulationTimeSeries run(Config config, int seed, String [] seriesNames,
+                                           SimulationObserver ... observers) {
+        SimulationTimeSeries timeSeries = new SimulationTimeSeries(seriesNames, config.N_STEPS + 1);
+
+        // Create agents and collectors, and replace all recorders by disabled ones
+        Model.createAgentsAndCollectors(config, seed);
+        Model.transactionRecorder = null;
+        Model.microDataRecorder = null;
+        Model.performanceRecorder = new PerformanceRecorder(null, false, Model.geography.getRegions().size());
+        Model.nSimulation = 1;
+        Model.init();
+
+        for (Model.t = 0; Model.t <= config.N_STEPS; Model.t += 1) {
+            Model.modelStep();
+            timeSeries.step(Model.t);
+            for (SimulationObserver observer : observers) observer.step(Model.t);
+        }
+        return timeSeries;
+    }
+}
@@ -0,0 +1,183 @@
+package utilities;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**************************************************************************************************
+ * Reader for time series files written by ColumnarTimeSeriesWriter, giving access to their schema
+ * and, chunk by chunk, to their values. When run as a program, it converts a binary time series
+ * file back into the CSV file that would have been written instead, with identical contents.
+ * Usage: java utilities.ColumnarTimeSeriesReader inputFile.bin [outputFile.csv], where the output
+ * file defaults to the input file with its extension replaced by .csv
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class ColumnarTimeSeriesReader {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    private DataInputStream     infile;
+    private String []           columnNames;
+    private byte []             columnTypes;
+    private int                 chunkLength;
+    private long [][]           chunk;          // Values (double bits for doubles) of each column in current chunk
+    private int                 nRows;          // Number of rows in the current chunk
+    private byte []             payload;
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    /**
+     * Open a binary time series file and read its header
+     */
+    public ColumnarTimeSeriesReader(String fileName) throws IOException {
+        infile = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+        if (infile.readInt() != ColumnarTimeSeriesWriter.MAGIC) {
+            infile.close();
+            throw new IOException(fileName + " is not a binary time series file");
+        }
+        int version = infile.readInt();
+        if (version != ColumnarTimeSeriesWriter.VERSION) {
+            infile.close();
+            throw new IOException("Unsupported binary time series format version " + version + " in " + fileName);
+        }
+        int nColumns = infile.readInt();
+        columnNames = new String[nColumns];
+        columnTypes = new byte[nColumns];
+        for (int j = 0; j < nColumns; j++) {
+            columnNames[j] = infile.readUTF();
+            columnTypes[j] = infile.readByte();
+        }
+        chunkLength = infile.readInt();
+        chunk = new long[nColumns][chunkLength];
+        payload = new byte[0];
+        nRows = 0;
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Convert a binary time series file into a CSV file
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: java utilities.ColumnarTimeSeriesReader inputFile.bin [outputFile.csv]");
+            System.exit(1);
+        }
+        String outputFileName;
+        if (args.length == 2) {
+            outputFileName = args[1];
+        } else if (args[0].endsWith(".bin")) {
+            outputFileName = args[0].substring(0, args[0].length() - 4) + ".csv";
+        } else {
+            outputFileName = args[0] + ".csv";
+        }
+        try {
+            convertToCsv(args[0], outputFileName);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Write all rows of a binary time series file to a CSV file, with the same format as CsvTimeSeriesWriter
+     */
+    public static void convertToCsv(String inputFileName, String outputFileName) throws IOException {
+        ColumnarTimeSeriesReader reader = new ColumnarTimeSeriesReader(inputFileName);
+        TimeSeriesWriter writer = new CsvTimeSeriesWriter(outputFileName, reader.getColumnNames());
+        while (reader.readChunk()) {
+            for (int i = 0; i < reader.getnRows(); i++) {
+                for (int j = 0; j < reader.getnColumns(); j++) {
+                    if (reader.isIntColumn(j)) {
+                        writer.add(reader.getInt(i, j));
+                    } else {
+                        writer.add(reader.getDouble(i, j));
+                    }
+                }
+                writer.endRow();
+            }
+        }
+        writer.close();
+        reader.close();
+    }
+
+    /**
+     * Read and decode the next chunk of rows
+     *
+     * @return False if the end of the file has been reached, true otherwise
+     */
+    public boolean readChunk() throws IOException {
+        try {
+            nRows = infile.readInt();
+        } catch (EOFException e) {
+            nRows = 0;
+            return false;
+        }
+        int length = infile.readInt();
+        if (payload.length < length) payload = new byte[length];
+        infile.readFully(payload, 0, length);
+        int position = 0;
+        for (int j = 0; j < columnNames.length; j++) {
+            position = decodeColumn(payload, position, nRows, columnTypes[j], chunk[j]);
+        }
+        if (position != length) throw new IOException("Corrupted chunk in binary time series file");
+        return true;
+    }
+
+    /**
+     * Read from the given array, starting at a given position, n values of a column, reversing the encoding of
+     * ColumnarTimeSeriesWriter
+     *
+     * @return Position in the array after the last byte read
+     */
+    private static int decodeColumn(byte [] in, int position, int n, byte type, long [] values) {
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            int tag = in[position++] & 0xFF;
+            int leading = tag/(ColumnarTimeSeriesWriter.VALUE_BYTES + 1);
+            int trailing = tag%(ColumnarTimeSeriesWriter.VALUE_BYTES + 1);
+            long encoded = 0;
+            for (int b = ColumnarTimeSeriesWriter.VALUE_BYTES - 1 - leading; b >= trailing; b--) {
+                encoded |= (in[position++] & 0xFFL) << (8*b);
+            }
+            if (type == ColumnarTimeSeriesWriter.INT_TYPE) {
+                previous += (encoded >>> 1) ^ -(encoded & 1);
+            } else {
+                previous ^= encoded;
+            }
+            values[i] = previous;
+        }
+        return position;
+    }
+
+    public void close() throws IOException {
+        infile.close();
+    }
+
+    //----- Getter/setter methods -----//
+
+    public String [] getColumnNames() { return columnNames; }
+
+    public int getnColumns() { return columnNames.length; }
+
+    public boolean isIntColumn(int column) { return columnTypes[column] == ColumnarTimeSeriesWriter.INT_TYPE; }
+
+    /**
+     * Number of rows in the current chunk
+     */
+    public int getnRows() { return nRows; }
+
+    public int getInt(int row, int column) { return (int)chunk[column][row]; }
+
+    public double getDouble(int row, int column) { return Double.longBitsToDouble(chunk[column][row]); }
+}
@@ -0,0 +1,206 @@
+package utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**************************************************************************************************
+ * Time series writer producing a compact binary columnar format, with the same columns and values
+ * as the CSV format, which can be converted back to it with ColumnarTimeSeriesReader. The file
+ * starts with a header with the schema, that is, the name and type (integer or double) of each
+ * column, followed by chunks of up to chunkLength rows each. Within each chunk, values are stored
+ * column by column, with each integer replaced by its difference with the previous value of the
+ * same column (zigzag-encoded, so that small negative differences are small numbers too), and
+ * each double by the XOR of its bits with those of the previous value, such that slowly varying
+ * or repeated values leave mostly zero bytes. Each encoded value is then written as a tag byte,
+ * with the number of leading (tag / 9) and trailing (tag % 9) zero bytes, followed only by the
+ * bytes in between. This lossless encoding is much cheaper than generic compression, and than
+ * formatting values as text, while still removing most of the redundancy of these time series.
+ * File layout (big-endian, as written by DataOutputStream):
+ * - Header: magic number "HMTS", format version, number of columns, then, for each column, its
+ *   name (modified UTF-8) and type (byte 'I' for integer, 'D' for double), and the chunk length
+ * - Chunks: number of rows, payload length in bytes, and payload
+ * Note that the header is only written when the first chunk is, since column types are taken from
+ * the values added to the first row. When syncing, the current chunk is written even if not full,
+ * and when appending to an existing file, the header is not written again
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class ColumnarTimeSeriesWriter implements TimeSeriesWriter {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    static final int            MAGIC = 0x484D5453; // "HMTS"
+    static final int            VERSION = 1;
+    static final byte           INT_TYPE = 'I';
+    static final byte           DOUBLE_TYPE = 'D';
+    static final int            VALUE_BYTES = 8;    // Bytes per value before removing zero bytes
+
+    private DataOutputStream    outfile;
+    private String []           columnNames;
+    private byte []             columnTypes;        // Type of each column, set while adding the first row
+    private int                 chunkLength;        // Maximum number of rows per chunk
+    private long [][]           chunk;              // Values (double bits for doubles) of each column in current chunk
+    private int                 nRows;              // Number of complete rows in the current chunk
+    private int                 column;             // Column of the next value to be added
+    private boolean             headerWritten;
+    private boolean             typesSet;           // True once the first row has been completed
+    private byte []             payload;            // Encoded chunk, re-used for every chunk
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    /**
+     * @param fileName Address of the file to write to
+     * @param columnNames Name of each column, in the order values are to be added
+     * @param chunkLength Number of rows to accumulate before compressing and writing them to file
+     */
+    public ColumnarTimeSeriesWriter(String fileName, String [] columnNames, int chunkLength) {
+        this(fileName, columnNames, chunkLength, false);
+    }
+
+    /**
+     * @param fileName Address of the file to write to
+     * @param columnNames Name of each column, in the order values are to be added
+     * @param chunkLength Number of rows to accumulate before compressing and writing them to file
+     * @param append True to append chunks to the file, which must already have a header for the same columns
+     */
+    public ColumnarTimeSeriesWriter(String fileName, String [] columnNames, int chunkLength, boolean append) {
+        this.columnNames = columnNames;
+        this.chunkLength = chunkLength;
+        columnTypes = new byte[columnNames.length];
+        chunk = new long[columnNames.length][chunkLength];
+        payload = new byte[columnNames.length*chunkLength*(VALUE_BYTES + 1)];
+        nRows = 0;
+        column = 0;
+        headerWritten = append;
+        typesSet = false;
+        try {
+            outfile = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName, append), 1 << 16));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    @Override
+    public void add(int value) { addValue(value, INT_TYPE); }
+
+    @Override
+    public void add(double value) { addValue(Double.doubleToRawLongBits(value), DOUBLE_TYPE); }
+
+    private void addValue(long value, byte type) {
+        if (column >= columnNames.length) {
+            System.out.println("Strange: more values added to a row than columns in time series schema");
+            return;
+        }
+        if (!typesSet) {
+            columnTypes[column] = type;
+        } else if (columnTypes[column] != type) {
+            System.out.println("Strange: value of wrong type added to column " + columnNames[column]
+                    + " of binary time series");
+        }
+        chunk[column++][nRows] = value;
+    }
+
+    @Override
+    public void endRow() {
+        if (column != columnNames.length) {
+            System.out.println("Strange: " + column + " values added to a row of a time series with "
+                    + columnNames.length + " columns");
+        }
+        column = 0;
+        typesSet = true;
+        nRows++;
+        if (nRows == chunkLength) writeChunk();
+    }
+
+    @Override
+    public void sync() {
+        writeChunk();
+        try {
+            outfile.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        writeChunk();
+        try {
+            outfile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        outfile.writeInt(MAGIC);
+        outfile.writeInt(VERSION);
+        outfile.writeInt(columnNames.length);
+        for (int i = 0; i < columnNames.length; i++) {
+            outfile.writeUTF(columnNames[i]);
+            outfile.writeByte(columnTypes[i]);
+        }
+        outfile.writeInt(chunkLength);
+        headerWritten = true;
+    }
+
+    /**
+     * Encode and write to file all complete rows in the current chunk, writing first the header if needed
+     */
+    private void writeChunk() {
+        if (nRows == 0 && headerWritten) return;
+        try {
+            if (!headerWritten) writeHeader();
+            if (nRows == 0) return;
+            int length = 0;
+            for (int j = 0; j < columnNames.length; j++) {
+                length = encodeColumn(chunk[j], nRows, columnTypes[j], payload, length);
+            }
+            outfile.writeInt(nRows);
+            outfile.writeInt(length);
+            outfile.write(payload, 0, length);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        nRows = 0;
+    }
+
+    /**
+     * Write to the given array, starting at a given position, the first n values of a column, with each value replaced
+     * by its zigzag-encoded difference (integers) or bitwise XOR (doubles) with the previous one, and then written
+     * without its leading and trailing zero bytes
+     *
+     * @return Position in the array after the last byte written
+     */
+    private static int encodeColumn(long [] values, int n, byte type, byte [] out, int position) {
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            long encoded;
+            if (type == INT_TYPE) {
+                long difference = values[i] - previous;
+                encoded = (difference << 1) ^ (difference >> 63);
+            } else {
+                encoded = values[i] ^ previous;
+            }
+            previous = values[i];
+            int leading = (encoded == 0) ? VALUE_BYTES : Long.numberOfLeadingZeros(encoded)/8;
+            int trailing = (encoded == 0) ? 0 : Long.numberOfTrailingZeros(encoded)/8;
+            out[position++] = (byte)(leading*(VALUE_BYTES + 1) + trailing);
+            for (int b = VALUE_BYTES - 1 - leading; b >= trailing; b--) {
+                out[position++] = (byte)(encoded >>> (8*b));
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,90 @@
+package utilities;
+
+import java.io.IOException;
+
+/**************************************************************************************************
+ * Time series writer producing comma-separated values, with a first row of column names, values
+ * separated by ", " and each value written as it would be by string concatenation
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class CsvTimeSeriesWriter implements TimeSeriesWriter {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    private TextOutputFile  outfile;
+    private StringBuilder   row;        // Current row, re-used for every row
+    private boolean         firstValue; // True if no value has been added yet to the current row
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    public CsvTimeSeriesWriter(String fileName, String [] columnNames) { this(fileName, columnNames, false); }
+
+    /**
+     * @param fileName Address of the file to write to, to which .gz is appended if compressed
+     * @param columnNames Name of each column, in the order values are to be added
+     * @param compress True to gzip-compress the file
+     */
+    public CsvTimeSeriesWriter(String fileName, String [] columnNames, boolean compress) {
+        this(fileName, columnNames, compress, false);
+    }
+
+    /**
+     * @param fileName Address of the file to write to, to which .gz is appended if compressed
+     * @param columnNames Name of each column, in the order values are to be added
+     * @param compress True to gzip-compress the file
+     * @param append True to append rows to the file, without writing again the column names
+     */
+    public CsvTimeSeriesWriter(String fileName, String [] columnNames, boolean compress, boolean append) {
+        row = new StringBuilder();
+        firstValue = true;
+        try {
+            outfile = TextOutputFile.open(fileName, compress, append);
+            if (!append) outfile.println(String.join(", ", columnNames));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    @Override
+    public void add(int value) {
+        if (!firstValue) row.append(", ");
+        row.append(value);
+        firstValue = false;
+    }
+
+    @Override
+    public void add(double value) {
+        if (!firstValue) row.append(", ");
+        row.append(value);
+        firstValue = false;
+    }
+
+    @Override
+    public void endRow() {
+        outfile.println(row);
+        row.setLength(0);
+        firstValue = true;
+    }
+
+    @Override
+    public void sync() {
+        try {
+            outfile.sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() { outfile.close(); }
+}
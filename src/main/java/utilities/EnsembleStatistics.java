@@ -0,0 +1,206 @@
+package utilities;
+
+import java.util.Arrays;
+
+/**************************************************************************************************
+ * Online statistics across the runs of an ensemble of an indicator recorded at each time step,
+ * that is, for each time step, the mean and variance (Welford's algorithm) and a set of quantiles
+ * of the values added from all runs so far. Since the number of time steps times the number of
+ * indicators can be large, quantiles are estimated with the P-square algorithm (Jain and Chlamtac,
+ * 1985), which keeps only five markers per quantile and time step, with the middle one tracking
+ * the quantile, instead of any of the values added. Until five values have been added for a time
+ * step, the markers hold these values and quantiles are exact. All state is held in flat
+ * primitive arrays, indexed by time step, quantile and marker. Non-finite values (NaN or infinite,
+ * for instance ratios with an empty denominator) are not added to the statistics, which they would
+ * otherwise corrupt for all later runs, but only counted separately
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class EnsembleStatistics {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    private static final int    N_MARKERS = 5;
+
+    private double []           probabilities;  // Cumulative probabilities of the quantiles to estimate
+    private int []              n;              // Number of values added for each time step
+    private int []              nNonFinite;     // Number of non-finite values left out for each time step
+    private double []           mean;           // Mean of the values added for each time step
+    private double []           m2;             // Sum of squared deviations from the mean for each time step
+    private double []           heights;        // Height of each marker of each quantile of each time step
+    private int []              positions;      // Position (1-based rank) of each marker of each quantile and time step
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    /**
+     * @param nTimeSteps Number of time steps
+     * @param probabilities Cumulative probabilities, in (0,1), of the quantiles to estimate
+     */
+    public EnsembleStatistics(int nTimeSteps, double [] probabilities) {
+        this.probabilities = probabilities.clone();
+        n = new int[nTimeSteps];
+        nNonFinite = new int[nTimeSteps];
+        mean = new double[nTimeSteps];
+        m2 = new double[nTimeSteps];
+        heights = new double[nTimeSteps*probabilities.length*N_MARKERS];
+        positions = new int[nTimeSteps*probabilities.length*N_MARKERS];
+    }
+
+    /**
+     * Restore statistics from a state buffer, as written by writeState
+     */
+    public EnsembleStatistics(StateBuffer state) {
+        probabilities = state.getDoubles();
+        n = state.getInts();
+        nNonFinite = state.getInts();
+        mean = state.getDoubles();
+        m2 = state.getDoubles();
+        heights = state.getDoubles();
+        positions = state.getInts();
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Add the value of a new run at a given time step, or only count it if not finite
+     */
+    public void add(int time, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            nNonFinite[time]++;
+            return;
+        }
+        n[time]++;
+        double delta = value - mean[time];
+        mean[time] += delta/n[time];
+        m2[time] += delta*(value - mean[time]);
+        for (int j = 0; j < probabilities.length; j++) {
+            updateQuantile((time*probabilities.length + j)*N_MARKERS, probabilities[j], n[time], value);
+        }
+    }
+
+    /**
+     * Update, with a new value, the markers of a quantile starting at a given offset of the heights and positions
+     * arrays, count being the number of values including the new one
+     */
+    private void updateQuantile(int offset, double p, int count, double value) {
+        // For the first values, just store them in order
+        if (count <= N_MARKERS) {
+            int i = offset + count - 1;
+            while (i > offset && heights[i - 1] > value) {
+                heights[i] = heights[i - 1];
+                i--;
+            }
+            heights[i] = value;
+            for (int m = 0; m < N_MARKERS; m++) positions[offset + m] = m + 1;
+            return;
+        }
+        // Find the cell the new value falls in, adjusting the extreme markers if needed
+        int k;
+        if (value < heights[offset]) {
+            heights[offset] = value;
+            k = 0;
+        } else if (value >= heights[offset + N_MARKERS - 1]) {
+            heights[offset + N_MARKERS - 1] = value;
+            k = N_MARKERS - 2;
+        } else {
+            k = 0;
+            while (value >= heights[offset + k + 1]) k++;
+        }
+        for (int m = k + 1; m < N_MARKERS; m++) positions[offset + m]++;
+        // Adjust the heights of the middle markers if they are off their desired positions
+        for (int m = 1; m < N_MARKERS - 1; m++) {
+            int i = offset + m;
+            double d = 1.0 + (count - 1)*desiredIncrement(m, p) - positions[i];
+            if ((d >= 1.0 && positions[i + 1] - positions[i] > 1)
+                    || (d <= -1.0 && positions[i - 1] - positions[i] < -1)) {
+                int s = (d > 0) ? 1 : -1;
+                double q = parabolicHeight(i, s);
+                if (heights[i - 1] < q && q < heights[i + 1]) {
+                    heights[i] = q;
+                } else {
+                    heights[i] += s*(heights[i + s] - heights[i])/(positions[i + s] - positions[i]);
+                }
+                positions[i] += s;
+            }
+        }
+    }
+
+    /**
+     * Increment of the desired position of marker m per value added, for a quantile of cumulative probability p
+     */
+    private static double desiredIncrement(int m, double p) {
+        switch (m) {
+            case 0: return 0.0;
+            case 1: return p/2.0;
+            case 2: return p;
+            case 3: return (1.0 + p)/2.0;
+            default: return 1.0;
+        }
+    }
+
+    /**
+     * Piecewise-parabolic prediction of the height of marker i when moved by s positions
+     */
+    private double parabolicHeight(int i, int s) {
+        double nBelow = positions[i] - positions[i - 1];
+        double nAbove = positions[i + 1] - positions[i];
+        return heights[i] + s/(double)(positions[i + 1] - positions[i - 1])
+                *((nBelow + s)*(heights[i + 1] - heights[i])/nAbove
+                + (nAbove - s)*(heights[i] - heights[i - 1])/nBelow);
+    }
+
+    /**
+     * Estimate of the j-th quantile at a given time step, or NaN if no value has been added for that time step
+     */
+    public double getQuantile(int time, int j) {
+        int count = n[time];
+        int offset = (time*probabilities.length + j)*N_MARKERS;
+        if (count == 0) return Double.NaN;
+        if (count > N_MARKERS) return heights[offset + 2];
+        // With few values, take the exact quantile, interpolating between the sorted values
+        double [] values = Arrays.copyOfRange(heights, offset, offset + count);
+        double rank = probabilities[j]*(count - 1);
+        int below = (int)Math.floor(rank);
+        if (below == count - 1) return values[below];
+        return values[below] + (rank - below)*(values[below + 1] - values[below]);
+    }
+
+    /**
+     * Copy all statistics into a state buffer
+     */
+    public void writeState(StateBuffer state) {
+        state.putDoubles(probabilities);
+        state.putInts(n);
+        state.putInts(nNonFinite);
+        state.putDoubles(mean);
+        state.putDoubles(m2);
+        state.putDoubles(heights);
+        state.putInts(positions);
+    }
+
+    //----- Getter/setter methods -----//
+
+    public int getnTimeSteps() { return n.length; }
+
+    public int getN(int time) { return n[time]; }
+
+    public int getnNonFinite(int time) { return nNonFinite[time]; }
+
+    public double getMean(int time) { return (n[time] > 0) ? mean[time] : Double.NaN; }
+
+    /**
+     * Sample standard deviation across runs, or NaN if fewer than two values have been added for the time step
+     */
+    public double getStandardDeviation(int time) {
+        return (n[time] > 1) ? Math.sqrt(m2[time]/(n[time] - 1)) : Double.NaN;
+    }
+
+    public double [] getProbabilities() { return probabilities.clone(); }
+}
@@ -7,6 +7,18 @@ import org.apache.commons.math3.random.MersenneTwister;
  * Supply a DoubleUnaryOperator class that returns the probability density for
  * a given value.
  *
+ * Internally, the PDF is always held as a histogram of equal-width bins: either
+ * the histogram it was read from or, for PDFs given as a function, a midpoint
+ * discretisation of that function over integrationSteps bins (DEFAULT_INTEGRATION_STEPS unless
+ * given). This allows for
+ * an exact (with respect to the histogram) inverse CDF, found by binary search
+ * over the cumulative probability at the bin edges, and for O(1) sampling by
+ * means of Vose's alias method. For speed, inverseCumulativeProbability uses a
+ * table of nSamples equi-spaced points on this exact inverse CDF, interpolating
+ * linearly between them, so that nSamples sets the trade-off between accuracy
+ * and memory (see PdfBenchmark). Use exactInverseCumulativeProbability where
+ * exact values are needed.
+ *
  * @author daniel
  *
  */
@@ -45,26 +57,34 @@ public class Pdf {
 	 * @param ipdf functional class whose apply function returns the probability density at that point
 	 * @param istart the value below which probability is assumed to be zero
 	 * @param iend   the value above which probability is assumed to be zero
-	 * @param NSamples the number of samples of the PDF to take in order to build the CDF
+	 * @param NSamples the number of samples of the inverse CDF to tabulate
 	 */
 	public Pdf(double istart, double iend, DoubleUnaryOperator ipdf, int NSamples) {
+		this(istart, iend, ipdf, NSamples, DEFAULT_INTEGRATION_STEPS);
+	}
+
+	/**
+	 * @param ipdf functional class whose apply function returns the probability density at that point
+	 * @param istart the value below which probability is assumed to be zero
+	 * @param iend   the value above which probability is assumed to be zero
+	 * @param NSamples the number of samples of the inverse CDF to tabulate
+	 * @param integrationSteps the number of bins over which to discretise the density
+	 */
+	public Pdf(double istart, double iend, DoubleUnaryOperator ipdf, int NSamples, int integrationSteps) {
 		pdf = ipdf;
 		start = istart;
 		end = iend;
 		nSamples = NSamples;
-		initInverseCDF();
+		// Discretise the density at the midpoint of each of integrationSteps bins
+		double [] binProbabilities = new double[integrationSteps];
+		dx = (end-start)/integrationSteps;
+		for(int i=0; i<integrationSteps; ++i) {
+			binProbabilities[i] = density(start + (i+0.5)*dx)*dx;
+		}
+		initHistogram(binProbabilities);
 	}
 
-	public void setPdf(final BinnedDataDouble data) {
-		pdf = new DoubleUnaryOperator() {
-			public double applyAsDouble(double operand) {
-				return data.getBinAt(operand)/data.getBinWidth();
-			}};
-		start = data.getSupportLowerBound();
-		end = data.getSupportUpperBound();
-		nSamples = DEFAULT_CDF_SAMPLES;
-		initInverseCDF();
-	}
+	public void setPdf(final BinnedDataDouble data) { setPdf(data, DEFAULT_CDF_SAMPLES); }
 
 	public void setPdf(final BinnedDataDouble data, int NSamples) {
 		pdf = new DoubleUnaryOperator() {
@@ -74,13 +94,21 @@ public class Pdf {
 		start = data.getSupportLowerBound();
 		end = data.getSupportUpperBound();
 		nSamples = NSamples;
-		initInverseCDF();
+		// The data already holds the probability of each bin
+		double [] binProbabilities = new double[data.size()];
+		for(int i=0; i<data.size(); ++i) {
+			binProbabilities[i] = data.get(i);
+		}
+		dx = data.getBinWidth();
+		initHistogram(binProbabilities);
 	}
 
 	public double getSupportLowerBound() { return start; }
 
 	public double getSupportUpperBound() { return end; }
 
+	public double getUpperLimit() { return upperLimit; }
+
 	/***
 	 * Get probability density P(x)
 	 * @param x
@@ -91,6 +119,10 @@ public class Pdf {
 		return(pdf.applyAsDouble(x));
 	}
 
+	/***
+	 * Inverse CDF, interpolated linearly between nSamples equi-spaced points of the exact inverse CDF
+	 * @param p cumulative probability, in [0,1)
+	 */
 	public double inverseCumulativeProbability(double p) {
 		if(p < 0.0 || p>=1.0) throw(new IllegalArgumentException("p must be in the interval [0,1)"));
 		int i = (int)(p*(nSamples-1));
@@ -98,61 +130,125 @@ public class Pdf {
 		return((1.0-remainder)*inverseCDF[i] + remainder*inverseCDF[i+1]);
 	}
 
-
 	/***
-	 * integrates "pdf" over "INTEGRATION_STEPS" steps, starting at
-	 * start + dx/2 and going up to end - dx/2, recording the values
-	 * of x at which the cumulative probability hits quantiles.
+	 * Exact inverse CDF of the histogram: binary search for the bin containing the cumulative probability p, then
+	 * linear interpolation within that bin, where the density is uniform
+	 * @param p cumulative probability, in [0,1)
 	 */
-	private void initInverseCDF() {
-		double cp;		// cumulative proability
-		double targetcp;// target cumulative probability
-		double x;		// x in P(x)
-		int INTEGRATION_STEPS = 2048;
-		double dcp_dx;
-		int i;
+	public double exactInverseCumulativeProbability(double p) {
+		if(p < 0.0 || p>=1.0) throw(new IllegalArgumentException("p must be in the interval [0,1)"));
+		// Find the last bin edge i with cumulativeProbability[i] <= p, which is always followed by a non-empty bin
+		int low = 0;
+		int high = cumulativeProbability.length - 2;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if(cumulativeProbability[mid] <= p) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return(start + (low + (p - cumulativeProbability[low])
+				/(cumulativeProbability[low+1] - cumulativeProbability[low]))*dx);
+	}
 
+	/***
+	 * Builds, from the probability of each bin, the normalised cumulative probability at each bin edge, the alias
+	 * table for sampling and the tabulated inverse CDF
+	 */
+	private void initHistogram(double [] binProbabilities) {
+		int nBins = binProbabilities.length;
+		double total = 0.0;
+		for(double prob : binProbabilities) total += prob;
+		cumulativeProbability = new double[nBins+1];
+		for(int i=0; i<nBins; ++i) {
+			cumulativeProbability[i+1] = cumulativeProbability[i] + binProbabilities[i]/total;
+		}
+		cumulativeProbability[nBins] = 1.0;
+		initAliasTable(binProbabilities, total);
 		inverseCDF = new double[nSamples];
-		dx = (end-start)/INTEGRATION_STEPS;
-		x = start + dx/2.0;
-		cp = 0.0;
-		dcp_dx = 0.0;
-		inverseCDF[0] = start;
-		inverseCDF[nSamples-1] = end;
-		for(i=1; i<(nSamples-1); ++i) {
-			targetcp = i/(nSamples-1.0);
-			while(cp < targetcp && x < end) {
-				dcp_dx = density(x);
-				cp += dcp_dx*dx;
-				x += dx;
+		for(int i=0; i<(nSamples-1); ++i) {
+			inverseCDF[i] = exactInverseCumulativeProbability(i/(nSamples-1.0));
+		}
+		// The last point is the upper edge of the last non-empty bin, the limit of the inverse CDF as p tends to 1
+		int lastBin = nBins-1;
+		while(lastBin > 0 && binProbabilities[lastBin] <= 0.0) --lastBin;
+		upperLimit = start + (lastBin+1)*dx;
+		inverseCDF[nSamples-1] = upperLimit;
+	}
+
+	/***
+	 * Vose's alias method: each bin i is given a probability aliasThreshold[i] of being kept when picked uniformly,
+	 * being replaced by bin alias[i] otherwise, such that the resulting probability of each bin is the histogram one
+	 */
+	private void initAliasTable(double [] binProbabilities, double total) {
+		int nBins = binProbabilities.length;
+		aliasThreshold = new double[nBins];
+		alias = new int[nBins];
+		double [] scaled = new double[nBins];
+		int [] small = new int[nBins];
+		int [] large = new int[nBins];
+		int nSmall = 0;
+		int nLarge = 0;
+		for(int i=0; i<nBins; ++i) {
+			scaled[i] = binProbabilities[i]*nBins/total;
+			if(scaled[i] < 1.0) {
+				small[nSmall++] = i;
+			} else {
+				large[nLarge++] = i;
 			}
-			if(x < end) {
-				x += (targetcp - cp)/dcp_dx;
-				cp = targetcp;
+		}
+		while(nSmall > 0 && nLarge > 0) {
+			int s = small[--nSmall];
+			int l = large[--nLarge];
+			aliasThreshold[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+			if(scaled[l] < 1.0) {
+				small[nSmall++] = l;
 			} else {
-				x = end;
+				large[nLarge++] = l;
 			}
-			inverseCDF[i] = x;
+		}
+		// Remaining bins (only differing from 1 by rounding errors) are always kept
+		while(nLarge > 0) {
+			int l = large[--nLarge];
+			aliasThreshold[l] = 1.0;
+			alias[l] = l;
+		}
+		while(nSmall > 0) {
+			int s = small[--nSmall];
+			aliasThreshold[s] = 1.0;
+			alias[s] = s;
 		}
 	}
 
 	/***
-	 * Sample from the PDF
+	 * Sample from the PDF by means of the alias method, using a single uniform random number both to choose the bin
+	 * and the position within the bin
 	 * @return A random sample from the PDF
 	 */
 	public double nextDouble(MersenneTwister rand) {
-		return(inverseCumulativeProbability(rand.nextDouble()));
-//		double uniform = rand.nextDouble(); // uniform random sample on [0:1)
-//		int i = (int)(uniform*(nSamples-1));
-//		double remainder = uniform*(nSamples-1.0) - i;
-//		return((1.0-remainder)*inverseCDF[i] + remainder*inverseCDF[i+1]);
+		double uniform = rand.nextDouble()*aliasThreshold.length; // uniform random sample on [0:nBins)
+		int bin = (int)uniform;
+		double remainder = uniform - bin;
+		if(remainder < aliasThreshold[bin]) {
+			return(start + (bin + remainder/aliasThreshold[bin])*dx);
+		} else {
+			return(start + (alias[bin] + (remainder - aliasThreshold[bin])/(1.0 - aliasThreshold[bin]))*dx);
+		}
 	}
 
 	DoubleUnaryOperator				pdf;				// function that gives the pdf
 	public double					start;				// lowest value of x that has a non-zero probability
 	public double					end;				// highest value of x that has a non-zero probability
 	double []						inverseCDF;			// pre-computed equi-spaced points on the inverse CDF including 0 and 1
-	double 							dx;					// dx between samples
+	double []						cumulativeProbability;	// cumulative probability at each histogram bin edge
+	double []						aliasThreshold;		// probability of keeping each bin in the alias method
+	int []							alias;				// bin to use instead of each bin in the alias method
+	double							upperLimit;			// upper edge of the last non-empty bin, limit of the inverse CDF at 1
+	double 							dx;					// histogram bin width
 	int								nSamples;			// number of sample	points on the CDF
 	static final int				DEFAULT_CDF_SAMPLES = 100;
+	static final int				DEFAULT_INTEGRATION_STEPS = 2048;	// default number of bins to discretise function PDFs
 }
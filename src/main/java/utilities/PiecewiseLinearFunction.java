@@ -0,0 +1,107 @@
+package utilities;
+
+import java.util.Arrays;
+
+/**************************************************************************************************
+ * Class to represent a continuous, piecewise-linear function by means of primitive arrays of
+ * breakpoints, slopes and intercepts, such that its value at any point can be found with a single
+ * binary search plus a single multiply-add operation. Between breakpoint i and breakpoint i+1 (and
+ * above the last breakpoint for the last segment) the function is intercepts[i] + slopes[i]*x,
+ * while below the first breakpoint it is constant and equal to its value at that breakpoint
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class PiecewiseLinearFunction {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    private double []   breakpoints;    // Sorted lower limits of each linear segment
+    private double []   slopes;         // Slope of each linear segment
+    private double []   intercepts;     // Value at x = 0 of the straight line containing each linear segment
+    private double      lowerValue;     // Value of the function below the first breakpoint
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    public PiecewiseLinearFunction(double [] breakpoints, double [] slopes, double [] intercepts) {
+        this.breakpoints = breakpoints;
+        this.slopes = slopes;
+        this.intercepts = intercepts;
+        lowerValue = intercepts[0] + slopes[0]*breakpoints[0];
+    }
+
+    /**
+     * Tabulates a function which is known to be piecewise-linear, with all its kinks among a given set of candidate
+     * breakpoints, and constant below the lowest of these candidates. Candidates can be given in any order, may contain
+     * duplicates and may include points which are not actual kinks of the function, since all the function is evaluated
+     * at is the candidate breakpoints themselves
+     *
+     * @param candidateBreakpoints Points containing, at least, all the kinks of the function
+     * @param function Function to tabulate, to be evaluated only at the breakpoints and just above the last one
+     * @return PiecewiseLinearFunction reproducing the given function up to rounding errors
+     */
+    public static PiecewiseLinearFunction tabulate(double [] candidateBreakpoints, DoubleUnaryOperator function) {
+        // Sort candidate breakpoints and remove any duplicates
+        double [] sortedCandidates = candidateBreakpoints.clone();
+        Arrays.sort(sortedCandidates);
+        int n = 0;
+        for (double x : sortedCandidates) {
+            if (n == 0 || x > sortedCandidates[n - 1]) sortedCandidates[n++] = x;
+        }
+        double [] breakpoints = Arrays.copyOf(sortedCandidates, n);
+        // Find the value of the function at each breakpoint...
+        double [] values = new double[n];
+        for (int i = 0; i < n; i++) values[i] = function.applyAsDouble(breakpoints[i]);
+        // ...and derive from them the slope and intercept of each segment, using a unit step for the last (open) one
+        double [] slopes = new double[n];
+        double [] intercepts = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (i < n - 1) {
+                slopes[i] = (values[i + 1] - values[i])/(breakpoints[i + 1] - breakpoints[i]);
+            } else {
+                slopes[i] = function.applyAsDouble(breakpoints[i] + 1.0) - values[i];
+            }
+            intercepts[i] = values[i] - slopes[i]*breakpoints[i];
+        }
+        return new PiecewiseLinearFunction(breakpoints, slopes, intercepts);
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Evaluate the function at a given point
+     */
+    public double value(double x) {
+        if (x < breakpoints[0]) return lowerValue;
+        int i = findSegment(x);
+        return intercepts[i] + slopes[i]*x;
+    }
+
+    /**
+     * Binary search for the index of the last breakpoint which is lower than or equal to x, assuming x is not below the
+     * first breakpoint
+     */
+    private int findSegment(double x) {
+        int low = 0;
+        int high = breakpoints.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (breakpoints[mid] <= x) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    //----- Getter/setter methods -----//
+
+    public int getNSegments() { return breakpoints.length; }
+}
@@ -1,7 +1,9 @@
 package utilities;
 
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.TreeSet;
 
 /**************************************************************************************************
@@ -217,6 +219,17 @@ public class PriorityQueue2D<E> implements Iterable<E> {
 		}
 	}
 
+	/**
+	 * Uncovered elements, in ascending X order, as last found by sortPriorities and updated by any removal since then
+	 */
+	public Set<E> getUncoveredElements() { return Collections.unmodifiableSet(uncoveredElements); }
+
+	/**
+	 * Mark an element, which must have already been added, as uncovered, without checking whether it actually is, so
+	 * as to restore the uncovered elements of a saved queue as they were, even if not sorted since the last changes
+	 */
+	public void addUncovered(E element) { uncoveredElements.add(element); }
+
 	public int size() { return xySortedElements.size(); }
 
 	public void clear() {
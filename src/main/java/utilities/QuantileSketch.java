@@ -0,0 +1,247 @@
+package utilities;
+
+import java.util.Arrays;
+
+/**************************************************************************************************
+ * Mergeable streaming quantile sketch, following the KLL design (Karnin, Lang and Liberty, 2016).
+ * Values are kept in a hierarchy of compactors, where each value stored at level h stands for 2^h
+ * of the original values. Whenever a level fills up, it is sorted and every other value is
+ * promoted to the level above, so that memory stays bounded (of order k) regardless of the number
+ * of values added, with a rank error of order 1/k. Two sketches can be merged by simply appending
+ * their levels and compacting, which allows for regional sketches to be combined into a national
+ * one at a cost proportional to their size. Note that, in order not to interfere with the model's
+ * random number generator, the value kept out of each pair at compaction alternates
+ * deterministically between the lower and the higher one
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class QuantileSketch {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    public static final int     DEFAULT_K = 200;        // Default capacity of the top level, setting the accuracy
+    private static final int    MIN_CAPACITY = 8;       // Minimum capacity of any level
+    private static final double CAPACITY_DECAY = 2.0/3.0; // Ratio between capacities of consecutive levels
+
+    private int                 k;                      // Capacity of the top level
+    private double [][]         levels;                 // Values stored at each level, only the first levelSizes[h] used
+    private int []              levelSizes;             // Number of values stored at each level
+    private int []              capacities;             // Capacity of each level, given the current number of levels
+    private boolean []          keepOdd;                // Whether the next compaction of each level keeps odd positions
+    private int                 nLevels;                // Number of levels currently in use
+    private long                n;                      // Number of values represented by the sketch
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    public QuantileSketch() { this(DEFAULT_K); }
+
+    public QuantileSketch(int k) {
+        this.k = k;
+        levels = new double[1][];
+        levelSizes = new int[1];
+        keepOdd = new boolean[1];
+        nLevels = 1;
+        setCapacities();
+        levels[0] = new double[capacities[0]];
+        n = 0;
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Remove all values from the sketch, keeping its allocated memory for reuse
+     */
+    public void clear() {
+        Arrays.fill(levelSizes, 0);
+        n = 0;
+    }
+
+    /**
+     * Add a single value to the sketch
+     */
+    public void update(double value) {
+        if (levelSizes[0] >= capacities[0]) compress();
+        ensureSpace(0, 1);
+        levels[0][levelSizes[0]++] = value;
+        n++;
+    }
+
+    /**
+     * Add to this sketch all values represented by another sketch, which is left unchanged
+     */
+    public void merge(QuantileSketch other) {
+        while (nLevels < other.nLevels) addLevel();
+        for (int h = 0; h < other.nLevels; h++) {
+            ensureSpace(h, other.levelSizes[h]);
+            System.arraycopy(other.levels[h], 0, levels[h], levelSizes[h], other.levelSizes[h]);
+            levelSizes[h] += other.levelSizes[h];
+        }
+        n += other.n;
+        compress();
+    }
+
+    /**
+     * Approximate quantiles of the values added to the sketch, all computed from a single sorted view of the sketch
+     *
+     * @param probabilities Cumulative probabilities, in [0,1], for which to find the quantiles
+     * @return Approximate quantile for each probability, or zero for all probabilities if the sketch is empty
+     */
+    public double [] getQuantiles(double [] probabilities) {
+        double [] quantiles = new double[probabilities.length];
+        if (n == 0) return quantiles;
+        // Build a sorted view of all stored values together with the weight each of them represents
+        int size = 0;
+        for (int h = 0; h < nLevels; h++) size += levelSizes[h];
+        double [] values = new double[size];
+        long [] weights = new long[size];
+        double [] mergedValues = new double[size];
+        long [] mergedWeights = new long[size];
+        int nSorted = 0;
+        for (int h = 0; h < nLevels; h++) {
+            if (levelSizes[h] == 0) continue;
+            Arrays.sort(levels[h], 0, levelSizes[h]);
+            // Merge the sorted values of this level with those already sorted
+            int i = 0;
+            int j = 0;
+            int m = 0;
+            while (i < nSorted || j < levelSizes[h]) {
+                if (j == levelSizes[h] || (i < nSorted && values[i] <= levels[h][j])) {
+                    mergedValues[m] = values[i];
+                    mergedWeights[m++] = weights[i++];
+                } else {
+                    mergedValues[m] = levels[h][j++];
+                    mergedWeights[m++] = 1L << h;
+                }
+            }
+            nSorted = m;
+            double [] tempValues = values;
+            values = mergedValues;
+            mergedValues = tempValues;
+            long [] tempWeights = weights;
+            weights = mergedWeights;
+            mergedWeights = tempWeights;
+        }
+        // Find, for each probability, the first value whose cumulative weight exceeds the target rank
+        long totalWeight = 0;
+        for (int i = 0; i < nSorted; i++) totalWeight += weights[i];
+        for (int p = 0; p < probabilities.length; p++) {
+            double targetRank = probabilities[p]*totalWeight;
+            long cumulativeWeight = 0;
+            int i = 0;
+            while (i < nSorted - 1 && cumulativeWeight + weights[i] <= targetRank) {
+                cumulativeWeight += weights[i];
+                i++;
+            }
+            quantiles[p] = values[i];
+        }
+        return quantiles;
+    }
+
+    /**
+     * Approximate quantile of the values added to the sketch
+     *
+     * @param probability Cumulative probability, in [0,1]
+     * @return Approximate quantile, or zero if the sketch is empty
+     */
+    public double getQuantile(double probability) { return getQuantiles(new double[] {probability})[0]; }
+
+    /**
+     * Compact, from the bottom up, every level which has reached its capacity
+     */
+    private void compress() {
+        for (int h = 0; h < nLevels; h++) {
+            if (levelSizes[h] >= capacities[h]) {
+                if (h == nLevels - 1) addLevel();
+                compact(h);
+            }
+        }
+    }
+
+    /**
+     * Sort level h and promote every other value to level h + 1, leaving behind the last value if their number is odd
+     */
+    private void compact(int h) {
+        int size = levelSizes[h];
+        int nPairs = size/2;
+        Arrays.sort(levels[h], 0, size);
+        ensureSpace(h + 1, nPairs);
+        int offset = keepOdd[h] ? 1 : 0;
+        for (int i = 0; i < nPairs; i++) {
+            levels[h + 1][levelSizes[h + 1]++] = levels[h][2*i + offset];
+        }
+        keepOdd[h] = !keepOdd[h];
+        if (size % 2 == 1) {
+            levels[h][0] = levels[h][size - 1];
+            levelSizes[h] = 1;
+        } else {
+            levelSizes[h] = 0;
+        }
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, nLevels + 1);
+        levelSizes = Arrays.copyOf(levelSizes, nLevels + 1);
+        keepOdd = Arrays.copyOf(keepOdd, nLevels + 1);
+        nLevels++;
+        setCapacities();
+        levels[nLevels - 1] = new double[capacities[nLevels - 1]];
+    }
+
+    private void ensureSpace(int h, int extraValues) {
+        if (levelSizes[h] + extraValues > levels[h].length) {
+            levels[h] = Arrays.copyOf(levels[h], Math.max(2*levels[h].length, levelSizes[h] + extraValues));
+        }
+    }
+
+    /**
+     * Set the capacity of each level, decreasing geometrically from k at the top level
+     */
+    private void setCapacities() {
+        capacities = new int[nLevels];
+        for (int h = 0; h < nLevels; h++) {
+            capacities[h] = Math.max(MIN_CAPACITY, (int)Math.ceil(k*Math.pow(CAPACITY_DECAY, nLevels - 1 - h)));
+        }
+    }
+
+    /**
+     * Copy all levels of the sketch, including any unused space in them, into a state buffer
+     */
+    public void writeState(StateBuffer state) {
+        state.putInt(k);
+        state.putInt(levels.length);
+        for (double [] level : levels) state.putDoubles(level);
+        state.putInts(levelSizes);
+        state.putInts(capacities);
+        state.putBooleans(keepOdd);
+        state.putInt(nLevels);
+        state.putLong(n);
+    }
+
+    /**
+     * Replace the contents of this sketch by those read from a state buffer, in the order written by writeState
+     */
+    public void readState(StateBuffer state) {
+        k = state.getInt();
+        levels = new double[state.getInt()][];
+        for (int h = 0; h < levels.length; h++) levels[h] = state.getDoubles();
+        levelSizes = state.getInts();
+        capacities = state.getInts();
+        keepOdd = state.getBooleans();
+        nLevels = state.getInt();
+        n = state.getLong();
+    }
+
+    //----- Getter/setter methods -----//
+
+    /**
+     * Number of values represented by the sketch
+     */
+    public long getN() { return n; }
+}
@@ -0,0 +1,116 @@
+package utilities;
+
+/**************************************************************************************************
+ * Fixed-length rolling window of primitive doubles, such as a record of the most recent values of
+ * an indicator, where each new value overwrites the oldest one. Apart from the values themselves,
+ * the buffer keeps the sum of each block of blockLength consecutive values ending at each
+ * position (e.g., quarter sums for a monthly record with blockLength 3), computed as each value is
+ * added, so that both individual values and block sums at any lag can be read in O(1)
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class RingBuffer {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    private double []   values;         // Values stored, with the most recent one at position head
+    private double []   blockSums;      // Sum of the blockLength values ending at each position (most recent first)
+    private int         blockLength;    // Number of consecutive values added up in each block sum
+    private int         head;           // Position of the most recent value
+    private int         size;           // Number of values added so far, up to the length of the buffer
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    /**
+     * @param length Number of values to keep
+     * @param blockLength Number of consecutive values to add up in each block sum
+     */
+    public RingBuffer(int length, int blockLength) {
+        values = new double[length];
+        blockSums = new double[length];
+        this.blockLength = blockLength;
+        head = length - 1;
+        size = 0;
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Add a new value, overwriting the oldest one if the buffer is full
+     */
+    public void add(double value) {
+        head = (head + 1) % values.length;
+        values[head] = value;
+        if (size < values.length) size++;
+        // Add up the block ending at the new value, starting from the most recent value
+        double sum = 0.0;
+        for (int lag = 0; lag < Math.min(blockLength, size); lag++) {
+            sum += get(lag);
+        }
+        blockSums[head] = sum;
+    }
+
+    /**
+     * Fill the whole buffer with a given value
+     */
+    public void fill(double value) {
+        for (int i = 0; i < values.length; i++) add(value);
+    }
+
+    /**
+     * Value added lag steps before the most recent one (lag 0 being the most recent value)
+     */
+    public double get(int lag) {
+        if (lag < 0 || lag >= size) throw new IndexOutOfBoundsException("Lag " + lag + " not in [0, " + size + ")");
+        return values[index(lag)];
+    }
+
+    /**
+     * Sum of the blockLength values ending lag steps before the most recent one (lag 0 being the block ending with the
+     * most recent value)
+     */
+    public double getBlockSum(int lag) {
+        if (lag < 0 || lag >= size) throw new IndexOutOfBoundsException("Lag " + lag + " not in [0, " + size + ")");
+        return blockSums[index(lag)];
+    }
+
+    /**
+     * Copy the values, block sums and position of the most recent value into a state buffer
+     */
+    public void writeState(StateBuffer state) {
+        state.putDoubles(values);
+        state.putDoubles(blockSums);
+        state.putInt(blockLength);
+        state.putInt(head);
+        state.putInt(size);
+    }
+
+    /**
+     * Replace the contents of this ring buffer by those read from a state buffer, in the order written by writeState
+     */
+    public void readState(StateBuffer state) {
+        values = state.getDoubles();
+        blockSums = state.getDoubles();
+        blockLength = state.getInt();
+        head = state.getInt();
+        size = state.getInt();
+    }
+
+    private int index(int lag) {
+        int i = head - lag;
+        return (i < 0) ? i + values.length : i;
+    }
+
+    //----- Getter/setter methods -----//
+
+    public int getLength() { return values.length; }
+
+    public int getSize() { return size; }
+}
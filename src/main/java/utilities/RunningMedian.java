@@ -0,0 +1,203 @@
+package utilities;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**************************************************************************************************
+ * Median and mean above the median of a sliding window of the most recent values added, updated
+ * online as values are added, such that both can be read without copying or sorting the window.
+ * Values are split into two sorted multisets (stored as maps from value to count), a lower half
+ * and an upper half, the lower one holding as many values as the upper one or one more. The
+ * median is then read from the boundary between both halves, and the mean above the median from
+ * a running sum of the values in the upper half. The median follows the same definition as
+ * commons-math Median, and the mean above the median is that of all values strictly above it
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class RunningMedian {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    private double []                   window;     // Values in the window, in order of addition
+    private int                         oldest;     // Position in window of the oldest value, if the window is full
+    private int                         n;          // Number of values in the window
+    private TreeMap<Double, Integer>    lower;      // Count of each value in the lower half
+    private TreeMap<Double, Integer>    upper;      // Count of each value in the upper half
+    private int                         nLower;     // Number of values in the lower half
+    private int                         nUpper;     // Number of values in the upper half
+    private double                      upperSum;   // Sum of the values in the upper half
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    /**
+     * @param windowSize Maximum number of values to keep, after which each new value replaces the oldest one
+     */
+    public RunningMedian(int windowSize) {
+        window = new double[windowSize];
+        lower = new TreeMap<>();
+        upper = new TreeMap<>();
+        clear();
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    public void clear() {
+        oldest = 0;
+        n = 0;
+        lower.clear();
+        upper.clear();
+        nLower = 0;
+        nUpper = 0;
+        upperSum = 0.0;
+    }
+
+    /**
+     * Add a new value to the window, removing the oldest value if the window is full
+     */
+    public void addValue(double value) {
+        if (n == window.length) {
+            remove(window[oldest]);
+            window[oldest] = value;
+            oldest = (oldest + 1) % window.length;
+        } else {
+            window[n++] = value;
+        }
+        if (nLower == 0 || value <= lower.lastKey()) {
+            addTo(lower, value);
+            nLower++;
+        } else {
+            addTo(upper, value);
+            nUpper++;
+            upperSum += value;
+        }
+        rebalance();
+    }
+
+    /**
+     * Remove a value from the half containing it. Note that, if the value is equal to the largest value of the lower
+     * half, then it is either in the lower half or equal to a value in the lower half, which can be removed instead
+     */
+    private void remove(double value) {
+        if (value <= lower.lastKey()) {
+            removeFrom(lower, value);
+            nLower--;
+        } else {
+            removeFrom(upper, value);
+            nUpper--;
+            upperSum -= value;
+        }
+        rebalance();
+    }
+
+    /**
+     * Move values between both halves until the lower one holds as many values as the upper one or one more
+     */
+    private void rebalance() {
+        while (nLower > nUpper + 1) {
+            double value = lower.lastKey();
+            removeFrom(lower, value);
+            nLower--;
+            addTo(upper, value);
+            nUpper++;
+            upperSum += value;
+        }
+        while (nUpper > nLower) {
+            double value = upper.firstKey();
+            removeFrom(upper, value);
+            nUpper--;
+            upperSum -= value;
+            addTo(lower, value);
+            nLower++;
+        }
+        // Reset the sum when the upper half empties, so as to prevent the accumulation of rounding errors
+        if (nUpper == 0) upperSum = 0.0;
+    }
+
+    private void addTo(TreeMap<Double, Integer> half, double value) {
+        Integer count = half.get(value);
+        half.put(value, (count == null) ? 1 : count + 1);
+    }
+
+    private void removeFrom(TreeMap<Double, Integer> half, double value) {
+        Map.Entry<Double, Integer> entry = half.floorEntry(value);
+        if (entry == null || entry.getKey() != value) {
+            System.out.println("Strange: trying to remove from RunningMedian a value which is not in the window");
+            return;
+        }
+        if (entry.getValue() == 1) {
+            half.remove(value);
+        } else {
+            half.put(value, entry.getValue() - 1);
+        }
+    }
+
+    /**
+     * Median of the values in the window, taken as the mean of the two central values if their number is even
+     */
+    public double getMedian() {
+        if (n == 0) return Double.NaN;
+        if (nLower > nUpper) return lower.lastKey();
+        double below = lower.lastKey();
+        return below + 0.5*(upper.firstKey() - below);
+    }
+
+    /**
+     * Mean of the values in the window strictly above their median. Note that all values in the lower half are equal
+     * to or lower than the median, and that values in the upper half equal to the median must be excluded
+     */
+    public double getMeanAboveMedian() {
+        double median = getMedian();
+        double sum = upperSum;
+        int count = nUpper;
+        Integer nEqualToMedian = upper.get(median);
+        if (nEqualToMedian != null) {
+            sum -= nEqualToMedian*median;
+            count -= nEqualToMedian;
+        }
+        return sum/count;
+    }
+
+    /**
+     * Copy the window into a state buffer, along with the size of each half and the sum of the upper one, which is
+     * kept exactly as accumulated instead of being added up again
+     */
+    public void writeState(StateBuffer state) {
+        state.putDoubles(window);
+        state.putInt(oldest);
+        state.putInt(n);
+        state.putInt(nLower);
+        state.putInt(nUpper);
+        state.putDouble(upperSum);
+    }
+
+    /**
+     * Replace the contents of this running median by those read from a state buffer, as written by writeState. Both
+     * halves are rebuilt from the sorted values in the window, since the lower half always holds its nLower smallest
+     * values
+     */
+    public void readState(StateBuffer state) {
+        window = state.getDoubles();
+        oldest = state.getInt();
+        n = state.getInt();
+        nLower = state.getInt();
+        nUpper = state.getInt();
+        upperSum = state.getDouble();
+        double [] sortedValues = Arrays.copyOf(window, n);
+        Arrays.sort(sortedValues);
+        lower.clear();
+        upper.clear();
+        for (int i = 0; i < n; i++) addTo((i < nLower) ? lower : upper, sortedValues[i]);
+    }
+
+    //----- Getter/setter methods -----//
+
+    public int getN() { return n; }
+}
@@ -0,0 +1,329 @@
+package utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**************************************************************************************************
+ * Growable buffer of primitive values, kept in a flat array for each type, into which the state of
+ * the model is copied field by field, and from which it is read back in the same order. Copying
+ * values into the buffer costs little more than storing them into arrays, while converting them
+ * to bytes, in order to write the buffer to a stream, is done in bulk and can thus be left to a
+ * background thread. Arrays are stored preceded by their length (-1 for null arrays), and any
+ * reference to an object is stored by the code using the buffer as an integer identifier. Buffers
+ * keep their capacity when cleared, such that they can be re-used without growing again.
+ *
+ * Stream format: number of ints, longs, doubles and bytes (as big-endian integers), followed by all
+ * values of each type, in this order
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class StateBuffer {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    private static final int    INITIAL_CAPACITY = 1 << 10;
+    private static final int    CHUNK_SIZE = 1 << 16; // Number of bytes converted at once when writing or reading
+
+    private int []              ints;
+    private long []             longs;
+    private double []           doubles;
+    private byte []             bytes; // Booleans and raw bytes
+    private int                 nInts;
+    private int                 nLongs;
+    private int                 nDoubles;
+    private int                 nBytes;
+    private int                 intPosition; // Position of the next value of each type to be read
+    private int                 longPosition;
+    private int                 doublePosition;
+    private int                 bytePosition;
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    public StateBuffer() {
+        ints = new int[INITIAL_CAPACITY];
+        longs = new long[INITIAL_CAPACITY];
+        doubles = new double[INITIAL_CAPACITY];
+        bytes = new byte[INITIAL_CAPACITY];
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Remove all values, keeping the capacity of the buffer
+     */
+    public void clear() {
+        nInts = 0;
+        nLongs = 0;
+        nDoubles = 0;
+        nBytes = 0;
+        intPosition = 0;
+        longPosition = 0;
+        doublePosition = 0;
+        bytePosition = 0;
+    }
+
+    /**
+     * Whether any value is still to be read
+     */
+    public boolean hasRemaining() {
+        return intPosition < nInts || longPosition < nLongs || doublePosition < nDoubles || bytePosition < nBytes;
+    }
+
+    //----- Methods to add values -----//
+
+    public void putInt(int value) {
+        if (nInts == ints.length) ints = Arrays.copyOf(ints, 2*ints.length);
+        ints[nInts++] = value;
+    }
+
+    public void putLong(long value) {
+        if (nLongs == longs.length) longs = Arrays.copyOf(longs, 2*longs.length);
+        longs[nLongs++] = value;
+    }
+
+    public void putDouble(double value) {
+        if (nDoubles == doubles.length) doubles = Arrays.copyOf(doubles, 2*doubles.length);
+        doubles[nDoubles++] = value;
+    }
+
+    public void putBoolean(boolean value) {
+        if (nBytes == bytes.length) bytes = Arrays.copyOf(bytes, 2*bytes.length);
+        bytes[nBytes++] = value ? (byte)1 : (byte)0;
+    }
+
+    public void putInts(int [] values) {
+        if (values == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(values.length);
+        if (nInts + values.length > ints.length) {
+            ints = Arrays.copyOf(ints, grow(ints.length, nInts + values.length));
+        }
+        System.arraycopy(values, 0, ints, nInts, values.length);
+        nInts += values.length;
+    }
+
+    public void putDoubles(double [] values) {
+        if (values == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(values.length);
+        if (nDoubles + values.length > doubles.length) {
+            doubles = Arrays.copyOf(doubles, grow(doubles.length, nDoubles + values.length));
+        }
+        System.arraycopy(values, 0, doubles, nDoubles, values.length);
+        nDoubles += values.length;
+    }
+
+    /**
+     * Add an integer to be set later on, for instance a count only known after writing the values it counts
+     *
+     * @return Position of the integer, to be passed to setInt
+     */
+    public int reserveInt() {
+        putInt(0);
+        return nInts - 1;
+    }
+
+    public void setInt(int position, int value) { ints[position] = value; }
+
+    public void putBooleans(boolean [] values) {
+        if (values == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(values.length);
+        for (boolean value : values) putBoolean(value);
+    }
+
+    public void putBytes(byte [] values) {
+        if (values == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(values.length);
+        if (nBytes + values.length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, grow(bytes.length, nBytes + values.length));
+        }
+        System.arraycopy(values, 0, bytes, nBytes, values.length);
+        nBytes += values.length;
+    }
+
+    public void putString(String value) { putBytes((value == null) ? null : value.getBytes(StandardCharsets.UTF_8)); }
+
+    /**
+     * Add an object as its Java serialization, only meant for the few small objects whose state cannot be read
+     * otherwise, such as random number generators
+     */
+    public void putObject(Object value) {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(value);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Object of " + value.getClass() + " cannot be serialized", ioe);
+        }
+        putBytes(serialized.toByteArray());
+    }
+
+    private static int grow(int capacity, int minCapacity) { return Math.max(2*capacity, minCapacity); }
+
+    //----- Methods to read values -----//
+
+    public int getInt() {
+        checkRemaining(intPosition, 1, nInts);
+        return ints[intPosition++];
+    }
+
+    public long getLong() {
+        checkRemaining(longPosition, 1, nLongs);
+        return longs[longPosition++];
+    }
+
+    public double getDouble() {
+        checkRemaining(doublePosition, 1, nDoubles);
+        return doubles[doublePosition++];
+    }
+
+    public boolean getBoolean() {
+        checkRemaining(bytePosition, 1, nBytes);
+        return bytes[bytePosition++] != 0;
+    }
+
+    public int [] getInts() {
+        int length = getInt();
+        if (length < 0) return null;
+        checkRemaining(intPosition, length, nInts);
+        int [] values = Arrays.copyOfRange(ints, intPosition, intPosition + length);
+        intPosition += length;
+        return values;
+    }
+
+    public double [] getDoubles() {
+        int length = getInt();
+        if (length < 0) return null;
+        checkRemaining(doublePosition, length, nDoubles);
+        double [] values = Arrays.copyOfRange(doubles, doublePosition, doublePosition + length);
+        doublePosition += length;
+        return values;
+    }
+
+    public boolean [] getBooleans() {
+        int length = getInt();
+        if (length < 0) return null;
+        checkRemaining(bytePosition, length, nBytes);
+        boolean [] values = new boolean[length];
+        for (int i = 0; i < length; i++) values[i] = bytes[bytePosition++] != 0;
+        return values;
+    }
+
+    public byte [] getBytes() {
+        int length = getInt();
+        if (length < 0) return null;
+        checkRemaining(bytePosition, length, nBytes);
+        byte [] values = Arrays.copyOfRange(bytes, bytePosition, bytePosition + length);
+        bytePosition += length;
+        return values;
+    }
+
+    public String getString() {
+        byte [] value = getBytes();
+        return (value == null) ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read an object added with putObject
+     */
+    public Object getObject() {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(getBytes()))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("State buffer holds an object which cannot be deserialized", e);
+        }
+    }
+
+    private static void checkRemaining(int position, int count, int size) {
+        if (count > size - position) throw new IllegalStateException("State buffer read beyond its last value");
+    }
+
+    //----- Methods to write and read the buffer -----//
+
+    /**
+     * Write all values in the buffer to a stream
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(nInts);
+        out.writeInt(nLongs);
+        out.writeInt(nDoubles);
+        out.writeInt(nBytes);
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        for (int i = 0; i < nInts; i += CHUNK_SIZE/4) {
+            int n = Math.min(CHUNK_SIZE/4, nInts - i);
+            chunk.asIntBuffer().put(ints, i, n);
+            out.write(chunk.array(), 0, 4*n);
+        }
+        for (int i = 0; i < nLongs; i += CHUNK_SIZE/8) {
+            int n = Math.min(CHUNK_SIZE/8, nLongs - i);
+            chunk.asLongBuffer().put(longs, i, n);
+            out.write(chunk.array(), 0, 8*n);
+        }
+        for (int i = 0; i < nDoubles; i += CHUNK_SIZE/8) {
+            int n = Math.min(CHUNK_SIZE/8, nDoubles - i);
+            chunk.asDoubleBuffer().put(doubles, i, n);
+            out.write(chunk.array(), 0, 8*n);
+        }
+        out.write(bytes, 0, nBytes);
+    }
+
+    /**
+     * Read a buffer written with writeTo from a stream, ready to read its values from the first one
+     */
+    public static StateBuffer readFrom(DataInputStream in) throws IOException {
+        StateBuffer state = new StateBuffer();
+        state.nInts = in.readInt();
+        state.nLongs = in.readInt();
+        state.nDoubles = in.readInt();
+        state.nBytes = in.readInt();
+        if (state.nInts < 0 || state.nLongs < 0 || state.nDoubles < 0 || state.nBytes < 0) {
+            throw new IOException("Negative number of values in state buffer");
+        }
+        state.ints = new int[state.nInts];
+        state.longs = new long[state.nLongs];
+        state.doubles = new double[state.nDoubles];
+        state.bytes = new byte[state.nBytes];
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        for (int i = 0; i < state.nInts; i += CHUNK_SIZE/4) {
+            int n = Math.min(CHUNK_SIZE/4, state.nInts - i);
+            in.readFully(chunk.array(), 0, 4*n);
+            chunk.asIntBuffer().get(state.ints, i, n);
+        }
+        for (int i = 0; i < state.nLongs; i += CHUNK_SIZE/8) {
+            int n = Math.min(CHUNK_SIZE/8, state.nLongs - i);
+            in.readFully(chunk.array(), 0, 8*n);
+            chunk.asLongBuffer().get(state.longs, i, n);
+        }
+        for (int i = 0; i < state.nDoubles; i += CHUNK_SIZE/8) {
+            int n = Math.min(CHUNK_SIZE/8, state.nDoubles - i);
+            in.readFully(chunk.array(), 0, 8*n);
+            chunk.asDoubleBuffer().get(state.doubles, i, n);
+        }
+        in.readFully(state.bytes);
+        return state;
+    }
+}
@@ -0,0 +1,146 @@
+package utilities;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**************************************************************************************************
+ * Class to write UTF-8 text output files, either plain or gzip-compressed. Compressed files get the
+ * extension .gz appended to their name, and are written through block buffers both before and
+ * after compression, with the fastest deflate level, such that compression costs less than the
+ * disk I/O it saves. Note that files must be closed for the gzip trailer to be written. Files can
+ * also be synced, that is, have all text written so far flushed to disk as complete gzip members
+ * (if compressed), such that they can later be truncated at their length at that point and opened
+ * again in append mode, with any further text written as new gzip members of the same file
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class TextOutputFile extends PrintWriter {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    private static final int BUFFER_SIZE = 1 << 16; // Bytes buffered before and after compression
+
+    private String                  fileName;
+    private GzipMembersOutputStream gzipStream; // Null if not compressed
+
+    //------------------------//
+    //----- Constructors -----//
+    //------------------------//
+
+    private TextOutputFile(String fileName, Writer writer, GzipMembersOutputStream gzipStream) {
+        super(writer);
+        this.fileName = fileName;
+        this.gzipStream = gzipStream;
+    }
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    /**
+     * Open a text file for writing
+     *
+     * @param fileName Address of the file, to which .gz is appended if compressed
+     * @param compress True to gzip-compress the file
+     */
+    public static TextOutputFile open(String fileName, boolean compress) throws IOException {
+        return open(fileName, compress, false);
+    }
+
+    /**
+     * Open a text file for writing, either from its start or appending to its current content
+     *
+     * @param fileName Address of the file, to which .gz is appended if compressed
+     * @param compress True to gzip-compress the file
+     * @param append True to append to the file, if it exists
+     */
+    public static TextOutputFile open(String fileName, boolean compress, boolean append) throws IOException {
+        if (!compress) {
+            return new TextOutputFile(fileName, new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(fileName, append), StandardCharsets.UTF_8)), null);
+        }
+        GzipMembersOutputStream gzipStream = new GzipMembersOutputStream(new FileOutputStream(fileName + ".gz",
+                append));
+        return new TextOutputFile(fileName + ".gz", new BufferedWriter(new OutputStreamWriter(gzipStream,
+                StandardCharsets.UTF_8), BUFFER_SIZE), gzipStream);
+    }
+
+    /**
+     * Flush all text written so far to the file, completing the current gzip member if compressed
+     */
+    public void sync() throws IOException {
+        flush();
+        if (checkError()) throw new IOException("Error writing to " + fileName);
+        if (gzipStream != null) gzipStream.endMember();
+    }
+
+    /**
+     * Stream writing gzip members one after the other to a file, a new member being started with the first bytes
+     * written after the previous one has been ended
+     */
+    private static class GzipMembersOutputStream extends OutputStream {
+        private FileOutputStream    file;
+        private Member              member; // Current member, null if ended and no byte written since
+
+        private GzipMembersOutputStream(FileOutputStream file) throws IOException {
+            this.file = file;
+            member = new Member(file);
+        }
+
+        @Override
+        public void write(int b) throws IOException { getMember().write(b); }
+
+        @Override
+        public void write(byte [] b, int off, int len) throws IOException { getMember().write(b, off, len); }
+
+        @Override
+        public void flush() throws IOException { if (member != null) member.flush(); }
+
+        @Override
+        public void close() throws IOException {
+            endMember();
+            file.close();
+        }
+
+        private Member getMember() throws IOException {
+            if (member == null) member = new Member(file);
+            return member;
+        }
+
+        private void endMember() throws IOException {
+            if (member == null) return;
+            member.finishMember();
+            member = null;
+            file.flush();
+        }
+    }
+
+    /**
+     * Single gzip member, with the fastest deflate level
+     */
+    private static class Member extends GZIPOutputStream {
+        private Member(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+
+        /**
+         * Write the trailer of the member and release its deflater, without closing the underlying stream
+         */
+        private void finishMember() throws IOException {
+            finish();
+            def.end();
+        }
+    }
+}
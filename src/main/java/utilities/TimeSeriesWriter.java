@@ -0,0 +1,24 @@
+package utilities;
+
+/**************************************************************************************************
+ * Interface for writers of tabular time series output, with one row per time step and a fixed
+ * sequence of typed (integer or double) columns. Values are added to the current row one at a
+ * time, in column order, and the row is completed with endRow. Writers can be synced, that is,
+ * have all complete rows written to file, such that the file can later be truncated at its length
+ * at that point and appended to by a new writer opened in append mode
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public interface TimeSeriesWriter {
+
+    void add(int value);
+
+    void add(double value);
+
+    void endRow();
+
+    void sync();
+
+    void close();
+}
@@ -0,0 +1,166 @@
+package utilities;
+
+import org.apache.commons.math3.random.MersenneTwister;
+
+/**************************************************************************************************
+ * Stand-alone benchmark comparing, for a synthetic histogram similar in size to the income and
+ * wealth data, the previous Pdf implementation (numerical integration of the density over a fixed
+ * number of steps to tabulate the inverse CDF, and sampling by inverse transform on that table)
+ * with the current one (exact histogram inverse CDF, tabulated for fast queries, and alias-method
+ * sampling). For each inverse CDF resolution, it reports construction cost, query cost and maximum
+ * absolute error against the exact inverse CDF of both implementations, followed by the cost of
+ * exact inverse CDF and alias sampler queries. Resolutions (numbers of inverse CDF samples) can be
+ * given as arguments, run with "mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=utilities.PdfBenchmark -Dexec.args="10 100 1000""
+ *
+ * @author Adrian Carro
+ *
+ *************************************************************************************************/
+public class PdfBenchmark {
+
+    //------------------//
+    //----- Fields -----//
+    //------------------//
+
+    private static final int    N_BINS = 50;                // Number of bins of the synthetic histogram
+    private static final int    N_CONSTRUCTIONS = 10000;    // Number of Pdf objects built per resolution
+    private static final int    N_QUERIES = 10000000;       // Number of queries per method
+    private static final int    N_ERROR_POINTS = 100000;    // Number of equi-spaced probabilities to measure errors
+    private static final int    LEGACY_INTEGRATION_STEPS = 2048; // Integration steps of the previous implementation
+    private static final int [] DEFAULT_RESOLUTIONS = {10, 100, 1000, 10000}; // Numbers of inverse CDF samples
+
+    //-------------------//
+    //----- Methods -----//
+    //-------------------//
+
+    public static void main(String[] args) {
+        int [] resolutions = DEFAULT_RESOLUTIONS;
+        if (args.length > 0) {
+            resolutions = new int[args.length];
+            for (int i = 0; i < args.length; i++) resolutions[i] = Integer.parseInt(args[i]);
+        }
+        BinnedDataDouble data = syntheticHistogram();
+        MersenneTwister rand = new MersenneTwister(1);
+        double sink = 0.0; // Accumulates results to prevent the JIT from removing the timed loops
+        long t0;
+
+        System.out.println("nSamples, old construction (us/pdf), new construction (us/pdf), old query (ns), "
+                + "new query (ns), old max abs error, new max abs error");
+        for (int nSamples : resolutions) {
+            t0 = System.nanoTime();
+            LegacyPdf legacyPdf = null;
+            for (int i = 0; i < N_CONSTRUCTIONS; i++) legacyPdf = new LegacyPdf(data, nSamples);
+            double legacyConstructionTime = (System.nanoTime() - t0)/1000.0/N_CONSTRUCTIONS;
+            t0 = System.nanoTime();
+            Pdf pdf = null;
+            for (int i = 0; i < N_CONSTRUCTIONS; i++) pdf = new Pdf(data, nSamples);
+            double constructionTime = (System.nanoTime() - t0)/1000.0/N_CONSTRUCTIONS;
+            t0 = System.nanoTime();
+            for (int i = 0; i < N_QUERIES; i++) sink += legacyPdf.inverseCumulativeProbability(rand.nextDouble());
+            double legacyQueryTime = (double)(System.nanoTime() - t0)/N_QUERIES;
+            t0 = System.nanoTime();
+            for (int i = 0; i < N_QUERIES; i++) sink += pdf.inverseCumulativeProbability(rand.nextDouble());
+            double queryTime = (double)(System.nanoTime() - t0)/N_QUERIES;
+            double legacyMaxError = 0.0;
+            double maxError = 0.0;
+            for (int i = 0; i < N_ERROR_POINTS; i++) {
+                double p = (double)i/N_ERROR_POINTS;
+                double exact = pdf.exactInverseCumulativeProbability(p);
+                legacyMaxError = Math.max(legacyMaxError, Math.abs(legacyPdf.inverseCumulativeProbability(p) - exact));
+                maxError = Math.max(maxError, Math.abs(pdf.inverseCumulativeProbability(p) - exact));
+            }
+            System.out.println(nSamples + ", " + legacyConstructionTime + ", " + constructionTime + ", "
+                    + legacyQueryTime + ", " + queryTime + ", " + legacyMaxError + ", " + maxError);
+        }
+
+        Pdf pdf = new Pdf(data);
+        LegacyPdf legacyPdf = new LegacyPdf(data, Pdf.DEFAULT_CDF_SAMPLES);
+        t0 = System.nanoTime();
+        for (int i = 0; i < N_QUERIES; i++) sink += pdf.exactInverseCumulativeProbability(rand.nextDouble());
+        System.out.println("Exact inverse CDF query (ns): " + (double)(System.nanoTime() - t0)/N_QUERIES);
+        t0 = System.nanoTime();
+        for (int i = 0; i < N_QUERIES; i++) sink += legacyPdf.nextDouble(rand);
+        System.out.println("Old inverse transform sampler query (ns): " + (double)(System.nanoTime() - t0)/N_QUERIES);
+        t0 = System.nanoTime();
+        for (int i = 0; i < N_QUERIES; i++) sink += pdf.nextDouble(rand);
+        System.out.println("Alias sampler query (ns): " + (double)(System.nanoTime() - t0)/N_QUERIES);
+        t0 = System.nanoTime();
+        for (int i = 0; i < N_QUERIES; i++) sink += rand.nextDouble();
+        System.out.println("Uniform random number alone (ns): " + (double)(System.nanoTime() - t0)/N_QUERIES);
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    /**
+     * Build a normalised, log-normal shaped histogram with N_BINS bins, including some empty bins at both ends
+     */
+    private static BinnedDataDouble syntheticHistogram() {
+        double [] probabilities = new double[N_BINS];
+        double total = 0.0;
+        for (int i = 3; i < N_BINS - 3; i++) {
+            double x = (i - N_BINS/2.0)/8.0;
+            probabilities[i] = Math.exp(-x*x/2.0);
+            total += probabilities[i];
+        }
+        BinnedDataDouble data = new BinnedDataDouble(8.0, 0.1);
+        for (double probability : probabilities) data.add(probability/total);
+        return data;
+    }
+
+    /**
+     * Previous Pdf implementation, which integrated the density of the histogram numerically, over a fixed number of
+     * steps, to tabulate its inverse CDF, and sampled by inverse transform on that table
+     */
+    private static class LegacyPdf {
+        private BinnedDataDouble    data;
+        private double              start;
+        private double              end;
+        private double []           inverseCDF;
+        private int                 nSamples;
+
+        private LegacyPdf(BinnedDataDouble data, int nSamples) {
+            this.data = data;
+            this.nSamples = nSamples;
+            start = data.getSupportLowerBound();
+            end = data.getSupportUpperBound();
+            initInverseCDF();
+        }
+
+        private double density(double x) {
+            if (x < start || x >= end) return 0.0;
+            return data.getBinAt(x)/data.getBinWidth();
+        }
+
+        private double inverseCumulativeProbability(double p) {
+            int i = (int)(p*(nSamples - 1));
+            double remainder = p*(nSamples - 1) - i;
+            return (1.0 - remainder)*inverseCDF[i] + remainder*inverseCDF[i + 1];
+        }
+
+        private double nextDouble(MersenneTwister rand) { return inverseCumulativeProbability(rand.nextDouble()); }
+
+        private void initInverseCDF() {
+            inverseCDF = new double[nSamples];
+            double dx = (end - start)/LEGACY_INTEGRATION_STEPS;
+            double x = start + dx/2.0;
+            double cp = 0.0;
+            double dcp_dx = 0.0;
+            inverseCDF[0] = start;
+            inverseCDF[nSamples - 1] = end;
+            for (int i = 1; i < (nSamples - 1); ++i) {
+                double targetcp = i/(nSamples - 1.0);
+                while (cp < targetcp && x < end) {
+                    dcp_dx = density(x);
+                    cp += dcp_dx*dx;
+                    x += dx;
+                }
+                if (x < end) {
+                    x += (targetcp - cp)/dcp_dx;
+                    cp = targetcp;
+                } else {
+                    x = end;
+                }
+                inverseCDF[i] = x;
+            }
+        }
+    }
+}